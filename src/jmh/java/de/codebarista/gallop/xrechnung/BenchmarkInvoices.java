@@ -0,0 +1,73 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemAttribute;
+import de.codebarista.gallop.xrechnung.model.ItemTable;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Invoices that are rendered by the benchmarks.
+ */
+final class BenchmarkInvoices {
+    private static final TestHelper TEST_HELPER = new TestHelper("invoice");
+
+    private BenchmarkInvoices() {
+    }
+
+    /**
+     * Loads one of the scenarios in {@code src/test/resources/invoice}.
+     *
+     * @param scenario the name of the scenario directory, e.g. {@code order_with_paypal}
+     * @return the invoice of the scenario
+     */
+    static Invoice scenario(String scenario) {
+        return TEST_HELPER.deserialize(scenario + "/invoice.json", Invoice.class);
+    }
+
+    /**
+     * Creates an invoice with the header of the {@code order_with_paypal} scenario and the given number of lines.
+     * Every line has a distinct id, name, seller id, amounts and one item attribute.
+     *
+     * @param lines the number of invoice lines
+     * @return the synthetic invoice
+     */
+    static Invoice synthetic(int lines) {
+        Invoice invoice = scenario("order_with_paypal");
+        Item template = invoice.getItems().get(0);
+        List<Item> items = new ArrayList<>(lines);
+        for (long id = 1; id <= lines; id++) {
+            items.add(Item.create()
+                    .id(id)
+                    .name(template.getName() + " " + id)
+                    .description(template.getDescription())
+                    .sellerAssignedId("SKU-" + id)
+                    .quantity(id % 10 + 1)
+                    .unitCode(template.getUnitCode())
+                    .unitPrice(BigDecimal.valueOf(id * 7 % 10_000 + 99, 2))
+                    .itemTotalNetAmount(BigDecimal.valueOf((id * 7 % 10_000 + 99) * (id % 10 + 1), 2))
+                    .vat(template.getVat())
+                    .addItemAttribute(ItemAttribute.create().name("Farbe").value(id % 2 == 0 ? "Blau" : "Grün")));
+        }
+        return invoice.items(items);
+    }
+
+    /**
+     * Creates the {@link #synthetic(int) synthetic} invoice with its lines in an {@link ItemTable} instead of
+     * a list of items. The item attributes are dropped, because a table cannot hold them.
+     *
+     * @param lines the number of invoice lines
+     * @return the synthetic invoice
+     */
+    static Invoice syntheticTable(int lines) {
+        Invoice invoice = synthetic(lines);
+        ItemTable table = ItemTable.create(2);
+        invoice.getItems().forEach(table::addLine);
+        invoice.clearItems();
+        return invoice.itemTable(table);
+    }
+}
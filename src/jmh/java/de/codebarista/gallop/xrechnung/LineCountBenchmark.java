@@ -0,0 +1,96 @@
+package de.codebarista.gallop.xrechnung;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how {@link XRechnungWriter#getXML()} scales with the number of invoice lines.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class LineCountBenchmark {
+    @Param({"1", "100", "10000", "100000"})
+    public int lines;
+
+    @Param({"DOM", "STAX", "DIRECT"})
+    public XmlBackend backend;
+
+    private XRechnungWriter writer;
+    private XRechnungWriter parallelWriter;
+    private XRechnungWriter tableWriter;
+    private MessageDigest sha256;
+
+    @Setup
+    public void setUp() throws NoSuchAlgorithmException {
+        sha256 = MessageDigest.getInstance("SHA-256");
+        writer = new XRechnungWriter(BenchmarkInvoices.synthetic(lines), backend);
+        parallelWriter = new XRechnungWriter(BenchmarkInvoices.synthetic(lines), backend).parallelLineItems(1024);
+        tableWriter = new XRechnungWriter(BenchmarkInvoices.syntheticTable(lines), backend);
+    }
+
+    @Benchmark
+    public byte[] getXML() throws ParserConfigurationException, TransformerException {
+        return writer.getXML();
+    }
+
+    /**
+     * Renders the line items in chunks of 1024 on the common pool. Only the direct backend renders in parallel.
+     */
+    @Benchmark
+    public byte[] getXMLParallelLineItems() throws ParserConfigurationException, TransformerException {
+        return parallelWriter.getXML();
+    }
+
+    /**
+     * Renders the lines from an {@link de.codebarista.gallop.xrechnung.model.ItemTable}. The lines have no item
+     * attributes, so the documents are smaller than the ones of {@link #getXML()}.
+     */
+    @Benchmark
+    public byte[] getXMLItemTable() throws ParserConfigurationException, TransformerException {
+        return tableWriter.getXML();
+    }
+
+    /**
+     * Computes the size of the document without rendering it. Independent of the backend.
+     */
+    @Benchmark
+    public long computeSize() {
+        return writer.computeSize();
+    }
+
+    /**
+     * Renders the document and computes its SHA-256 digest while writing it.
+     */
+    @Benchmark
+    public DigestedXml getDigestedXML() throws ParserConfigurationException, TransformerException {
+        return writer.getDigestedXML(sha256);
+    }
+
+    /**
+     * Renders the document and computes its SHA-256 digest in a second pass, for comparison with
+     * {@link #getDigestedXML()}.
+     */
+    @Benchmark
+    public byte[] getXMLThenDigest() throws ParserConfigurationException, TransformerException {
+        return sha256.digest(writer.getXML());
+    }
+}
@@ -0,0 +1,56 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link XRechnungWriter#getXML()} of the direct backend with and without a {@link ProductFragmentCache}
+ * for an invoice with 1000 lines of 100 recurring products with long German names and descriptions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProductCacheBenchmark {
+    private static final String TEXT = "Hochwertiges Baumwollhemd für Größe M & L, waschbar bei 40 °C. ";
+
+    private XRechnungWriter writer;
+    private XRechnungWriter cachedWriter;
+
+    @Setup
+    public void setUp() {
+        Invoice invoice = BenchmarkInvoices.synthetic(1000);
+        for (Item item : invoice.getItems()) {
+            long product = item.getId() % 100;
+            item.sellerAssignedId("SKU-" + product).name(TEXT.substring(0, 30) + product).description(TEXT.repeat(3));
+        }
+        writer = new XRechnungWriter(invoice);
+        cachedWriter = new XRechnungWriter(invoice).productCache(new ProductFragmentCache(1000));
+    }
+
+    @Benchmark
+    public byte[] getXML() throws ParserConfigurationException, TransformerException {
+        return writer.getXML();
+    }
+
+    @Benchmark
+    public byte[] getXMLWithProductCache() throws ParserConfigurationException, TransformerException {
+        return cachedWriter.getXML();
+    }
+}
@@ -0,0 +1,97 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Document;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures reading an XRechnung with the {@link XRechnungReader} compared to parsing it into a DOM,
+ * which is the first step of reading it with XPath, and reading it lazily from a memory-mapped file. The
+ * extraction of the routing fields shows the cost of triaging a document without reading it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReaderBenchmark {
+    @Param({"10", "1000"})
+    public int lines;
+
+    private byte[] xml;
+    private DocumentBuilder documentBuilder;
+    private XRechnungReader reader;
+    private HeaderFieldExtractor extractor;
+    private Path file;
+
+    @Setup
+    public void setUp() throws ParserConfigurationException, IOException {
+        xml = XRechnungWriter.generateXRechnungXML(BenchmarkInvoices.synthetic(lines));
+        file = Files.write(Files.createTempFile("invoice", ".xml"), xml);
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        documentBuilder = factory.newDocumentBuilder();
+        reader = new XRechnungReader();
+        extractor = new HeaderFieldExtractor(EnumSet.allOf(HeaderField.class));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(file);
+    }
+
+    @Benchmark
+    public Document parseDom() throws IOException, SAXException {
+        return documentBuilder.parse(new ByteArrayInputStream(xml));
+    }
+
+    @Benchmark
+    public Invoice read() {
+        return reader.read(xml);
+    }
+
+    @Benchmark
+    public Map<HeaderField, String> extractHeaderFields() {
+        return extractor.extract(xml);
+    }
+
+    @Benchmark
+    public Invoice readLazily() throws IOException {
+        return reader.readLazily(file).getInvoice();
+    }
+
+    @Benchmark
+    public long readLazilyAndIterate() throws IOException {
+        long quantity = 0;
+        for (Iterator<Item> items = reader.readLazily(file).lineItems(); items.hasNext(); ) {
+            quantity += items.next().getQuantity();
+        }
+        return quantity;
+    }
+}
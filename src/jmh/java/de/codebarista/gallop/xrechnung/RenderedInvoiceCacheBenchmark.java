@@ -0,0 +1,65 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures repeated downloads of the same invoice: rendering it every time compared to a
+ * {@link RenderedInvoiceCache} hit, which walks a mutable invoice to compute its fingerprint but keeps the
+ * fingerprint of a frozen one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RenderedInvoiceCacheBenchmark {
+    @Param({"10", "1000"})
+    public int lines;
+
+    private Invoice invoice;
+    private Invoice snapshot;
+    private RenderedInvoiceCache cache;
+
+    @Setup
+    public void setUp() {
+        invoice = BenchmarkInvoices.synthetic(lines);
+        cache = new RenderedInvoiceCache(64 << 20);
+        snapshot = invoice.freeze();
+        cache.render(invoice);
+    }
+
+    @Benchmark
+    public byte[] render() {
+        return XRechnungEngine.getDefault().render(invoice);
+    }
+
+    @Benchmark
+    public byte[] cached() {
+        return cache.render(invoice);
+    }
+
+    @Benchmark
+    public ByteBuffer cachedView() {
+        return cache.view(invoice);
+    }
+
+    @Benchmark
+    public ByteBuffer cachedSnapshotView() {
+        return cache.view(snapshot);
+    }
+}
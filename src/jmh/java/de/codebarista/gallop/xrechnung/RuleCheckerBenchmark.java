@@ -0,0 +1,50 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the {@link InvoiceRuleChecker} on invoices with a list of items and with an item table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RuleCheckerBenchmark {
+    @Param({"10", "1000"})
+    public int lines;
+
+    private Invoice invoice;
+    private Invoice tableInvoice;
+
+    @Setup
+    public void setUp() {
+        invoice = BenchmarkInvoices.synthetic(lines);
+        tableInvoice = BenchmarkInvoices.syntheticTable(lines);
+    }
+
+    @Benchmark
+    public List<InvoiceRuleChecker.Violation> check() {
+        return InvoiceRuleChecker.getDefault().check(invoice);
+    }
+
+    @Benchmark
+    public List<InvoiceRuleChecker.Violation> checkItemTable() {
+        return InvoiceRuleChecker.getDefault().check(tableInvoice);
+    }
+}
@@ -0,0 +1,64 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link XRechnungWriter#getXML()} for the scenarios of the golden-file tests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScenarioBenchmark {
+    @Param({
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_cash_payment",
+            "order_with_credit_and_surcharge",
+            "order_with_custom_line_item_type",
+            "order_with_customer_vatid",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_discount_code_and_shipping_costs_with_multiple_taxes",
+            "order_with_payment_in_advance",
+            "order_with_paypal",
+            "order_with_paypal_credit_card",
+            "order_with_paypal_direct_debit",
+            "order_with_paypal_invoice",
+            "order_with_shipping_costs_with_multiple_taxes",
+            "order_with_tax_free_product"
+    })
+    public String scenario;
+
+    @Param({"DOM", "STAX", "DIRECT"})
+    public XmlBackend backend;
+
+    private XRechnungWriter writer;
+
+    @Setup
+    public void setUp() {
+        Invoice invoice = BenchmarkInvoices.scenario(scenario);
+        writer = new XRechnungWriter(invoice, backend);
+    }
+
+    @Benchmark
+    public byte[] getXML() throws ParserConfigurationException, TransformerException {
+        return writer.getXML();
+    }
+}
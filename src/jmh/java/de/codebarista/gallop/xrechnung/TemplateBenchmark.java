@@ -0,0 +1,54 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link XRechnungWriter#getXML()} of the direct backend with and without an {@link InvoiceTemplate}
+ * of the seller and the payment instructions of the scenario.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TemplateBenchmark {
+    @Param({"order_with_paypal", "order_with_paypal_direct_debit", "order_with_payment_in_advance"})
+    public String scenario;
+
+    private XRechnungWriter writer;
+    private XRechnungWriter templateWriter;
+
+    @Setup
+    public void setUp() {
+        Invoice invoice = BenchmarkInvoices.scenario(scenario);
+        InvoiceTemplate template = InvoiceTemplate.compile(invoice.getSeller(), invoice.getPaymentInstructions());
+        writer = new XRechnungWriter(invoice);
+        templateWriter = new XRechnungWriter(invoice.seller(template.getSeller())).template(template);
+    }
+
+    @Benchmark
+    public byte[] getXML() throws ParserConfigurationException, TransformerException {
+        return writer.getXML();
+    }
+
+    @Benchmark
+    public byte[] getXMLWithTemplate() throws ParserConfigurationException, TransformerException {
+        return templateWriter.getXML();
+    }
+}
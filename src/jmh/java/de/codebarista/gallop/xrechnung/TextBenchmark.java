@@ -0,0 +1,89 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.InvoiceNote;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemAttribute;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the text escaping with invoices that consist mostly of free text.
+ * <p>
+ * {@code order_with_belgian_tax_rates_and_document_comment} is the scenario with the most text,
+ * {@code ascii} and {@code umlauts} are synthetic invoices with 1000 lines of long names, descriptions and
+ * attributes that are plain ASCII or contain German umlauts and markup characters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TextBenchmark {
+    private static final String ASCII_TEXT = "Premium quality cotton shirt with long sleeves, machine washable "
+            + "at 40 degrees. Made in Portugal from certified organic material. ";
+    private static final String UMLAUT_TEXT = "Hochwertiges Baumwollhemd für Größe M & L, waschbar bei 40 °C. "
+            + "Hergestellt in Österreich aus zertifiziertem <Bio>-Material. ";
+
+    @Param({"order_with_belgian_tax_rates_and_document_comment", "ascii", "umlauts"})
+    public String fixture;
+
+    @Param({"DOM", "DIRECT"})
+    public XmlBackend backend;
+
+    private XRechnungWriter writer;
+
+    @Setup
+    public void setUp() {
+        Invoice invoice;
+        if (fixture.equals("ascii")) {
+            invoice = textInvoice(ASCII_TEXT);
+        } else if (fixture.equals("umlauts")) {
+            invoice = textInvoice(UMLAUT_TEXT);
+        } else {
+            invoice = BenchmarkInvoices.scenario(fixture);
+        }
+        writer = new XRechnungWriter(invoice, backend);
+    }
+
+    @Benchmark
+    public byte[] getXML() throws ParserConfigurationException, TransformerException {
+        return writer.getXML();
+    }
+
+    /**
+     * Streams the document to a stream that discards it, so that the result is not distorted by the
+     * allocation of the output buffer.
+     */
+    @Benchmark
+    public void writeTo() throws IOException, ParserConfigurationException, TransformerException {
+        writer.writeTo(OutputStream.nullOutputStream());
+    }
+
+    private static Invoice textInvoice(String text) {
+        Invoice invoice = BenchmarkInvoices.synthetic(1000);
+        invoice.addInvoiceNote(InvoiceNote.create().note(text.repeat(20)));
+        for (Item item : invoice.getItems()) {
+            item.name(text.substring(0, 40) + item.getId())
+                    .description(text.repeat(3))
+                    .addItemAttribute(ItemAttribute.create().name("Material").value(text.substring(40)));
+        }
+        return invoice;
+    }
+}
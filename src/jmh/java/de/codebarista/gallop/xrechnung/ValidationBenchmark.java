@@ -0,0 +1,68 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xml.sax.SAXParseException;
+
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the schema validation of an XRechnung straight from the writer, of its serialized bytes and, for
+ * comparison, with a schema that is compiled for every document.
+ * <p>
+ * The benchmark uses the CII D16B schema at {@link InvoiceSchemaValidator#DEFAULT_SCHEMA_RESOURCE} if it is on
+ * the class path and the stand-in schema of the tests otherwise.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidationBenchmark {
+    @Param({"10", "1000"})
+    public int lines;
+
+    private URL schemaLocation;
+    private InvoiceSchemaValidator validator;
+    private Invoice invoice;
+    private byte[] xml;
+
+    @Setup
+    public void setUp() {
+        schemaLocation = InvoiceSchemaValidator.class.getResource(InvoiceSchemaValidator.DEFAULT_SCHEMA_RESOURCE);
+        if (schemaLocation == null) {
+            schemaLocation = ValidationBenchmark.class.getResource("/schema/CrossIndustryInvoice_Structure.xsd");
+        }
+        validator = new InvoiceSchemaValidator(schemaLocation);
+        invoice = BenchmarkInvoices.synthetic(lines);
+        xml = XRechnungWriter.generateXRechnungXML(invoice);
+    }
+
+    @Benchmark
+    public List<SAXParseException> validateInvoice() {
+        return validator.validate(invoice);
+    }
+
+    @Benchmark
+    public List<SAXParseException> validateBytes() {
+        return validator.validate(xml);
+    }
+
+    @Benchmark
+    public List<SAXParseException> compileSchemaAndValidateBytes() {
+        return new InvoiceSchemaValidator(schemaLocation).validate(xml);
+    }
+}
@@ -0,0 +1,136 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+
+/**
+ * Renders many invoices in parallel on a caller-supplied {@link Executor}.
+ * <p>
+ * The invoices are rendered with an {@link XRechnungEngine}, so every worker thread reuses its own
+ * factories and buffers. At most {@code maxInFlight} invoices are submitted to the executor at a time,
+ * the iteration of the invoices waits until a worker is done. Lazily loaded invoices are therefore not read
+ * faster than they can be rendered. An invoice that fails with an exception is recorded in the
+ * {@link BatchResult} and does not abort the batch:
+ * <pre>{@code
+ * ExecutorService executor = Executors.newFixedThreadPool(8);
+ * var renderer = new BatchRenderer(executor, 64);
+ * BatchResult result = renderer.renderAll(invoices, (invoice, xml) -> store(invoice.getDocumentId(), xml));
+ * }</pre>
+ * A {@link java.util.stream.Stream} of invoices can be passed as {@code stream::iterator}.
+ * <p>
+ * An {@link Error} such as an {@link OutOfMemoryError} is not recorded: it stops the batch and is rethrown by
+ * {@link #renderAll(Iterable, BiConsumer)} once the invoices in flight are done, and it is also thrown on the
+ * worker thread. The same holds for an exception thrown while iterating the invoices. In both cases the
+ * invoices that have been submitted but not started are skipped.
+ * <p>
+ * The renderer does not manage the lifecycle of the executor. It is thread-safe.
+ */
+public class BatchRenderer {
+    private final XRechnungEngine engine;
+    private final Executor executor;
+    private final int maxInFlight;
+
+    /**
+     * Constructs a new {@code BatchRenderer} that uses the {@link XRechnungEngine#getDefault() default engine}.
+     *
+     * @param executor    the executor that renders the invoices, must not be {@code null}
+     * @param maxInFlight the maximum number of invoices that are submitted but not yet finished, at least 1
+     */
+    public BatchRenderer(Executor executor, int maxInFlight) {
+        this(XRechnungEngine.getDefault(), executor, maxInFlight);
+    }
+
+    /**
+     * Constructs a new {@code BatchRenderer} with the given engine.
+     *
+     * @param engine      the engine that renders the invoices, must not be {@code null}
+     * @param executor    the executor that renders the invoices, must not be {@code null}
+     * @param maxInFlight the maximum number of invoices that are submitted but not yet finished, at least 1
+     */
+    public BatchRenderer(XRechnungEngine engine, Executor executor, int maxInFlight) {
+        Objects.requireNonNull(engine, "Engine must not be null");
+        Objects.requireNonNull(executor, "Executor must not be null");
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, but was " + maxInFlight);
+        }
+        this.engine = engine;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Renders all invoices and passes each XML document to the sink.
+     * <p>
+     * The sink is called on the worker threads, possibly concurrently, so it must be thread-safe.
+     * The method returns when all invoices have been rendered.
+     * </p>
+     *
+     * @param invoices the invoices to render, must not be {@code null}
+     * @param sink     receives every invoice together with its XML document, must not be {@code null}
+     * @return the number of rendered invoices and the failed ones
+     * @throws InterruptedException if the current thread is interrupted while waiting for the workers.
+     *                              Invoices that have already been submitted continue to be rendered.
+     * @throws Error                if rendering an invoice or the sink threw an error, after the invoices in
+     *                              flight are done
+     */
+    public BatchResult renderAll(Iterable<Invoice> invoices, BiConsumer<Invoice, byte[]> sink)
+            throws InterruptedException {
+        Objects.requireNonNull(invoices, "Invoices must not be null");
+        Objects.requireNonNull(sink, "Sink must not be null");
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        AtomicInteger rendered = new AtomicInteger();
+        Queue<BatchResult.Failure> failures = new ConcurrentLinkedQueue<>();
+        AtomicReference<Error> error = new AtomicReference<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        try {
+            for (Invoice invoice : invoices) {
+                inFlight.acquire();
+                if (error.get() != null) {
+                    inFlight.release();
+                    break;
+                }
+                try {
+                    executor.execute(() -> {
+                        try {
+                            if (!cancelled.get()) {
+                                sink.accept(invoice, engine.render(invoice));
+                                rendered.incrementAndGet();
+                            }
+                        } catch (RuntimeException e) {
+                            failures.add(new BatchResult.Failure(invoice, e));
+                        } catch (Error e) {
+                            error.compareAndSet(null, e);
+                            cancelled.set(true);
+                            throw e;
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    failures.add(new BatchResult.Failure(invoice, e));
+                    inFlight.release();
+                }
+            }
+        } catch (RuntimeException | Error e) {
+            // the iteration failed, skip the invoices that have not started and wait for the others
+            cancelled.set(true);
+            inFlight.acquireUninterruptibly(maxInFlight);
+            throw e;
+        }
+        inFlight.acquire(maxInFlight);
+        if (error.get() != null) {
+            throw error.get();
+        }
+        return new BatchResult(rendered.get(), failures.stream().toList());
+    }
+}
@@ -0,0 +1,76 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+
+import java.util.List;
+
+/**
+ * The outcome of {@link BatchRenderer#renderAll(Iterable, java.util.function.BiConsumer)}.
+ */
+public final class BatchResult {
+    private final int rendered;
+    private final List<Failure> failures;
+
+    BatchResult(int rendered, List<Failure> failures) {
+        this.rendered = rendered;
+        this.failures = List.copyOf(failures);
+    }
+
+    /**
+     * Returns the number of invoices that have been rendered and passed to the sink.
+     *
+     * @return the number of successful invoices
+     */
+    public int getRendered() {
+        return rendered;
+    }
+
+    /**
+     * Returns the invoices that could not be rendered or that the sink failed on.
+     *
+     * @return the failures, in no particular order
+     */
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns whether all invoices of the batch have been rendered.
+     *
+     * @return {@code true} if there are no failures
+     */
+    public boolean isSuccessful() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * An invoice of the batch that failed.
+     */
+    public static final class Failure {
+        private final Invoice invoice;
+        private final Exception exception;
+
+        Failure(Invoice invoice, Exception exception) {
+            this.invoice = invoice;
+            this.exception = exception;
+        }
+
+        /**
+         * Returns the invoice that failed.
+         *
+         * @return the invoice
+         */
+        public Invoice getInvoice() {
+            return invoice;
+        }
+
+        /**
+         * Returns the exception thrown while rendering the invoice or by the sink.
+         *
+         * @return the exception
+         */
+        public Exception getException() {
+            return exception;
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * All XML elements that are written to or read from a XRechnung in the Cross-Industry Invoice (CII) syntax.
+ * <p>
+ * Using constants instead of element name strings lets every writer backend resolve the namespace and the
+ * qualified name of an element without any lookup. The start and end tags are pre-encoded once, so that
+ * the {@link XmlBackend#DIRECT} backend can copy them to its output without encoding any string.
+ * The {@link XRechnungReader} looks up the constant of an element by its name with {@link #forName(String, String)}.
+ */
+enum CiiElement {
+    CROSS_INDUSTRY_INVOICE(CiiNamespace.RSM, "CrossIndustryInvoice"),
+    EXCHANGED_DOCUMENT_CONTEXT(CiiNamespace.RSM, "ExchangedDocumentContext"),
+    EXCHANGED_DOCUMENT(CiiNamespace.RSM, "ExchangedDocument"),
+    SUPPLY_CHAIN_TRADE_TRANSACTION(CiiNamespace.RSM, "SupplyChainTradeTransaction"),
+    BUSINESS_PROCESS_SPECIFIED_DOCUMENT_CONTEXT_PARAMETER(CiiNamespace.RAM, "BusinessProcessSpecifiedDocumentContextParameter"),
+    GUIDELINE_SPECIFIED_DOCUMENT_CONTEXT_PARAMETER(CiiNamespace.RAM, "GuidelineSpecifiedDocumentContextParameter"),
+    ID(CiiNamespace.RAM, "ID"),
+    TYPE_CODE(CiiNamespace.RAM, "TypeCode"),
+    ISSUE_DATE_TIME(CiiNamespace.RAM, "IssueDateTime"),
+    INCLUDED_NOTE(CiiNamespace.RAM, "IncludedNote"),
+    CONTENT(CiiNamespace.RAM, "Content"),
+    INCLUDED_SUPPLY_CHAIN_TRADE_LINE_ITEM(CiiNamespace.RAM, "IncludedSupplyChainTradeLineItem"),
+    ASSOCIATED_DOCUMENT_LINE_DOCUMENT(CiiNamespace.RAM, "AssociatedDocumentLineDocument"),
+    LINE_ID(CiiNamespace.RAM, "LineID"),
+    SPECIFIED_TRADE_PRODUCT(CiiNamespace.RAM, "SpecifiedTradeProduct"),
+    SELLER_ASSIGNED_ID(CiiNamespace.RAM, "SellerAssignedID"),
+    NAME(CiiNamespace.RAM, "Name"),
+    DESCRIPTION(CiiNamespace.RAM, "Description"),
+    APPLICABLE_PRODUCT_CHARACTERISTIC(CiiNamespace.RAM, "ApplicableProductCharacteristic"),
+    VALUE(CiiNamespace.RAM, "Value"),
+    SPECIFIED_LINE_TRADE_AGREEMENT(CiiNamespace.RAM, "SpecifiedLineTradeAgreement"),
+    NET_PRICE_PRODUCT_TRADE_PRICE(CiiNamespace.RAM, "NetPriceProductTradePrice"),
+    CHARGE_AMOUNT(CiiNamespace.RAM, "ChargeAmount"),
+    BASIS_QUANTITY(CiiNamespace.RAM, "BasisQuantity"),
+    SPECIFIED_LINE_TRADE_DELIVERY(CiiNamespace.RAM, "SpecifiedLineTradeDelivery"),
+    BILLED_QUANTITY(CiiNamespace.RAM, "BilledQuantity"),
+    SPECIFIED_LINE_TRADE_SETTLEMENT(CiiNamespace.RAM, "SpecifiedLineTradeSettlement"),
+    APPLICABLE_TRADE_TAX(CiiNamespace.RAM, "ApplicableTradeTax"),
+    CALCULATED_AMOUNT(CiiNamespace.RAM, "CalculatedAmount"),
+    EXEMPTION_REASON(CiiNamespace.RAM, "ExemptionReason"),
+    EXEMPTION_REASON_CODE(CiiNamespace.RAM, "ExemptionReasonCode"),
+    BASIS_AMOUNT(CiiNamespace.RAM, "BasisAmount"),
+    CATEGORY_CODE(CiiNamespace.RAM, "CategoryCode"),
+    RATE_APPLICABLE_PERCENT(CiiNamespace.RAM, "RateApplicablePercent"),
+    SPECIFIED_TRADE_SETTLEMENT_LINE_MONETARY_SUMMATION(CiiNamespace.RAM, "SpecifiedTradeSettlementLineMonetarySummation"),
+    LINE_TOTAL_AMOUNT(CiiNamespace.RAM, "LineTotalAmount"),
+    APPLICABLE_HEADER_TRADE_AGREEMENT(CiiNamespace.RAM, "ApplicableHeaderTradeAgreement"),
+    BUYER_REFERENCE(CiiNamespace.RAM, "BuyerReference"),
+    SELLER_TRADE_PARTY(CiiNamespace.RAM, "SellerTradeParty"),
+    BUYER_TRADE_PARTY(CiiNamespace.RAM, "BuyerTradeParty"),
+    DEFINED_TRADE_CONTACT(CiiNamespace.RAM, "DefinedTradeContact"),
+    PERSON_NAME(CiiNamespace.RAM, "PersonName"),
+    TELEPHONE_UNIVERSAL_COMMUNICATION(CiiNamespace.RAM, "TelephoneUniversalCommunication"),
+    COMPLETE_NUMBER(CiiNamespace.RAM, "CompleteNumber"),
+    EMAIL_URI_UNIVERSAL_COMMUNICATION(CiiNamespace.RAM, "EmailURIUniversalCommunication"),
+    URI_ID(CiiNamespace.RAM, "URIID"),
+    POSTAL_TRADE_ADDRESS(CiiNamespace.RAM, "PostalTradeAddress"),
+    POSTCODE_CODE(CiiNamespace.RAM, "PostcodeCode"),
+    LINE_ONE(CiiNamespace.RAM, "LineOne"),
+    LINE_TWO(CiiNamespace.RAM, "LineTwo"),
+    LINE_THREE(CiiNamespace.RAM, "LineThree"),
+    CITY_NAME(CiiNamespace.RAM, "CityName"),
+    COUNTRY_ID(CiiNamespace.RAM, "CountryID"),
+    URI_UNIVERSAL_COMMUNICATION(CiiNamespace.RAM, "URIUniversalCommunication"),
+    SPECIFIED_TAX_REGISTRATION(CiiNamespace.RAM, "SpecifiedTaxRegistration"),
+    SELLER_ORDER_REFERENCED_DOCUMENT(CiiNamespace.RAM, "SellerOrderReferencedDocument"),
+    ISSUER_ASSIGNED_ID(CiiNamespace.RAM, "IssuerAssignedID"),
+    APPLICABLE_HEADER_TRADE_DELIVERY(CiiNamespace.RAM, "ApplicableHeaderTradeDelivery"),
+    SHIP_TO_TRADE_PARTY(CiiNamespace.RAM, "ShipToTradeParty"),
+    ACTUAL_DELIVERY_SUPPLY_CHAIN_EVENT(CiiNamespace.RAM, "ActualDeliverySupplyChainEvent"),
+    OCCURRENCE_DATE_TIME(CiiNamespace.RAM, "OccurrenceDateTime"),
+    APPLICABLE_HEADER_TRADE_SETTLEMENT(CiiNamespace.RAM, "ApplicableHeaderTradeSettlement"),
+    CREDITOR_REFERENCE_ID(CiiNamespace.RAM, "CreditorReferenceID"),
+    PAYMENT_REFERENCE(CiiNamespace.RAM, "PaymentReference"),
+    INVOICE_CURRENCY_CODE(CiiNamespace.RAM, "InvoiceCurrencyCode"),
+    SPECIFIED_TRADE_SETTLEMENT_PAYMENT_MEANS(CiiNamespace.RAM, "SpecifiedTradeSettlementPaymentMeans"),
+    INFORMATION(CiiNamespace.RAM, "Information"),
+    PAYEE_PARTY_CREDITOR_FINANCIAL_ACCOUNT(CiiNamespace.RAM, "PayeePartyCreditorFinancialAccount"),
+    IBAN_ID(CiiNamespace.RAM, "IBANID"),
+    ACCOUNT_NAME(CiiNamespace.RAM, "AccountName"),
+    PAYEE_SPECIFIED_CREDITOR_FINANCIAL_INSTITUTION(CiiNamespace.RAM, "PayeeSpecifiedCreditorFinancialInstitution"),
+    BIC_ID(CiiNamespace.RAM, "BICID"),
+    PAYER_PARTY_DEBTOR_FINANCIAL_ACCOUNT(CiiNamespace.RAM, "PayerPartyDebtorFinancialAccount"),
+    APPLICABLE_TRADE_SETTLEMENT_FINANCIAL_CARD(CiiNamespace.RAM, "ApplicableTradeSettlementFinancialCard"),
+    CARDHOLDER_NAME(CiiNamespace.RAM, "CardholderName"),
+    SPECIFIED_TRADE_ALLOWANCE_CHARGE(CiiNamespace.RAM, "SpecifiedTradeAllowanceCharge"),
+    CHARGE_INDICATOR(CiiNamespace.RAM, "ChargeIndicator"),
+    ACTUAL_AMOUNT(CiiNamespace.RAM, "ActualAmount"),
+    REASON(CiiNamespace.RAM, "Reason"),
+    CATEGORY_TRADE_TAX(CiiNamespace.RAM, "CategoryTradeTax"),
+    SPECIFIED_TRADE_PAYMENT_TERMS(CiiNamespace.RAM, "SpecifiedTradePaymentTerms"),
+    DIRECT_DEBIT_MANDATE_ID(CiiNamespace.RAM, "DirectDebitMandateID"),
+    SPECIFIED_TRADE_SETTLEMENT_HEADER_MONETARY_SUMMATION(CiiNamespace.RAM, "SpecifiedTradeSettlementHeaderMonetarySummation"),
+    CHARGE_TOTAL_AMOUNT(CiiNamespace.RAM, "ChargeTotalAmount"),
+    ALLOWANCE_TOTAL_AMOUNT(CiiNamespace.RAM, "AllowanceTotalAmount"),
+    TAX_BASIS_TOTAL_AMOUNT(CiiNamespace.RAM, "TaxBasisTotalAmount"),
+    TAX_TOTAL_AMOUNT(CiiNamespace.RAM, "TaxTotalAmount"),
+    GRAND_TOTAL_AMOUNT(CiiNamespace.RAM, "GrandTotalAmount"),
+    DUE_PAYABLE_AMOUNT(CiiNamespace.RAM, "DuePayableAmount"),
+    INVOICE_REFERENCED_DOCUMENT(CiiNamespace.RAM, "InvoiceReferencedDocument"),
+    FORMATTED_ISSUE_DATE_TIME(CiiNamespace.RAM, "FormattedIssueDateTime"),
+    UDT_DATE_TIME_STRING(CiiNamespace.UDT, "DateTimeString"),
+    INDICATOR(CiiNamespace.UDT, "Indicator"),
+    QDT_DATE_TIME_STRING(CiiNamespace.QDT, "DateTimeString");
+
+    /**
+     * The elements by namespace URI and local name
+     */
+    private static final Map<String, Map<String, CiiElement>> BY_NAME = new HashMap<>();
+
+    static {
+        for (CiiElement element : values()) {
+            BY_NAME.computeIfAbsent(element.namespace.getUri(), uri -> new HashMap<>())
+                    .put(element.localName, element);
+        }
+    }
+
+    private final CiiNamespace namespace;
+    private final String localName;
+    private final String qualifiedName;
+    private final byte[] startTag;
+    private final byte[] endTag;
+
+    CiiElement(CiiNamespace namespace, String localName) {
+        this.namespace = namespace;
+        this.localName = localName;
+        this.qualifiedName = namespace.getPrefix() + ":" + localName;
+        this.startTag = ("<" + qualifiedName).getBytes(StandardCharsets.UTF_8);
+        this.endTag = ("</" + qualifiedName + ">").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the element with the given name.
+     *
+     * @param namespaceUri the namespace URI of the element
+     * @param localName    the name of the element without namespace prefix
+     * @return the element or {@code null} if it is not one of the known elements
+     */
+    static CiiElement forName(String namespaceUri, String localName) {
+        Map<String, CiiElement> elements = BY_NAME.get(namespaceUri);
+        return elements != null ? elements.get(localName) : null;
+    }
+
+    /**
+     * Returns the namespace of the element.
+     *
+     * @return the namespace
+     */
+    CiiNamespace getNamespace() {
+        return namespace;
+    }
+
+    /**
+     * Returns the name of the element without namespace prefix, e.g. {@code LineID}.
+     *
+     * @return the local name
+     */
+    String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * Returns the name of the element including the namespace prefix, e.g. {@code ram:LineID}.
+     *
+     * @return the qualified name
+     */
+    String getQualifiedName() {
+        return qualifiedName;
+    }
+
+    /**
+     * Returns the UTF-8 encoded start of the start tag without the closing bracket, e.g. {@code <ram:LineID},
+     * so that attributes can be appended.
+     * <p>
+     * The returned array is shared and must not be modified.
+     *
+     * @return the encoded start tag
+     */
+    byte[] getStartTag() {
+        return startTag;
+    }
+
+    /**
+     * Returns the UTF-8 encoded end tag, e.g. {@code </ram:LineID>}.
+     * <p>
+     * The returned array is shared and must not be modified.
+     *
+     * @return the encoded end tag
+     */
+    byte[] getEndTag() {
+        return endTag;
+    }
+}
@@ -0,0 +1,41 @@
+package de.codebarista.gallop.xrechnung;
+
+/**
+ * The XML namespaces of the Cross-Industry Invoice (CII) syntax used by the XRechnung.
+ * <p>
+ * The declaration order of the constants is the order in which the namespaces are declared on the root element:
+ * the namespace of the root element first, followed by the others in alphabetical order of their prefix.
+ * This is the order in which the DOM serializer writes them.
+ */
+enum CiiNamespace {
+    RSM("rsm", "urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100"),
+    QDT("qdt", "urn:un:unece:uncefact:data:standard:QualifiedDataType:100"),
+    RAM("ram", "urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100"),
+    UDT("udt", "urn:un:unece:uncefact:data:standard:UnqualifiedDataType:100");
+
+    private final String prefix;
+    private final String uri;
+
+    CiiNamespace(String prefix, String uri) {
+        this.prefix = prefix;
+        this.uri = uri;
+    }
+
+    /**
+     * Returns the prefix that is used for this namespace in the XRechnung.
+     *
+     * @return the namespace prefix
+     */
+    String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Returns the namespace URI.
+     *
+     * @return the namespace URI
+     */
+    String getUri() {
+        return uri;
+    }
+}
@@ -0,0 +1,90 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HexFormat;
+
+/**
+ * An XRechnung document together with the digest of its bytes, computed while the document was written.
+ * <p>
+ * The value is immutable: {@link #getXml()} and {@link #getDigest()} return copies, so the document cannot be
+ * changed behind its digest. {@link #writeTo(OutputStream)} writes the document without copying it.
+ *
+ * @see XRechnungWriter#getDigestedXML()
+ */
+public final class DigestedXml {
+    private final byte[] xml;
+    private final String algorithm;
+    private final byte[] digest;
+
+    DigestedXml(byte[] xml, String algorithm, byte[] digest) {
+        this.xml = xml;
+        this.algorithm = algorithm;
+        this.digest = digest;
+    }
+
+    /**
+     * Returns the XML document.
+     *
+     * @return a copy of the bytes of the document
+     */
+    public byte[] getXml() {
+        return xml.clone();
+    }
+
+    /**
+     * Returns the size of the XML document.
+     *
+     * @return the number of bytes of the document
+     */
+    public int getSize() {
+        return xml.length;
+    }
+
+    /**
+     * Writes the XML document to the stream without copying it.
+     *
+     * @param output the stream to write to, it is neither flushed nor closed
+     * @throws IOException if writing to the stream fails
+     */
+    public void writeTo(OutputStream output) throws IOException {
+        output.write(xml);
+    }
+
+    /**
+     * Returns the XML document without copying it, for the classes of this package that neither modify nor
+     * publish it.
+     *
+     * @return the bytes of the document, not copied
+     */
+    byte[] xml() {
+        return xml;
+    }
+
+    /**
+     * Returns the name of the digest algorithm, e.g. {@code SHA-256}.
+     *
+     * @return the algorithm of the {@link java.security.MessageDigest}
+     */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * Returns the digest of the XML document.
+     *
+     * @return a copy of the digest
+     */
+    public byte[] getDigest() {
+        return digest.clone();
+    }
+
+    /**
+     * Returns the digest of the XML document as lower case hexadecimal string.
+     *
+     * @return the hexadecimal digest
+     */
+    public String getDigestHex() {
+        return HexFormat.of().formatHex(digest);
+    }
+}
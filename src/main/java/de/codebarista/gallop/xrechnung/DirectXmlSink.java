@@ -0,0 +1,541 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+
+/**
+ * {@link XmlSink} of the {@link XmlBackend#DIRECT} backend that writes UTF-8 encoded XML into a growable
+ * byte buffer without any JAXP involvement.
+ * <p>
+ * Start and end tags are copied from the pre-encoded tags of the {@link CiiElement}s, text is escaped and
+ * encoded character by character straight into the buffer. Numbers and dates are formatted into the buffer
+ * with {@link XmlValueFormat}. The output is byte-identical to the one of the
+ * {@link XmlBackend#DOM} backend.
+ * <p>
+ * The buffer is kept by {@link #reset()}, so a sink can be reused to render many invoices without allocating
+ * a new buffer for each of them. If the sink is created with a target stream, the buffer is not grown but
+ * flushed to the target whenever it is full, so the document is streamed with constant memory.
+ * A sink is not thread-safe.
+ */
+class DirectXmlSink implements XmlSink {
+    private static final int DEFAULT_CAPACITY = 8192;
+    private static final int MAX_RETAINED_CAPACITY = 1 << 20;
+    /**
+     * The number of written bytes that are passed to the digest at once, small enough to be still in the cache
+     */
+    private static final int DIGEST_CHUNK_SIZE = 16 * 1024;
+    private static final byte[] NAMESPACE_DECLARATIONS = namespaceDeclarations();
+    private static final byte[] EMPTY_ELEMENT_END = "/>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] PLATFORM_LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] lineSeparator = PLATFORM_LINE_SEPARATOR;
+    private OutputStream target;
+    private byte[][] indents = new byte[0][];
+    private byte[] buffer;
+    private int size;
+    private CiiElement[] openElements = new CiiElement[16];
+    private boolean[] hasChildElements = new boolean[16];
+    private int depth;
+    private boolean startTagOpen;
+    private MessageDigest digest;
+    private int digested;
+
+    /**
+     * Creates a new sink with a buffer of default capacity.
+     */
+    DirectXmlSink() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new sink with a buffer of the given initial capacity.
+     *
+     * @param initialCapacity the initial buffer size in bytes
+     */
+    DirectXmlSink(int initialCapacity) {
+        buffer = new byte[Math.max(initialCapacity, 64)];
+    }
+
+    /**
+     * Creates a new sink that streams the document to the given target.
+     * The buffer is flushed to the target whenever it is full and when the document is complete.
+     *
+     * @param target the stream to write to, it is not closed by the sink
+     */
+    DirectXmlSink(OutputStream target) {
+        buffer = new byte[DEFAULT_CAPACITY];
+        this.target = target;
+    }
+
+    /**
+     * Creates a sink for a fragment of a document, e.g. some of the line items. The fragment is written
+     * into its own buffer as content of an element at the given depth and joined into the document with
+     * {@link #append(DirectXmlSink)}.
+     *
+     * @param depth the number of elements that are open in the document where the fragment is appended
+     * @return a new sink without target
+     */
+    static DirectXmlSink fragment(int depth) {
+        var fragment = new DirectXmlSink();
+        if (depth > fragment.openElements.length) {
+            fragment.openElements = new CiiElement[depth * 2];
+            fragment.hasChildElements = new boolean[depth * 2];
+        }
+        fragment.depth = depth;
+        return fragment;
+    }
+
+    /**
+     * Discards the content of the buffer, so that the sink can write the next document into the buffer.
+     * A buffer that has grown beyond 1 MiB is replaced by a new one of default size,
+     * so that a reused sink does not keep the memory of its largest document forever.
+     */
+    void reset() {
+        reset(null);
+    }
+
+    /**
+     * Discards the content of the buffer, so that the sink can stream the next document to the given target.
+     *
+     * @param target the stream to write to or {@code null} to write into the buffer only
+     * @see #reset()
+     */
+    void reset(OutputStream target) {
+        this.target = target;
+        lineSeparator(PLATFORM_LINE_SEPARATOR);
+        if (buffer.length > MAX_RETAINED_CAPACITY) {
+            buffer = new byte[DEFAULT_CAPACITY];
+        }
+        size = 0;
+        depth = 0;
+        startTagOpen = false;
+        digest = null;
+        digested = 0;
+    }
+
+    /**
+     * Feeds all bytes that are written from now on to the given digest. The bytes are passed in chunks
+     * shortly after they have been written, so the document does not have to be read a second time.
+     * The digest is complete after {@link #endDocument()}.
+     *
+     * @param digest the digest to update
+     */
+    void digest(MessageDigest digest) {
+        this.digest = digest;
+        digested = size;
+    }
+
+    /**
+     * Sets the line separator that is written after the XML declaration and in front of indented tags.
+     * The sink starts with, and {@link #reset()} returns to, the line separator of the platform.
+     *
+     * @param lineSeparator the ASCII encoded line separator
+     */
+    void lineSeparator(byte[] lineSeparator) {
+        if (!Arrays.equals(this.lineSeparator, lineSeparator)) {
+            this.lineSeparator = lineSeparator;
+            indents = new byte[0][];
+        }
+    }
+
+    /**
+     * Checks whether the sink writes the line separator of the platform. Only then can pre-rendered fragments,
+     * which are written with the line separator of the platform, be {@link #append(byte[]) appended}.
+     *
+     * @return {@code true} if the line separator is the one of the platform
+     */
+    boolean hasPlatformLineSeparator() {
+        return Arrays.equals(lineSeparator, PLATFORM_LINE_SEPARATOR);
+    }
+
+    /**
+     * Returns the number of bytes that have been written.
+     *
+     * @return the size of the output
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns a copy of the bytes that have been written.
+     *
+     * @return the output
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer, size);
+    }
+
+    /**
+     * Returns the bytes that have been written without copying them if they fill the buffer exactly,
+     * as they do if the sink has been created with the {@link XRechnungWriter#computeSize() exact size}
+     * of the document. The sink must not be used afterwards.
+     *
+     * @return the output
+     */
+    byte[] detach() {
+        byte[] output = size == buffer.length ? buffer : toByteArray();
+        buffer = new byte[0];
+        size = 0;
+        return output;
+    }
+
+    /**
+     * Returns the number of elements that are currently open.
+     *
+     * @return the depth of the current element
+     */
+    int depth() {
+        return depth;
+    }
+
+    /**
+     * Appends a fragment that has been written by a sink created with {@link #fragment(int)} as content of the
+     * current element. The result is the same as if the elements of the fragment had been written to this sink.
+     *
+     * @param fragment the fragment created with the current {@link #depth()}
+     */
+    void append(DirectXmlSink fragment) {
+        append(fragment.buffer, fragment.size);
+    }
+
+    /**
+     * Appends the bytes of a fragment, e.g. a segment of an {@link InvoiceTemplate}, as content of the current
+     * element.
+     *
+     * @param fragment the bytes written by a sink created with {@link #fragment(int)} at the current {@link #depth()}
+     * @see #append(DirectXmlSink)
+     */
+    void append(byte[] fragment) {
+        append(fragment, fragment.length);
+    }
+
+    private void append(byte[] fragment, int length) {
+        if (length == 0) {
+            return;
+        }
+        closeStartTag();
+        hasChildElements[depth - 1] = true;
+        if (target != null && length > buffer.length) {
+            flush();
+            if (digest != null) {
+                digest.update(fragment, 0, length);
+            }
+            try {
+                target.write(fragment, 0, length);
+            } catch (IOException e) {
+                throw new XRechnungWriterException("Failed to write the XML document", e);
+            }
+            return;
+        }
+        ensureCapacity(length);
+        System.arraycopy(fragment, 0, buffer, size, length);
+        size += length;
+        if (digest != null && size - digested >= DIGEST_CHUNK_SIZE) {
+            updateDigest();
+        }
+    }
+
+    /**
+     * Passes the bytes that have been written since the last update to the digest.
+     */
+    private void updateDigest() {
+        digest.update(buffer, digested, size - digested);
+        digested = size;
+    }
+
+    @Override
+    public void startDocument() {
+        writeAscii(XmlCharacters.XML_DECLARATION);
+        write(lineSeparator);
+    }
+
+    @Override
+    public void startElement(CiiElement element) {
+        closeStartTag();
+        if (depth > 0) {
+            hasChildElements[depth - 1] = true;
+            write(indent(depth));
+        }
+        write(element.getStartTag());
+        if (element == CiiElement.CROSS_INDUSTRY_INVOICE) {
+            write(NAMESPACE_DECLARATIONS);
+        }
+        if (depth == openElements.length) {
+            openElements = Arrays.copyOf(openElements, depth * 2);
+            hasChildElements = Arrays.copyOf(hasChildElements, depth * 2);
+        }
+        openElements[depth] = element;
+        hasChildElements[depth] = false;
+        depth++;
+        startTagOpen = true;
+    }
+
+    @Override
+    public void attribute(String name, String value) {
+        if (!startTagOpen) {
+            throw new IllegalStateException("Attribute " + name + " must be added before the element content");
+        }
+        ensureCapacity(1);
+        buffer[size++] = ' ';
+        writeAscii(name);
+        ensureCapacity(2);
+        buffer[size++] = '=';
+        buffer[size++] = '"';
+        if (value != null) {
+            writeEscaped(value, true);
+        }
+        ensureCapacity(1);
+        buffer[size++] = '"';
+    }
+
+    @Override
+    public void text(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        closeStartTag();
+        writeEscaped(text, false);
+    }
+
+    @Override
+    public void text(long value) {
+        closeStartTag();
+        ensureCapacity(XmlValueFormat.MAX_LONG_LENGTH);
+        size = XmlValueFormat.formatLong(value, buffer, size);
+    }
+
+    @Override
+    public void decimal(BigDecimal value) {
+        if (value == null) {
+            return;
+        }
+        if (!XmlValueFormat.canFormat(value)) {
+            text(value.toString());
+            return;
+        }
+        closeStartTag();
+        ensureCapacity(XmlValueFormat.MAX_DECIMAL_LENGTH);
+        size = XmlValueFormat.formatDecimal(value, buffer, size);
+    }
+
+    @Override
+    public void decimal(long unscaled, int scale) {
+        if (!XmlValueFormat.canFormat(unscaled, scale)) {
+            text(BigDecimal.valueOf(unscaled, scale).toString());
+            return;
+        }
+        closeStartTag();
+        ensureCapacity(XmlValueFormat.MAX_LONG_LENGTH + scale);
+        size = XmlValueFormat.formatDecimal(unscaled, scale, buffer, size);
+    }
+
+    @Override
+    public void date(OffsetDateTime time) {
+        if (time == null) {
+            return;
+        }
+        if (!XmlValueFormat.canFormat(time)) {
+            text(time.format(XmlValueFormat.DATE_FORMAT));
+            return;
+        }
+        closeStartTag();
+        ensureCapacity(XmlValueFormat.DATE_LENGTH);
+        size = XmlValueFormat.formatDate(time, buffer, size);
+    }
+
+    @Override
+    public void endElement() {
+        depth--;
+        if (startTagOpen) {
+            write(EMPTY_ELEMENT_END);
+            startTagOpen = false;
+            return;
+        }
+        if (hasChildElements[depth]) {
+            write(indent(depth));
+        }
+        write(openElements[depth].getEndTag());
+        if (digest != null && size - digested >= DIGEST_CHUNK_SIZE) {
+            updateDigest();
+        }
+    }
+
+    @Override
+    public void endDocument() {
+        write(lineSeparator);
+        if (digest != null) {
+            updateDigest();
+        }
+        flush();
+    }
+
+    /**
+     * Writes the buffered bytes to the target. Does nothing if the sink has no target.
+     */
+    void flush() {
+        if (target == null) {
+            return;
+        }
+        if (digest != null) {
+            updateDigest();
+        }
+        try {
+            target.write(buffer, 0, size);
+            size = 0;
+            digested = 0;
+        } catch (IOException e) {
+            throw new XRechnungWriterException("Failed to write the XML document", e);
+        }
+    }
+
+    private void closeStartTag() {
+        if (startTagOpen) {
+            ensureCapacity(1);
+            buffer[size++] = '>';
+            startTagOpen = false;
+        }
+    }
+
+    /**
+     * Escapes the text by the rules of {@link XmlCharacters}, which are those of the DOM serializer, and writes it
+     * UTF-8 encoded.
+     * <p>
+     * Runs of printable ASCII characters that need no escaping are copied in bulk, only the characters in
+     * between are escaped and encoded one by one.
+     */
+    private void writeEscaped(String text, boolean attribute) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            int start = i;
+            while (i < length && XmlCharacters.isPlainAscii(text.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                writeAsciiRun(text, start, i);
+                if (i == length) {
+                    return;
+                }
+            }
+            i = writeEscapedCharacter(text, i, attribute);
+        }
+    }
+
+    /**
+     * Escapes and writes the character at the given index.
+     *
+     * @return the index of the next character
+     */
+    private int writeEscapedCharacter(String text, int index, boolean attribute) {
+        char c = text.charAt(index);
+        byte[] entity = XmlCharacters.entityReference(c, attribute);
+        if (entity != null) {
+            write(entity);
+        } else if (XmlCharacters.needsCharacterReference(c, attribute)) {
+            int codePoint = XmlCharacters.codePointAt(text, index);
+            writeCharacterReference(codePoint);
+            return index + Character.charCount(codePoint);
+        } else {
+            writeUtf8(c);
+        }
+        return index + 1;
+    }
+
+    /**
+     * Copies a run of plain ASCII characters. {@link String#getBytes(int, int, byte[], int)} keeps the low byte
+     * of every character, which is the ASCII encoding for these characters. For Latin-1 strings it is a plain
+     * array copy without transcoding.
+     */
+    @SuppressWarnings("deprecation")
+    private void writeAsciiRun(String text, int start, int end) {
+        int length = end - start;
+        if (target != null && length > buffer.length) {
+            for (int chunk = start; chunk < end; chunk += buffer.length) {
+                writeAsciiRun(text, chunk, Math.min(chunk + buffer.length, end));
+            }
+            return;
+        }
+        ensureCapacity(length);
+        text.getBytes(start, end, buffer, size);
+        size += length;
+    }
+
+    private void writeCharacterReference(int codePoint) {
+        ensureCapacity(10);
+        buffer[size++] = '&';
+        buffer[size++] = '#';
+        writeAscii(Integer.toString(codePoint));
+        buffer[size++] = ';';
+    }
+
+    private void writeUtf8(char c) {
+        ensureCapacity(3);
+        if (c < 0x80) {
+            buffer[size++] = (byte) c;
+        } else if (c < 0x800) {
+            buffer[size++] = (byte) (0xC0 | (c >> 6));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            buffer[size++] = (byte) (0xE0 | (c >> 12));
+            buffer[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buffer[size++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void writeAscii(String ascii) {
+        int length = ascii.length();
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) ascii.charAt(i);
+        }
+    }
+
+    private void write(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, size, bytes.length);
+        size += bytes.length;
+    }
+
+    private void ensureCapacity(int additional) {
+        if (size + additional > buffer.length) {
+            if (target != null) {
+                flush();
+                if (additional <= buffer.length) {
+                    return;
+                }
+            }
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + additional));
+        }
+    }
+
+    private byte[] indent(int level) {
+        if (level >= indents.length) {
+            indents = Arrays.copyOf(indents, level + 1);
+        }
+        if (indents[level] == null) {
+            byte[] indent = Arrays.copyOf(lineSeparator, lineSeparator.length + level * XmlCharacters.INDENT_SIZE);
+            Arrays.fill(indent, lineSeparator.length, indent.length, (byte) ' ');
+            indents[level] = indent;
+        }
+        return indents[level];
+    }
+
+    /**
+     * Encodes the declarations of all {@link CiiNamespace namespaces} that the root element carries, each with a
+     * leading space.
+     */
+    private static byte[] namespaceDeclarations() {
+        StringBuilder declarations = new StringBuilder();
+        for (CiiNamespace namespace : CiiNamespace.values()) {
+            declarations.append(" xmlns:").append(namespace.getPrefix())
+                    .append("=\"").append(namespace.getUri()).append('"');
+        }
+        return declarations.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+}
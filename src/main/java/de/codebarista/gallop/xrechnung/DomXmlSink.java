@@ -0,0 +1,77 @@
+package de.codebarista.gallop.xrechnung;
+
+import org.w3c.dom.Element;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.transform.dom.DOMSource;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * {@link XmlSink} of the {@link XmlBackend#DOM} backend that builds a complete DOM tree
+ * with an {@link XmlDocumentBuilder}.
+ */
+class DomXmlSink implements XmlSink {
+    private final XmlDocumentBuilder builder;
+    private final Deque<Element> openElements = new ArrayDeque<>();
+
+    /**
+     * Creates a new sink with an empty document.
+     *
+     * @param documentBuilder a namespace aware DocumentBuilder that creates the document
+     */
+    DomXmlSink(DocumentBuilder documentBuilder) {
+        builder = new XmlDocumentBuilder(documentBuilder);
+    }
+
+    @Override
+    public void startDocument() {
+        for (CiiNamespace namespace : CiiNamespace.values()) {
+            builder.addNamespace(namespace.getPrefix(), namespace.getUri());
+        }
+    }
+
+    @Override
+    public void startElement(CiiElement element) {
+        Element node = builder.createElement(element.getNamespace().getUri(), element.getLocalName());
+        Element parent = openElements.peek();
+        if (parent == null) {
+            builder.setRootElement(node);
+        } else {
+            parent.appendChild(node);
+        }
+        openElements.push(node);
+    }
+
+    @Override
+    public void attribute(String name, String value) {
+        Element current = openElements.element();
+        if (current.hasChildNodes()) {
+            throw new IllegalStateException("Attribute " + name + " must be added before the element content");
+        }
+        current.setAttribute(name, value);
+    }
+
+    @Override
+    public void text(String text) {
+        openElements.element().setTextContent(text);
+    }
+
+    @Override
+    public void endElement() {
+        openElements.pop();
+    }
+
+    @Override
+    public void endDocument() {
+    }
+
+    /**
+     * Returns the document that has been built.
+     *
+     * @return a {@link DOMSource} containing the XML document
+     */
+    DOMSource getDomSource() {
+        return builder.getDomSource();
+    }
+}
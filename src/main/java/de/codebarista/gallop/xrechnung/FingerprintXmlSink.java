@@ -0,0 +1,193 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.time.OffsetDateTime;
+
+/**
+ * {@link XmlSink} that does not write anything but feeds the structure of the document into a
+ * {@link MessageDigest}, e.g. to identify invoices that render to the same document.
+ * <p>
+ * Every element, attribute and text is encoded with a tag and, for text, its length, so that different documents
+ * never produce the same input for the digest. Numbers and dates are encoded in binary without formatting them.
+ * Indentation, escaping and the XML declaration are not part of the input: they depend on the backend, not on
+ * the invoice. Two invoices with the same fingerprint are therefore rendered to the same document by the same
+ * engine.
+ */
+class FingerprintXmlSink implements XmlSink {
+    private static final byte START_ELEMENT = 1;
+    private static final byte ATTRIBUTE = 2;
+    private static final byte NULL_ATTRIBUTE = 3;
+    private static final byte TEXT = 4;
+    private static final byte LONG = 5;
+    private static final byte DECIMAL = 6;
+    private static final byte UNSCALED_DECIMAL = 7;
+    private static final byte DATE = 8;
+    private static final byte END_ELEMENT = 9;
+    private static final byte BIG_DECIMAL = 10;
+    private static final byte NON_ASCII = (byte) 0x80;
+
+    private final MessageDigest digest;
+    private final byte[] buffer = new byte[4096];
+    private int size;
+
+    /**
+     * Creates a new sink that feeds the given digest.
+     *
+     * @param digest the digest, which is reset first
+     */
+    FingerprintXmlSink(MessageDigest digest) {
+        this.digest = digest;
+        digest.reset();
+    }
+
+    /**
+     * Completes the digest.
+     *
+     * @return the digest of the document
+     */
+    byte[] fingerprint() {
+        flush();
+        return digest.digest();
+    }
+
+    @Override
+    public void startDocument() {
+        // the XML declaration does not depend on the invoice
+    }
+
+    @Override
+    public void startElement(CiiElement element) {
+        ensureCapacity(3);
+        buffer[size++] = START_ELEMENT;
+        writeShort(element.ordinal());
+    }
+
+    @Override
+    public void attribute(String name, String value) {
+        ensureCapacity(1);
+        buffer[size++] = value == null ? NULL_ATTRIBUTE : ATTRIBUTE;
+        writeString(name);
+        if (value != null) {
+            writeString(value);
+        }
+    }
+
+    @Override
+    public void text(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        ensureCapacity(1);
+        buffer[size++] = TEXT;
+        writeString(text);
+    }
+
+    @Override
+    public void text(long value) {
+        ensureCapacity(9);
+        buffer[size++] = LONG;
+        writeLong(value);
+    }
+
+    @Override
+    public void decimal(BigDecimal value) {
+        if (value == null) {
+            return;
+        }
+        if (value.precision() > 18) {
+            // the unscaled value does not fit into a long, the string still identifies unscaled value and scale
+            ensureCapacity(1);
+            buffer[size++] = BIG_DECIMAL;
+            writeString(value.toString());
+            return;
+        }
+        ensureCapacity(13);
+        buffer[size++] = DECIMAL;
+        writeInt(value.scale());
+        writeLong(XmlValueFormat.unscaledValue(value));
+    }
+
+    @Override
+    public void decimal(long unscaled, int scale) {
+        ensureCapacity(13);
+        buffer[size++] = UNSCALED_DECIMAL;
+        writeInt(scale);
+        writeLong(unscaled);
+    }
+
+    @Override
+    public void date(OffsetDateTime time) {
+        if (time == null) {
+            return;
+        }
+        ensureCapacity(9);
+        buffer[size++] = DATE;
+        // the document contains the date in the offset of the timestamp
+        writeLong(time.toLocalDate().toEpochDay());
+    }
+
+    @Override
+    public void endElement() {
+        ensureCapacity(1);
+        buffer[size++] = END_ELEMENT;
+    }
+
+    @Override
+    public void endDocument() {
+        // the final line separator does not depend on the invoice
+    }
+
+    /**
+     * Writes the length of a text and its characters, ASCII characters as one byte and all others as a marker
+     * byte followed by the two bytes of the character. No ASCII character starts with the marker, so the
+     * encoding stays unambiguous while the usual texts of an invoice need half the input.
+     */
+    private void writeString(String text) {
+        int length = text.length();
+        ensureCapacity(4);
+        writeInt(length);
+        int i = 0;
+        while (i < length) {
+            ensureCapacity(3);
+            // as many characters as surely fit into the buffer without checking its capacity for each of them
+            int end = Math.min(length, i + (buffer.length - size) / 3);
+            for (; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    buffer[size++] = (byte) c;
+                } else {
+                    buffer[size++] = NON_ASCII;
+                    buffer[size++] = (byte) (c >> 8);
+                    buffer[size++] = (byte) c;
+                }
+            }
+        }
+    }
+
+    private void writeShort(int value) {
+        buffer[size++] = (byte) (value >> 8);
+        buffer[size++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        writeShort(value >>> 16);
+        writeShort(value);
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (size + bytes > buffer.length) {
+            flush();
+        }
+    }
+
+    private void flush() {
+        digest.update(buffer, 0, size);
+        size = 0;
+    }
+}
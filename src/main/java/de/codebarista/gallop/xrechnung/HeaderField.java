@@ -0,0 +1,68 @@
+package de.codebarista.gallop.xrechnung;
+
+/**
+ * The fields of a XRechnung that a {@link HeaderFieldExtractor} can extract for routing a document.
+ * <p>
+ * Each field is identified by the path of local element names below the {@code CrossIndustryInvoice} root.
+ */
+public enum HeaderField {
+    /**
+     * Invoice number (BT-1)
+     */
+    DOCUMENT_ID(null, "ExchangedDocument", "ID"),
+
+    /**
+     * Invoice type code (BT-3)
+     */
+    DOCUMENT_TYPE_CODE(null, "ExchangedDocument", "TypeCode"),
+
+    /**
+     * Buyer reference (BT-10), usually a Leitweg-ID
+     */
+    LEITWEG_ID(null, "SupplyChainTradeTransaction", "ApplicableHeaderTradeAgreement", "BuyerReference"),
+
+    /**
+     * Seller VAT identifier (BT-31)
+     */
+    SELLER_VAT_ID("VA", "SupplyChainTradeTransaction", "ApplicableHeaderTradeAgreement", "SellerTradeParty",
+            "SpecifiedTaxRegistration", "ID"),
+
+    /**
+     * Invoice currency code (BT-5)
+     */
+    CURRENCY(null, "SupplyChainTradeTransaction", "ApplicableHeaderTradeSettlement", "InvoiceCurrencyCode"),
+
+    /**
+     * Amount due for payment including VAT (BT-112)
+     */
+    GRAND_TOTAL_AMOUNT(null, "SupplyChainTradeTransaction", "ApplicableHeaderTradeSettlement",
+            "SpecifiedTradeSettlementHeaderMonetarySummation", "GrandTotalAmount");
+
+    private final String schemeId;
+    private final String[] path;
+
+    HeaderField(String schemeId, String... path) {
+        this.schemeId = schemeId;
+        this.path = path;
+    }
+
+    /**
+     * Returns the {@code schemeID} attribute that the element must have.
+     *
+     * @return the scheme or {@code null} if the element has no scheme
+     */
+    String getSchemeId() {
+        return schemeId;
+    }
+
+    /**
+     * Returns the local names of the elements from the child of the root element down to the field.
+     * <p>
+     * The returned array is shared and must not be modified.
+     *
+     * @return the path of the field
+     */
+    String[] getPath() {
+        return path;
+    }
+}
@@ -0,0 +1,497 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Extracts a few {@link HeaderField header fields} from the raw bytes of a XRechnung without parsing the document,
+ * e.g. to route incoming invoices:
+ * <pre>{@code
+ * HeaderFieldExtractor extractor = new HeaderFieldExtractor(EnumSet.of(HeaderField.LEITWEG_ID,
+ *         HeaderField.SELLER_VAT_ID));
+ * Map<HeaderField, String> fields = extractor.extract(xml);
+ * }</pre>
+ * The extractor scans the start tags from the beginning of the document up to the
+ * {@code SupplyChainTradeTransaction}. In CII the line items come before the header trade agreement, delivery and
+ * settlement, so the extractor then searches the start of the {@code ApplicableHeaderTradeAgreement} backwards
+ * from the end of the document and scans on from there. The line items are never looked at and the time to
+ * extract the fields does not depend on the number of lines. The scan stops as soon as all requested fields are
+ * found.
+ * <p>
+ * The document must be encoded in UTF-8, as required by XRechnung. The extractor neither checks that the
+ * document is well-formed nor that it is an invoice; use the {@link XRechnungReader} for that. Markup hidden in
+ * comments or CDATA sections after the line items can mislead the backward search. References to unknown entities
+ * and malformed character references, which a parser would reject, are returned as they are in the document.
+ * <p>
+ * An extractor is immutable and can be shared between threads.
+ */
+public final class HeaderFieldExtractor {
+    private static final int MAX_DEPTH = 64;
+    private static final int UNKNOWN = -1;
+    private static final String ROOT = "CrossIndustryInvoice";
+    private static final String TRANSACTION = "SupplyChainTradeTransaction";
+    private static final byte[] HEADER_AGREEMENT = bytes("ApplicableHeaderTradeAgreement");
+    private static final byte[] SCHEME_ID = bytes("schemeID");
+    private static final byte[] CDATA_START = bytes("<![CDATA[");
+    private static final byte[] CDATA_END = bytes("]]>");
+    private static final byte[] COMMENT_START = bytes("<!--");
+    private static final byte[] COMMENT_END = bytes("-->");
+    private static final byte[] PI_END = bytes("?>");
+
+    private final Set<HeaderField> fields;
+    private final HeaderField[] requested;
+    private final byte[][] names;
+    private final int[][] paths;
+    private final byte[][] schemes;
+    private final int transactionId;
+
+    /**
+     * Creates an extractor for the given fields.
+     *
+     * @param fields the fields to extract
+     * @throws IllegalArgumentException if no field is given
+     */
+    public HeaderFieldExtractor(Set<HeaderField> fields) {
+        if (fields.isEmpty()) {
+            throw new IllegalArgumentException("At least one field must be requested");
+        }
+        this.fields = Collections.unmodifiableSet(EnumSet.copyOf(fields));
+        this.requested = this.fields.toArray(new HeaderField[0]);
+
+        Map<String, Integer> nameIds = new LinkedHashMap<>();
+        nameIds.put(ROOT, 0);
+        nameIds.put(TRANSACTION, 1);
+        this.paths = new int[requested.length][];
+        this.schemes = new byte[requested.length][];
+        for (int i = 0; i < requested.length; i++) {
+            String[] path = requested[i].getPath();
+            int[] pathIds = new int[path.length + 1];
+            for (int j = 0; j < path.length; j++) {
+                Integer id = nameIds.get(path[j]);
+                if (id == null) {
+                    id = nameIds.size();
+                    nameIds.put(path[j], id);
+                }
+                pathIds[j + 1] = id;
+            }
+            paths[i] = pathIds;
+            schemes[i] = requested[i].getSchemeId() == null ? null : bytes(requested[i].getSchemeId());
+        }
+        this.names = nameIds.keySet().stream().map(HeaderFieldExtractor::bytes).toArray(byte[][]::new);
+        this.transactionId = nameIds.get(TRANSACTION);
+    }
+
+    /**
+     * Returns the fields that this extractor extracts.
+     *
+     * @return an unmodifiable set of the requested fields
+     */
+    public Set<HeaderField> getFields() {
+        return fields;
+    }
+
+    /**
+     * Extracts the requested fields from a document.
+     *
+     * @param xml the UTF-8 encoded document
+     * @return the values of the found fields; fields that are missing or empty in the document are absent
+     */
+    public Map<HeaderField, String> extract(byte[] xml) {
+        return extract(ByteBuffer.wrap(xml));
+    }
+
+    /**
+     * Extracts the requested fields from the remaining bytes of a buffer, e.g. a memory-mapped file.
+     * The position of the buffer is not changed.
+     *
+     * @param xml the UTF-8 encoded document
+     * @return the values of the found fields; fields that are missing or empty in the document are absent
+     */
+    public Map<HeaderField, String> extract(ByteBuffer xml) {
+        return new Scan(xml).run();
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isNameEnd(byte b) {
+        return isWhitespace(b) || b == '>' || b == '/';
+    }
+
+    /**
+     * The state of a single extraction.
+     */
+    private final class Scan {
+        private final ByteBuffer xml;
+        private final int start;
+        private final int end;
+        private final int[] stack = new int[MAX_DEPTH];
+        private final Map<HeaderField, String> result = new EnumMap<>(HeaderField.class);
+        private final boolean[] found = new boolean[requested.length];
+        private int remaining = requested.length;
+        private int depth;
+        private int pos;
+
+        Scan(ByteBuffer xml) {
+            this.xml = xml;
+            this.start = xml.position();
+            this.end = xml.limit();
+            this.pos = start;
+        }
+
+        Map<HeaderField, String> run() {
+            while (remaining > 0) {
+                int lt = indexOf((byte) '<', pos);
+                if (lt < 0) {
+                    break;
+                }
+                pos = lt + 1;
+                if (pos >= end) {
+                    break;
+                }
+                byte next = xml.get(pos);
+                if (next == '/') {
+                    pos = indexOf((byte) '>', pos);
+                    if (--depth <= 0 || pos < 0) {
+                        break;
+                    }
+                } else if (next == '?') {
+                    pos = indexOf(PI_END, pos);
+                } else if (next == '!') {
+                    pos = startsWith(CDATA_START, lt) ? indexOf(CDATA_END, pos)
+                            : startsWith(COMMENT_START, lt) ? indexOf(COMMENT_END, pos) : indexOf((byte) '>', pos);
+                } else if (!startElement()) {
+                    break;
+                }
+                if (pos < 0) {
+                    break;
+                }
+            }
+            return result;
+        }
+
+        /**
+         * Handles the start tag at the current position and moves behind it.
+         *
+         * @return {@code false} if the scan must stop, because the document ended within the tag or none of the
+         * remaining fields can follow
+         */
+        private boolean startElement() {
+            int nameStart = pos;
+            int localStart = pos;
+            while (pos < end && !isNameEnd(xml.get(pos))) {
+                if (xml.get(pos) == ':') {
+                    localStart = pos + 1;
+                }
+                pos++;
+            }
+            int id = nameId(localStart, pos);
+            int attributesStart = pos;
+            int tagEnd = tagEnd(pos);
+            if (tagEnd < 0 || pos == nameStart) {
+                return false;
+            }
+            boolean empty = xml.get(tagEnd - 1) == '/';
+            pos = tagEnd + 1;
+            if (depth == MAX_DEPTH) {
+                return false;
+            }
+            stack[depth++] = id;
+
+            int field = matchField(attributesStart, tagEnd);
+            if (field >= 0) {
+                found[field] = true;
+                remaining--;
+                String value = empty ? null : text();
+                if (value != null && !value.isEmpty()) {
+                    result.put(requested[field], value);
+                }
+            }
+            if (empty) {
+                depth--;
+            } else if (depth == 2 && id == transactionId) {
+                if (!remainsInTransaction()) {
+                    return false;
+                }
+                int headerStart = lastStartTag(HEADER_AGREEMENT, pos);
+                if (headerStart >= 0) {
+                    pos = headerStart;
+                }
+            }
+            return true;
+        }
+
+        private boolean remainsInTransaction() {
+            for (int i = 0; i < requested.length; i++) {
+                if (!found[i] && paths[i][1] == transactionId) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int nameId(int from, int to) {
+            for (int id = 0; id < names.length; id++) {
+                byte[] name = names[id];
+                if (name.length == to - from && startsWith(name, from)) {
+                    return id;
+                }
+            }
+            return UNKNOWN;
+        }
+
+        private int matchField(int attributesStart, int tagEnd) {
+            for (int i = 0; i < requested.length; i++) {
+                int[] path = paths[i];
+                if (found[i] || path.length != depth || path[depth - 1] != stack[depth - 1]) {
+                    continue;
+                }
+                boolean matches = true;
+                for (int j = 0; j < depth - 1 && matches; j++) {
+                    matches = path[j] == stack[j];
+                }
+                if (matches && (schemes[i] == null || hasScheme(schemes[i], attributesStart, tagEnd))) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Returns the position of the {@code >} that ends the tag, skipping over quoted attribute values.
+         */
+        private int tagEnd(int from) {
+            for (int i = from; i < end; i++) {
+                byte b = xml.get(i);
+                if (b == '>') {
+                    return i;
+                }
+                if (b == '"' || b == '\'') {
+                    i = indexOf(b, i + 1);
+                    if (i < 0) {
+                        return -1;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private boolean hasScheme(byte[] scheme, int from, int to) {
+            int i = from;
+            while (i < to) {
+                while (i < to && isWhitespace(xml.get(i))) {
+                    i++;
+                }
+                int nameStart = i;
+                while (i < to && xml.get(i) != '=' && !isWhitespace(xml.get(i))) {
+                    i++;
+                }
+                int nameEnd = i;
+                while (i < to && xml.get(i) != '"' && xml.get(i) != '\'') {
+                    i++;
+                }
+                if (i >= to) {
+                    return false;
+                }
+                int valueStart = i + 1;
+                int valueEnd = indexOf(xml.get(i), valueStart);
+                if (valueEnd < 0 || valueEnd > to) {
+                    return false;
+                }
+                if (nameEnd - nameStart == SCHEME_ID.length && startsWith(SCHEME_ID, nameStart)) {
+                    return valueEnd - valueStart == scheme.length && startsWith(scheme, valueStart);
+                }
+                i = valueEnd + 1;
+            }
+            return false;
+        }
+
+        /**
+         * Reads the text content of the current element up to the next tag, including CDATA sections.
+         */
+        private String text() {
+            StringBuilder text = null;
+            int from = pos;
+            while (true) {
+                int lt = indexOf((byte) '<', from);
+                if (lt < 0) {
+                    return null;
+                }
+                String part = decode(from, lt);
+                if (!startsWith(CDATA_START, lt)) {
+                    pos = lt;
+                    return (text == null ? part : text.append(part).toString()).trim();
+                }
+                int cdataEnd = indexOf(CDATA_END, lt);
+                if (cdataEnd < 0) {
+                    return null;
+                }
+                if (text == null) {
+                    text = new StringBuilder();
+                }
+                text.append(part).append(utf8(lt + CDATA_START.length, cdataEnd));
+                from = cdataEnd + CDATA_END.length;
+            }
+        }
+
+        private String decode(int from, int to) {
+            String raw = utf8(from, to);
+            int amp = raw.indexOf('&');
+            if (amp < 0) {
+                return raw;
+            }
+            StringBuilder decoded = new StringBuilder(raw.length()).append(raw, 0, amp);
+            while (amp >= 0) {
+                int semicolon = raw.indexOf(';', amp);
+                if (semicolon < 0) {
+                    decoded.append(raw, amp, raw.length());
+                    return decoded.toString();
+                }
+                appendReference(decoded, raw.substring(amp + 1, semicolon));
+                int next = raw.indexOf('&', semicolon);
+                decoded.append(raw, semicolon + 1, next < 0 ? raw.length() : next);
+                amp = next;
+            }
+            return decoded.toString();
+        }
+
+        private void appendReference(StringBuilder decoded, String reference) {
+            switch (reference) {
+                case "amp":
+                    decoded.append('&');
+                    break;
+                case "lt":
+                    decoded.append('<');
+                    break;
+                case "gt":
+                    decoded.append('>');
+                    break;
+                case "quot":
+                    decoded.append('"');
+                    break;
+                case "apos":
+                    decoded.append('\'');
+                    break;
+                default:
+                    int codePoint = -1;
+                    if (reference.startsWith("#x")) {
+                        codePoint = codePoint(reference, 2, 16);
+                    } else if (reference.startsWith("#")) {
+                        codePoint = codePoint(reference, 1, 10);
+                    }
+                    if (codePoint < 0) {
+                        // unknown entities and malformed character references are kept as they are
+                        decoded.append('&').append(reference).append(';');
+                    } else {
+                        decoded.appendCodePoint(codePoint);
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * Parses the digits of a character reference.
+         *
+         * @return the referenced character or -1 if the digits are malformed or do not reference a character
+         */
+        private static int codePoint(String reference, int from, int radix) {
+            if (from == reference.length()) {
+                return -1;
+            }
+            int codePoint = 0;
+            for (int i = from; i < reference.length(); i++) {
+                int digit = Character.digit(reference.charAt(i), radix);
+                if (digit < 0) {
+                    return -1;
+                }
+                codePoint = codePoint * radix + digit;
+                if (codePoint > Character.MAX_CODE_POINT) {
+                    return -1;
+                }
+            }
+            if (codePoint == 0 || (codePoint >= Character.MIN_SURROGATE && codePoint <= Character.MAX_SURROGATE)) {
+                return -1;
+            }
+            return codePoint;
+        }
+
+        private String utf8(int from, int to) {
+            if (xml.hasArray()) {
+                return new String(xml.array(), xml.arrayOffset() + from, to - from, StandardCharsets.UTF_8);
+            }
+            byte[] bytes = new byte[to - from];
+            xml.get(from, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * Searches backwards from the end of the document for a start tag with the given local name.
+         *
+         * @return the position of the {@code <} of the tag or -1 if there is no such tag after {@code from}
+         */
+        private int lastStartTag(byte[] localName, int from) {
+            byte last = localName[localName.length - 1];
+            for (int i = end - 1; i - localName.length >= from; i--) {
+                if (xml.get(i) != last || !isNameEnd(i + 1 < end ? xml.get(i + 1) : (byte) '>')) {
+                    continue;
+                }
+                int nameStart = i - localName.length + 1;
+                if (!startsWith(localName, nameStart)) {
+                    continue;
+                }
+                int lt = nameStart - 1;
+                if (xml.get(lt) == ':') {
+                    lt--;
+                    while (lt > from && !isNameEnd(xml.get(lt)) && xml.get(lt) != '<') {
+                        lt--;
+                    }
+                }
+                if (xml.get(lt) == '<') {
+                    return lt;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(byte b, int from) {
+            for (int i = from; i < end; i++) {
+                if (xml.get(i) == b) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private int indexOf(byte[] bytes, int from) {
+            for (int i = indexOf(bytes[0], from); i >= 0; i = indexOf(bytes[0], i + 1)) {
+                if (startsWith(bytes, i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private boolean startsWith(byte[] value, int at) {
+            if (at < start || at + value.length > end) {
+                return false;
+            }
+            for (int i = 0; i < value.length; i++) {
+                if (xml.get(at + i) != value[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
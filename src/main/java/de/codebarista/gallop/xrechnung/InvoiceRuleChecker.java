@@ -0,0 +1,479 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Allowance;
+import de.codebarista.gallop.xrechnung.model.Charge;
+import de.codebarista.gallop.xrechnung.model.Contact;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemTable;
+import de.codebarista.gallop.xrechnung.model.PostalAddress;
+import de.codebarista.gallop.xrechnung.model.SellerOrBuyer;
+import de.codebarista.gallop.xrechnung.model.TaxCategory;
+import de.codebarista.gallop.xrechnung.model.Vat;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static de.codebarista.gallop.xrechnung.XRechnungUtils.isNullOrBlank;
+
+/**
+ * Checks an {@link Invoice} against the most common business rules of EN 16931 and XRechnung.
+ * <p>
+ * Gallop does not validate the invoices it writes, and a full validation with the Schematron rules of the
+ * <a href="https://github.com/itplr-kosit/validator">KOSIT Validator</a> takes hundreds of milliseconds. The rule
+ * checker is an opt-in pre-validation that takes microseconds, so that only invoices with violations, or a sample
+ * of all invoices, need the full validation:
+ * <pre>{@code
+ * List<InvoiceRuleChecker.Violation> violations = InvoiceRuleChecker.getDefault().check(invoice);
+ * if (!violations.isEmpty()) {
+ *     validateWithKosit(XRechnungWriter.generateXRechnungXML(invoice));
+ * }
+ * }</pre>
+ * The checker covers
+ * <ul>
+ *     <li>the mandatory fields of the document, the seller, the buyer and the invoice lines
+ *     (BR-02 to BR-16, BR-21 to BR-26, BR-CO-4 and BR-DE-1 to BR-DE-9),</li>
+ *     <li>the document totals (BR-CO-10 to BR-CO-15),</li>
+ *     <li>the VAT breakdown (BR-CO-17, BR-CO-18 and the rules BR-S-8, BR-Z-8, BR-E-8, etc. that compare the
+ *     taxable amount of each category and rate with the lines, allowances and charges) and</li>
+ *     <li>the VAT identifiers that reverse charge requires (BR-AE-2 to BR-AE-4).</li>
+ * </ul>
+ * The buyer reference (BT-10) is not checked, because the {@link XRechnungWriter} writes "N/A" if it is missing.
+ * An invoice without violations can still be rejected by the full validation, which checks many more rules.
+ * The checker is stateless and can be shared between threads.
+ */
+public final class InvoiceRuleChecker {
+    private static final InvoiceRuleChecker DEFAULT = new InvoiceRuleChecker();
+
+    /**
+     * The difference between the VAT amount of a breakdown and the amount calculated from its taxable amount and
+     * rate that the validator no longer accepts (BR-CO-17)
+     */
+    private static final BigDecimal VAT_TOLERANCE = BigDecimal.ONE;
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+
+    /**
+     * Returns the shared rule checker.
+     *
+     * @return the default instance
+     */
+    public static InvoiceRuleChecker getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Checks an invoice.
+     *
+     * @param invoice the invoice to check
+     * @return the violated rules in the order in which they have been checked, empty if no rule is violated
+     */
+    public List<Violation> check(Invoice invoice) {
+        List<Violation> violations = new ArrayList<>();
+        checkDocument(invoice, violations);
+        checkParty(invoice.getSeller(), true, violations);
+        checkParty(invoice.getBuyer(), false, violations);
+
+        Map<VatKey, BigDecimal> bases = new LinkedHashMap<>();
+        BigDecimal lineTotal = checkItems(invoice.getItems(), bases, violations);
+        ItemTable itemTable = invoice.getItemTable();
+        if (itemTable != null) {
+            lineTotal = lineTotal.add(checkItemTable(itemTable, bases, violations));
+        }
+        BigDecimal allowanceTotal = BigDecimal.ZERO;
+        for (Allowance allowance : invoice.getAllowances()) {
+            allowanceTotal = add(allowanceTotal, allowance.getNetAmount());
+            subtract(bases, new VatKey(allowance.getVatCategory(), allowance.getVatRate()), allowance.getNetAmount());
+        }
+        BigDecimal chargeTotal = BigDecimal.ZERO;
+        for (Charge charge : invoice.getCharges()) {
+            chargeTotal = add(chargeTotal, charge.getNetAmount());
+            add(bases, new VatKey(charge.getVatCategory(), charge.getVatRate()), charge.getNetAmount());
+        }
+
+        checkTotals(invoice, lineTotal, allowanceTotal, chargeTotal, violations);
+        checkVatBreakdown(invoice, bases, violations);
+        checkReverseCharge(invoice, violations);
+        return violations;
+    }
+
+    private void checkDocument(Invoice invoice, List<Violation> violations) {
+        require(!isNullOrBlank(invoice.getDocumentId()), "BR-02", "Invoice number (BT-1) is missing", violations);
+        require(invoice.getIssueDate() != null, "BR-03", "Invoice issue date (BT-2) is missing", violations);
+        require(!isNullOrBlank(invoice.getDocumentTypeCode()), "BR-04", "Invoice type code (BT-3) is missing",
+                violations);
+        require(!isNullOrBlank(invoice.getCurrency()), "BR-05", "Invoice currency code (BT-5) is missing",
+                violations);
+        require(invoice.getPaymentInstructions() != null, "BR-DE-1", "Payment instructions (BG-16) are missing",
+                violations);
+    }
+
+    private void checkParty(SellerOrBuyer party, boolean seller, List<Violation> violations) {
+        String role = seller ? "Seller" : "Buyer";
+        if (party == null) {
+            violations.add(new Violation(seller ? "BR-06" : "BR-07", role + " (" + (seller ? "BG-4" : "BG-7")
+                    + ") is missing"));
+            return;
+        }
+        require(!isNullOrBlank(party.getName()), seller ? "BR-06" : "BR-07",
+                role + " name (" + (seller ? "BT-27" : "BT-44") + ") is missing", violations);
+
+        PostalAddress address = party.getAddress();
+        if (address == null) {
+            violations.add(new Violation(seller ? "BR-08" : "BR-10",
+                    role + " postal address (" + (seller ? "BG-5" : "BG-8") + ") is missing"));
+        } else {
+            require(!isNullOrBlank(address.getCountryIsoCode()), seller ? "BR-09" : "BR-11",
+                    role + " country code (" + (seller ? "BT-40" : "BT-55") + ") is missing", violations);
+            require(!isNullOrBlank(address.getCity()), seller ? "BR-DE-3" : "BR-DE-8",
+                    role + " city (" + (seller ? "BT-37" : "BT-52") + ") is missing", violations);
+            require(!isNullOrBlank(address.getZipCode()), seller ? "BR-DE-4" : "BR-DE-9",
+                    role + " post code (" + (seller ? "BT-38" : "BT-53") + ") is missing", violations);
+        }
+
+        if (seller) {
+            Contact contact = party.getContact();
+            if (contact == null) {
+                violations.add(new Violation("BR-DE-2", "Seller contact (BG-6) is missing"));
+            } else {
+                require(!isNullOrBlank(contact.getName()), "BR-DE-5", "Seller contact point (BT-41) is missing",
+                        violations);
+                require(!isNullOrBlank(contact.getPhone()), "BR-DE-6",
+                        "Seller contact telephone number (BT-42) is missing", violations);
+                require(!isNullOrBlank(contact.getEmail()), "BR-DE-7",
+                        "Seller contact email address (BT-43) is missing", violations);
+            }
+        }
+    }
+
+    private BigDecimal checkItems(List<Item> items, Map<VatKey, BigDecimal> bases, List<Violation> violations) {
+        BigDecimal total = BigDecimal.ZERO;
+        VatKey key = null;
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            Vat vat = item.getVat();
+            boolean hasCategory = vat != null && vat.getCategory() != null;
+            if (item.getId() == null || item.getQuantity() == null || isNullOrBlank(item.getUnitCode())
+                    || item.getNetAmount() == null || isNullOrBlank(item.getName()) || item.getUnitPrice() == null
+                    || !hasCategory) {
+                String line = "Invoice line " + (i + 1);
+                require(item.getId() != null, "BR-21", line + " has no identifier (BT-126)", violations);
+                require(item.getQuantity() != null, "BR-22", line + " has no quantity (BT-129)", violations);
+                require(!isNullOrBlank(item.getUnitCode()), "BR-23", line + " has no unit of measure code (BT-130)",
+                        violations);
+                require(item.getNetAmount() != null, "BR-24", line + " has no net amount (BT-131)", violations);
+                require(!isNullOrBlank(item.getName()), "BR-25", line + " has no item name (BT-153)", violations);
+                require(item.getUnitPrice() != null, "BR-26", line + " has no item net price (BT-146)", violations);
+                require(hasCategory, "BR-CO-4", line + " has no VAT category code (BT-151)", violations);
+            }
+            if (hasCategory) {
+                // items usually share a few VAT instances, so the key of the previous item can mostly be reused
+                if (key == null || key.category != vat.getCategory() || key.source != vat.getRate()) {
+                    key = new VatKey(vat.getCategory(), vat.getRate());
+                }
+                add(bases, key, item.getNetAmount());
+            }
+            total = add(total, item.getNetAmount());
+        }
+        return total;
+    }
+
+    private BigDecimal checkItemTable(ItemTable table, Map<VatKey, BigDecimal> bases, List<Violation> violations) {
+        long total = 0;
+        // consecutive lines usually share their VAT, whose category and rate come from the dictionary of the table
+        TaxCategory category = null;
+        BigDecimal rate = null;
+        long base = 0;
+        for (int i = 0; i < table.size(); i++) {
+            String line = null;
+            if (isNullOrBlank(table.getUnitCode(i))) {
+                line = "Invoice line " + table.getId(i) + " of the item table";
+                violations.add(new Violation("BR-23", line + " has no unit of measure code (BT-130)"));
+            }
+            if (isNullOrBlank(table.getName(i))) {
+                line = line != null ? line : "Invoice line " + table.getId(i) + " of the item table";
+                violations.add(new Violation("BR-25", line + " has no item name (BT-153)"));
+            }
+            long amount = table.getUnscaledLineTotalAmount(i);
+            total = Math.addExact(total, amount);
+            if (!table.hasVat(i)) {
+                line = line != null ? line : "Invoice line " + table.getId(i) + " of the item table";
+                violations.add(new Violation("BR-CO-4", line + " has no VAT category code (BT-151)"));
+                continue;
+            }
+            TaxCategory lineCategory = table.getVatCategory(i);
+            BigDecimal lineRate = table.getVatRate(i);
+            if (lineCategory != category || lineRate != rate) {
+                if (category != null) {
+                    add(bases, new VatKey(category, rate), BigDecimal.valueOf(base, table.getAmountScale()));
+                }
+                category = lineCategory;
+                rate = lineRate;
+                base = 0;
+            }
+            base = Math.addExact(base, amount);
+        }
+        if (category != null) {
+            add(bases, new VatKey(category, rate), BigDecimal.valueOf(base, table.getAmountScale()));
+        }
+        return BigDecimal.valueOf(total, table.getAmountScale());
+    }
+
+    private void checkTotals(Invoice invoice, BigDecimal lineTotal, BigDecimal allowanceTotal,
+                             BigDecimal chargeTotal, List<Violation> violations) {
+        int lines = invoice.getItems().size() + (invoice.getItemTable() != null ? invoice.getItemTable().size() : 0);
+        require(lines > 0, "BR-16", "The invoice has no invoice line (BG-25)", violations);
+
+        BigDecimal sumOfLines = invoice.getLineTotalAmount();
+        if (sumOfLines == null) {
+            violations.add(new Violation("BR-12", "Sum of invoice line net amount (BT-106) is missing"));
+        } else {
+            requireEqual(sumOfLines, lineTotal, "BR-CO-10", "Sum of invoice line net amount (BT-106)",
+                    "the sum of the invoice line net amounts (BT-131)", violations);
+        }
+        requireEqual(orZero(invoice.getAllowanceTotalAmount()), allowanceTotal, "BR-CO-11",
+                "Sum of allowances on document level (BT-107)", "the sum of the allowance amounts (BT-92)",
+                violations);
+        requireEqual(orZero(invoice.getChargeTotalAmount()), chargeTotal, "BR-CO-12",
+                "Sum of charges on document level (BT-108)", "the sum of the charge amounts (BT-99)", violations);
+
+        BigDecimal taxBasis = invoice.getTaxBasisTotalAmount();
+        if (taxBasis == null) {
+            violations.add(new Violation("BR-13", "Invoice total amount without VAT (BT-109) is missing"));
+        } else if (sumOfLines != null) {
+            BigDecimal expected = sumOfLines.subtract(orZero(invoice.getAllowanceTotalAmount()))
+                    .add(orZero(invoice.getChargeTotalAmount()));
+            requireEqual(taxBasis, expected, "BR-CO-13", "Invoice total amount without VAT (BT-109)",
+                    "BT-106 - BT-107 + BT-108", violations);
+        }
+
+        BigDecimal vatTotal = BigDecimal.ZERO;
+        for (Vat vat : invoice.getVatTotals()) {
+            vatTotal = add(vatTotal, vat.getTaxAmount());
+        }
+        if (invoice.getTaxTotalAmount() != null) {
+            requireEqual(invoice.getTaxTotalAmount(), vatTotal, "BR-CO-14", "Invoice total VAT amount (BT-110)",
+                    "the sum of the VAT category tax amounts (BT-117)", violations);
+        }
+
+        BigDecimal grandTotal = invoice.getGrandTotalAmount();
+        if (grandTotal == null) {
+            violations.add(new Violation("BR-14", "Invoice total amount with VAT (BT-112) is missing"));
+        } else if (taxBasis != null) {
+            requireEqual(grandTotal, taxBasis.add(orZero(invoice.getTaxTotalAmount())), "BR-CO-15",
+                    "Invoice total amount with VAT (BT-112)", "BT-109 + BT-110", violations);
+        }
+        require(invoice.getDuePayableAmount() != null, "BR-15", "Amount due for payment (BT-115) is missing",
+                violations);
+    }
+
+    private void checkVatBreakdown(Invoice invoice, Map<VatKey, BigDecimal> bases, List<Violation> violations) {
+        List<Vat> vatTotals = invoice.getVatTotals();
+        require(!vatTotals.isEmpty(), "BR-CO-18", "The invoice has no VAT breakdown (BG-23)", violations);
+
+        Map<VatKey, BigDecimal> remaining = new LinkedHashMap<>(bases);
+        for (Vat vat : vatTotals) {
+            if (vat.getCategory() == null) {
+                violations.add(new Violation("BR-47", "VAT breakdown has no VAT category code (BT-118)"));
+                continue;
+            }
+            VatKey key = new VatKey(vat.getCategory(), vat.getRate());
+            String breakdown = "VAT breakdown " + key;
+            if (vat.getTaxableAmount() == null) {
+                violations.add(new Violation("BR-45", breakdown + " has no taxable amount (BT-116)"));
+            } else {
+                requireEqual(vat.getTaxableAmount(), orZero(remaining.remove(key)), "BR-" + rulePrefix(key.category)
+                                + "-8", breakdown + ": VAT category taxable amount (BT-116)",
+                        "the sum of the line net amounts plus charges minus allowances", violations);
+            }
+            if (vat.getTaxAmount() == null) {
+                violations.add(new Violation("BR-46", breakdown + " has no tax amount (BT-117)"));
+            } else if (vat.getTaxableAmount() != null) {
+                BigDecimal expected = vat.getTaxableAmount().multiply(orZero(vat.getRate()))
+                        .divide(HUNDRED, 2, RoundingMode.HALF_UP);
+                if (vat.getTaxAmount().subtract(expected).abs().compareTo(VAT_TOLERANCE) >= 0) {
+                    violations.add(new Violation("BR-CO-17", breakdown + ": VAT category tax amount (BT-117) "
+                            + vat.getTaxAmount().toPlainString() + " is not the taxable amount times the rate "
+                            + expected.toPlainString()));
+                }
+            }
+        }
+        for (Map.Entry<VatKey, BigDecimal> missing : remaining.entrySet()) {
+            violations.add(new Violation("BR-" + rulePrefix(missing.getKey().category) + "-8",
+                    "VAT breakdown " + missing.getKey() + " is missing for a taxable amount of "
+                            + missing.getValue().toPlainString()));
+        }
+    }
+
+    private void checkReverseCharge(Invoice invoice, List<Violation> violations) {
+        SellerOrBuyer seller = invoice.getSeller();
+        SellerOrBuyer buyer = invoice.getBuyer();
+        if (seller != null && !isNullOrBlank(seller.getVatId()) && buyer != null && !isNullOrBlank(buyer.getVatId())) {
+            return;
+        }
+        String message = " with VAT category reverse charge requires the VAT identifiers of seller (BT-31)"
+                + " and buyer (BT-48)";
+        if (hasReverseChargeLine(invoice)) {
+            violations.add(new Violation("BR-AE-2", "An invoice line" + message));
+        }
+        for (Allowance allowance : invoice.getAllowances()) {
+            if (allowance.getVatCategory() == TaxCategory.REVERSE_CHARGE) {
+                violations.add(new Violation("BR-AE-3", "A document level allowance" + message));
+                break;
+            }
+        }
+        for (Charge charge : invoice.getCharges()) {
+            if (charge.getVatCategory() == TaxCategory.REVERSE_CHARGE) {
+                violations.add(new Violation("BR-AE-4", "A document level charge" + message));
+                break;
+            }
+        }
+    }
+
+    private static boolean hasReverseChargeLine(Invoice invoice) {
+        for (Item item : invoice.getItems()) {
+            if (item.getVat() != null && item.getVat().getCategory() == TaxCategory.REVERSE_CHARGE) {
+                return true;
+            }
+        }
+        ItemTable table = invoice.getItemTable();
+        for (int i = 0; table != null && i < table.size(); i++) {
+            if (table.getVatCategory(i) == TaxCategory.REVERSE_CHARGE) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the part of the rule identifiers of EN 16931 that stands for the VAT category, e.g. {@code IC} in
+     * BR-IC-8 for intra-community supply.
+     */
+    private static String rulePrefix(TaxCategory category) {
+        switch (category) {
+            case INTRA_COMMUNITY_SUPPLY:
+                return "IC";
+            case CANARY_ISLANDS_GENERAL_INDIRECT_TAX:
+                return "IG";
+            case CEUTA_AND_MELILLA_TAX:
+                return "IP";
+            default:
+                return category.getCategoryCode();
+        }
+    }
+
+    private static void require(boolean condition, String rule, String message, List<Violation> violations) {
+        if (!condition) {
+            violations.add(new Violation(rule, message));
+        }
+    }
+
+    private static void requireEqual(BigDecimal actual, BigDecimal expected, String rule, String name,
+                                     String expectation, List<Violation> violations) {
+        if (actual.compareTo(expected) != 0) {
+            violations.add(new Violation(rule, name + " " + actual.toPlainString() + " does not equal "
+                    + expectation + " " + expected.toPlainString()));
+        }
+    }
+
+    private static BigDecimal orZero(BigDecimal amount) {
+        return amount != null ? amount : BigDecimal.ZERO;
+    }
+
+    private static BigDecimal add(BigDecimal sum, BigDecimal amount) {
+        return amount != null ? sum.add(amount) : sum;
+    }
+
+    private static void add(Map<VatKey, BigDecimal> bases, VatKey key, BigDecimal amount) {
+        if (key.category != null && amount != null) {
+            bases.merge(key, amount, BigDecimal::add);
+        }
+    }
+
+    private static void subtract(Map<VatKey, BigDecimal> bases, VatKey key, BigDecimal amount) {
+        if (amount != null) {
+            add(bases, key, amount.negate());
+        }
+    }
+
+    /**
+     * A violated business rule.
+     */
+    public static final class Violation {
+        private final String rule;
+        private final String message;
+
+        Violation(String rule, String message) {
+            this.rule = rule;
+            this.message = message;
+        }
+
+        /**
+         * Returns the identifier of the violated rule as used by EN 16931 and XRechnung.
+         *
+         * @return the rule identifier, e.g. {@code BR-CO-10}
+         */
+        public String getRule() {
+            return rule;
+        }
+
+        /**
+         * Returns a description of the violation.
+         *
+         * @return a message that names the business terms and, for calculations, the expected value
+         */
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + rule + "] " + message;
+        }
+    }
+
+    /**
+     * The VAT category and rate of a VAT breakdown, equal for rates of different scales.
+     */
+    private static final class VatKey {
+        private final TaxCategory category;
+        private final BigDecimal rate;
+
+        /**
+         * The rate the key was created from
+         */
+        private final BigDecimal source;
+
+        VatKey(TaxCategory category, BigDecimal rate) {
+            this.category = category;
+            this.rate = rate != null ? rate.stripTrailingZeros() : BigDecimal.ZERO;
+            this.source = rate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            VatKey vatKey = (VatKey) o;
+            return category == vatKey.category && rate.equals(vatKey.rate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(category, rate);
+        }
+
+        @Override
+        public String toString() {
+            return (category != null ? category.getCategoryCode() : "?") + " " + rate.toPlainString() + "%";
+        }
+    }
+}
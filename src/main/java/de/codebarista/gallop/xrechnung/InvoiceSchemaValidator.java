@@ -0,0 +1,226 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import javax.xml.validation.Validator;
+import javax.xml.validation.ValidatorHandler;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Validates XRechnungen against the XML schema of the UN/CEFACT Cross Industry Invoice D16B.
+ * <p>
+ * The schema is compiled once, when the validator is created, into a thread-safe {@link Schema}. Compiling the
+ * schema takes far longer than validating a document, so a validator should be created once and shared. Each thread
+ * keeps its own {@link Validator} and {@link ValidatorHandler}, which are reused for all documents that the thread
+ * validates.
+ * <p>
+ * An {@link Invoice} is validated straight from the {@link XRechnungWriter}, which reports the document as SAX
+ * events to the validator without serializing and parsing it again:
+ * <pre>{@code
+ * List<SAXParseException> errors = InvoiceSchemaValidator.getDefault().validate(invoice);
+ * }</pre>
+ * The schema files are not part of Gallop. The {@link #getDefault() default validator} expects them on the class
+ * path at {@value #DEFAULT_SCHEMA_RESOURCE} with the files that it imports next to it, as they are published in
+ * the D16B schema release of UN/CEFACT. Other locations can be given to {@link #InvoiceSchemaValidator(URL)}.
+ * <p>
+ * The schema only checks the structure and the data types of the document. Use the {@link InvoiceRuleChecker} or
+ * the KOSIT Validator for the business rules.
+ */
+public final class InvoiceSchemaValidator {
+    /**
+     * The class path location of the main schema file that the {@link #getDefault() default validator} compiles
+     */
+    public static final String DEFAULT_SCHEMA_RESOURCE =
+            "/de/codebarista/gallop/xrechnung/schema/CrossIndustryInvoice_100pD16B.xsd";
+
+    /**
+     * The default validator, compiled by the first call of {@link #getDefault()}. Volatile, so that other threads
+     * read it without the lock once it has been published.
+     */
+    private static volatile InvoiceSchemaValidator defaultValidator;
+
+    private final Schema schema;
+    private final ThreadLocalPool<Validator> validators = new ThreadLocalPool<>();
+    private final ThreadLocalPool<ValidatorHandler> validatorHandlers = new ThreadLocalPool<>();
+
+    /**
+     * Creates a validator and compiles the schema.
+     *
+     * @param schemaLocation the location of the main schema file. The files that it imports are resolved relative
+     *                       to it and must be files or entries of a JAR file, too.
+     * @throws IllegalArgumentException if the schema cannot be read or compiled
+     */
+    public InvoiceSchemaValidator(URL schemaLocation) {
+        Objects.requireNonNull(schemaLocation, "Schema location must not be null");
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        try {
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            factory.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "file,jar");
+            this.schema = factory.newSchema(schemaLocation);
+        } catch (SAXException e) {
+            throw new IllegalArgumentException("Failed to compile the schema at " + schemaLocation, e);
+        }
+    }
+
+    /**
+     * Returns the validator of the schema at {@value #DEFAULT_SCHEMA_RESOURCE}, which is compiled on first use.
+     *
+     * @return the shared default validator
+     * @throws IllegalStateException    if the schema is not on the class path
+     * @throws IllegalArgumentException if the schema cannot be compiled
+     */
+    public static InvoiceSchemaValidator getDefault() {
+        InvoiceSchemaValidator validator = defaultValidator;
+        if (validator == null) {
+            synchronized (InvoiceSchemaValidator.class) {
+                validator = defaultValidator;
+                if (validator == null) {
+                    URL location = InvoiceSchemaValidator.class.getResource(DEFAULT_SCHEMA_RESOURCE);
+                    if (location == null) {
+                        throw new IllegalStateException("The CII D16B schema is not on the class path at "
+                                + DEFAULT_SCHEMA_RESOURCE);
+                    }
+                    validator = new InvoiceSchemaValidator(location);
+                    defaultValidator = validator;
+                }
+            }
+        }
+        return validator;
+    }
+
+    /**
+     * Returns the compiled schema, which can be shared between threads.
+     *
+     * @return the schema
+     */
+    public Schema getSchema() {
+        return schema;
+    }
+
+    /**
+     * Validates the XRechnung of an invoice as written by {@link XRechnungWriter#generateXRechnungXML(Invoice)}.
+     * The document is not serialized; the validator receives it from the writer as SAX events.
+     *
+     * @param invoice the invoice to validate
+     * @return the errors, empty if the document is valid. The errors have no line and column numbers.
+     * @throws XRechnungWriterException if the invoice cannot be written
+     */
+    public List<SAXParseException> validate(Invoice invoice) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        ValidatorHandler handler = validatorHandlers.take();
+        if (handler == null) {
+            handler = schema.newValidatorHandler();
+        }
+        ErrorCollector errors = new ErrorCollector();
+        try {
+            handler.setErrorHandler(errors);
+            new XRechnungWriter(invoice).writeTo(handler);
+        } catch (XRechnungWriterException e) {
+            if (!(e.getCause() instanceof SAXParseException)) {
+                throw e;
+            }
+            errors.add((SAXParseException) e.getCause());
+        } finally {
+            validatorHandlers.release(handler);
+        }
+        return errors.errors;
+    }
+
+    /**
+     * Validates a serialized document.
+     *
+     * @param xml the document
+     * @return the errors with their line and column numbers, empty if the document is valid
+     */
+    public List<SAXParseException> validate(byte[] xml) {
+        try {
+            return validate(new ByteArrayInputStream(xml));
+        } catch (IOException e) {
+            // a ByteArrayInputStream does not throw
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Validates a serialized document. The document is parsed as a stream and never built in memory.
+     *
+     * @param xml the document, which is not closed
+     * @return the errors with their line and column numbers, empty if the document is valid. A document that is
+     * not well-formed yields a single error.
+     * @throws IOException if the stream cannot be read
+     */
+    public List<SAXParseException> validate(InputStream xml) throws IOException {
+        Objects.requireNonNull(xml, "Input must not be null");
+        Validator validator = validators.take();
+        if (validator == null) {
+            validator = newValidator();
+        }
+        ErrorCollector errors = new ErrorCollector();
+        try {
+            validator.setErrorHandler(errors);
+            validator.validate(new StreamSource(xml));
+        } catch (SAXParseException e) {
+            errors.add(e);
+        } catch (SAXException e) {
+            errors.add(new SAXParseException(e.getMessage(), null, e));
+        } finally {
+            validators.release(validator);
+        }
+        return errors.errors;
+    }
+
+    private Validator newValidator() {
+        Validator validator = schema.newValidator();
+        try {
+            validator.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_DTD, "");
+            validator.setProperty(XMLConstants.ACCESS_EXTERNAL_SCHEMA, "");
+        } catch (SAXException e) {
+            throw new IllegalStateException("The XML validator does not support secure processing", e);
+        }
+        return validator;
+    }
+
+    /**
+     * Collects the errors of a single validation. Fatal errors end the validation.
+     */
+    private static final class ErrorCollector implements ErrorHandler {
+        private final List<SAXParseException> errors = new ArrayList<>();
+
+        @Override
+        public void warning(SAXParseException exception) {
+            // warnings do not make a document invalid
+        }
+
+        @Override
+        public void error(SAXParseException exception) {
+            add(exception);
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            throw exception;
+        }
+
+        void add(SAXParseException exception) {
+            if (!errors.contains(exception)) {
+                errors.add(exception);
+            }
+        }
+    }
+}
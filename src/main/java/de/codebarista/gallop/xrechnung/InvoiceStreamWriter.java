@@ -0,0 +1,148 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * Writes a XRechnung XML to a stream while the line items are pushed one by one.
+ * <p>
+ * The {@link XRechnungWriter} needs an {@link Invoice} with all of its items in memory. For invoices with
+ * hundreds of thousands of lines, e.g. read from a database cursor, the items can be written one after
+ * the other instead, in the order they appear in the document:
+ * <pre>{@code
+ * var writer = new InvoiceStreamWriter(output);
+ * writer.begin(invoice);
+ * for (Item item : cursor) {
+ *     writer.writeItem(item);
+ * }
+ * writer.finish(invoice);
+ * }</pre>
+ * No item is kept after it has been written and the output is buffered in a small buffer of constant size,
+ * so the memory does not depend on the number of lines. The document is the same as the one of
+ * {@link XRechnungWriter} for an invoice with the same items.
+ * <p>
+ * A writer writes a single document and is not thread-safe.
+ */
+public class InvoiceStreamWriter {
+    private final OutputStream output;
+    private final DirectXmlSink sink;
+    private State state = State.NEW;
+
+    private enum State {
+        NEW, WRITING_ITEMS, FINISHED
+    }
+
+    /**
+     * Constructs a new {@code InvoiceStreamWriter} that writes to the given stream.
+     *
+     * @param output the stream to write to, must not be {@code null}. It is neither flushed nor closed,
+     *               unless {@link #flush()} is called.
+     */
+    public InvoiceStreamWriter(OutputStream output) {
+        Objects.requireNonNull(output, "Output must not be null");
+        this.output = output;
+        sink = new DirectXmlSink(output);
+    }
+
+    /**
+     * Writes the start of the document up to the first line item.
+     * <p>
+     * Only the document data of the header is written here: the document ID, type code, issue date and notes
+     * (BT-1, BT-3, BT-2, BG-1). The items of the header are ignored.
+     * </p>
+     *
+     * @param header the invoice with the document data, must not be {@code null}
+     * @throws IOException              if writing to the stream fails
+     * @throws IllegalStateException    if the document has already been started
+     * @throws XRechnungWriterException if the XML document cannot be written
+     */
+    public void begin(Invoice header) throws IOException {
+        Objects.requireNonNull(header, "Header must not be null");
+        if (state != State.NEW) {
+            throw new IllegalStateException("The document has already been started");
+        }
+        state = State.WRITING_ITEMS;
+        try {
+            new XRechnungWriter(header, XRechnungEngine.getDefault()).writeDocumentStart(sink);
+        } catch (XRechnungWriterException e) {
+            throw unwrapIOException(e);
+        }
+    }
+
+    /**
+     * Writes the next line item (BG-25).
+     *
+     * @param item the line item, must not be {@code null}
+     * @throws IOException              if writing to the stream fails
+     * @throws IllegalStateException    if the document has not been started or is already finished
+     * @throws XRechnungWriterException if the XML document cannot be written
+     */
+    public void writeItem(Item item) throws IOException {
+        Objects.requireNonNull(item, "Item must not be null");
+        checkWritingItems();
+        try {
+            XRechnungWriter.writeTradeLineItem(sink, item);
+        } catch (XRechnungWriterException e) {
+            throw unwrapIOException(e);
+        }
+    }
+
+    /**
+     * Writes all buffered bytes to the stream and flushes it.
+     *
+     * @throws IOException if writing to the stream fails
+     */
+    public void flush() throws IOException {
+        try {
+            sink.flush();
+        } catch (XRechnungWriterException e) {
+            throw unwrapIOException(e);
+        }
+        output.flush();
+    }
+
+    /**
+     * Writes the rest of the document after the last line item and all buffered bytes to the stream.
+     * <p>
+     * The trade agreement, delivery and settlement are written with the data of the given invoice,
+     * including the VAT breakdown and the document totals. The items of the invoice are ignored.
+     * It can be the invoice passed to {@link #begin(Invoice)}, with totals that have been summed up
+     * while writing the items.
+     * </p>
+     *
+     * @param settlement the invoice with seller, buyer, delivery, payment and totals, must not be {@code null}
+     * @throws IOException              if writing to the stream fails
+     * @throws IllegalStateException    if the document has not been started or is already finished
+     * @throws XRechnungWriterException if the XML document cannot be written
+     */
+    public void finish(Invoice settlement) throws IOException {
+        Objects.requireNonNull(settlement, "Settlement must not be null");
+        checkWritingItems();
+        state = State.FINISHED;
+        try {
+            new XRechnungWriter(settlement, XRechnungEngine.getDefault()).writeDocumentEnd(sink);
+        } catch (XRechnungWriterException e) {
+            throw unwrapIOException(e);
+        }
+    }
+
+    private void checkWritingItems() {
+        if (state == State.NEW) {
+            throw new IllegalStateException("The document has not been started");
+        }
+        if (state == State.FINISHED) {
+            throw new IllegalStateException("The document has already been finished");
+        }
+    }
+
+    private static IOException unwrapIOException(XRechnungWriterException e) {
+        if (e.getCause() instanceof IOException) {
+            return (IOException) e.getCause();
+        }
+        throw e;
+    }
+}
@@ -0,0 +1,247 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Contact;
+import de.codebarista.gallop.xrechnung.model.CreditTransfer;
+import de.codebarista.gallop.xrechnung.model.DirectDebit;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.PaymentCardInformation;
+import de.codebarista.gallop.xrechnung.model.PaymentInstructions;
+import de.codebarista.gallop.xrechnung.model.PostalAddress;
+import de.codebarista.gallop.xrechnung.model.SellerOrBuyer;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+/**
+ * The parts of an XRechnung that are the same for many invoices, rendered once into byte segments.
+ * <p>
+ * Most invoices of an application share the document context, the seller and the payment instructions.
+ * A template renders these parts once when it is compiled. A writer or engine that uses the template copies
+ * the segments into the document instead of rendering the parts again, and renders only the data that
+ * differs per invoice: document ID, dates, buyer, items and totals.
+ * <pre>{@code
+ * InvoiceTemplate template = InvoiceTemplate.compile(seller, paymentInstructions);
+ * XRechnungEngine engine = new XRechnungEngine(XmlBackend.DIRECT, template);
+ *
+ * byte[] xml = engine.render(invoice.seller(template.getSeller()));
+ * }</pre>
+ * <p>
+ * A segment is used only if the invoice has the same data as the template, so the document is always
+ * identical to the one rendered without template:
+ * <ul>
+ *     <li>the seller segment if the seller of the invoice is equal to the {@link #getSeller() seller of the
+ *     template}. Using the seller of the template makes the check an identity comparison.</li>
+ *     <li>the payment means and payment terms segments if the payment instructions of the invoice are equal
+ *     to the {@link #getPaymentInstructions() ones of the template}, apart from the remittance information
+ *     and the creditor ID, which are rendered for every invoice.</li>
+ * </ul>
+ * Only the {@link XmlBackend#DIRECT} backend copies segments; the other backends render all parts of the
+ * invoice. A template is immutable and can be shared by all threads.
+ */
+public final class InvoiceTemplate {
+    /**
+     * The number of open elements when the {@code ExchangedDocumentContext} is written
+     */
+    private static final int CONTEXT_DEPTH = 1;
+
+    /**
+     * The number of open elements when the seller, the payment means and the payment terms are written
+     */
+    private static final int HEADER_DEPTH = 3;
+
+    private final SellerOrBuyer seller;
+    private final PaymentInstructions paymentInstructions;
+    private final byte[] contextSegment;
+    private final byte[] sellerSegment;
+    private final byte[] paymentMeansSegment;
+    private final byte[] paymentTermsSegment;
+
+    private InvoiceTemplate(SellerOrBuyer seller, PaymentInstructions paymentInstructions) {
+        this.seller = seller;
+        this.paymentInstructions = paymentInstructions;
+        contextSegment = render(CONTEXT_DEPTH, XRechnungWriter::writeExchangedDocumentContext);
+        sellerSegment = seller != null
+                ? render(HEADER_DEPTH, out -> XRechnungWriter.writeSellerTradeParty(out, seller))
+                : null;
+        paymentMeansSegment = render(HEADER_DEPTH, out -> XRechnungWriter.writePaymentMeans(out, paymentInstructions));
+        paymentTermsSegment = render(HEADER_DEPTH, out -> XRechnungWriter.writePaymentTerms(out, paymentInstructions));
+    }
+
+    /**
+     * Compiles a template for invoices of the given seller with the given payment instructions.
+     * <p>
+     * The template keeps {@link Invoice#freeze() frozen} copies of the seller and the payment instructions,
+     * so changing them afterwards does not affect the template.
+     * </p>
+     *
+     * @param seller              the seller (BG-4) of the invoices, may be {@code null} if the seller differs
+     * @param paymentInstructions the payment instructions (BG-16) of the invoices, may be {@code null}
+     * @return the compiled template
+     */
+    public static InvoiceTemplate compile(SellerOrBuyer seller, PaymentInstructions paymentInstructions) {
+        Invoice snapshot = Invoice.create().seller(seller).paymentInstructions(paymentInstructions).freeze();
+        return new InvoiceTemplate(snapshot.getSeller(), snapshot.getPaymentInstructions());
+    }
+
+    /**
+     * Gets the frozen seller of this template.
+     */
+    public SellerOrBuyer getSeller() {
+        return seller;
+    }
+
+    /**
+     * Gets the frozen payment instructions of this template.
+     */
+    public PaymentInstructions getPaymentInstructions() {
+        return paymentInstructions;
+    }
+
+    /**
+     * Returns the {@code ExchangedDocumentContext}, which is the same for all invoices.
+     */
+    byte[] getContextSegment() {
+        return contextSegment;
+    }
+
+    /**
+     * Returns the {@code SellerTradeParty} of the given seller.
+     *
+     * @return the segment or {@code null} if the seller differs from the one of this template
+     */
+    byte[] getSellerSegment(SellerOrBuyer seller) {
+        return sellerSegment != null && matches(this.seller, seller) ? sellerSegment : null;
+    }
+
+    /**
+     * Returns the {@code SpecifiedTradeSettlementPaymentMeans} of the given payment instructions.
+     *
+     * @return the segment or {@code null} if the payment instructions differ from the ones of this template
+     */
+    byte[] getPaymentMeansSegment(PaymentInstructions paymentInstructions) {
+        return matches(paymentInstructions) ? paymentMeansSegment : null;
+    }
+
+    /**
+     * Returns the {@code SpecifiedTradePaymentTerms} of the given payment instructions.
+     *
+     * @return the segment, which is empty if there are no payment terms, or {@code null} if the payment
+     * instructions differ from the ones of this template
+     */
+    byte[] getPaymentTermsSegment(PaymentInstructions paymentInstructions) {
+        return matches(paymentInstructions) ? paymentTermsSegment : null;
+    }
+
+    /**
+     * Compares everything that is written into the payment means and payment terms segments.
+     */
+    private boolean matches(PaymentInstructions other) {
+        PaymentInstructions own = paymentInstructions;
+        if (other == own) {
+            return true;
+        }
+        if (other == null || own == null) {
+            return false;
+        }
+        return Objects.equals(own.getMeansType(), other.getMeansType())
+                && Objects.equals(own.getMeansText(), other.getMeansText())
+                && Objects.equals(own.getPaymentTerms(), other.getPaymentTerms())
+                && matchesCreditTransfers(own.getCreditTransfers(), other.getCreditTransfers())
+                && matches(own.getPaymentCardInformation(), other.getPaymentCardInformation())
+                && matches(own.getDirectDebit(), other.getDirectDebit());
+    }
+
+    /**
+     * Compares the data of two sellers. The model objects of an invoice are not frozen, so their {@code equals}
+     * only compares identity.
+     */
+    private static boolean matches(SellerOrBuyer own, SellerOrBuyer other) {
+        if (own == other) {
+            return true;
+        }
+        if (own == null || other == null) {
+            return false;
+        }
+        return Objects.equals(own.getName(), other.getName())
+                && Objects.equals(own.getTradingName(), other.getTradingName())
+                && Objects.equals(own.getVatId(), other.getVatId())
+                && Objects.equals(own.getElectronicAddress(), other.getElectronicAddress())
+                && Objects.equals(own.getElectronicAddressScheme(), other.getElectronicAddressScheme())
+                && matches(own.getAddress(), other.getAddress())
+                && matches(own.getContact(), other.getContact());
+    }
+
+    private static boolean matches(PostalAddress own, PostalAddress other) {
+        if (own == other) {
+            return true;
+        }
+        if (own == null || other == null) {
+            return false;
+        }
+        return Objects.equals(own.getAddressLineOne(), other.getAddressLineOne())
+                && Objects.equals(own.getAddressLineTwo(), other.getAddressLineTwo())
+                && Objects.equals(own.getAddressLineThree(), other.getAddressLineThree())
+                && Objects.equals(own.getCity(), other.getCity())
+                && Objects.equals(own.getZipCode(), other.getZipCode())
+                && Objects.equals(own.getCountryIsoCode(), other.getCountryIsoCode());
+    }
+
+    private static boolean matches(Contact own, Contact other) {
+        if (own == other) {
+            return true;
+        }
+        if (own == null || other == null) {
+            return false;
+        }
+        return Objects.equals(own.getName(), other.getName())
+                && Objects.equals(own.getPhone(), other.getPhone())
+                && Objects.equals(own.getEmail(), other.getEmail());
+    }
+
+    private static boolean matchesCreditTransfers(List<CreditTransfer> own, List<CreditTransfer> other) {
+        if (own.size() != other.size()) {
+            return false;
+        }
+        for (int i = 0; i < own.size(); i++) {
+            CreditTransfer ownTransfer = own.get(i);
+            CreditTransfer otherTransfer = other.get(i);
+            if (ownTransfer != otherTransfer
+                    && (ownTransfer == null || otherTransfer == null
+                    || !Objects.equals(ownTransfer.getIban(), otherTransfer.getIban())
+                    || !Objects.equals(ownTransfer.getAccountName(), otherTransfer.getAccountName())
+                    || !Objects.equals(ownTransfer.getBic(), otherTransfer.getBic()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean matches(PaymentCardInformation own, PaymentCardInformation other) {
+        if (own == other) {
+            return true;
+        }
+        if (own == null || other == null) {
+            return false;
+        }
+        return Objects.equals(own.getAccountNumber(), other.getAccountNumber())
+                && Objects.equals(own.getCardHolderName(), other.getCardHolderName());
+    }
+
+    /**
+     * Compares the parts of a direct debit that are written into the segments, the creditor ID is not.
+     */
+    private static boolean matches(DirectDebit own, DirectDebit other) {
+        if (own == null || other == null) {
+            return own == other;
+        }
+        return Objects.equals(own.getMandateReference(), other.getMandateReference())
+                && Objects.equals(own.getDebitedAccountIban(), other.getDebitedAccountIban());
+    }
+
+    private static byte[] render(int depth, Consumer<XmlSink> part) {
+        DirectXmlSink fragment = DirectXmlSink.fragment(depth);
+        part.accept(fragment);
+        return fragment.toByteArray();
+    }
+}
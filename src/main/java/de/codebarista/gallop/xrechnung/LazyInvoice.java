@@ -0,0 +1,74 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+
+import java.nio.ByteBuffer;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * An invoice read by {@link XRechnungReader#readLazily(java.nio.file.Path)}, whose line items are read on demand
+ * from a memory-mapped file.
+ * <p>
+ * The {@link #getInvoice() invoice} contains everything but the line items, so it can be routed by its seller or
+ * totals without reading a single line. Every call of {@link #lineItems()} or {@link #streamLineItems()} starts
+ * a new pass over the mapped file that creates the items one at a time:
+ * <pre>{@code
+ * LazyInvoice lazy = XRechnungReader.getDefault().readLazily(path);
+ * if (needsLineLevelProcessing(lazy.getInvoice())) {
+ *     try (Stream<Item> items = lazy.streamLineItems()) {
+ *         items.forEach(this::process);
+ *     }
+ * }
+ * }</pre>
+ * A pass that ends before the last line item must close its iterator or stream. The mapping is released by the
+ * garbage collector once the lazy invoice and all of its iterators are unreachable. Passes can run concurrently,
+ * each of them on one thread.
+ */
+public final class LazyInvoice {
+    private final XRechnungReader reader;
+    private final ByteBuffer xml;
+    private final Invoice invoice;
+
+    LazyInvoice(XRechnungReader reader, ByteBuffer xml, Invoice invoice) {
+        this.reader = reader;
+        this.xml = xml;
+        this.invoice = invoice;
+    }
+
+    /**
+     * Returns the invoice without its line items.
+     *
+     * @return the invoice, whose list of items is empty
+     */
+    public Invoice getInvoice() {
+        return invoice;
+    }
+
+    /**
+     * Starts a new pass over the line items. The iterator closes itself after the last line item, a pass that
+     * ends earlier must close it.
+     *
+     * @return an iterator that reads the next line item from the file when it is requested
+     * @throws XRechnungReaderException if a line item cannot be read, also thrown by the iterator
+     */
+    public XRechnungReader.LineItemIterator lineItems() {
+        return reader.lineItems(xml);
+    }
+
+    /**
+     * Starts a new pass over the line items. Closing the stream ends the pass before the last line item.
+     *
+     * @return a sequential stream that reads the line items from the file when they are requested
+     * @throws XRechnungReaderException if a line item cannot be read, also thrown by the stream
+     */
+    public Stream<Item> streamLineItems() {
+        XRechnungReader.LineItemIterator iterator = reader.lineItems(xml);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                        Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(iterator::close);
+    }
+}
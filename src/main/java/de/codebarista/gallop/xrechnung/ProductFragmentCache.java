@@ -0,0 +1,174 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemAttribute;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of rendered {@code SpecifiedTradeProduct} elements of recurring products.
+ * <p>
+ * The product element of an invoice line consists of the seller's item ID, the name, the description and
+ * the item attributes. If the same products appear on many invoices, a writer that uses this cache renders
+ * the escaped and encoded element of a product once and copies it into all further documents.
+ * <p>
+ * Products are identified by their seller's item ID (BT-155) together with all other data of the element,
+ * so an item whose name or attributes have changed is rendered again. Items without seller's item ID are
+ * not cached. When the cache is full, the least recently used product is evicted. The numbers of
+ * {@link #getHits() hits} and {@link #getMisses() misses} help to choose the size of the cache.
+ * <p>
+ * Only the {@link XmlBackend#DIRECT} backend uses the cache. A cache is thread-safe and is meant to be shared
+ * by all writers of an application.
+ */
+public final class ProductFragmentCache {
+    private final int maxEntries;
+    private final Map<ProductKey, Fragment> fragments;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param maxEntries the maximum number of products in the cache, at least 1
+     */
+    public ProductFragmentCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be at least 1, but was " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        this.fragments = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ProductKey, Fragment> eldest) {
+                return size() > ProductFragmentCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Gets the maximum number of products in the cache.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Gets the number of products in the cache.
+     */
+    public synchronized int size() {
+        return fragments.size();
+    }
+
+    /**
+     * Gets the number of product elements that have been copied from the cache.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of product elements that have been rendered and added to the cache.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Removes all products and resets the counters.
+     */
+    public synchronized void clear() {
+        fragments.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    /**
+     * Writes the product element of an item into the sink, from the cache if possible.
+     *
+     * @param out  the sink, positioned inside the {@code IncludedSupplyChainTradeLineItem}
+     * @param item the item
+     * @return {@code true} if the element has been written, {@code false} if the item cannot be cached
+     * or the sink writes another line separator than the cached elements, and the caller must write the element
+     */
+    boolean append(DirectXmlSink out, Item item) {
+        if (!XRechnungUtils.isNotNullOrBlank(item.getSellerAssignedId()) || !out.hasPlatformLineSeparator()) {
+            return false;
+        }
+        ProductKey key = new ProductKey(item);
+        int depth = out.depth();
+        Fragment fragment;
+        synchronized (this) {
+            fragment = fragments.get(key);
+            if (fragment != null && fragment.depth == depth) {
+                hits++;
+            } else {
+                fragment = null;
+                misses++;
+            }
+        }
+        if (fragment == null) {
+            DirectXmlSink sink = DirectXmlSink.fragment(depth);
+            XRechnungWriter.writeTradeProduct(sink, item);
+            fragment = new Fragment(sink.toByteArray(), depth);
+            synchronized (this) {
+                fragments.put(key, fragment);
+            }
+        }
+        out.append(fragment.bytes);
+        return true;
+    }
+
+    /**
+     * A rendered product element and the depth it has been rendered at
+     */
+    private static final class Fragment {
+        private final byte[] bytes;
+        private final int depth;
+
+        Fragment(byte[] bytes, int depth) {
+            this.bytes = bytes;
+            this.depth = depth;
+        }
+    }
+
+    /**
+     * The data of a product element: seller's item ID, name, description and the names and values
+     * of the item attributes
+     */
+    private static final class ProductKey {
+        private final String[] values;
+        private final int hash;
+
+        ProductKey(Item item) {
+            List<ItemAttribute> attributes = item.getItemAttributes();
+            values = new String[3 + 2 * attributes.size()];
+            values[0] = item.getSellerAssignedId();
+            values[1] = item.getName();
+            values[2] = item.getDescription();
+            for (int i = 0; i < attributes.size(); i++) {
+                values[3 + 2 * i] = attributes.get(i).getName();
+                values[4 + 2 * i] = attributes.get(i).getValue();
+            }
+            hash = Arrays.hashCode(values);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ProductKey)) {
+                return false;
+            }
+            ProductKey other = (ProductKey) o;
+            return hash == other.hash && Arrays.equals(values, other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
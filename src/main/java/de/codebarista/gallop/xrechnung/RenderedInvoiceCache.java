@@ -0,0 +1,400 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * A cache of rendered XRechnung documents in front of an {@link XRechnungEngine}, bounded by the total number
+ * of bytes of the cached documents.
+ * <p>
+ * Invoices are identified by a SHA-256 fingerprint of the document they render to, which the engine computes by
+ * walking the invoice without rendering it. Two invoices that render to the same document share a cache entry,
+ * whether they are the same object or not, and an invoice that is changed after it has been rendered gets a new
+ * fingerprint. The cache keeps neither the invoices nor copies of them, only the fingerprints.
+ * <p>
+ * Computing the fingerprint walks the whole invoice. For a {@link Invoice#freeze() frozen} invoice it is computed
+ * once and kept with the snapshot, so a hit on a snapshot that has been looked up before costs no more than the
+ * map lookup. Invoices that are requested again and again should therefore be frozen.
+ * <pre>{@code
+ * RenderedInvoiceCache cache = new RenderedInvoiceCache(engine, 64 * 1024 * 1024, true);
+ *
+ * cache.writeTo(invoice, response.getOutputStream());
+ * }</pre>
+ * <p>
+ * The size of an entry is the size of its document plus {@value #ENTRY_OVERHEAD} bytes for the fingerprint and
+ * the bookkeeping. When the entries exceed the maximum size, the least recently used ones are evicted. With the
+ * soft tier enabled, evicted documents are kept as {@link SoftReference soft references} until the garbage
+ * collector needs the memory, and are moved back into the cache when they are requested again. The soft tier
+ * is bounded by the maximum size, too, and drops its oldest entries first. Documents larger than the maximum
+ * size are rendered but not cached.
+ * <p>
+ * A cache is thread-safe. The invoice must not be modified while it is looked up. Invoices that are missing are
+ * rendered outside the lock, so two threads requesting the same missing invoice may both render it.
+ */
+public final class RenderedInvoiceCache {
+    /**
+     * The estimated number of bytes of an entry besides its document: the fingerprint, the map entry and the
+     * array header of the document, or the soft reference in the soft tier
+     */
+    public static final int ENTRY_OVERHEAD = 128;
+
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    private final XRechnungEngine engine;
+    private final long maxBytes;
+    private final Map<Fingerprint, byte[]> documents = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Fingerprint, SoftDocument> softDocuments;
+    private final ReferenceQueue<byte[]> clearedDocuments;
+    private final ThreadLocalPool<MessageDigest> digests = new ThreadLocalPool<>();
+    private long bytes;
+    private long softBytes;
+    private long hits;
+    private long softHits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * Creates a new, empty cache without soft tier that renders with the {@link XRechnungEngine#getDefault()
+     * default engine}.
+     *
+     * @param maxBytes the maximum total size of the entries, at least 1
+     */
+    public RenderedInvoiceCache(long maxBytes) {
+        this(XRechnungEngine.getDefault(), maxBytes, false);
+    }
+
+    /**
+     * Creates a new, empty cache.
+     *
+     * @param engine   the engine that renders missing invoices, must not be {@code null}
+     * @param maxBytes the maximum total size of the entries, at least 1. The soft tier can hold the same size.
+     * @param softTier {@code true} to keep evicted documents as soft references
+     */
+    public RenderedInvoiceCache(XRechnungEngine engine, long maxBytes, boolean softTier) {
+        Objects.requireNonNull(engine, "Engine must not be null");
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("maxBytes must be at least 1, but was " + maxBytes);
+        }
+        this.engine = engine;
+        this.maxBytes = maxBytes;
+        this.softDocuments = softTier ? new LinkedHashMap<>() : null;
+        this.clearedDocuments = softTier ? new ReferenceQueue<>() : null;
+    }
+
+    /**
+     * Returns the XRechnung XML of an invoice, from the cache if possible.
+     *
+     * @param invoice the invoice, must not be {@code null}
+     * @return a copy of the document, which the caller may modify
+     * @throws XRechnungWriterException if the creation of the XRechnung failed
+     * @see #view(Invoice)
+     */
+    public byte[] render(Invoice invoice) {
+        return get(invoice).clone();
+    }
+
+    /**
+     * Returns the XRechnung XML of an invoice as a read-only view of the cached document, from the cache if
+     * possible. Unlike {@link #render(Invoice)}, the document is not copied.
+     *
+     * @param invoice the invoice, must not be {@code null}
+     * @return a read-only buffer of the document, positioned at its start
+     * @throws XRechnungWriterException if the creation of the XRechnung failed
+     */
+    public ByteBuffer view(Invoice invoice) {
+        return ByteBuffer.wrap(get(invoice)).asReadOnlyBuffer();
+    }
+
+    /**
+     * Writes the XRechnung XML of an invoice to the given stream, from the cache if possible.
+     * The cached document is written without copying it.
+     *
+     * @param invoice the invoice, must not be {@code null}
+     * @param output  the stream to write to, must not be {@code null}. It is neither flushed nor closed.
+     * @throws IOException              if writing to the stream fails
+     * @throws XRechnungWriterException if the creation of the XRechnung failed
+     */
+    public void writeTo(Invoice invoice, OutputStream output) throws IOException {
+        Objects.requireNonNull(output, "Output must not be null");
+        output.write(get(invoice));
+    }
+
+    /**
+     * Gets the maximum total size of the entries.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Gets the total size of the entries in the cache, including their {@link #ENTRY_OVERHEAD}, not counting the
+     * soft tier.
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Gets the number of documents in the cache, not counting the soft tier.
+     */
+    public synchronized int size() {
+        return documents.size();
+    }
+
+    /**
+     * Gets the number of documents that have been returned from the cache, including the soft tier.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of documents that have been returned from the soft tier.
+     */
+    public synchronized long getSoftHits() {
+        return softHits;
+    }
+
+    /**
+     * Gets the number of documents that have been rendered because they were not in the cache.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of documents that have been evicted to keep the cache within its maximum size.
+     */
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the share of requests that have been answered from the cache.
+     *
+     * @return the hit rate between 0 and 1, or 0 if there have been no requests
+     */
+    public synchronized double getHitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0 : (double) hits / requests;
+    }
+
+    /**
+     * Removes all documents, including the soft tier, and resets the counters.
+     */
+    public synchronized void clear() {
+        documents.clear();
+        if (softDocuments != null) {
+            softDocuments.clear();
+            while (clearedDocuments.poll() != null) {
+                // drop the references that the garbage collector has cleared
+            }
+        }
+        bytes = 0;
+        softBytes = 0;
+        hits = 0;
+        softHits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    private byte[] get(Invoice invoice) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        Fingerprint key = fingerprint(invoice);
+        synchronized (this) {
+            byte[] document = documents.get(key);
+            if (document != null) {
+                hits++;
+                return document;
+            }
+            document = takeSoftDocument(key);
+            if (document != null) {
+                hits++;
+                softHits++;
+                return document;
+            }
+            misses++;
+        }
+        byte[] document = engine.render(invoice);
+        synchronized (this) {
+            if (softDocuments != null) {
+                removeSoftDocument(key);
+            }
+            put(key, document);
+        }
+        return document;
+    }
+
+    private Fingerprint fingerprint(Invoice invoice) {
+        if (invoice.isFrozen()) {
+            Object fingerprint = invoice.fingerprint(this::computeFingerprint);
+            if (fingerprint instanceof Fingerprint) {
+                return (Fingerprint) fingerprint;
+            }
+        }
+        return computeFingerprint(invoice);
+    }
+
+    private Fingerprint computeFingerprint(Invoice invoice) {
+        MessageDigest digest = digests.take();
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                // every Java platform supports SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+        try {
+            return new Fingerprint(new XRechnungWriter(invoice, engine).computeFingerprint(digest));
+        } finally {
+            digests.release(digest);
+        }
+    }
+
+    /**
+     * Removes a document from the soft tier and moves it back into the cache.
+     *
+     * @return the document or {@code null} if it is not in the soft tier
+     */
+    private byte[] takeSoftDocument(Fingerprint key) {
+        if (softDocuments == null) {
+            return null;
+        }
+        expungeClearedDocuments();
+        SoftDocument reference = removeSoftDocument(key);
+        byte[] document = reference != null ? reference.get() : null;
+        if (document != null) {
+            put(key, document);
+        }
+        return document;
+    }
+
+    private SoftDocument removeSoftDocument(Fingerprint key) {
+        SoftDocument reference = softDocuments.remove(key);
+        if (reference != null) {
+            softBytes -= reference.size;
+        }
+        return reference;
+    }
+
+    private void put(Fingerprint key, byte[] document) {
+        long size = entrySize(document);
+        if (size > maxBytes) {
+            return;
+        }
+        byte[] previous = documents.put(key, document);
+        bytes += size - (previous != null ? entrySize(previous) : 0);
+        Iterator<Map.Entry<Fingerprint, byte[]>> eldest = documents.entrySet().iterator();
+        while (bytes > maxBytes) {
+            Map.Entry<Fingerprint, byte[]> entry = eldest.next();
+            long evicted = entrySize(entry.getValue());
+            bytes -= evicted;
+            evictions++;
+            if (softDocuments != null) {
+                putSoftDocument(new SoftDocument(entry.getKey(), entry.getValue(), evicted, clearedDocuments));
+            }
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Adds an evicted document to the soft tier and drops the oldest ones beyond the maximum size.
+     */
+    private void putSoftDocument(SoftDocument document) {
+        SoftDocument previous = softDocuments.put(document.key, document);
+        softBytes += document.size - (previous != null ? previous.size : 0);
+        Iterator<SoftDocument> oldest = softDocuments.values().iterator();
+        while (softBytes > maxBytes) {
+            softBytes -= oldest.next().size;
+            oldest.remove();
+        }
+    }
+
+    private static long entrySize(byte[] document) {
+        return (long) document.length + ENTRY_OVERHEAD;
+    }
+
+    /**
+     * Removes the entries of the soft tier whose documents the garbage collector has cleared.
+     */
+    private void expungeClearedDocuments() {
+        Reference<? extends byte[]> cleared;
+        while ((cleared = clearedDocuments.poll()) != null) {
+            SoftDocument document = (SoftDocument) cleared;
+            if (softDocuments.remove(document.key, document)) {
+                softBytes -= document.size;
+            }
+        }
+    }
+
+    /**
+     * The SHA-256 fingerprint of a document, see {@link XRechnungWriter#computeFingerprint(MessageDigest)}
+     */
+    private static final class Fingerprint {
+        private final long first;
+        private final long second;
+        private final long third;
+        private final long fourth;
+
+        Fingerprint(byte[] digest) {
+            first = toLong(digest, 0);
+            second = toLong(digest, 8);
+            third = toLong(digest, 16);
+            fourth = toLong(digest, 24);
+        }
+
+        private static long toLong(byte[] bytes, int offset) {
+            long value = 0;
+            for (int i = offset; i < offset + 8; i++) {
+                value = value << 8 | (bytes[i] & 0xFF);
+            }
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint other = (Fingerprint) o;
+            return first == other.first && second == other.second && third == other.third && fourth == other.fourth;
+        }
+
+        @Override
+        public int hashCode() {
+            // the bits of a digest are evenly distributed already
+            return (int) first;
+        }
+    }
+
+    /**
+     * A document of the soft tier, which remembers its key and size so that it can be removed once it has been
+     * cleared
+     */
+    private static final class SoftDocument extends SoftReference<byte[]> {
+        private final Fingerprint key;
+        private final long size;
+
+        SoftDocument(Fingerprint key, byte[] document, long size, ReferenceQueue<byte[]> queue) {
+            super(document, queue);
+            this.key = key;
+            this.size = size;
+        }
+    }
+}
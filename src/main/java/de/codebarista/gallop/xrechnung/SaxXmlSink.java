@@ -0,0 +1,126 @@
+package de.codebarista.gallop.xrechnung;
+
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
+
+import java.util.Arrays;
+
+/**
+ * {@link XmlSink} that reports the elements as SAX events to a {@link ContentHandler}, e.g. a
+ * {@link javax.xml.validation.ValidatorHandler}, instead of serializing them.
+ * <p>
+ * The handler receives the elements, attributes and text of the document, but neither the XML declaration nor
+ * the indentation, which is whitespace between elements without meaning in the CII document. The namespaces of
+ * all {@link CiiNamespace}s are mapped on the root element, like in the serialized document.
+ */
+class SaxXmlSink implements XmlSink {
+    private static final String CDATA = "CDATA";
+
+    private final ContentHandler handler;
+    private final AttributesImpl attributes = new AttributesImpl();
+    private CiiElement[] openElements = new CiiElement[16];
+    private CiiElement pendingElement;
+    private char[] characters = new char[64];
+    private int depth;
+
+    /**
+     * Creates a new sink that reports to the given handler.
+     *
+     * @param handler the handler that receives the events
+     */
+    SaxXmlSink(ContentHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void startDocument() {
+        try {
+            handler.startDocument();
+        } catch (SAXException e) {
+            throw new XRechnungWriterException("Failed to start the XML document", e);
+        }
+    }
+
+    @Override
+    public void startElement(CiiElement element) {
+        try {
+            reportPendingStartElement();
+        } catch (SAXException e) {
+            throw new XRechnungWriterException("Failed to write element " + pendingElement.getQualifiedName(), e);
+        }
+        pendingElement = element;
+    }
+
+    @Override
+    public void attribute(String name, String value) {
+        if (pendingElement == null) {
+            throw new IllegalStateException("Attribute " + name + " must be added before the element content");
+        }
+        attributes.addAttribute("", name, name, CDATA, value == null ? "" : value);
+    }
+
+    @Override
+    public void text(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        try {
+            reportPendingStartElement();
+            int length = text.length();
+            if (length > characters.length) {
+                characters = new char[Math.max(length, characters.length * 2)];
+            }
+            text.getChars(0, length, characters, 0);
+            handler.characters(characters, 0, length);
+        } catch (SAXException e) {
+            throw new XRechnungWriterException("Failed to write text", e);
+        }
+    }
+
+    @Override
+    public void endElement() {
+        try {
+            reportPendingStartElement();
+            CiiElement element = openElements[--depth];
+            CiiNamespace namespace = element.getNamespace();
+            handler.endElement(namespace.getUri(), element.getLocalName(), element.getQualifiedName());
+            if (element == CiiElement.CROSS_INDUSTRY_INVOICE) {
+                for (CiiNamespace declared : CiiNamespace.values()) {
+                    handler.endPrefixMapping(declared.getPrefix());
+                }
+            }
+        } catch (SAXException e) {
+            throw new XRechnungWriterException("Failed to end element", e);
+        }
+    }
+
+    @Override
+    public void endDocument() {
+        try {
+            handler.endDocument();
+        } catch (SAXException e) {
+            throw new XRechnungWriterException("Failed to end the XML document", e);
+        }
+    }
+
+    private void reportPendingStartElement() throws SAXException {
+        if (pendingElement == null) {
+            return;
+        }
+        if (pendingElement == CiiElement.CROSS_INDUSTRY_INVOICE) {
+            for (CiiNamespace declared : CiiNamespace.values()) {
+                handler.startPrefixMapping(declared.getPrefix(), declared.getUri());
+            }
+        }
+        CiiNamespace namespace = pendingElement.getNamespace();
+        handler.startElement(namespace.getUri(), pendingElement.getLocalName(), pendingElement.getQualifiedName(),
+                attributes);
+        attributes.clear();
+        if (depth == openElements.length) {
+            openElements = Arrays.copyOf(openElements, depth * 2);
+        }
+        openElements[depth++] = pendingElement;
+        pendingElement = null;
+    }
+}
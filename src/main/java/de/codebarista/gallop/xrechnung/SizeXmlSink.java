@@ -0,0 +1,189 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.util.Arrays;
+
+/**
+ * {@link XmlSink} that does not write anything but counts the bytes that the {@link DirectXmlSink} would write.
+ * <p>
+ * The lengths of tags, indentation and escaped text are summed up with the same rules the direct sink uses
+ * to write them, the escaping rules are shared by all sinks in {@link XmlCharacters}. The result is the exact size
+ * of the document of every {@link XmlBackend}, except for attribute values with line breaks, tabs or control
+ * characters written by the {@link StaxXmlSink}.
+ */
+class SizeXmlSink implements XmlSink {
+    private static final int NAMESPACE_DECLARATIONS_LENGTH = namespaceDeclarationsLength();
+
+    private final int lineSeparatorLength;
+    private boolean[] hasChildElements = new boolean[16];
+    private CiiElement[] openElements = new CiiElement[16];
+    private int depth;
+    private boolean startTagOpen;
+    private long size;
+    private byte[] digits = new byte[XmlValueFormat.MAX_DECIMAL_LENGTH];
+
+    /**
+     * Creates a new sink that counts the line separator of the platform.
+     */
+    SizeXmlSink() {
+        this(System.lineSeparator());
+    }
+
+    /**
+     * Creates a new sink that counts the given line separator.
+     *
+     * @param lineSeparator the line separator of the document
+     */
+    SizeXmlSink(String lineSeparator) {
+        lineSeparatorLength = lineSeparator.length();
+    }
+
+    /**
+     * Returns the number of bytes that have been counted.
+     *
+     * @return the size of the document
+     */
+    long size() {
+        return size;
+    }
+
+    @Override
+    public void startDocument() {
+        size += XmlCharacters.XML_DECLARATION.length() + lineSeparatorLength;
+    }
+
+    @Override
+    public void startElement(CiiElement element) {
+        closeStartTag();
+        if (depth > 0) {
+            hasChildElements[depth - 1] = true;
+            size += indentLength(depth);
+        }
+        size += element.getStartTag().length;
+        if (element == CiiElement.CROSS_INDUSTRY_INVOICE) {
+            size += NAMESPACE_DECLARATIONS_LENGTH;
+        }
+        if (depth == openElements.length) {
+            openElements = Arrays.copyOf(openElements, depth * 2);
+            hasChildElements = Arrays.copyOf(hasChildElements, depth * 2);
+        }
+        openElements[depth] = element;
+        hasChildElements[depth] = false;
+        depth++;
+        startTagOpen = true;
+    }
+
+    @Override
+    public void attribute(String name, String value) {
+        if (!startTagOpen) {
+            throw new IllegalStateException("Attribute " + name + " must be added before the element content");
+        }
+        // space, name, equals sign and quotes
+        size += name.length() + 4;
+        if (value != null) {
+            size += XmlCharacters.escapedLength(value, true);
+        }
+    }
+
+    @Override
+    public void text(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        closeStartTag();
+        size += XmlCharacters.escapedLength(text, false);
+    }
+
+    @Override
+    public void text(long value) {
+        closeStartTag();
+        size += XmlValueFormat.formatLong(value, digits(XmlValueFormat.MAX_LONG_LENGTH), 0);
+    }
+
+    @Override
+    public void decimal(BigDecimal value) {
+        if (value == null) {
+            return;
+        }
+        if (!XmlValueFormat.canFormat(value)) {
+            text(value.toString());
+            return;
+        }
+        closeStartTag();
+        size += XmlValueFormat.formatDecimal(value, digits(XmlValueFormat.MAX_DECIMAL_LENGTH), 0);
+    }
+
+    @Override
+    public void decimal(long unscaled, int scale) {
+        if (!XmlValueFormat.canFormat(unscaled, scale)) {
+            text(BigDecimal.valueOf(unscaled, scale).toString());
+            return;
+        }
+        closeStartTag();
+        size += XmlValueFormat.formatDecimal(unscaled, scale, digits(XmlValueFormat.MAX_LONG_LENGTH + scale), 0);
+    }
+
+    @Override
+    public void date(OffsetDateTime time) {
+        if (time == null) {
+            return;
+        }
+        if (!XmlValueFormat.canFormat(time)) {
+            text(time.format(XmlValueFormat.DATE_FORMAT));
+            return;
+        }
+        closeStartTag();
+        size += XmlValueFormat.DATE_LENGTH;
+    }
+
+    @Override
+    public void endElement() {
+        depth--;
+        if (startTagOpen) {
+            // "/>"
+            size += 2;
+            startTagOpen = false;
+            return;
+        }
+        if (hasChildElements[depth]) {
+            size += indentLength(depth);
+        }
+        size += openElements[depth].getEndTag().length;
+    }
+
+    @Override
+    public void endDocument() {
+        size += lineSeparatorLength;
+    }
+
+    private void closeStartTag() {
+        if (startTagOpen) {
+            size++;
+            startTagOpen = false;
+        }
+    }
+
+    /**
+     * Returns a scratch buffer that numbers are formatted into to learn their length.
+     */
+    private byte[] digits(int length) {
+        if (digits.length < length) {
+            digits = new byte[length];
+        }
+        return digits;
+    }
+
+    private int indentLength(int level) {
+        return lineSeparatorLength + level * XmlCharacters.INDENT_SIZE;
+    }
+
+    private static int namespaceDeclarationsLength() {
+        int length = 0;
+        for (CiiNamespace namespace : CiiNamespace.values()) {
+            // " xmlns:", prefix, "=\"", URI and "\""
+            length += 7 + namespace.getPrefix().length() + 2 + namespace.getUri().length() + 1;
+        }
+        return length;
+    }
+}
@@ -0,0 +1,197 @@
+package de.codebarista.gallop.xrechnung;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link XmlSink} of the {@link XmlBackend#STAX} backend that writes the elements straight to an
+ * {@link OutputStream} using a {@link XMLStreamWriter}.
+ * <p>
+ * The output is byte-identical to the one of the {@link XmlBackend#DOM} backend: the sink writes the same
+ * XML declaration, indents child elements by four spaces, collapses elements without content to empty elements
+ * and writes the same character references for characters that the XML serializer does not output literally.
+ * Attribute values are passed to the {@link XMLStreamWriter} as they are, so line breaks, tabs or control
+ * characters in an attribute value (none of which are part of a valid code) are not replaced
+ * by character references.
+ */
+class StaxXmlSink implements XmlSink {
+    private final OutputStream output;
+    private final XMLOutputFactory outputFactory;
+    private final String lineSeparator = System.lineSeparator();
+    private final List<String> pendingAttributes = new ArrayList<>();
+    private XMLStreamWriter writer;
+    private String[] indents = new String[0];
+    private boolean[] hasChildElements = new boolean[16];
+    private CiiElement pendingElement;
+    private int depth;
+
+    /**
+     * Creates a new sink that writes UTF-8 encoded XML to the given stream.
+     *
+     * @param output        the stream to write to, it is not closed by the sink
+     * @param outputFactory the factory that creates the {@link XMLStreamWriter}, it is shared with other threads
+     */
+    StaxXmlSink(OutputStream output, XMLOutputFactory outputFactory) {
+        this.output = output;
+        this.outputFactory = outputFactory;
+    }
+
+    @Override
+    public void startDocument() {
+        try {
+            output.write((XmlCharacters.XML_DECLARATION + lineSeparator).getBytes(StandardCharsets.UTF_8));
+            synchronized (outputFactory) {
+                writer = outputFactory.createXMLStreamWriter(output, "UTF-8");
+            }
+        } catch (IOException | XMLStreamException e) {
+            throw new XRechnungWriterException("Failed to start the XML document", e);
+        }
+    }
+
+    @Override
+    public void startElement(CiiElement element) {
+        try {
+            writePendingStartElement(false);
+            if (depth > 0) {
+                hasChildElements[depth - 1] = true;
+                writer.writeCharacters(indent(depth));
+            }
+            pendingElement = element;
+        } catch (XMLStreamException e) {
+            throw new XRechnungWriterException("Failed to write element " + element.getQualifiedName(), e);
+        }
+    }
+
+    @Override
+    public void attribute(String name, String value) {
+        if (pendingElement == null) {
+            throw new IllegalStateException("Attribute " + name + " must be added before the element content");
+        }
+        pendingAttributes.add(name);
+        pendingAttributes.add(value == null ? "" : value);
+    }
+
+    @Override
+    public void text(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        try {
+            writePendingStartElement(false);
+            writeEscaped(text);
+        } catch (XMLStreamException e) {
+            throw new XRechnungWriterException("Failed to write text", e);
+        }
+    }
+
+    @Override
+    public void endElement() {
+        try {
+            if (pendingElement != null) {
+                writePendingStartElement(true);
+                return;
+            }
+            depth--;
+            if (hasChildElements[depth]) {
+                writer.writeCharacters(indent(depth));
+            }
+            writer.writeEndElement();
+        } catch (XMLStreamException e) {
+            throw new XRechnungWriterException("Failed to end element", e);
+        }
+    }
+
+    @Override
+    public void endDocument() {
+        try {
+            writer.writeEndDocument();
+            writer.close();
+            output.write(lineSeparator.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException | XMLStreamException e) {
+            throw new XRechnungWriterException("Failed to end the XML document", e);
+        }
+    }
+
+    private void writePendingStartElement(boolean empty) throws XMLStreamException {
+        if (pendingElement == null) {
+            return;
+        }
+        CiiNamespace namespace = pendingElement.getNamespace();
+        if (empty) {
+            writer.writeEmptyElement(namespace.getPrefix(), pendingElement.getLocalName(), namespace.getUri());
+        } else {
+            writer.writeStartElement(namespace.getPrefix(), pendingElement.getLocalName(), namespace.getUri());
+        }
+        if (pendingElement == CiiElement.CROSS_INDUSTRY_INVOICE) {
+            for (CiiNamespace declared : CiiNamespace.values()) {
+                writer.writeNamespace(declared.getPrefix(), declared.getUri());
+            }
+        }
+        for (int i = 0; i < pendingAttributes.size(); i += 2) {
+            writer.writeAttribute(pendingAttributes.get(i), pendingAttributes.get(i + 1));
+        }
+        pendingAttributes.clear();
+        pendingElement = null;
+        if (!empty) {
+            if (depth == hasChildElements.length) {
+                hasChildElements = Arrays.copyOf(hasChildElements, depth * 2);
+            }
+            hasChildElements[depth] = false;
+            depth++;
+        }
+    }
+
+    /**
+     * Writes the text escaped by the rules of {@link XmlCharacters}. The entity and character references are
+     * written by the sink, so the {@link XMLStreamWriter} receives only runs of characters that it does not escape.
+     */
+    private void writeEscaped(String text) throws XMLStreamException {
+        int start = 0;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (XmlCharacters.isPlainAscii(c)) {
+                continue;
+            }
+            String entity = XmlCharacters.entityName(c, false);
+            if (entity == null && !XmlCharacters.needsCharacterReference(c, false)) {
+                continue;
+            }
+            if (start < i) {
+                writer.writeCharacters(text.substring(start, i));
+            }
+            if (entity != null) {
+                writer.writeEntityRef(entity);
+            } else {
+                int codePoint = XmlCharacters.codePointAt(text, i);
+                if (Character.isSupplementaryCodePoint(codePoint)) {
+                    i++;
+                }
+                writer.writeEntityRef("#" + codePoint);
+            }
+            start = i + 1;
+        }
+        if (start == 0) {
+            writer.writeCharacters(text);
+        } else if (start < length) {
+            writer.writeCharacters(text.substring(start));
+        }
+    }
+
+    private String indent(int level) {
+        if (level >= indents.length) {
+            indents = Arrays.copyOf(indents, level + 1);
+        }
+        if (indents[level] == null) {
+            indents[level] = lineSeparator + " ".repeat(level * XmlCharacters.INDENT_SIZE);
+        }
+        return indents[level];
+    }
+}
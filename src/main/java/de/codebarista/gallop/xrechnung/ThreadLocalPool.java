@@ -0,0 +1,36 @@
+package de.codebarista.gallop.xrechnung;
+
+/**
+ * Keeps one reusable instance of a non thread-safe resource per thread.
+ * <p>
+ * A resource is taken out of the pool for the time it is used and put back afterward.
+ * While it is taken, the pool is empty for the current thread, so a nested use on the same thread
+ * gets {@code null} and has to create a new instance instead of sharing the one in use.
+ *
+ * @param <T> the type of the resource
+ */
+class ThreadLocalPool<T> {
+    private final ThreadLocal<T> resources = new ThreadLocal<>();
+
+    /**
+     * Takes the resource of the current thread out of the pool.
+     *
+     * @return the resource or {@code null} if the pool of the current thread is empty
+     */
+    T take() {
+        T resource = resources.get();
+        if (resource != null) {
+            resources.set(null);
+        }
+        return resource;
+    }
+
+    /**
+     * Puts a resource back into the pool of the current thread.
+     *
+     * @param resource the resource that can be reused by the next {@link #take()}
+     */
+    void release(T resource) {
+        resources.set(resource);
+    }
+}
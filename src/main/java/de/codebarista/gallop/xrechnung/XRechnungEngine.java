@@ -0,0 +1,291 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import java.io.OutputStream;
+import java.util.Objects;
+
+/**
+ * A long-lived, thread-safe engine that renders invoices to XRechnung XML.
+ * <p>
+ * Looking up the JAXP factories is expensive and dominates the rendering time of small invoices.
+ * An engine creates the factories that its {@link XmlBackend} needs only once and keeps one
+ * {@link DocumentBuilder}, {@link Transformer} or output buffer per thread for reuse.
+ * <p>
+ * An engine is meant to be created once and shared by all threads of an application:
+ * <pre>{@code
+ * private static final XRechnungEngine ENGINE = new XRechnungEngine();
+ *
+ * byte[] xml = ENGINE.render(invoice);
+ * }</pre>
+ * The static methods of {@link XRechnungWriter} use {@link #getDefault() the default engine}.
+ */
+public final class XRechnungEngine {
+    private final XmlBackend backend;
+    private final InvoiceTemplate template;
+    private final ProductFragmentCache productCache;
+    private final boolean canonical;
+    private final DocumentBuilderFactory documentBuilderFactory;
+    private final TransformerFactory transformerFactory;
+    private final XMLOutputFactory outputFactory;
+    private final ThreadLocalPool<DocumentBuilder> documentBuilders = new ThreadLocalPool<>();
+    private final ThreadLocalPool<Transformer> transformers = new ThreadLocalPool<>();
+    private final ThreadLocalPool<DirectXmlSink> directSinks = new ThreadLocalPool<>();
+
+    /**
+     * Creates a new engine that uses the {@link XmlBackend#DIRECT} backend.
+     */
+    public XRechnungEngine() {
+        this(XmlBackend.DIRECT);
+    }
+
+    /**
+     * Creates a new engine that uses the given backend.
+     *
+     * @param backend the backend that produces the XML, must not be {@code null}
+     */
+    public XRechnungEngine(XmlBackend backend) {
+        this(backend, null);
+    }
+
+    /**
+     * Creates a new engine that uses the given backend and copies the pre-rendered parts of the given template
+     * into all invoices it applies to.
+     *
+     * @param backend  the backend that produces the XML, must not be {@code null}
+     * @param template the template or {@code null} to render all parts of the invoices
+     * @see InvoiceTemplate
+     */
+    public XRechnungEngine(XmlBackend backend, InvoiceTemplate template) {
+        this(backend, template, null);
+    }
+
+    /**
+     * Creates a new engine that uses the given backend, template and product cache.
+     *
+     * @param backend      the backend that produces the XML, must not be {@code null}
+     * @param template     the template or {@code null} to render all parts of the invoices
+     * @param productCache the cache of product elements or {@code null} to render all product elements
+     * @see InvoiceTemplate
+     * @see ProductFragmentCache
+     */
+    public XRechnungEngine(XmlBackend backend, InvoiceTemplate template, ProductFragmentCache productCache) {
+        this(backend, template, productCache, false);
+    }
+
+    /**
+     * Creates a new engine that uses the given backend, template and product cache and writes
+     * {@link XRechnungWriter#canonical(boolean) canonical} documents if requested.
+     *
+     * @param backend      the backend that produces the XML, must not be {@code null}
+     * @param template     the template or {@code null} to render all parts of the invoices
+     * @param productCache the cache of product elements or {@code null} to render all product elements
+     * @param canonical    {@code true} to write canonical documents
+     * @see XRechnungWriter#canonical(boolean)
+     */
+    public XRechnungEngine(XmlBackend backend, InvoiceTemplate template, ProductFragmentCache productCache,
+                           boolean canonical) {
+        Objects.requireNonNull(backend, "Backend must not be null");
+        this.backend = backend;
+        this.template = template;
+        this.productCache = productCache;
+        this.canonical = canonical;
+        if (backend == XmlBackend.DOM) {
+            documentBuilderFactory = DocumentBuilderFactory.newInstance();
+            documentBuilderFactory.setNamespaceAware(true);
+            transformerFactory = TransformerFactory.newInstance();
+        } else {
+            documentBuilderFactory = null;
+            transformerFactory = null;
+        }
+        outputFactory = backend == XmlBackend.STAX ? XMLOutputFactory.newInstance() : null;
+    }
+
+    /**
+     * Returns the engine that is used by the static methods of {@link XRechnungWriter}.
+     *
+     * @return the shared engine of the {@link XmlBackend#DIRECT} backend
+     */
+    public static XRechnungEngine getDefault() {
+        return shared(XmlBackend.DIRECT);
+    }
+
+    /**
+     * Returns the engine of the given backend that is shared by all writers created without an engine.
+     * The engine is created on first use by the initialization of its holder class, so that looking it up
+     * takes no lock and the factories of unused backends are never created.
+     */
+    static XRechnungEngine shared(XmlBackend backend) {
+        switch (backend) {
+            case DOM:
+                return DomHolder.ENGINE;
+            case STAX:
+                return StaxHolder.ENGINE;
+            case DIRECT:
+                return DirectHolder.ENGINE;
+            default:
+                throw new IllegalArgumentException("Unknown backend " + backend);
+        }
+    }
+
+    /**
+     * Returns the backend of this engine.
+     *
+     * @return the backend that produces the XML
+     */
+    public XmlBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Returns the template of this engine.
+     *
+     * @return the template or {@code null} if the engine renders all parts of the invoices
+     */
+    public InvoiceTemplate getTemplate() {
+        return template;
+    }
+
+    /**
+     * Returns the product cache of this engine.
+     *
+     * @return the cache or {@code null} if the engine renders all product elements
+     */
+    public ProductFragmentCache getProductCache() {
+        return productCache;
+    }
+
+    /**
+     * Checks whether this engine writes canonical documents.
+     *
+     * @return {@code true} if the documents are canonical
+     * @see XRechnungWriter#canonical(boolean)
+     */
+    public boolean isCanonical() {
+        return canonical;
+    }
+
+    /**
+     * Convert an invoice to a XRechnung XML
+     *
+     * @param invoice the Invoice object to serialize to XML, must not be {@code null}
+     * @return binary XRechnung XML document
+     * @throws XRechnungWriterException if the creation of the XRechnung failed
+     */
+    public byte[] render(Invoice invoice) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        try {
+            return new XRechnungWriter(invoice, this).getXML();
+        } catch (Exception e) {
+            throw new XRechnungWriterException("XRechnung creation failed", e);
+        }
+    }
+
+    /**
+     * Convert an invoice to a XRechnung XML and write it to the given stream
+     *
+     * @param invoice the Invoice object to serialize to XML, must not be {@code null}
+     * @param output  the stream to write to, must not be {@code null}. It is not closed.
+     * @throws XRechnungWriterException if the creation of the XRechnung failed
+     */
+    public void render(Invoice invoice, OutputStream output) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        try {
+            new XRechnungWriter(invoice, this).writeTo(output);
+        } catch (Exception e) {
+            throw new XRechnungWriterException("XRechnung creation failed", e);
+        }
+    }
+
+    /**
+     * Takes the document builder of the current thread. Must be given back with {@link #release(DocumentBuilder)}.
+     */
+    DocumentBuilder takeDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder documentBuilder = documentBuilders.take();
+        if (documentBuilder == null) {
+            synchronized (documentBuilderFactory) {
+                documentBuilder = documentBuilderFactory.newDocumentBuilder();
+            }
+        }
+        return documentBuilder;
+    }
+
+    void release(DocumentBuilder documentBuilder) {
+        documentBuilder.reset();
+        documentBuilders.release(documentBuilder);
+    }
+
+    /**
+     * Takes the transformer of the current thread. Must be given back with {@link #release(Transformer)}.
+     */
+    Transformer takeTransformer() throws TransformerConfigurationException {
+        Transformer transformer = transformers.take();
+        if (transformer == null) {
+            synchronized (transformerFactory) {
+                transformer = transformerFactory.newTransformer();
+            }
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        }
+        return transformer;
+    }
+
+    void release(Transformer transformer) {
+        transformers.release(transformer);
+    }
+
+    /**
+     * Returns the factory of the {@link XmlBackend#STAX} backend.
+     * It is shared by all threads, so it must only be used while holding its lock.
+     */
+    XMLOutputFactory getOutputFactory() {
+        return outputFactory;
+    }
+
+    /**
+     * Takes the output buffer of the current thread. Must be given back with {@link #release(DirectXmlSink)}.
+     *
+     * @param target the stream the sink streams to or {@code null} to keep the document in the buffer
+     */
+    DirectXmlSink takeDirectSink(OutputStream target) {
+        DirectXmlSink sink = directSinks.take();
+        if (sink == null) {
+            sink = new DirectXmlSink();
+        }
+        sink.reset(target);
+        return sink;
+    }
+
+    void release(DirectXmlSink sink) {
+        sink.reset();
+        directSinks.release(sink);
+    }
+
+    /**
+     * Holds the shared engine of the {@link XmlBackend#DOM} backend
+     */
+    private static final class DomHolder {
+        static final XRechnungEngine ENGINE = new XRechnungEngine(XmlBackend.DOM);
+    }
+
+    /**
+     * Holds the shared engine of the {@link XmlBackend#STAX} backend
+     */
+    private static final class StaxHolder {
+        static final XRechnungEngine ENGINE = new XRechnungEngine(XmlBackend.STAX);
+    }
+
+    /**
+     * Holds the shared engine of the {@link XmlBackend#DIRECT} backend
+     */
+    private static final class DirectHolder {
+        static final XRechnungEngine ENGINE = new XRechnungEngine(XmlBackend.DIRECT);
+    }
+}
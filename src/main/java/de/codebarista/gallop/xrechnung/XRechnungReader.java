@@ -0,0 +1,1031 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Allowance;
+import de.codebarista.gallop.xrechnung.model.Charge;
+import de.codebarista.gallop.xrechnung.model.Contact;
+import de.codebarista.gallop.xrechnung.model.CreditTransfer;
+import de.codebarista.gallop.xrechnung.model.DeliveryInformation;
+import de.codebarista.gallop.xrechnung.model.DirectDebit;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.InvoiceNote;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemAttribute;
+import de.codebarista.gallop.xrechnung.model.PaymentCardInformation;
+import de.codebarista.gallop.xrechnung.model.PaymentInstructions;
+import de.codebarista.gallop.xrechnung.model.PostalAddress;
+import de.codebarista.gallop.xrechnung.model.PrecedingInvoiceReference;
+import de.codebarista.gallop.xrechnung.model.SellerOrBuyer;
+import de.codebarista.gallop.xrechnung.model.TaxCategory;
+import de.codebarista.gallop.xrechnung.model.Vat;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+
+import static de.codebarista.gallop.xrechnung.CiiElement.*;
+
+/**
+ * Reads a XRechnung XML in the Cross-Industry Invoice (CII) syntax into an {@linkplain Invoice} object.
+ * <p>
+ * The reader is the counterpart of the {@link XRechnungWriter}: it maps every element that the writer writes
+ * back to the model, in one forward pass over a {@link XMLStreamReader} and without building a DOM. Elements
+ * that the model has no place for are skipped. Writing a read invoice again therefore yields the same document
+ * for all XRechnungen created by Gallop.
+ * <p>
+ * Creating a {@link XMLStreamReader} allocates large internal buffers, which costs more than reading a small
+ * invoice. Like an {@link XRechnungEngine}, a reader therefore keeps one {@link XMLInputFactory} per thread,
+ * which reuses its stream reader if the StAX implementation supports it, and is meant to be shared by all threads
+ * of an application:
+ * <pre>{@code
+ * private static final XRechnungReader READER = new XRechnungReader();
+ *
+ * Invoice invoice = READER.read(inputStream);
+ * }</pre>
+ * DTDs and external entities are not supported. Empty elements and attributes are read as {@code null}.
+ * Dates are read as the start of the day in UTC, since the XRechnung has no time of day.
+ * Line IDs and quantities must be whole numbers, as in the model.
+ * <p>
+ * Very large invoices can be {@link #readLazily(Path) read lazily} from a memory-mapped file, with the line items
+ * read on demand.
+ */
+public final class XRechnungReader {
+    private static final XRechnungReader DEFAULT = new XRechnungReader();
+    private static final String DATE_FORMAT_CODE = "102";
+    private static final String VAT_SCHEME_ID = "VA";
+    /**
+     * The property of the StAX implementation of the JDK that makes a factory reuse its last stream reader
+     */
+    private static final String REUSE_INSTANCE = "reuse-instance";
+
+    private final ThreadLocalPool<XMLInputFactory> inputFactories = new ThreadLocalPool<>();
+
+    /**
+     * Creates a new reader.
+     */
+    public XRechnungReader() {
+    }
+
+    /**
+     * Returns a reader that is shared by all users of the default reader.
+     *
+     * @return the default reader
+     */
+    public static XRechnungReader getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Reads an invoice from a XRechnung XML document.
+     *
+     * @param xml the XML document, must not be {@code null}
+     * @return the invoice
+     * @throws XRechnungReaderException if the document is not well-formed or not a CII invoice
+     */
+    public Invoice read(byte[] xml) {
+        Objects.requireNonNull(xml, "XML must not be null");
+        return read(new ByteArrayInputStream(xml));
+    }
+
+    /**
+     * Reads an invoice from a stream of a XRechnung XML document.
+     *
+     * @param input the stream to read from, must not be {@code null}. It is not closed.
+     * @return the invoice
+     * @throws XRechnungReaderException if the document is not well-formed or not a CII invoice
+     */
+    public Invoice read(InputStream input) {
+        Objects.requireNonNull(input, "Input must not be null");
+        return read(input, true);
+    }
+
+    /**
+     * Maps a XRechnung XML file into memory and reads everything but the line items.
+     * <p>
+     * The line items are read on demand from the mapped file by the {@link LazyInvoice#lineItems() iterators}
+     * of the returned invoice, so even very large invoices are never held in memory as objects. Reading the
+     * header still has to scan over the line items, because the XRechnung places it after them.
+     * </p>
+     *
+     * @param file the XML file, must not be {@code null} and not be larger than 2 GiB
+     * @return the invoice without line items, and their iterators
+     * @throws IOException              if the file cannot be mapped
+     * @throws XRechnungReaderException if the document is not well-formed or not a CII invoice
+     */
+    public LazyInvoice readLazily(Path file) throws IOException {
+        Objects.requireNonNull(file, "File must not be null");
+        ByteBuffer xml;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File " + file + " is larger than 2 GiB");
+            }
+            // the mapping stays valid after the channel is closed
+            xml = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        return new LazyInvoice(this, xml, read(new ByteBufferInputStream(xml.duplicate()), false));
+    }
+
+    private Invoice read(InputStream input, boolean withLineItems) {
+        XMLInputFactory inputFactory = takeInputFactory();
+        XMLStreamReader in = null;
+        try {
+            in = inputFactory.createXMLStreamReader(input);
+            return readInvoice(in, withLineItems);
+        } catch (XMLStreamException | IllegalArgumentException | ArithmeticException | DateTimeException e) {
+            throw new XRechnungReaderException("XRechnung parsing failed", e);
+        } finally {
+            close(in);
+            inputFactories.release(inputFactory);
+        }
+    }
+
+    /**
+     * Starts a new pass over the line items of a mapped document.
+     */
+    LineItemIterator lineItems(ByteBuffer xml) {
+        XMLInputFactory inputFactory = takeInputFactory();
+        try {
+            // the factory is not needed any more once the stream reader has been created
+            return new LineItemIterator(inputFactory.createXMLStreamReader(new ByteBufferInputStream(xml.duplicate())));
+        } catch (XMLStreamException e) {
+            throw new XRechnungReaderException("XRechnung parsing failed", e);
+        } finally {
+            inputFactories.release(inputFactory);
+        }
+    }
+
+    /**
+     * Takes the input factory of the current thread out of the pool or creates a new one.
+     * The factory must be {@link ThreadLocalPool#release(Object) released} after its stream reader is created.
+     */
+    private XMLInputFactory takeInputFactory() {
+        XMLInputFactory inputFactory = inputFactories.take();
+        if (inputFactory != null) {
+            return inputFactory;
+        }
+        inputFactory = XMLInputFactory.newInstance();
+        inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        if (inputFactory.isPropertySupported(REUSE_INSTANCE)) {
+            inputFactory.setProperty(REUSE_INSTANCE, true);
+        }
+        return inputFactory;
+    }
+
+    private static Invoice readInvoice(XMLStreamReader in, boolean withLineItems) throws XMLStreamException {
+        startInvoice(in);
+        Invoice invoice = Invoice.create();
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case EXCHANGED_DOCUMENT:
+                    readExchangedDocument(in, invoice);
+                    break;
+                case SUPPLY_CHAIN_TRADE_TRANSACTION:
+                    readTradeTransaction(in, invoice, withLineItems);
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+        return invoice;
+    }
+
+    /**
+     * Moves to the root element and checks that it is a {@code CrossIndustryInvoice}.
+     */
+    private static void startInvoice(XMLStreamReader in) throws XMLStreamException {
+        in.nextTag();
+        if (element(in) != CROSS_INDUSTRY_INVOICE) {
+            throw new XRechnungReaderException("Expected " + CROSS_INDUSTRY_INVOICE.getQualifiedName()
+                    + " but found {" + in.getNamespaceURI() + "}" + in.getLocalName());
+        }
+    }
+
+    private static void readExchangedDocument(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case ID:
+                    invoice.documentId(text(in));
+                    break;
+                case TYPE_CODE:
+                    invoice.documentTypeCode(text(in));
+                    break;
+                case ISSUE_DATE_TIME:
+                    invoice.issueDate(readDateTime(in));
+                    break;
+                case INCLUDED_NOTE:
+                    readIncludedNote(in, invoice);
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+    }
+
+    private static void readIncludedNote(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == CONTENT) {
+                invoice.addInvoiceNote(InvoiceNote.create().note(text(in)));
+            } else {
+                skipElement(in);
+            }
+        }
+    }
+
+    private static void readTradeTransaction(XMLStreamReader in, Invoice invoice, boolean withLineItems)
+            throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case INCLUDED_SUPPLY_CHAIN_TRADE_LINE_ITEM:
+                    if (withLineItems) {
+                        invoice.addItem(readTradeLineItem(in));
+                    } else {
+                        skipElement(in);
+                    }
+                    break;
+                case APPLICABLE_HEADER_TRADE_AGREEMENT:
+                    readTradeHeader(in, invoice);
+                    break;
+                case APPLICABLE_HEADER_TRADE_DELIVERY:
+                    readTradeDelivery(in, invoice);
+                    break;
+                case APPLICABLE_HEADER_TRADE_SETTLEMENT:
+                    readTradeSettlement(in, invoice);
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+    }
+
+    private static Item readTradeLineItem(XMLStreamReader in) throws XMLStreamException {
+        Item item = Item.create();
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case ASSOCIATED_DOCUMENT_LINE_DOCUMENT:
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == LINE_ID) {
+                            item.id(longValue(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    break;
+                case SPECIFIED_TRADE_PRODUCT:
+                    readTradeProduct(in, item);
+                    break;
+                case SPECIFIED_LINE_TRADE_AGREEMENT:
+                    readLineTradeAgreement(in, item);
+                    break;
+                case SPECIFIED_LINE_TRADE_DELIVERY:
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == BILLED_QUANTITY) {
+                            item.unitCode(attribute(in, "unitCode"));
+                            item.quantity(longValue(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    break;
+                case SPECIFIED_LINE_TRADE_SETTLEMENT:
+                    readLineTradeSettlement(in, item);
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+        return item;
+    }
+
+    private static void readTradeProduct(XMLStreamReader in, Item item) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case SELLER_ASSIGNED_ID:
+                    item.sellerAssignedId(text(in));
+                    break;
+                case NAME:
+                    item.name(text(in));
+                    break;
+                case DESCRIPTION:
+                    item.description(text(in));
+                    break;
+                case APPLICABLE_PRODUCT_CHARACTERISTIC:
+                    item.addItemAttribute(readProductCharacteristic(in));
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+    }
+
+    private static ItemAttribute readProductCharacteristic(XMLStreamReader in) throws XMLStreamException {
+        ItemAttribute attribute = ItemAttribute.create();
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == DESCRIPTION) {
+                attribute.name(text(in));
+            } else if (element == VALUE) {
+                attribute.value(text(in));
+            } else {
+                skipElement(in);
+            }
+        }
+        return attribute;
+    }
+
+    private static void readLineTradeAgreement(XMLStreamReader in, Item item) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element != NET_PRICE_PRODUCT_TRADE_PRICE) {
+                skipElement(in);
+                continue;
+            }
+            for (CiiElement child; (child = nextChild(in)) != null; ) {
+                if (child == CHARGE_AMOUNT) {
+                    item.unitPrice(decimal(in));
+                } else if (child == BASIS_QUANTITY && item.getUnitCode() == null) {
+                    // the unit code of the billed quantity takes precedence
+                    item.unitCode(attribute(in, "unitCode"));
+                    skipElement(in);
+                } else {
+                    skipElement(in);
+                }
+            }
+        }
+    }
+
+    private static void readLineTradeSettlement(XMLStreamReader in, Item item) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == APPLICABLE_TRADE_TAX) {
+                item.vat(readTax(in));
+            } else if (element == SPECIFIED_TRADE_SETTLEMENT_LINE_MONETARY_SUMMATION) {
+                for (CiiElement child; (child = nextChild(in)) != null; ) {
+                    if (child == LINE_TOTAL_AMOUNT) {
+                        item.itemTotalNetAmount(decimal(in)); // BT-131
+                    } else {
+                        skipElement(in);
+                    }
+                }
+            } else {
+                skipElement(in);
+            }
+        }
+    }
+
+    private static void readTradeHeader(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case BUYER_REFERENCE:
+                    invoice.leitwegId(text(in));
+                    break;
+                case SELLER_TRADE_PARTY:
+                    invoice.seller(readTradeParty(in));
+                    break;
+                case BUYER_TRADE_PARTY:
+                    invoice.buyer(readTradeParty(in));
+                    break;
+                case SELLER_ORDER_REFERENCED_DOCUMENT:
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == ISSUER_ASSIGNED_ID) {
+                            invoice.salesOrderReference(text(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+    }
+
+    private static SellerOrBuyer readTradeParty(XMLStreamReader in) throws XMLStreamException {
+        SellerOrBuyer party = SellerOrBuyer.create();
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case NAME:
+                    party.name(text(in));
+                    break;
+                case DEFINED_TRADE_CONTACT:
+                    party.contact(readTradeContact(in));
+                    break;
+                case POSTAL_TRADE_ADDRESS:
+                    party.address(readAddress(in));
+                    break;
+                case URI_UNIVERSAL_COMMUNICATION:
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == URI_ID) {
+                            party.electronicAddressScheme(attribute(in, "schemeID"));
+                            party.electronicAddress(text(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    break;
+                case SPECIFIED_TAX_REGISTRATION:
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == ID && VAT_SCHEME_ID.equals(attribute(in, "schemeID"))) {
+                            party.vatId(text(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+        return party;
+    }
+
+    /**
+     * @return the contact or {@code null} if the element is empty
+     */
+    private static Contact readTradeContact(XMLStreamReader in) throws XMLStreamException {
+        Contact contact = null;
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == PERSON_NAME) {
+                contact = contact != null ? contact : Contact.create();
+                contact.name(text(in));
+            } else if (element == TELEPHONE_UNIVERSAL_COMMUNICATION || element == EMAIL_URI_UNIVERSAL_COMMUNICATION) {
+                contact = contact != null ? contact : Contact.create();
+                for (CiiElement child; (child = nextChild(in)) != null; ) {
+                    if (child == COMPLETE_NUMBER) {
+                        contact.phone(text(in));
+                    } else if (child == URI_ID) {
+                        contact.email(text(in));
+                    } else {
+                        skipElement(in);
+                    }
+                }
+            } else {
+                skipElement(in);
+            }
+        }
+        return contact;
+    }
+
+    /**
+     * @return the address or {@code null} if the element is empty
+     */
+    private static PostalAddress readAddress(XMLStreamReader in) throws XMLStreamException {
+        PostalAddress address = null;
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            address = address != null ? address : PostalAddress.create();
+            switch (element) {
+                case POSTCODE_CODE:
+                    address.zipCode(text(in));
+                    break;
+                case LINE_ONE:
+                    address.addressLineOne(text(in));
+                    break;
+                case LINE_TWO:
+                    address.addressLineTwo(text(in));
+                    break;
+                case LINE_THREE:
+                    address.addressLineThree(text(in));
+                    break;
+                case CITY_NAME:
+                    address.city(text(in));
+                    break;
+                case COUNTRY_ID:
+                    address.countryIsoCode(text(in));
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+        return address;
+    }
+
+    private static void readTradeDelivery(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == SHIP_TO_TRADE_PARTY) {
+                DeliveryInformation deliveryInfo = deliveryInfo(invoice);
+                for (CiiElement child; (child = nextChild(in)) != null; ) {
+                    if (child == NAME) {
+                        deliveryInfo.name(text(in));
+                    } else if (child == POSTAL_TRADE_ADDRESS) {
+                        deliveryInfo.deliveryAddress(readAddress(in));
+                    } else {
+                        skipElement(in);
+                    }
+                }
+            } else if (element == ACTUAL_DELIVERY_SUPPLY_CHAIN_EVENT) { // BT-72
+                for (CiiElement child; (child = nextChild(in)) != null; ) {
+                    if (child == OCCURRENCE_DATE_TIME) {
+                        deliveryInfo(invoice).actualDeliveryDate(readDateTime(in));
+                    } else {
+                        skipElement(in);
+                    }
+                }
+            } else {
+                skipElement(in);
+            }
+        }
+    }
+
+    private static void readTradeSettlement(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case CREDITOR_REFERENCE_ID:
+                    directDebit(invoice).creditorId(text(in));
+                    break;
+                case PAYMENT_REFERENCE:
+                    paymentInstructions(invoice).remittanceInfo(text(in));
+                    break;
+                case INVOICE_CURRENCY_CODE:
+                    invoice.currency(text(in));
+                    break;
+                case SPECIFIED_TRADE_SETTLEMENT_PAYMENT_MEANS:
+                    readPaymentMeans(in, invoice);
+                    break;
+                case APPLICABLE_TRADE_TAX:
+                    Vat vat = readTax(in);
+                    if (vat != null) {
+                        invoice.addVatTotal(vat);
+                    }
+                    break;
+                case SPECIFIED_TRADE_ALLOWANCE_CHARGE:
+                    readAllowanceCharge(in, invoice);
+                    break;
+                case SPECIFIED_TRADE_PAYMENT_TERMS:
+                    readPaymentTerms(in, invoice);
+                    break;
+                case SPECIFIED_TRADE_SETTLEMENT_HEADER_MONETARY_SUMMATION:
+                    readMonetarySummation(in, invoice);
+                    break;
+                case INVOICE_REFERENCED_DOCUMENT:
+                    invoice.addPrecedingInvoiceReference(readPrecedingInvoiceReference(in));
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+    }
+
+    private static void readPaymentMeans(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            PaymentInstructions paymentInstructions = paymentInstructions(invoice);
+            switch (element) {
+                case TYPE_CODE:
+                    paymentInstructions.meansType(text(in));
+                    break;
+                case INFORMATION:
+                    paymentInstructions.meansText(text(in));
+                    break;
+                case PAYEE_PARTY_CREDITOR_FINANCIAL_ACCOUNT:
+                    CreditTransfer transfer = CreditTransfer.create();
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == IBAN_ID) {
+                            transfer.iban(text(in));
+                        } else if (child == ACCOUNT_NAME) {
+                            transfer.accountName(text(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    paymentInstructions.addCreditTransfer(transfer);
+                    break;
+                case PAYEE_SPECIFIED_CREDITOR_FINANCIAL_INSTITUTION:
+                    // the institution belongs to the account in front of it
+                    List<CreditTransfer> transfers = paymentInstructions.getCreditTransfers();
+                    if (transfers.isEmpty()) {
+                        paymentInstructions.addCreditTransfer(CreditTransfer.create());
+                    }
+                    CreditTransfer lastTransfer = transfers.get(transfers.size() - 1);
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == BIC_ID) {
+                            lastTransfer.bic(text(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    break;
+                case PAYER_PARTY_DEBTOR_FINANCIAL_ACCOUNT:
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == IBAN_ID) {
+                            directDebit(invoice).debitedAccountIban(text(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    break;
+                case APPLICABLE_TRADE_SETTLEMENT_FINANCIAL_CARD:
+                    PaymentCardInformation cardInformation = PaymentCardInformation.create();
+                    for (CiiElement child; (child = nextChild(in)) != null; ) {
+                        if (child == ID) {
+                            cardInformation.accountNumber(text(in));
+                        } else if (child == CARDHOLDER_NAME) {
+                            cardInformation.cardHolderName(text(in));
+                        } else {
+                            skipElement(in);
+                        }
+                    }
+                    paymentInstructions.paymentCardInformation(cardInformation);
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+    }
+
+    private static void readPaymentTerms(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == DESCRIPTION) {
+                paymentInstructions(invoice).paymentTerms(text(in));
+            } else if (element == DIRECT_DEBIT_MANDATE_ID) {
+                directDebit(invoice).mandateReference(text(in));
+            } else {
+                skipElement(in);
+            }
+        }
+    }
+
+    private static void readAllowanceCharge(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        boolean isCharge = false;
+        BigDecimal amount = null;
+        String reason = null;
+        TaxCategory vatCategory = null;
+        BigDecimal vatRate = null;
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == CHARGE_INDICATOR) {
+                for (CiiElement child; (child = nextChild(in)) != null; ) {
+                    if (child == INDICATOR) {
+                        String indicator = trimmedText(in);
+                        isCharge = "true".equals(indicator) || "1".equals(indicator);
+                    } else {
+                        skipElement(in);
+                    }
+                }
+            } else if (element == ACTUAL_AMOUNT) {
+                amount = decimal(in);
+            } else if (element == REASON) {
+                reason = text(in);
+            } else if (element == CATEGORY_TRADE_TAX) {
+                for (CiiElement child; (child = nextChild(in)) != null; ) {
+                    if (child == CATEGORY_CODE) {
+                        vatCategory = category(in);
+                    } else if (child == RATE_APPLICABLE_PERCENT) {
+                        vatRate = decimal(in);
+                    } else {
+                        skipElement(in);
+                    }
+                }
+            } else {
+                skipElement(in);
+            }
+        }
+        if (isCharge) {
+            invoice.addCharge(Charge.create().netAmount(amount).reason(reason) // BT-99
+                    .vatCategory(vatCategory).vatRate(vatRate));
+        } else {
+            invoice.addAllowance(Allowance.create().netAmount(amount).reason(reason)
+                    .vatCategory(vatCategory).vatRate(vatRate));
+        }
+    }
+
+    private static void readMonetarySummation(XMLStreamReader in, Invoice invoice) throws XMLStreamException {
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            switch (element) {
+                case LINE_TOTAL_AMOUNT:
+                    invoice.lineTotalAmount(decimal(in)); // BT-106
+                    break;
+                case CHARGE_TOTAL_AMOUNT:
+                    invoice.chargeTotalAmount(decimal(in)); // BT-108
+                    break;
+                case ALLOWANCE_TOTAL_AMOUNT:
+                    invoice.allowanceTotalAmount(decimal(in));
+                    break;
+                case TAX_BASIS_TOTAL_AMOUNT:
+                    invoice.taxBasisTotalAmount(decimal(in)); // BT-109
+                    break;
+                case TAX_TOTAL_AMOUNT: // BT-110
+                    // a second tax total in the accounting currency (BT-111) does not replace the first one
+                    String currency = attribute(in, "currencyID");
+                    BigDecimal taxTotal = decimal(in);
+                    if (invoice.getTaxTotalAmount() == null || Objects.equals(currency, invoice.getCurrency())) {
+                        invoice.taxTotalAmount(taxTotal);
+                    }
+                    break;
+                case GRAND_TOTAL_AMOUNT:
+                    invoice.grandTotalAmount(decimal(in)); // BT-112
+                    break;
+                case DUE_PAYABLE_AMOUNT:
+                    invoice.duePayableAmount(decimal(in));
+                    break;
+                default:
+                    skipElement(in);
+            }
+        }
+    }
+
+    /**
+     * BG-3
+     */
+    private static PrecedingInvoiceReference readPrecedingInvoiceReference(XMLStreamReader in)
+            throws XMLStreamException {
+        PrecedingInvoiceReference reference = PrecedingInvoiceReference.create();
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == ISSUER_ASSIGNED_ID) {
+                reference.precedingInvoiceReference(text(in)); // BT-25
+            } else if (element == FORMATTED_ISSUE_DATE_TIME) {
+                reference.precedingInvoiceIssueDate(readDateTime(in)); // BT-26
+            } else {
+                skipElement(in);
+            }
+        }
+        return reference;
+    }
+
+    /**
+     * @return the tax or {@code null} if the element is empty
+     */
+    private static Vat readTax(XMLStreamReader in) throws XMLStreamException {
+        Vat vat = null;
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            vat = vat != null ? vat : Vat.create();
+            switch (element) {
+                case CALCULATED_AMOUNT:
+                    vat.taxAmount(decimal(in)); // BT-117
+                    break;
+                case EXEMPTION_REASON:
+                    vat.vatExemptionReasonText(text(in)); // BT-120
+                    break;
+                case EXEMPTION_REASON_CODE:
+                    vat.vatExemptionReasonCode(text(in)); // BT-121
+                    break;
+                case BASIS_AMOUNT:
+                    vat.taxableAmount(decimal(in));
+                    break;
+                case CATEGORY_CODE:
+                    vat.category(category(in));
+                    break;
+                case RATE_APPLICABLE_PERCENT:
+                    vat.rate(decimal(in));
+                    break;
+                default:
+                    // including the type code, which is always VAT
+                    skipElement(in);
+            }
+        }
+        return vat;
+    }
+
+    /**
+     * Reads the {@code DateTimeString} inside of the current element.
+     */
+    private static OffsetDateTime readDateTime(XMLStreamReader in) throws XMLStreamException {
+        OffsetDateTime time = null;
+        for (CiiElement element; (element = nextChild(in)) != null; ) {
+            if (element == UDT_DATE_TIME_STRING || element == QDT_DATE_TIME_STRING) {
+                String format = attribute(in, "format");
+                String date = trimmedText(in);
+                if (format != null && !DATE_FORMAT_CODE.equals(format)) {
+                    throw new XRechnungReaderException("Unsupported date format " + format);
+                }
+                time = date != null ? LocalDate.parse(date, DateTimeFormatter.BASIC_ISO_DATE)
+                        .atStartOfDay().atOffset(ZoneOffset.UTC) : null;
+            } else {
+                skipElement(in);
+            }
+        }
+        return time;
+    }
+
+    private static DeliveryInformation deliveryInfo(Invoice invoice) {
+        if (invoice.getDeliveryInfo() == null) {
+            invoice.deliveryInfo(DeliveryInformation.create());
+        }
+        return invoice.getDeliveryInfo();
+    }
+
+    private static PaymentInstructions paymentInstructions(Invoice invoice) {
+        if (invoice.getPaymentInstructions() == null) {
+            invoice.paymentInstructions(PaymentInstructions.create());
+        }
+        return invoice.getPaymentInstructions();
+    }
+
+    private static DirectDebit directDebit(Invoice invoice) {
+        PaymentInstructions paymentInstructions = paymentInstructions(invoice);
+        if (paymentInstructions.getDirectDebit() == null) {
+            paymentInstructions.directDebit(DirectDebit.create());
+        }
+        return paymentInstructions.getDirectDebit();
+    }
+
+    /**
+     * Moves to the start tag of the next child element of the current element that is a {@link CiiElement},
+     * skipping all other child elements.
+     *
+     * @return the child element or {@code null} if the reader has reached the end tag of the current element
+     */
+    private static CiiElement nextChild(XMLStreamReader in) throws XMLStreamException {
+        while (in.nextTag() == XMLStreamConstants.START_ELEMENT) {
+            CiiElement element = element(in);
+            if (element != null) {
+                return element;
+            }
+            skipElement(in);
+        }
+        return null;
+    }
+
+    /**
+     * Skips the current element including all of its content and moves to its end tag.
+     */
+    private static void skipElement(XMLStreamReader in) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = in.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    private static CiiElement element(XMLStreamReader in) {
+        return CiiElement.forName(in.getNamespaceURI(), in.getLocalName());
+    }
+
+    /**
+     * @return the text of the current element or {@code null} if it is empty
+     */
+    private static String text(XMLStreamReader in) throws XMLStreamException {
+        String text = in.getElementText();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static String trimmedText(XMLStreamReader in) throws XMLStreamException {
+        String text = in.getElementText().trim();
+        return text.isEmpty() ? null : text;
+    }
+
+    private static String attribute(XMLStreamReader in, String name) {
+        String value = in.getAttributeValue(null, name);
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static BigDecimal decimal(XMLStreamReader in) throws XMLStreamException {
+        String text = trimmedText(in);
+        return text != null ? new BigDecimal(text) : null;
+    }
+
+    /**
+     * Reads a whole number, which may be written with a fraction of zeros like {@code 2.000}.
+     */
+    private static Long longValue(XMLStreamReader in) throws XMLStreamException {
+        BigDecimal value = decimal(in);
+        return value != null ? value.longValueExact() : null;
+    }
+
+    private static TaxCategory category(XMLStreamReader in) throws XMLStreamException {
+        String code = trimmedText(in);
+        return code != null ? TaxCategory.fromCategory(code) : null;
+    }
+
+    /**
+     * Reads the line items of a document one by one, and closes the stream reader after the last one.
+     * <p>
+     * A pass that ends before the last line item must be {@link #close() closed}, otherwise the stream reader is
+     * only released by the garbage collector:
+     * <pre>{@code
+     * try (XRechnungReader.LineItemIterator items = lazy.lineItems()) {
+     *     while (items.hasNext() && !isFound(items.next())) {
+     *     }
+     * }
+     * }</pre>
+     */
+    public static final class LineItemIterator implements Iterator<Item>, Closeable {
+        private XMLStreamReader in;
+        private Item next;
+
+        LineItemIterator(XMLStreamReader in) {
+            this.in = in;
+            try {
+                startInvoice(in);
+                for (CiiElement element; (element = nextChild(in)) != null; ) {
+                    if (element == SUPPLY_CHAIN_TRADE_TRANSACTION) {
+                        return;
+                    }
+                    skipElement(in);
+                }
+                close();
+            } catch (XMLStreamException | RuntimeException e) {
+                close();
+                throw e instanceof XRechnungReaderException ? (XRechnungReaderException) e
+                        : new XRechnungReaderException("XRechnung parsing failed", e);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next == null && in != null) {
+                next = readNext();
+            }
+            return next != null;
+        }
+
+        @Override
+        public Item next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Item item = next;
+            next = null;
+            return item;
+        }
+
+        /**
+         * The line items precede all other children of the {@code SupplyChainTradeTransaction},
+         * so the pass ends at the first element that is not a line item.
+         */
+        private Item readNext() {
+            try {
+                if (nextChild(in) == INCLUDED_SUPPLY_CHAIN_TRADE_LINE_ITEM) {
+                    return readTradeLineItem(in);
+                }
+            } catch (XMLStreamException | IllegalArgumentException | ArithmeticException | DateTimeException e) {
+                close();
+                throw new XRechnungReaderException("XRechnung parsing failed", e);
+            }
+            close();
+            return null;
+        }
+
+        /**
+         * Ends the pass and releases the stream reader. The iterator has no more elements afterwards.
+         * Closing it again has no effect.
+         */
+        @Override
+        public void close() {
+            XRechnungReader.close(in);
+            in = null;
+            next = null;
+        }
+    }
+
+    /**
+     * Adapter to read from a {@link ByteBuffer}.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if (length == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            length = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, length);
+            return length;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+    private static void close(XMLStreamReader in) {
+        if (in != null) {
+            try {
+                in.close();
+            } catch (XMLStreamException e) {
+                // the underlying stream is not closed, there is nothing to release
+            }
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package de.codebarista.gallop.xrechnung;
+
+/**
+ * Exception class for all errors that occur when reading a XRechnung.
+ */
+public class XRechnungReaderException extends RuntimeException {
+    XRechnungReaderException(String message) {
+        super(message);
+    }
+
+    XRechnungReaderException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -9,26 +9,44 @@ import de.codebarista.gallop.xrechnung.model.Invoice;
 import de.codebarista.gallop.xrechnung.model.InvoiceNote;
 import de.codebarista.gallop.xrechnung.model.Item;
 import de.codebarista.gallop.xrechnung.model.ItemAttribute;
+import de.codebarista.gallop.xrechnung.model.ItemTable;
 import de.codebarista.gallop.xrechnung.model.PaymentCardInformation;
 import de.codebarista.gallop.xrechnung.model.PaymentInstructions;
 import de.codebarista.gallop.xrechnung.model.PostalAddress;
 import de.codebarista.gallop.xrechnung.model.PrecedingInvoiceReference;
 import de.codebarista.gallop.xrechnung.model.SellerOrBuyer;
+import de.codebarista.gallop.xrechnung.model.TaxCategory;
 import de.codebarista.gallop.xrechnung.model.Vat;
-import org.w3c.dom.Element;
+import org.xml.sax.ContentHandler;
 
+import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.OffsetDateTime;
-import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static de.codebarista.gallop.xrechnung.CiiElement.*;
 
 /**
  * Writes a XRechnung XML with the data of an {@linkplain Invoice} object
@@ -44,20 +62,148 @@ import java.util.Objects;
  */
 public class XRechnungWriter {
     private static final String VAT_TYPE_CODE = "VAT";
-    private static final String NS_RSM = "urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100";
-    private static final String NS_RAM = "urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100";
-    private static final String NS_UDT = "urn:un:unece:uncefact:data:standard:UnqualifiedDataType:100";
-    private static final String NS_QDT = "urn:un:unece:uncefact:data:standard:QualifiedDataType:100";
+    /**
+     * The number of line items from which {@link #getXML()} computes the size of the document first and
+     * renders it into a buffer of exactly that size. Smaller documents fit into the reused buffer of the
+     * engine, for them the extra pass over the invoice costs more than it saves.
+     */
+    private static final int EXACT_SIZE_MIN_LINES = 1000;
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    private static final String DEFAULT_DIGEST_ALGORITHM = "SHA-256";
+    private static final byte[] CANONICAL_LINE_SEPARATOR =
+            XmlCharacters.CANONICAL_LINE_SEPARATOR.getBytes(StandardCharsets.US_ASCII);
     private final Invoice invoice;
+    private final XRechnungEngine engine;
+    private InvoiceTemplate template;
+    private ProductFragmentCache productCache;
+    private boolean canonical;
+    private ForkJoinPool lineItemPool;
+    private int lineItemChunkSize;
 
     /**
-     * Constructs a new {@code XRechnungWriter} with the specified invoice.
+     * Constructs a new {@code XRechnungWriter} with the specified invoice that uses the {@link XmlBackend#DIRECT} backend.
      *
      * @param invoice the invoice to be written, must not be {@code null}
      */
     public XRechnungWriter(Invoice invoice) {
+        this(invoice, XmlBackend.DIRECT);
+    }
+
+    /**
+     * Constructs a new {@code XRechnungWriter} with the specified invoice and backend.
+     * <p>
+     * The writer uses a shared {@link XRechnungEngine} of the backend, so creating many writers is cheap.
+     * </p>
+     *
+     * @param invoice the invoice to be written, must not be {@code null}
+     * @param backend the backend that produces the XML, must not be {@code null}
+     */
+    public XRechnungWriter(Invoice invoice, XmlBackend backend) {
+        this(invoice, XRechnungEngine.shared(Objects.requireNonNull(backend, "Backend must not be null")));
+    }
+
+    /**
+     * Constructs a new {@code XRechnungWriter} that takes its factories and buffers from the given engine.
+     */
+    XRechnungWriter(Invoice invoice, XRechnungEngine engine) {
         Objects.requireNonNull(invoice, "Invoice must not be null");
         this.invoice = invoice;
+        this.engine = engine;
+        this.template = engine.getTemplate();
+        this.productCache = engine.getProductCache();
+        this.canonical = engine.isCanonical();
+    }
+
+    /**
+     * Copies the pre-rendered parts of the given template into the document instead of rendering them.
+     * Replaces the template of the engine, if there is one. Only the {@link XmlBackend#DIRECT} backend uses
+     * templates; the other backends ignore this setting.
+     *
+     * @param template the template or {@code null} to render all parts of the invoice
+     * @return this writer
+     * @see InvoiceTemplate
+     */
+    public XRechnungWriter template(InvoiceTemplate template) {
+        this.template = template;
+        return this;
+    }
+
+    /**
+     * Copies the product elements of recurring items from the given cache instead of rendering them.
+     * Replaces the cache of the engine, if there is one. Only the {@link XmlBackend#DIRECT} backend uses
+     * the cache; the other backends ignore this setting.
+     *
+     * @param productCache the cache or {@code null} to render all product elements
+     * @return this writer
+     * @see ProductFragmentCache
+     */
+    public XRechnungWriter productCache(ProductFragmentCache productCache) {
+        this.productCache = productCache;
+        return this;
+    }
+
+    /**
+     * Writes a canonical document, whose bytes depend on nothing but the invoice.
+     * <p>
+     * By default, the line separator is the one of the platform, and the DOM and STAX backends depend on the
+     * JAXP implementation on the class path. A canonical document is always written by the built-in serializer
+     * of the {@link XmlBackend#DIRECT} backend, whatever the backend of the writer, with
+     * </p>
+     * <ul>
+     *     <li>the namespace declarations on the root element in a fixed order,</li>
+     *     <li>child elements indented by four spaces,</li>
+     *     <li>{@code \n} as line separator on all platforms,</li>
+     *     <li>the same escaping of text and attribute values in every run.</li>
+     * </ul>
+     * <p>
+     * The same invoice thus always results in the same bytes, which makes a hash of the document usable as
+     * content address or HTTP ETag. On platforms whose line separator is {@code \n}, canonical documents are
+     * identical to the ones of the default mode.
+     * </p>
+     *
+     * @param canonical {@code true} to write a canonical document, {@code false} for the default of the engine
+     * @return this writer
+     */
+    public XRechnungWriter canonical(boolean canonical) {
+        this.canonical = canonical;
+        return this;
+    }
+
+    /**
+     * Renders the line items of large invoices in parallel on the common {@link ForkJoinPool}.
+     *
+     * @param chunkSize the number of line items that are rendered by one task, at least 1
+     * @return this writer
+     * @see #parallelLineItems(ForkJoinPool, int)
+     */
+    public XRechnungWriter parallelLineItems(int chunkSize) {
+        return parallelLineItems(ForkJoinPool.commonPool(), chunkSize);
+    }
+
+    /**
+     * Renders the line items of large invoices in parallel on the given {@link ForkJoinPool}.
+     * <p>
+     * The line items, those of the {@link Invoice#getItemTable() item table} included, are split into chunks of
+     * {@code chunkSize} items. Every chunk is rendered into its own buffer by a task of the pool and the buffers
+     * are joined in order, so the document is identical to the one rendered sequentially. At most twice as many
+     * chunks as the pool has threads are rendered or waiting to be joined at a time, so the memory needed does
+     * not grow with the number of line items. Invoices with not more than {@code chunkSize} items are rendered
+     * sequentially. Only the {@link XmlBackend#DIRECT} backend supports parallel rendering; the other backends
+     * ignore this setting.
+     * </p>
+     *
+     * @param pool      the pool that renders the chunks, must not be {@code null}
+     * @param chunkSize the number of line items that are rendered by one task, at least 1
+     * @return this writer
+     */
+    public XRechnungWriter parallelLineItems(ForkJoinPool pool, int chunkSize) {
+        Objects.requireNonNull(pool, "Pool must not be null");
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be at least 1, but was " + chunkSize);
+        }
+        this.lineItemPool = pool;
+        this.lineItemChunkSize = chunkSize;
+        return this;
     }
 
     /**
@@ -69,7 +215,7 @@ public class XRechnungWriter {
      */
     public static byte[] generateXRechnungXML(Invoice invoice) {
         Objects.requireNonNull(invoice, "Invoice must not be null");
-        var xmlWriter = new XRechnungWriter(invoice);
+        var xmlWriter = new XRechnungWriter(invoice, XRechnungEngine.getDefault());
         try {
             return xmlWriter.getXML();
         } catch (Exception e) {
@@ -77,133 +223,638 @@ public class XRechnungWriter {
         }
     }
 
+    /**
+     * Convert an invoice to a XRechnung XML and write it to the given stream
+     *
+     * @param invoice the Invoice object to serialize to XML, must not be {@code null}
+     * @param output  the stream to write to, must not be {@code null}. It is not closed.
+     * @throws XRechnungWriterException if the creation of the XRechnung failed
+     */
+    public static void generateXRechnungXML(Invoice invoice, OutputStream output) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        var xmlWriter = new XRechnungWriter(invoice, XRechnungEngine.getDefault());
+        try {
+            xmlWriter.writeTo(output);
+        } catch (Exception e) {
+            throw new XRechnungWriterException("XRechnung creation failed", e);
+        }
+    }
+
+    /**
+     * Convert an invoice to a XRechnung XML and write it to the given channel
+     *
+     * @param invoice the Invoice object to serialize to XML, must not be {@code null}
+     * @param channel the channel to write to, must not be {@code null}. It is not closed.
+     * @throws XRechnungWriterException if the creation of the XRechnung failed
+     */
+    public static void generateXRechnungXML(Invoice invoice, WritableByteChannel channel) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        var xmlWriter = new XRechnungWriter(invoice, XRechnungEngine.getDefault());
+        try {
+            xmlWriter.writeTo(channel);
+        } catch (Exception e) {
+            throw new XRechnungWriterException("XRechnung creation failed", e);
+        }
+    }
+
+    /**
+     * Convert an invoice to a XRechnung XML and put it into the given buffer
+     *
+     * @param invoice the Invoice object to serialize to XML, must not be {@code null}
+     * @param buffer  the buffer to write to, starting at its current position, must not be {@code null}
+     * @return the number of bytes that have been written
+     * @throws XRechnungWriterException if the creation of the XRechnung failed,
+     *                                  e.g. because the buffer has not enough space remaining
+     */
+    public static int generateXRechnungXML(Invoice invoice, ByteBuffer buffer) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        var xmlWriter = new XRechnungWriter(invoice, XRechnungEngine.getDefault());
+        try {
+            return xmlWriter.writeTo(buffer);
+        } catch (Exception e) {
+            throw new XRechnungWriterException("XRechnung creation failed", e);
+        }
+    }
+
+    /**
+     * Convert an invoice to a XRechnung XML and compute its SHA-256 digest while writing it
+     *
+     * @param invoice the Invoice object to serialize to XML, must not be {@code null}
+     * @return binary XRechnung XML document and its digest
+     * @throws XRechnungWriterException if the creation of the XRechnung failed
+     * @see #getDigestedXML()
+     */
+    public static DigestedXml generateDigestedXRechnungXML(Invoice invoice) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        var xmlWriter = new XRechnungWriter(invoice, XRechnungEngine.getDefault());
+        try {
+            return xmlWriter.getDigestedXML();
+        } catch (Exception e) {
+            throw new XRechnungWriterException("XRechnung creation failed", e);
+        }
+    }
+
+    /**
+     * Computes the exact size of the XRechnung XML of an invoice without rendering it
+     *
+     * @param invoice the Invoice object, must not be {@code null}
+     * @return the number of bytes of the XRechnung XML document
+     * @throws XRechnungWriterException if the invoice contains text that cannot be written
+     * @see #computeSize()
+     */
+    public static long computeSize(Invoice invoice) {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        return new XRechnungWriter(invoice, XRechnungEngine.getDefault()).computeSize();
+    }
+
+    /**
+     * Computes the exact size of the XML representation of the invoice without rendering it.
+     * <p>
+     * The invoice is walked like for rendering, but only the lengths of the encoded tags and the escaped text
+     * are summed up. All backends produce documents of this size, with one exception: the
+     * {@link XmlBackend#STAX} backend writes line breaks, tabs and control characters in attribute values
+     * literally instead of as character references, so its document is smaller if an attribute value contains
+     * one of them. No valid code does.
+     * </p>
+     *
+     * @return the number of bytes that {@link #getXML()} returns and {@link #writeTo(OutputStream)} writes
+     * @throws XRechnungWriterException if the invoice contains text that cannot be written
+     */
+    public long computeSize() {
+        var sink = canonical ? new SizeXmlSink(XmlCharacters.CANONICAL_LINE_SEPARATOR) : new SizeXmlSink();
+        write(sink);
+        return sink.size();
+    }
+
+    /**
+     * Computes a fingerprint of the XML representation of the invoice without rendering it. Invoices with the
+     * same fingerprint are rendered to the same document by the same engine.
+     *
+     * @param digest the digest that computes the fingerprint, it is reset first
+     * @return the digest of the structure of the document, see {@link FingerprintXmlSink}
+     * @throws XRechnungWriterException if the invoice cannot be written
+     */
+    byte[] computeFingerprint(MessageDigest digest) {
+        var sink = new FingerprintXmlSink(digest);
+        write(sink);
+        return sink.fingerprint();
+    }
+
+    /**
+     * Reports the XML representation of the invoice as SAX events to the given handler without serializing it,
+     * e.g. to a {@link javax.xml.validation.ValidatorHandler} or a transformation.
+     * <p>
+     * The handler receives the elements, attributes and text of the document that {@link #getXML()} returns,
+     * but not the indentation between the elements.
+     * </p>
+     *
+     * @param handler the handler to report to, must not be {@code null}
+     * @throws XRechnungWriterException if the handler throws a {@link org.xml.sax.SAXException}, which is the cause
+     */
+    public void writeTo(ContentHandler handler) {
+        Objects.requireNonNull(handler, "Handler must not be null");
+        write(new SaxXmlSink(handler));
+    }
+
     /**
      * Generates an XML representation of the invoice in the Cross-Industry Invoice (CII) format.
      * <p>
-     * This method constructs an XML document using {@link XmlDocumentBuilder}, setting up the necessary
-     * namespaces and elements according to the CII structure.
+     * The invoice is written with the {@link XmlBackend} of this writer. All backends produce the same document.
      * </p>
      *
      * @return a byte array containing the serialized XML document
      * @throws ParserConfigurationException if an error occurs while creating the XML document
      * @throws TransformerException         if an error occurs during XML transformation
+     * @throws XRechnungWriterException     if a streaming backend fails to write the XML document
      */
     public byte[] getXML() throws ParserConfigurationException, TransformerException {
-        var builder = new XmlDocumentBuilder();
-        builder.addNamespace("rsm", NS_RSM);
-        builder.addNamespace("ram", NS_RAM);
-        builder.addNamespace("udt", NS_UDT);
-        builder.addNamespace("qdt", NS_QDT);
-        Element root = builder.createElement(NS_RSM, "CrossIndustryInvoice");
-        builder.setRootElement(root);
-        root.appendChild(createExchangedDocumentContext(builder));
-        root.appendChild(createExchangedDocument(builder, invoice.getInvoiceNotes()));
-        Element tradeTransaction = builder.createElement(NS_RSM, "SupplyChainTradeTransaction");
-        root.appendChild(tradeTransaction);
-        for (Item lineItem : invoice.getItems()) {
-            tradeTransaction.appendChild(createTradeLineItem(lineItem, builder));
-        }
-        tradeTransaction.appendChild(createTradeHeader(builder));
-        tradeTransaction.appendChild(createTradeDelivery(builder));
-        tradeTransaction.appendChild(createTradeSettlement(builder));
-
-        return toXml(builder.getDomSource());
-    }
-
-    private Element createExchangedDocumentContext(XmlDocumentBuilder builder) {
-        Element exchangedDocumentContext = builder.createElement(NS_RSM, "ExchangedDocumentContext");
-        Element businessContextParam = builder.createElement(NS_RAM, "BusinessProcessSpecifiedDocumentContextParameter");
-        businessContextParam.appendChild(createID(builder, "urn:fdc:peppol.eu:2017:poacc:billing:01:1.0"));
-        exchangedDocumentContext.appendChild(businessContextParam);
-        Element guidelineContextParam = builder.createElement(NS_RAM, "GuidelineSpecifiedDocumentContextParameter");
-        guidelineContextParam.appendChild(createID(builder, "urn:cen.eu:en16931:2017#compliant#urn:xeinkauf.de:kosit:xrechnung_3.0"));
-        exchangedDocumentContext.appendChild(guidelineContextParam);
-        return exchangedDocumentContext;
-    }
-
-    private Element createExchangedDocument(XmlDocumentBuilder builder, List<InvoiceNote> invoiceNotes) {
-        Element exchangedDocument = builder.createElement(NS_RSM, "ExchangedDocument");
-        exchangedDocument.appendChild(createID(builder, invoice.getDocumentId()));
-        exchangedDocument.appendChild(createTypeCode(builder, invoice.getDocumentTypeCode()));
-        Element issueDateTime = builder.createElement(NS_RAM, "IssueDateTime");
-        exchangedDocument.appendChild(issueDateTime);
-        issueDateTime.appendChild(createDateTimeString(builder, invoice.getIssueDate(), NS_UDT));
+        return render(null);
+    }
+
+    /**
+     * Generates an XML representation of the invoice and computes its SHA-256 digest while writing it.
+     *
+     * @return the serialized XML document and its digest
+     * @throws ParserConfigurationException if an error occurs while creating the XML document
+     * @throws TransformerException         if an error occurs during XML transformation
+     * @throws XRechnungWriterException     if a streaming backend fails to write the XML document
+     * @see #getDigestedXML(MessageDigest)
+     */
+    public DigestedXml getDigestedXML() throws ParserConfigurationException, TransformerException {
+        try {
+            return getDigestedXML(MessageDigest.getInstance(DEFAULT_DIGEST_ALGORITHM));
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Generates an XML representation of the invoice and computes its digest while writing it.
+     * <p>
+     * The bytes are passed to the digest in chunks shortly after they have been written, so the document is
+     * not read a second time to compute the digest, e.g. for archiving it together with its hash.
+     * </p>
+     *
+     * @param digest the digest to compute, must not be {@code null}. It is reset before the document is written.
+     * @return the serialized XML document and its digest
+     * @throws ParserConfigurationException if an error occurs while creating the XML document
+     * @throws TransformerException         if an error occurs during XML transformation
+     * @throws XRechnungWriterException     if a streaming backend fails to write the XML document
+     */
+    public DigestedXml getDigestedXML(MessageDigest digest) throws ParserConfigurationException,
+            TransformerException {
+        Objects.requireNonNull(digest, "Digest must not be null");
+        digest.reset();
+        byte[] xml = render(digest);
+        return new DigestedXml(xml, digest.getAlgorithm(), digest.digest());
+    }
+
+    private byte[] render(MessageDigest digest) throws ParserConfigurationException, TransformerException {
+        if (backend() == XmlBackend.DIRECT) {
+            if (lineCount() >= EXACT_SIZE_MIN_LINES) {
+                long size = computeSize();
+                if (size <= MAX_ARRAY_SIZE) {
+                    var sink = configure(new DirectXmlSink((int) size), digest);
+                    write(sink);
+                    return sink.detach();
+                }
+            }
+            DirectXmlSink sink = configure(engine.takeDirectSink(null), digest);
+            try {
+                write(sink);
+                return sink.toByteArray();
+            } finally {
+                engine.release(sink);
+            }
+        }
+        var output = new ByteArrayOutputStream((int) Math.min(computeSize(), MAX_ARRAY_SIZE));
+        try {
+            writeToStream(output, digest);
+        } catch (IOException e) {
+            // a ByteArrayOutputStream does not throw
+            throw new UncheckedIOException(e);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes the XML representation of the invoice in the Cross-Industry Invoice (CII) format to the given stream.
+     * <p>
+     * The streaming backends write the document while walking the invoice, without materializing it first.
+     * </p>
+     *
+     * @param output the stream to write to, must not be {@code null}. It is neither flushed nor closed.
+     * @throws IOException                  if writing to the stream fails
+     * @throws ParserConfigurationException if an error occurs while creating the XML document
+     * @throws TransformerException         if an error occurs during XML transformation
+     * @throws XRechnungWriterException     if a streaming backend fails to write the XML document
+     */
+    public void writeTo(OutputStream output) throws IOException, ParserConfigurationException, TransformerException {
+        Objects.requireNonNull(output, "Output must not be null");
+        writeToStream(output, null);
+    }
+
+    /**
+     * Writes the XML representation of the invoice to the given stream and computes its digest while writing it.
+     *
+     * @param output the stream to write to, must not be {@code null}. It is neither flushed nor closed.
+     * @param digest the digest to compute, must not be {@code null}. It is reset before the document is written.
+     * @return the digest of the document
+     * @throws IOException                  if writing to the stream fails
+     * @throws ParserConfigurationException if an error occurs while creating the XML document
+     * @throws TransformerException         if an error occurs during XML transformation
+     * @throws XRechnungWriterException     if a streaming backend fails to write the XML document
+     * @see #getDigestedXML(MessageDigest)
+     */
+    public byte[] writeTo(OutputStream output, MessageDigest digest) throws IOException,
+            ParserConfigurationException, TransformerException {
+        Objects.requireNonNull(output, "Output must not be null");
+        Objects.requireNonNull(digest, "Digest must not be null");
+        digest.reset();
+        writeToStream(output, digest);
+        return digest.digest();
+    }
+
+    /**
+     * Writes the document to the stream and feeds it to the digest, if there is one.
+     */
+    private void writeToStream(OutputStream output, MessageDigest digest) throws IOException,
+            ParserConfigurationException, TransformerException {
+        if (digest != null && backend() != XmlBackend.DIRECT) {
+            output = new DigestOutputStream(output, digest);
+        }
+        try {
+            if (backend() == XmlBackend.DOM) {
+                DocumentBuilder documentBuilder = engine.takeDocumentBuilder();
+                DOMSource source;
+                try {
+                    var sink = new DomXmlSink(documentBuilder);
+                    write(sink);
+                    source = sink.getDomSource();
+                } finally {
+                    engine.release(documentBuilder);
+                }
+                toXml(source, output);
+            } else if (backend() == XmlBackend.STAX) {
+                write(new StaxXmlSink(output, engine.getOutputFactory()));
+            } else {
+                DirectXmlSink sink = configure(engine.takeDirectSink(output), digest);
+                try {
+                    write(sink);
+                } finally {
+                    engine.release(sink);
+                }
+            }
+        } catch (XRechnungWriterException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the XML representation of the invoice in the Cross-Industry Invoice (CII) format to the given channel.
+     *
+     * @param channel the channel to write to, must not be {@code null}. It is not closed.
+     * @throws IOException                  if writing to the channel fails
+     * @throws ParserConfigurationException if an error occurs while creating the XML document
+     * @throws TransformerException         if an error occurs during XML transformation
+     * @throws XRechnungWriterException     if a streaming backend fails to write the XML document
+     * @see #writeTo(OutputStream)
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException, ParserConfigurationException,
+            TransformerException {
+        Objects.requireNonNull(channel, "Channel must not be null");
+        writeTo(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Puts the XML representation of the invoice in the Cross-Industry Invoice (CII) format into the given buffer,
+     * starting at its current position.
+     *
+     * @param buffer the buffer to write to, must not be {@code null}
+     * @return the number of bytes that have been written
+     * @throws BufferOverflowException      if the buffer has not enough space remaining
+     * @throws ParserConfigurationException if an error occurs while creating the XML document
+     * @throws TransformerException         if an error occurs during XML transformation
+     * @throws XRechnungWriterException     if a streaming backend fails to write the XML document
+     * @see #writeTo(OutputStream)
+     */
+    public int writeTo(ByteBuffer buffer) throws ParserConfigurationException, TransformerException {
+        Objects.requireNonNull(buffer, "Buffer must not be null");
+        int start = buffer.position();
+        try {
+            writeTo(new ByteBufferOutputStream(buffer));
+        } catch (IOException e) {
+            // a ByteBufferOutputStream does not throw
+            throw new UncheckedIOException(e);
+        }
+        return buffer.position() - start;
+    }
+
+    /**
+     * Returns the backend that writes the document, which is always the direct one for canonical documents.
+     */
+    private XmlBackend backend() {
+        return canonical ? XmlBackend.DIRECT : engine.getBackend();
+    }
+
+    /**
+     * Sets the line separator of canonical documents on a direct sink.
+     */
+    private DirectXmlSink configure(DirectXmlSink sink) {
+        if (canonical) {
+            sink.lineSeparator(CANONICAL_LINE_SEPARATOR);
+        }
+        return sink;
+    }
+
+    /**
+     * Sets the line separator and the digest, if there is one, on a direct sink.
+     */
+    private DirectXmlSink configure(DirectXmlSink sink, MessageDigest digest) {
+        if (digest != null) {
+            sink.digest(digest);
+        }
+        return configure(sink);
+    }
+
+    private int lineCount() {
+        ItemTable itemTable = invoice.getItemTable();
+        return invoice.getItems().size() + (itemTable != null ? itemTable.size() : 0);
+    }
+
+    /**
+     * Walks the invoice once and reports all elements in document order to the sink.
+     */
+    private void write(XmlSink out) {
+        writeDocumentStart(out);
+        if (lineItemPool != null && out instanceof DirectXmlSink && lineCount() > lineItemChunkSize) {
+            writeTradeLineItemsInParallel((DirectXmlSink) out);
+        } else {
+            writeTradeLineItems(out, 0, lineCount(), productCache);
+        }
+        writeDocumentEnd(out);
+    }
+
+    /**
+     * Writes the line items from {@code start} to {@code end}, counting the items first and then the lines of
+     * the item table.
+     */
+    private void writeTradeLineItems(XmlSink out, int start, int end, ProductFragmentCache cache) {
+        List<Item> lineItems = invoice.getItems();
+        for (int i = start; i < Math.min(end, lineItems.size()); i++) {
+            writeTradeLineItem(out, lineItems.get(i), cache);
+        }
+        ItemTable itemTable = invoice.getItemTable();
+        for (int line = Math.max(start - lineItems.size(), 0); line < end - lineItems.size(); line++) {
+            writeTradeLineItem(out, itemTable, line);
+        }
+    }
+
+    /**
+     * Renders chunks of line items into fragments on the pool and appends the fragments in order.
+     * A fragment is appended as soon as it and all fragments before it are complete. At most twice the
+     * parallelism of the pool chunks are submitted and not yet appended, the next chunk is submitted when the
+     * oldest one has been appended.
+     */
+    private void writeTradeLineItemsInParallel(DirectXmlSink out) {
+        int depth = out.depth();
+        int lineCount = lineCount();
+        int maxInFlight = 2 * lineItemPool.getParallelism();
+        ProductFragmentCache cache = productCache;
+        Deque<ForkJoinTask<DirectXmlSink>> tasks = new ArrayDeque<>(maxInFlight);
+        try {
+            for (int start = 0; start < lineCount; start += lineItemChunkSize) {
+                if (tasks.size() == maxInFlight) {
+                    out.append(tasks.removeFirst().join());
+                }
+                int chunkStart = start;
+                int chunkEnd = Math.min(start + lineItemChunkSize, lineCount);
+                tasks.addLast(lineItemPool.submit(() -> {
+                    DirectXmlSink fragment = configure(DirectXmlSink.fragment(depth));
+                    writeTradeLineItems(fragment, chunkStart, chunkEnd, cache);
+                    return fragment;
+                }));
+            }
+            while (!tasks.isEmpty()) {
+                out.append(tasks.removeFirst().join());
+            }
+        } catch (RuntimeException e) {
+            tasks.forEach(task -> task.cancel(false));
+            throw e;
+        }
+    }
+
+    /**
+     * Writes everything in front of the line items and leaves the {@code SupplyChainTradeTransaction} open.
+     */
+    void writeDocumentStart(XmlSink out) {
+        out.startDocument();
+        out.startElement(CROSS_INDUSTRY_INVOICE);
+        if (!appendSegment(out, template != null ? template.getContextSegment() : null)) {
+            writeExchangedDocumentContext(out);
+        }
+        writeExchangedDocument(out, invoice.getInvoiceNotes());
+        out.startElement(SUPPLY_CHAIN_TRADE_TRANSACTION);
+    }
+
+    /**
+     * Writes everything after the line items and closes the document.
+     */
+    void writeDocumentEnd(XmlSink out) {
+        writeTradeHeader(out);
+        writeTradeDelivery(out);
+        writeTradeSettlement(out);
+        out.endElement();
+        out.endElement();
+        out.endDocument();
+    }
+
+    /**
+     * Writes a line of an item table like {@link #writeTradeLineItem(XmlSink, Item)} writes an item,
+     * without creating any objects for the values.
+     */
+    static void writeTradeLineItem(XmlSink out, ItemTable table, int line) {
+        out.startElement(INCLUDED_SUPPLY_CHAIN_TRADE_LINE_ITEM);
+
+        out.startElement(ASSOCIATED_DOCUMENT_LINE_DOCUMENT);
+        out.startElement(LINE_ID);
+        out.text(table.getId(line));
+        out.endElement();
+        out.endElement();
+
+        out.startElement(SPECIFIED_TRADE_PRODUCT);
+        String sellerAssignedId = table.getSellerAssignedId(line);
+        if (XRechnungUtils.isNotNullOrBlank(sellerAssignedId)) {
+            writeElement(out, SELLER_ASSIGNED_ID, sellerAssignedId);
+        }
+        writeElement(out, NAME, table.getName(line));
+        String description = table.getDescription(line);
+        if (XRechnungUtils.isNotNullOrBlank(description)) {
+            writeElement(out, DESCRIPTION, description);
+        }
+        out.endElement();
+
+        String unitCode = table.getUnitCode(line);
+        out.startElement(SPECIFIED_LINE_TRADE_AGREEMENT);
+        out.startElement(NET_PRICE_PRODUCT_TRADE_PRICE);
+        out.startElement(CHARGE_AMOUNT);
+        out.decimal(table.getUnscaledUnitPrice(line), table.getAmountScale());
+        out.endElement();
+        out.startElement(BASIS_QUANTITY);
+        out.attribute("unitCode", unitCode);
+        out.text("1");
+        out.endElement();
+        out.endElement();
+        out.endElement();
+
+        out.startElement(SPECIFIED_LINE_TRADE_DELIVERY);
+        out.startElement(BILLED_QUANTITY);
+        out.attribute("unitCode", unitCode);
+        out.text(table.getQuantity(line));
+        out.endElement();
+        out.endElement();
+
+        out.startElement(SPECIFIED_LINE_TRADE_SETTLEMENT);
+        out.startElement(APPLICABLE_TRADE_TAX);
+        if (table.hasVat(line)) {
+            writeElement(out, TYPE_CODE, VAT_TYPE_CODE);
+            TaxCategory category = table.getVatCategory(line);
+            if (category != null) {
+                writeElement(out, CATEGORY_CODE, category.getCategoryCode());
+            }
+            BigDecimal rate = table.getVatRate(line);
+            if (rate != null) {
+                writeAmount(out, RATE_APPLICABLE_PERCENT, rate);
+            }
+        }
+        out.endElement();
+        out.startElement(SPECIFIED_TRADE_SETTLEMENT_LINE_MONETARY_SUMMATION);
+        out.startElement(LINE_TOTAL_AMOUNT); // BT-131
+        out.decimal(table.getUnscaledLineTotalAmount(line), table.getAmountScale());
+        out.endElement();
+        out.endElement();
+        out.endElement();
+
+        out.endElement();
+    }
+
+    /**
+     * Appends a segment of the {@link #template} if the sink is a {@link DirectXmlSink}.
+     *
+     * @param segment the segment or {@code null} if the template does not apply to the invoice
+     * @return {@code true} if the segment has been appended, {@code false} if the part must be rendered
+     */
+    private static boolean appendSegment(XmlSink out, byte[] segment) {
+        if (segment == null || !(out instanceof DirectXmlSink)) {
+            return false;
+        }
+        var sink = (DirectXmlSink) out;
+        if (!sink.hasPlatformLineSeparator()) {
+            // segments are rendered with the line separator of the platform
+            return false;
+        }
+        sink.append(segment);
+        return true;
+    }
+
+    static void writeExchangedDocumentContext(XmlSink out) {
+        out.startElement(EXCHANGED_DOCUMENT_CONTEXT);
+        out.startElement(BUSINESS_PROCESS_SPECIFIED_DOCUMENT_CONTEXT_PARAMETER);
+        writeElement(out, ID, "urn:fdc:peppol.eu:2017:poacc:billing:01:1.0");
+        out.endElement();
+        out.startElement(GUIDELINE_SPECIFIED_DOCUMENT_CONTEXT_PARAMETER);
+        writeElement(out, ID, "urn:cen.eu:en16931:2017#compliant#urn:xeinkauf.de:kosit:xrechnung_3.0");
+        out.endElement();
+        out.endElement();
+    }
+
+    private void writeExchangedDocument(XmlSink out, List<InvoiceNote> invoiceNotes) {
+        out.startElement(EXCHANGED_DOCUMENT);
+        writeElement(out, ID, invoice.getDocumentId());
+        writeElement(out, TYPE_CODE, invoice.getDocumentTypeCode());
+        out.startElement(ISSUE_DATE_TIME);
+        writeDateTimeString(out, invoice.getIssueDate(), UDT_DATE_TIME_STRING);
+        out.endElement();
         for (InvoiceNote note : invoiceNotes) {
             if (XRechnungUtils.isNotNullOrBlank(note.getNote())) {
-                exchangedDocument.appendChild(createIncludedNote(builder, note));
+                writeIncludedNote(out, note);
             }
         }
-        return exchangedDocument;
+        out.endElement();
+    }
+
+    static void writeTradeLineItem(XmlSink out, Item lineItem) {
+        writeTradeLineItem(out, lineItem, null);
     }
 
-    private static Element createTradeLineItem(Item lineItem, XmlDocumentBuilder builder) {
-        Element tradeLineItem = builder.createElement(NS_RAM, "IncludedSupplyChainTradeLineItem");
+    /**
+     * Writes an item and takes its product element from the cache, if there is one.
+     */
+    static void writeTradeLineItem(XmlSink out, Item lineItem, ProductFragmentCache productCache) {
+        out.startElement(INCLUDED_SUPPLY_CHAIN_TRADE_LINE_ITEM);
+
+        out.startElement(ASSOCIATED_DOCUMENT_LINE_DOCUMENT);
+        writeLong(out, LINE_ID, lineItem.getId());
+        out.endElement();
+
+        if (productCache == null || !(out instanceof DirectXmlSink)
+                || !productCache.append((DirectXmlSink) out, lineItem)) {
+            writeTradeProduct(out, lineItem);
+        }
 
-        Element associatedLineItem = builder.createElement(NS_RAM, "AssociatedDocumentLineDocument");
-        tradeLineItem.appendChild(associatedLineItem);
-        Element lineId = builder.createElement(NS_RAM, "LineID");
-        if (lineItem.getId() != null) {
-            lineId.setTextContent(lineItem.getId().toString());
+        out.startElement(SPECIFIED_LINE_TRADE_AGREEMENT);
+        out.startElement(NET_PRICE_PRODUCT_TRADE_PRICE);
+        writeAmount(out, CHARGE_AMOUNT, lineItem.getUnitPrice());
+        out.startElement(BASIS_QUANTITY);
+        out.attribute("unitCode", lineItem.getUnitCode());
+        out.text("1");
+        out.endElement();
+        out.endElement();
+        out.endElement();
+
+        out.startElement(SPECIFIED_LINE_TRADE_DELIVERY);
+        out.startElement(BILLED_QUANTITY);
+        out.attribute("unitCode", lineItem.getUnitCode());
+        if (lineItem.getQuantity() != null) {
+            out.text(lineItem.getQuantity());
         }
-        associatedLineItem.appendChild(lineId);
+        out.endElement();
+        out.endElement();
+
+        out.startElement(SPECIFIED_LINE_TRADE_SETTLEMENT);
+        writeTax(out, lineItem.getVat());
+        out.startElement(SPECIFIED_TRADE_SETTLEMENT_LINE_MONETARY_SUMMATION);
+        writeAmount(out, LINE_TOTAL_AMOUNT, lineItem.getItemTotalNetAmount()); // BT-131
+        out.endElement();
+        out.endElement();
 
-        Element specifiedProduct = builder.createElement(NS_RAM, "SpecifiedTradeProduct");
-        tradeLineItem.appendChild(specifiedProduct);
+        out.endElement();
+    }
+
+    static void writeTradeProduct(XmlSink out, Item lineItem) {
+        out.startElement(SPECIFIED_TRADE_PRODUCT);
         if (XRechnungUtils.isNotNullOrBlank(lineItem.getSellerAssignedId())) {
-            Element sellerAssignedId = builder.createElement(NS_RAM, "SellerAssignedID");
-            sellerAssignedId.setTextContent(lineItem.getSellerAssignedId());
-            specifiedProduct.appendChild(sellerAssignedId);
+            writeElement(out, SELLER_ASSIGNED_ID, lineItem.getSellerAssignedId());
         }
-        specifiedProduct.appendChild(createName(builder, lineItem.getName()));
+        writeElement(out, NAME, lineItem.getName());
         if (XRechnungUtils.isNotNullOrBlank(lineItem.getDescription())) {
-            specifiedProduct.appendChild(createDescription(builder, lineItem.getDescription()));
+            writeElement(out, DESCRIPTION, lineItem.getDescription());
         }
         for (ItemAttribute attribute : lineItem.getItemAttributes()) {
-            specifiedProduct.appendChild(createProductCharacteristic(builder, attribute));
-        }
-
-        Element specifiedAgreement = builder.createElement(NS_RAM, "SpecifiedLineTradeAgreement");
-        tradeLineItem.appendChild(specifiedAgreement);
-        Element netProductTradePrice = builder.createElement(NS_RAM, "NetPriceProductTradePrice");
-        specifiedAgreement.appendChild(netProductTradePrice);
-        Element chargeAmount = builder.createElement(NS_RAM, "ChargeAmount");
-        if (lineItem.getUnitPrice() != null) {
-            chargeAmount.setTextContent(lineItem.getUnitPrice().toString());
-        }
-        netProductTradePrice.appendChild(chargeAmount);
-        Element basisQuantity = builder.createElement(NS_RAM, "BasisQuantity");
-        basisQuantity.setAttribute("unitCode", lineItem.getUnitCode());
-        basisQuantity.setTextContent("1");
-        netProductTradePrice.appendChild(basisQuantity);
-
-        Element specifiedDelivery = builder.createElement(NS_RAM, "SpecifiedLineTradeDelivery");
-        tradeLineItem.appendChild(specifiedDelivery);
-        Element billedQuantity = builder.createElement(NS_RAM, "BilledQuantity");
-        billedQuantity.setAttribute("unitCode", lineItem.getUnitCode());
-        if (lineItem.getQuantity() != null) {
-            billedQuantity.setTextContent(lineItem.getQuantity().toString());
+            writeProductCharacteristic(out, attribute);
         }
-        specifiedDelivery.appendChild(billedQuantity);
-
-        Element specifiedSettlement = builder.createElement(NS_RAM, "SpecifiedLineTradeSettlement");
-        tradeLineItem.appendChild(specifiedSettlement);
-        specifiedSettlement.appendChild(createTax(builder, lineItem.getVat()));
-        Element taxSummation = builder.createElement(NS_RAM, "SpecifiedTradeSettlementLineMonetarySummation");
-        specifiedSettlement.appendChild(taxSummation);
-        Element taxAmount = builder.createElement(NS_RAM, "LineTotalAmount"); // BT-131
-        if (lineItem.getItemTotalNetAmount() != null) {
-            taxAmount.setTextContent(lineItem.getItemTotalNetAmount().toString());
-        }
-        taxSummation.appendChild(taxAmount);
-        return tradeLineItem;
+        out.endElement();
     }
 
-    private Element createTradeHeader(XmlDocumentBuilder builder) {
-        Element tradeHeader = builder.createElement(NS_RAM, "ApplicableHeaderTradeAgreement");
+    private void writeTradeHeader(XmlSink out) {
+        out.startElement(APPLICABLE_HEADER_TRADE_AGREEMENT);
 
-        Element buyerRef = builder.createElement(NS_RAM, "BuyerReference");
         if (XRechnungUtils.isNotNullOrBlank(invoice.getLeitwegId())) {
-            buyerRef.setTextContent(invoice.getLeitwegId());
+            writeElement(out, BUYER_REFERENCE, invoice.getLeitwegId());
         } else {
             // > Wenn keine Referenz vorgegeben wurde:
             // >  – „N/A“ (Not Applicable)
@@ -211,449 +862,360 @@ public class XRechnungWriter {
             // >  – Eine allgemeine Kennung wie „Keine Referenz vorhanden“
             // Source: https://leitweg-id.de/
             // Use "N/A" as it does not require translation for different locales
-            buyerRef.setTextContent("N/A");
+            writeElement(out, BUYER_REFERENCE, "N/A");
         }
-        tradeHeader.appendChild(buyerRef);
 
         SellerOrBuyer sellerInfo = invoice.getSeller();
-        if (sellerInfo != null) {
-            Element seller = builder.createElement(NS_RAM, "SellerTradeParty");
-            tradeHeader.appendChild(seller);
-            seller.appendChild(createName(builder, sellerInfo.getName()));
-            seller.appendChild(createTradeContact(builder, sellerInfo.getContact()));
-            seller.appendChild(createAddress(builder, sellerInfo.getAddress()));
-            seller.appendChild(createElectronicAddressEmailElement(builder, sellerInfo.getElectronicAddress()));
-            if (XRechnungUtils.isNotNullOrBlank(sellerInfo.getVatId())) {
-                seller.appendChild(createTaxRegistration(builder, "VA", sellerInfo.getVatId()));
-            }
+        if (sellerInfo != null
+                && !appendSegment(out, template != null ? template.getSellerSegment(sellerInfo) : null)) {
+            writeSellerTradeParty(out, sellerInfo);
         }
 
         SellerOrBuyer buyerInfo = invoice.getBuyer();
         if (buyerInfo != null) {
-            Element buyer = builder.createElement(NS_RAM, "BuyerTradeParty");
-            tradeHeader.appendChild(buyer);
-            buyer.appendChild(createName(builder, buyerInfo.getName()));
-            buyer.appendChild(createAddress(builder, buyerInfo.getAddress()));
-            buyer.appendChild(createElectronicAddressEmailElement(builder, buyerInfo.getElectronicAddress()));
+            out.startElement(BUYER_TRADE_PARTY);
+            writeElement(out, NAME, buyerInfo.getName());
+            writeAddress(out, buyerInfo.getAddress());
+            writeElectronicAddressEmailElement(out, buyerInfo.getElectronicAddress());
             if (XRechnungUtils.isNotNullOrBlank(buyerInfo.getVatId())) {
-                buyer.appendChild(createTaxRegistration(builder, "VA", buyerInfo.getVatId()));
+                writeTaxRegistration(out, "VA", buyerInfo.getVatId());
             }
+            out.endElement();
         }
 
-        Element sellerRefDoc = builder.createElement(NS_RAM, "SellerOrderReferencedDocument");
-        tradeHeader.appendChild(sellerRefDoc);
-        Element issuerId = builder.createElement(NS_RAM, "IssuerAssignedID");
-        issuerId.setTextContent(invoice.getSalesOrderReference());
-        sellerRefDoc.appendChild(issuerId);
+        out.startElement(SELLER_ORDER_REFERENCED_DOCUMENT);
+        writeElement(out, ISSUER_ASSIGNED_ID, invoice.getSalesOrderReference());
+        out.endElement();
 
-        return tradeHeader;
+        out.endElement();
     }
 
-    private Element createTradeDelivery(XmlDocumentBuilder builder) {
-        Element tradeDelivery = builder.createElement(NS_RAM, "ApplicableHeaderTradeDelivery");
-        DeliveryInformation deliveryInfo = invoice.getDeliveryInfo();
-        if (deliveryInfo == null) {
-            return tradeDelivery;
+    static void writeSellerTradeParty(XmlSink out, SellerOrBuyer sellerInfo) {
+        out.startElement(SELLER_TRADE_PARTY);
+        writeElement(out, NAME, sellerInfo.getName());
+        writeTradeContact(out, sellerInfo.getContact());
+        writeAddress(out, sellerInfo.getAddress());
+        writeElectronicAddressEmailElement(out, sellerInfo.getElectronicAddress());
+        if (XRechnungUtils.isNotNullOrBlank(sellerInfo.getVatId())) {
+            writeTaxRegistration(out, "VA", sellerInfo.getVatId());
         }
-        Element shipment = builder.createElement(NS_RAM, "ShipToTradeParty");
-        tradeDelivery.appendChild(shipment);
-        shipment.appendChild(createName(builder, deliveryInfo.getName()));
-        shipment.appendChild(createAddress(builder, deliveryInfo.getDeliveryAddress()));
+        out.endElement();
+    }
 
-        if (deliveryInfo.getActualDeliveryDate() != null) { // (BT-72)
-            Element occurrenceDateTime = builder.createElement(NS_RAM, "OccurrenceDateTime");
-            occurrenceDateTime.appendChild(createDateTimeString(builder, deliveryInfo.getActualDeliveryDate(), NS_UDT));
-            Element deliveryEvent = builder.createElement(NS_RAM, "ActualDeliverySupplyChainEvent");
-            deliveryEvent.appendChild(occurrenceDateTime);
-            tradeDelivery.appendChild(deliveryEvent);
+    private void writeTradeDelivery(XmlSink out) {
+        out.startElement(APPLICABLE_HEADER_TRADE_DELIVERY);
+        DeliveryInformation deliveryInfo = invoice.getDeliveryInfo();
+        if (deliveryInfo != null) {
+            out.startElement(SHIP_TO_TRADE_PARTY);
+            writeElement(out, NAME, deliveryInfo.getName());
+            writeAddress(out, deliveryInfo.getDeliveryAddress());
+            out.endElement();
+
+            if (deliveryInfo.getActualDeliveryDate() != null) { // (BT-72)
+                out.startElement(ACTUAL_DELIVERY_SUPPLY_CHAIN_EVENT);
+                out.startElement(OCCURRENCE_DATE_TIME);
+                writeDateTimeString(out, deliveryInfo.getActualDeliveryDate(), UDT_DATE_TIME_STRING);
+                out.endElement();
+                out.endElement();
+            }
         }
-
-        return tradeDelivery;
+        out.endElement();
     }
 
-    private Element createTradeSettlement(XmlDocumentBuilder builder) {
-        Element tradeSettlement = builder.createElement(NS_RAM, "ApplicableHeaderTradeSettlement");
+    private void writeTradeSettlement(XmlSink out) {
+        out.startElement(APPLICABLE_HEADER_TRADE_SETTLEMENT);
         PaymentInstructions paymentInstructions = invoice.getPaymentInstructions();
         if (paymentInstructions != null && paymentInstructions.getDirectDebit() != null) {
-            Element creditorRefId = builder.createElement(NS_RAM, "CreditorReferenceID");
-            creditorRefId.setTextContent(paymentInstructions.getDirectDebit().getCreditorId());
-            tradeSettlement.appendChild(creditorRefId);
+            writeElement(out, CREDITOR_REFERENCE_ID, paymentInstructions.getDirectDebit().getCreditorId());
         }
         if (paymentInstructions != null && XRechnungUtils.isNotNullOrBlank(paymentInstructions.getRemittanceInfo())) {
-            Element paymentRef = builder.createElement(NS_RAM, "PaymentReference");
-            paymentRef.setTextContent(paymentInstructions.getRemittanceInfo());
-            tradeSettlement.appendChild(paymentRef);
-        }
-        Element currency = builder.createElement(NS_RAM, "InvoiceCurrencyCode");
-        currency.setTextContent(invoice.getCurrency());
-        tradeSettlement.appendChild(currency);
-        tradeSettlement.appendChild(createPaymentMeans(builder, paymentInstructions));
+            writeElement(out, PAYMENT_REFERENCE, paymentInstructions.getRemittanceInfo());
+        }
+        writeElement(out, INVOICE_CURRENCY_CODE, invoice.getCurrency());
+        if (!appendSegment(out, template != null ? template.getPaymentMeansSegment(paymentInstructions) : null)) {
+            writePaymentMeans(out, paymentInstructions);
+        }
         for (Vat totalVat : invoice.getVatTotals()) {
-            tradeSettlement.appendChild(createTax(builder, totalVat));
+            writeTax(out, totalVat);
         }
         for (Allowance allowance : invoice.getAllowances()) {
-            tradeSettlement.appendChild(createAllowance(builder, allowance));
+            writeAllowance(out, allowance);
         }
         for (Charge charge : invoice.getCharges()) {
-            tradeSettlement.appendChild(createCharge(builder, charge));
+            writeCharge(out, charge);
         }
-        if (paymentInstructions != null && XRechnungUtils.isNotNullOrBlank(paymentInstructions.getPaymentTerms())) {
-            Element paymentTerms = builder.createElement(NS_RAM, "SpecifiedTradePaymentTerms");
-            tradeSettlement.appendChild(paymentTerms);
-            paymentTerms.appendChild(createDescription(builder, paymentInstructions.getPaymentTerms()));
-            if (paymentInstructions.getDirectDebit() != null) {
-                Element directDebitMandate = builder.createElement(NS_RAM, "DirectDebitMandateID");
-                directDebitMandate.setTextContent(paymentInstructions.getDirectDebit().getMandateReference());
-                paymentTerms.appendChild(directDebitMandate);
-            }
+        if (!appendSegment(out, template != null ? template.getPaymentTermsSegment(paymentInstructions) : null)) {
+            writePaymentTerms(out, paymentInstructions);
         }
-        Element sum = builder.createElement(NS_RAM, "SpecifiedTradeSettlementHeaderMonetarySummation");
-        tradeSettlement.appendChild(sum);
-        Element lineTotal = builder.createElement(NS_RAM, "LineTotalAmount"); // BT-106
-        if (invoice.getLineTotalAmount() != null) {
-            lineTotal.setTextContent(invoice.getLineTotalAmount().toString());
-        }
-        sum.appendChild(lineTotal);
+        out.startElement(SPECIFIED_TRADE_SETTLEMENT_HEADER_MONETARY_SUMMATION);
+        writeAmount(out, LINE_TOTAL_AMOUNT, invoice.getLineTotalAmount()); // BT-106
 
         if (invoice.getChargeTotalAmount() != null) {
-            Element chargeTotal = builder.createElement(NS_RAM, "ChargeTotalAmount"); // BT-108
-            chargeTotal.setTextContent(invoice.getChargeTotalAmount().toString());
-            sum.appendChild(chargeTotal);
+            writeAmount(out, CHARGE_TOTAL_AMOUNT, invoice.getChargeTotalAmount()); // BT-108
         }
 
         if (invoice.getAllowanceTotalAmount() != null) {
-            Element allowanceTotal = builder.createElement(NS_RAM, "AllowanceTotalAmount");
-            allowanceTotal.setTextContent(invoice.getAllowanceTotalAmount().toString());
-            sum.appendChild(allowanceTotal);
+            writeAmount(out, ALLOWANCE_TOTAL_AMOUNT, invoice.getAllowanceTotalAmount());
         }
 
-        Element taxBasis = builder.createElement(NS_RAM, "TaxBasisTotalAmount"); // BT-109
-        if (invoice.getTaxBasisTotalAmount() != null) {
-            taxBasis.setTextContent(invoice.getTaxBasisTotalAmount().toString());
-        }
-        sum.appendChild(taxBasis);
+        writeAmount(out, TAX_BASIS_TOTAL_AMOUNT, invoice.getTaxBasisTotalAmount()); // BT-109
         if (invoice.getTaxTotalAmount() != null) {
-            Element taxTotal = builder.createElement(NS_RAM, "TaxTotalAmount"); // BT-110
-            taxTotal.setAttribute("currencyID", invoice.getCurrency());
-            taxTotal.setTextContent(invoice.getTaxTotalAmount().toString());
-            sum.appendChild(taxTotal);
+            out.startElement(TAX_TOTAL_AMOUNT); // BT-110
+            out.attribute("currencyID", invoice.getCurrency());
+            out.decimal(invoice.getTaxTotalAmount());
+            out.endElement();
         }
-        Element grandTotal = builder.createElement(NS_RAM, "GrandTotalAmount"); // BT-112
-        if (invoice.getGrandTotalAmount() != null) {
-            grandTotal.setTextContent(invoice.getGrandTotalAmount().toString());
-        }
-        sum.appendChild(grandTotal);
-        Element duePayable = builder.createElement(NS_RAM, "DuePayableAmount");
-        if (invoice.getDuePayableAmount() != null) {
-            duePayable.setTextContent(invoice.getDuePayableAmount().toString());
-        }
-        sum.appendChild(duePayable);
+        writeAmount(out, GRAND_TOTAL_AMOUNT, invoice.getGrandTotalAmount()); // BT-112
+        writeAmount(out, DUE_PAYABLE_AMOUNT, invoice.getDuePayableAmount());
+        out.endElement();
 
         for (PrecedingInvoiceReference reference : invoice.getPrecedingInvoiceReferences()) {
-            tradeSettlement.appendChild(createPrecedingInvoiceReference(builder, reference));
+            writePrecedingInvoiceReference(out, reference);
         }
 
-        return tradeSettlement;
+        out.endElement();
     }
 
     /**
      * BG-3
      */
-    private Element createPrecedingInvoiceReference(XmlDocumentBuilder builder, PrecedingInvoiceReference reference) {
-        Element element = builder.createElement(NS_RAM, "InvoiceReferencedDocument");
-        Element issuerAssignedId = builder.createElement(NS_RAM, "IssuerAssignedID"); // BT-25, mandatory
-        issuerAssignedId.setTextContent(reference.getPrecedingInvoiceReference());
-        element.appendChild(issuerAssignedId);
+    private static void writePrecedingInvoiceReference(XmlSink out, PrecedingInvoiceReference reference) {
+        out.startElement(INVOICE_REFERENCED_DOCUMENT);
+        writeElement(out, ISSUER_ASSIGNED_ID, reference.getPrecedingInvoiceReference()); // BT-25, mandatory
         if (reference.getPrecedingInvoiceIssueDate() != null) { // BT-26, optional
-            Element issueDateTime = builder.createElement(NS_RAM, "FormattedIssueDateTime");
-            issueDateTime.appendChild(createDateTimeString(builder, reference.getPrecedingInvoiceIssueDate(), NS_QDT));
-            element.appendChild(issueDateTime);
+            out.startElement(FORMATTED_ISSUE_DATE_TIME);
+            writeDateTimeString(out, reference.getPrecedingInvoiceIssueDate(), QDT_DATE_TIME_STRING);
+            out.endElement();
+        }
+        out.endElement();
+    }
+
+    static void writePaymentTerms(XmlSink out, PaymentInstructions paymentInstructions) {
+        if (paymentInstructions != null && XRechnungUtils.isNotNullOrBlank(paymentInstructions.getPaymentTerms())) {
+            out.startElement(SPECIFIED_TRADE_PAYMENT_TERMS);
+            writeElement(out, DESCRIPTION, paymentInstructions.getPaymentTerms());
+            if (paymentInstructions.getDirectDebit() != null) {
+                writeElement(out, DIRECT_DEBIT_MANDATE_ID, paymentInstructions.getDirectDebit().getMandateReference());
+            }
+            out.endElement();
         }
-        return element;
     }
 
-    private static Element createPaymentMeans(XmlDocumentBuilder builder, PaymentInstructions paymentInstructions) {
-        Element paymentMeans = builder.createElement(NS_RAM, "SpecifiedTradeSettlementPaymentMeans");
+    static void writePaymentMeans(XmlSink out, PaymentInstructions paymentInstructions) {
+        out.startElement(SPECIFIED_TRADE_SETTLEMENT_PAYMENT_MEANS);
         if (paymentInstructions != null) {
-            paymentMeans.appendChild(createTypeCode(builder, paymentInstructions.getMeansType()));
+            writeElement(out, TYPE_CODE, paymentInstructions.getMeansType());
             if (XRechnungUtils.isNotNullOrBlank(paymentInstructions.getMeansText())) {
-                Element paymentInfo = builder.createElement(NS_RAM, "Information");
-                paymentInfo.setTextContent(paymentInstructions.getMeansText());
-                paymentMeans.appendChild(paymentInfo);
+                writeElement(out, INFORMATION, paymentInstructions.getMeansText());
             }
             for (CreditTransfer transfer : paymentInstructions.getCreditTransfers()) {
-                Element payeeAccount = builder.createElement(NS_RAM, "PayeePartyCreditorFinancialAccount");
-                paymentMeans.appendChild(payeeAccount);
-                payeeAccount.appendChild(createIban(builder, transfer.getIban()));
+                out.startElement(PAYEE_PARTY_CREDITOR_FINANCIAL_ACCOUNT);
+                writeElement(out, IBAN_ID, transfer.getIban());
                 if (XRechnungUtils.isNotNullOrBlank(transfer.getAccountName())) {
-                    Element accountName = builder.createElement(NS_RAM, "AccountName");
-                    accountName.setTextContent(transfer.getAccountName());
-                    payeeAccount.appendChild(accountName);
+                    writeElement(out, ACCOUNT_NAME, transfer.getAccountName());
                 }
+                out.endElement();
                 if (XRechnungUtils.isNotNullOrBlank(transfer.getBic())) {
-                    Element payeeBank = builder.createElement(NS_RAM, "PayeeSpecifiedCreditorFinancialInstitution");
-                    paymentMeans.appendChild(payeeBank);
-                    Element bic = builder.createElement(NS_RAM, "BICID");
-                    bic.setTextContent(transfer.getBic());
-                    payeeBank.appendChild(bic);
+                    out.startElement(PAYEE_SPECIFIED_CREDITOR_FINANCIAL_INSTITUTION);
+                    writeElement(out, BIC_ID, transfer.getBic());
+                    out.endElement();
                 }
             }
             if (paymentInstructions.getDirectDebit() != null) {
-                Element debtorAccount = builder.createElement(NS_RAM, "PayerPartyDebtorFinancialAccount");
-                debtorAccount.appendChild(createIban(builder, paymentInstructions.getDirectDebit().getDebitedAccountIban()));
-                paymentMeans.appendChild(debtorAccount);
+                out.startElement(PAYER_PARTY_DEBTOR_FINANCIAL_ACCOUNT);
+                writeElement(out, IBAN_ID, paymentInstructions.getDirectDebit().getDebitedAccountIban());
+                out.endElement();
             }
             PaymentCardInformation cardInformation = paymentInstructions.getPaymentCardInformation();
             if (cardInformation != null) {
-                Element card = builder.createElement(NS_RAM, "ApplicableTradeSettlementFinancialCard");
-                card.appendChild(createID(builder, cardInformation.getAccountNumber()));
-                Element cardHolderName = builder.createElement(NS_RAM, "CardholderName");
-                cardHolderName.setTextContent(cardInformation.getCardHolderName());
-                card.appendChild(cardHolderName);
-                paymentMeans.appendChild(card);
+                out.startElement(APPLICABLE_TRADE_SETTLEMENT_FINANCIAL_CARD);
+                writeElement(out, ID, cardInformation.getAccountNumber());
+                writeElement(out, CARDHOLDER_NAME, cardInformation.getCardHolderName());
+                out.endElement();
             }
         }
-        return paymentMeans;
+        out.endElement();
     }
 
-    private Element createAllowance(XmlDocumentBuilder builder, Allowance allowance) {
-        Element element = builder.createElement(NS_RAM, "SpecifiedTradeAllowanceCharge");
-
-        element.appendChild(createChargeIndicator(builder, false));
-
-        Element amount = builder.createElement(NS_RAM, "ActualAmount");
-        if (allowance.getNetAmount() != null) {
-            amount.setTextContent(allowance.getNetAmount().toString());
-        }
-        element.appendChild(amount);
-
-        Element reason = builder.createElement(NS_RAM, "Reason");
-        reason.setTextContent(allowance.getReason());
-        element.appendChild(reason);
-
-        Element tax = builder.createElement(NS_RAM, "CategoryTradeTax");
-        element.appendChild(tax);
-        tax.appendChild(createTypeCode(builder, VAT_TYPE_CODE));
-        if (allowance.getVatCategory() != null) {
-            tax.appendChild(createCategoryCode(builder, allowance.getVatCategory().getCategoryCode()));
-        }
-        if (allowance.getVatRate() != null) {
-            tax.appendChild(createRate(builder, allowance.getVatRate().toString()));
-        }
-
-        return element;
+    private static void writeAllowance(XmlSink out, Allowance allowance) {
+        writeAllowanceCharge(out, false, allowance.getNetAmount(), allowance.getReason(),
+                allowance.getVatCategory(), allowance.getVatRate());
     }
 
-    private Element createCharge(XmlDocumentBuilder builder, Charge charge) {
-        Element element = builder.createElement(NS_RAM, "SpecifiedTradeAllowanceCharge");
+    private static void writeCharge(XmlSink out, Charge charge) {
+        writeAllowanceCharge(out, true, charge.getNetAmount(), charge.getReason(), // BT-99
+                charge.getVatCategory(), charge.getVatRate());
+    }
 
-        element.appendChild(createChargeIndicator(builder, true));
+    private static void writeAllowanceCharge(XmlSink out, boolean isCharge, BigDecimal amount, String reason,
+                                             TaxCategory vatCategory, BigDecimal vatRate) {
+        out.startElement(SPECIFIED_TRADE_ALLOWANCE_CHARGE);
 
-        Element amount = builder.createElement(NS_RAM, "ActualAmount"); // BT-99
-        if (charge.getNetAmount() != null) {
-            amount.setTextContent(charge.getNetAmount().toString());
-        }
-        element.appendChild(amount);
+        out.startElement(CHARGE_INDICATOR);
+        writeElement(out, INDICATOR, isCharge ? "true" : "false");
+        out.endElement();
 
-        Element reason = builder.createElement(NS_RAM, "Reason");
-        reason.setTextContent(charge.getReason());
-        element.appendChild(reason);
+        writeAmount(out, ACTUAL_AMOUNT, amount);
+        writeElement(out, REASON, reason);
 
-        Element tax = builder.createElement(NS_RAM, "CategoryTradeTax");
-        element.appendChild(tax);
-        tax.appendChild(createTypeCode(builder, VAT_TYPE_CODE));
-        if (charge.getVatCategory() != null) {
-            tax.appendChild(createCategoryCode(builder, charge.getVatCategory().getCategoryCode()));
+        out.startElement(CATEGORY_TRADE_TAX);
+        writeElement(out, TYPE_CODE, VAT_TYPE_CODE);
+        if (vatCategory != null) {
+            writeElement(out, CATEGORY_CODE, vatCategory.getCategoryCode());
         }
-        if (charge.getVatRate() != null) {
-            tax.appendChild(createRate(builder, charge.getVatRate().toString()));
+        if (vatRate != null) {
+            writeAmount(out, RATE_APPLICABLE_PERCENT, vatRate);
         }
-        return element;
-    }
+        out.endElement();
 
-    private static Element createID(XmlDocumentBuilder builder, String id) {
-        Element element = builder.createElement(NS_RAM, "ID");
-        element.setTextContent(id);
-        return element;
+        out.endElement();
     }
 
-    private static Element createTypeCode(XmlDocumentBuilder builder, String code) {
-        Element element = builder.createElement(NS_RAM, "TypeCode");
-        element.setTextContent(code);
-        return element;
+    private static void writeElement(XmlSink out, CiiElement element, String text) {
+        out.startElement(element);
+        out.text(text);
+        out.endElement();
     }
 
-    private static Element createName(XmlDocumentBuilder builder, String name) {
-        Element element = builder.createElement(NS_RAM, "Name");
-        element.setTextContent(name);
-        return element;
+    private static void writeAmount(XmlSink out, CiiElement element, BigDecimal amount) {
+        out.startElement(element);
+        out.decimal(amount);
+        out.endElement();
     }
 
-    private static Element createDescription(XmlDocumentBuilder builder, String description) {
-        Element element = builder.createElement(NS_RAM, "Description");
-        element.setTextContent(description);
-        return element;
+    private static void writeLong(XmlSink out, CiiElement element, Long value) {
+        out.startElement(element);
+        if (value != null) {
+            out.text(value);
+        }
+        out.endElement();
     }
 
-    private static Element createDateTimeString(XmlDocumentBuilder builder, OffsetDateTime time, String namespace) {
-        Element dateTimeString = builder.createElement(namespace, "DateTimeString");
-        dateTimeString.setAttribute("format", "102");
+    private static void writeDateTimeString(XmlSink out, OffsetDateTime time, CiiElement element) {
+        out.startElement(element);
+        out.attribute("format", "102");
         if (time != null) {
-            dateTimeString.setTextContent(time.format(DateTimeFormatter.ofPattern("yyyyMMdd")));
+            out.date(time);
         }
-        return dateTimeString;
+        out.endElement();
     }
 
-    private static Element createTaxRegistration(XmlDocumentBuilder builder, String scheme, String id) {
-        Element element = builder.createElement(NS_RAM, "SpecifiedTaxRegistration");
-        Element idElement = createID(builder, id);
-        idElement.setAttribute("schemeID", scheme);
-        element.appendChild(idElement);
-        return element;
+    private static void writeTaxRegistration(XmlSink out, String scheme, String id) {
+        out.startElement(SPECIFIED_TAX_REGISTRATION);
+        out.startElement(ID);
+        out.attribute("schemeID", scheme);
+        out.text(id);
+        out.endElement();
+        out.endElement();
     }
 
-    private static Element createAddress(XmlDocumentBuilder builder, PostalAddress address) {
-        Element tradeAddress = builder.createElement(NS_RAM, "PostalTradeAddress");
+    private static void writeAddress(XmlSink out, PostalAddress address) {
+        out.startElement(POSTAL_TRADE_ADDRESS);
         if (address != null) {
-            Element postCode = builder.createElement(NS_RAM, "PostcodeCode");
-            postCode.setTextContent(address.getZipCode());
-            tradeAddress.appendChild(postCode);
-            Element addressLine = builder.createElement(NS_RAM, "LineOne");
-            addressLine.setTextContent(address.getAddressLineOne());
-            tradeAddress.appendChild(addressLine);
-            Element city = builder.createElement(NS_RAM, "CityName");
-            city.setTextContent(address.getCity());
-            tradeAddress.appendChild(city);
-            Element country = builder.createElement(NS_RAM, "CountryID");
-            country.setTextContent(address.getCountryIsoCode());
-            tradeAddress.appendChild(country);
-        }
-        return tradeAddress;
-    }
-
-    private static Element createTax(XmlDocumentBuilder builder, Vat vat) {
-        Element tradeTax = builder.createElement(NS_RAM, "ApplicableTradeTax");
+            writeElement(out, POSTCODE_CODE, address.getZipCode());
+            writeElement(out, LINE_ONE, address.getAddressLineOne());
+            writeElement(out, CITY_NAME, address.getCity());
+            writeElement(out, COUNTRY_ID, address.getCountryIsoCode());
+        }
+        out.endElement();
+    }
+
+    private static void writeTax(XmlSink out, Vat vat) {
+        out.startElement(APPLICABLE_TRADE_TAX);
         if (vat != null) {
             if (vat.getTaxAmount() != null) {
-                Element calculated = builder.createElement(NS_RAM, "CalculatedAmount"); // BT-117
-                calculated.setTextContent(vat.getTaxAmount().toString());
-                tradeTax.appendChild(calculated);
+                writeAmount(out, CALCULATED_AMOUNT, vat.getTaxAmount()); // BT-117
             }
-            tradeTax.appendChild(createTypeCode(builder, VAT_TYPE_CODE));
+            writeElement(out, TYPE_CODE, VAT_TYPE_CODE);
             if (vat.getVatExemptionReasonText() != null) {
-                Element exemptionReasonText = builder.createElement(NS_RAM, "ExemptionReason"); // BT-120
-                exemptionReasonText.setTextContent(vat.getVatExemptionReasonText());
-                tradeTax.appendChild(exemptionReasonText);
+                writeElement(out, EXEMPTION_REASON, vat.getVatExemptionReasonText()); // BT-120
             }
             if (vat.getVatExemptionReasonCode() != null) {
-                Element exemptionReasonCode = builder.createElement(NS_RAM, "ExemptionReasonCode"); // BT-121
-                exemptionReasonCode.setTextContent(vat.getVatExemptionReasonCode());
-                tradeTax.appendChild(exemptionReasonCode);
+                writeElement(out, EXEMPTION_REASON_CODE, vat.getVatExemptionReasonCode()); // BT-121
             }
             if (vat.getTaxableAmount() != null) {
-                Element basis = builder.createElement(NS_RAM, "BasisAmount");
-                basis.setTextContent(vat.getTaxableAmount().toString());
-                tradeTax.appendChild(basis);
+                writeAmount(out, BASIS_AMOUNT, vat.getTaxableAmount());
             }
             if (vat.getCategory() != null) {
-                tradeTax.appendChild(createCategoryCode(builder, vat.getCategory().getCategoryCode()));
+                writeElement(out, CATEGORY_CODE, vat.getCategory().getCategoryCode());
             }
             if (vat.getRate() != null) {
-                tradeTax.appendChild(createRate(builder, vat.getRate().toString()));
+                writeAmount(out, RATE_APPLICABLE_PERCENT, vat.getRate());
             }
         }
-        return tradeTax;
+        out.endElement();
     }
 
-    private static Element createCategoryCode(XmlDocumentBuilder builder, String category) {
-        Element element = builder.createElement(NS_RAM, "CategoryCode");
-        element.setTextContent(category);
-        return element;
+    private static void writeTradeContact(XmlSink out, Contact contact) {
+        out.startElement(DEFINED_TRADE_CONTACT);
+        if (contact != null) {
+            writeElement(out, PERSON_NAME, contact.getName());
+            out.startElement(TELEPHONE_UNIVERSAL_COMMUNICATION);
+            writeElement(out, COMPLETE_NUMBER, contact.getPhone());
+            out.endElement();
+            out.startElement(EMAIL_URI_UNIVERSAL_COMMUNICATION);
+            writeURIID(out, contact.getEmail(), null);
+            out.endElement();
+        }
+        out.endElement();
     }
 
-    private static Element createRate(XmlDocumentBuilder builder, String rate) {
-        Element element = builder.createElement(NS_RAM, "RateApplicablePercent");
-        element.setTextContent(rate);
-        return element;
+    private static void writeElectronicAddressEmailElement(XmlSink out, String email) {
+        out.startElement(URI_UNIVERSAL_COMMUNICATION);
+        writeURIID(out, email, "EM");
+        out.endElement();
     }
 
-    private static Element createTradeContact(XmlDocumentBuilder builder, Contact contact) {
-        Element tradeContact = builder.createElement(NS_RAM, "DefinedTradeContact");
-        if (contact != null) {
-            Element personName = builder.createElement(NS_RAM, "PersonName");
-            personName.setTextContent(contact.getName());
-            tradeContact.appendChild(personName);
-            Element telephone = builder.createElement(NS_RAM, "TelephoneUniversalCommunication");
-            tradeContact.appendChild(telephone);
-            Element telephoneNumber = builder.createElement(NS_RAM, "CompleteNumber");
-            telephoneNumber.setTextContent(contact.getPhone());
-            telephone.appendChild(telephoneNumber);
-            Element email = builder.createElement(NS_RAM, "EmailURIUniversalCommunication");
-            email.appendChild(createURIID(builder, contact.getEmail(), null));
-            tradeContact.appendChild(email);
-        }
-        return tradeContact;
-    }
-
-    private static Element createElectronicAddressEmailElement(XmlDocumentBuilder builder, String email) {
-        var communication = builder.createElement(NS_RAM, "URIUniversalCommunication");
-        var uriID = createURIID(builder, email, "EM");
-        communication.appendChild(uriID);
-        return communication;
-    }
-
-    private static Element createURIID(XmlDocumentBuilder builder, String id, String scheme) {
-        var uriID = builder.createElement(NS_RAM, "URIID");
+    private static void writeURIID(XmlSink out, String id, String scheme) {
+        out.startElement(URI_ID);
         if (scheme != null) {
-            uriID.setAttribute("schemeID", scheme);
+            out.attribute("schemeID", scheme);
         }
-        uriID.setTextContent(id);
-        return uriID;
+        out.text(id);
+        out.endElement();
     }
 
-    private static Element createIban(XmlDocumentBuilder builder, String iban) {
-        Element element = builder.createElement(NS_RAM, "IBANID");
-        element.setTextContent(iban);
-        return element;
+    private static void writeProductCharacteristic(XmlSink out, ItemAttribute attribute) {
+        out.startElement(APPLICABLE_PRODUCT_CHARACTERISTIC);
+        writeElement(out, DESCRIPTION, attribute.getName());
+        writeElement(out, VALUE, attribute.getValue());
+        out.endElement();
     }
 
-    private static Element createChargeIndicator(XmlDocumentBuilder builder, boolean isCharge) {
-        Element chargeIndicator = builder.createElement(NS_RAM, "ChargeIndicator");
-        Element indicator = builder.createElement(NS_UDT, "Indicator");
-        indicator.setTextContent(isCharge ? "true" : "false");
-        chargeIndicator.appendChild(indicator);
-        return chargeIndicator;
+    private static void writeIncludedNote(XmlSink out, InvoiceNote note) {
+        out.startElement(INCLUDED_NOTE);
+        writeElement(out, CONTENT, note.getNote());
+        out.endElement();
     }
 
-    private static Element createProductCharacteristic(XmlDocumentBuilder builder, ItemAttribute attribute) {
-        Element element = builder.createElement(NS_RAM, "ApplicableProductCharacteristic");
-
-        Element description = builder.createElement(NS_RAM, "Description");
-        description.setTextContent(attribute.getName());
-        element.appendChild(description);
+    private void toXml(DOMSource source, OutputStream output) throws TransformerException {
+        StreamResult result = new StreamResult(output);
+        Transformer transformer = engine.takeTransformer();
+        try {
+            transformer.transform(source, result);
+        } finally {
+            engine.release(transformer);
+        }
+    }
 
-        Element value = builder.createElement(NS_RAM, "Value");
-        value.setTextContent(attribute.getValue());
-        element.appendChild(value);
+    /**
+     * Adapter to write into a {@link ByteBuffer}.
+     */
+    private static class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
 
-        return element;
-    }
+        ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
 
-    private static Element createIncludedNote(XmlDocumentBuilder builder, InvoiceNote note) {
-        Element includedNote = builder.createElement(NS_RAM, "IncludedNote");
-        Element content = builder.createElement(NS_RAM, "Content");
-        content.setTextContent(note.getNote());
-        includedNote.appendChild(content);
-        return includedNote;
-    }
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
 
-    private static byte[] toXml(DOMSource source) throws TransformerException {
-        var output = new ByteArrayOutputStream();
-        StreamResult result = new StreamResult(output);
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-        transformer.transform(source, result);
-        return output.toByteArray();
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            buffer.put(bytes, offset, length);
+        }
     }
 }
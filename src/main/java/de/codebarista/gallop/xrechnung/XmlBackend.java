@@ -0,0 +1,32 @@
+package de.codebarista.gallop.xrechnung;
+
+/**
+ * The technique that is used by the {@link XRechnungWriter} to produce the XML.
+ * <p>
+ * All backends produce the same XRechnung document. They only differ in speed and memory usage.
+ */
+public enum XmlBackend {
+    /**
+     * Builds a complete {@link org.w3c.dom.Document} in memory and serializes it with a
+     * {@link javax.xml.transform.Transformer}.
+     * <p>
+     * Needs several times the size of the output in memory.
+     */
+    DOM,
+
+    /**
+     * Writes the elements straight to the output with a {@link javax.xml.stream.XMLStreamWriter}
+     * while walking the invoice once.
+     * <p>
+     * Memory usage does not depend on the size of the invoice beyond the output itself.
+     */
+    STAX,
+
+    /**
+     * Writes pre-encoded tags and the escaped text directly into a reusable byte buffer without any JAXP
+     * involvement.
+     * <p>
+     * This is the fastest backend and allocates the least memory.
+     */
+    DIRECT
+}
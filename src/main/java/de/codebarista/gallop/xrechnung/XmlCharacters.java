@@ -0,0 +1,217 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Rules for the characters that all streaming backends share with the DOM serializer.
+ * <p>
+ * The escaping of text and attribute values is defined here once. The {@link DirectXmlSink} writes, the
+ * {@link StaxXmlSink} passes on and the {@link SizeXmlSink} counts exactly the escapes returned by these methods,
+ * so that the computed size of a document is the size of the written document.
+ */
+final class XmlCharacters {
+    /**
+     * The XML declaration as written by the DOM serializer.
+     */
+    static final String XML_DECLARATION = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"?>";
+
+    /**
+     * The number of spaces that a child element is indented by.
+     */
+    static final int INDENT_SIZE = 4;
+
+    /**
+     * The line separator of canonical documents, independent of the platform.
+     */
+    static final String CANONICAL_LINE_SEPARATOR = "\n";
+
+    private static final String[] ENTITY_NAMES = entityNames();
+    private static final byte[][] ENTITY_REFERENCES = entityReferences();
+    private static final boolean[] PLAIN_ASCII = plainAscii();
+
+    private XmlCharacters() {
+    }
+
+    /**
+     * Checks whether a character is printable ASCII that is written as it is in text and in attribute values.
+     *
+     * @param c the character to check
+     * @return {@code true} if the character is written as a single byte without escaping
+     */
+    static boolean isPlainAscii(char c) {
+        return c < PLAIN_ASCII.length && PLAIN_ASCII[c];
+    }
+
+    /**
+     * Returns the name of the entity that a character is replaced by. In text these are {@code <}, {@code >}
+     * and {@code &}, in attribute values also {@code "}.
+     *
+     * @param c         the character
+     * @param attribute whether the character is part of an attribute value
+     * @return the entity name without {@code &} and {@code ;}, or {@code null} if the character is not replaced
+     * by an entity
+     */
+    static String entityName(char c, boolean attribute) {
+        if (c == '"' && !attribute) {
+            return null;
+        }
+        return c < ENTITY_NAMES.length ? ENTITY_NAMES[c] : null;
+    }
+
+    /**
+     * Returns the ASCII encoded entity reference, e.g. {@code &lt;}, that a character is replaced by.
+     *
+     * @param c         the character
+     * @param attribute whether the character is part of an attribute value
+     * @return the shared bytes of the reference, which must not be modified, or {@code null} if the character is
+     * not replaced by an entity
+     * @see #entityName(char, boolean)
+     */
+    static byte[] entityReference(char c, boolean attribute) {
+        if (c == '"' && !attribute) {
+            return null;
+        }
+        return c < ENTITY_REFERENCES.length ? ENTITY_REFERENCES[c] : null;
+    }
+
+    /**
+     * Checks whether a character of a text is written as numeric character reference.
+     * <p>
+     * These are the control characters except tab and line feed, the C1 control characters and
+     * the surrogates of supplementary characters.
+     *
+     * @param c the character to check
+     * @return {@code true} if the character must be written as character reference
+     */
+    static boolean needsCharacterReference(char c) {
+        return (c < 0x20 && c != '\t' && c != '\n') || (c >= 0x7F && c <= 0x9F) || Character.isSurrogate(c);
+    }
+
+    /**
+     * Checks whether a character is written as numeric character reference. In attribute values these are all
+     * control characters including tab and line feed and the surrogates, but not the C1 control characters, which
+     * the DOM serializer writes literally in attribute values.
+     *
+     * @param c         the character to check
+     * @param attribute whether the character is part of an attribute value
+     * @return {@code true} if the character must be written as character reference
+     * @see #needsCharacterReference(char)
+     */
+    static boolean needsCharacterReference(char c, boolean attribute) {
+        if (attribute) {
+            return c < 0x20 || Character.isSurrogate(c);
+        }
+        return needsCharacterReference(c);
+    }
+
+    /**
+     * Returns the length of the decimal character reference of a code point, e.g. 6 for {@code &#133;}.
+     *
+     * @param codePoint the code point
+     * @return the number of ASCII characters of the reference
+     */
+    static int characterReferenceLength(int codePoint) {
+        int digits = 1;
+        for (int rest = codePoint / 10; rest > 0; rest /= 10) {
+            digits++;
+        }
+        // "&#", the digits and ";"
+        return digits + 3;
+    }
+
+    /**
+     * Returns the number of bytes of a character that is not a surrogate in UTF-8.
+     *
+     * @param c the character
+     * @return 1, 2 or 3
+     */
+    static int utf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        }
+        return c < 0x800 ? 2 : 3;
+    }
+
+    /**
+     * Returns the number of bytes of a text escaped and UTF-8 encoded by the rules of this class.
+     *
+     * @param text      the text
+     * @param attribute whether the text is an attribute value
+     * @return the number of bytes
+     * @throws XRechnungWriterException if the text contains an incomplete surrogate pair
+     */
+    static long escapedLength(String text, boolean attribute) {
+        long length = 0;
+        int i = 0;
+        int textLength = text.length();
+        while (i < textLength) {
+            char c = text.charAt(i);
+            if (isPlainAscii(c)) {
+                length++;
+                i++;
+                continue;
+            }
+            byte[] entity = entityReference(c, attribute);
+            if (entity != null) {
+                length += entity.length;
+            } else if (needsCharacterReference(c, attribute)) {
+                int codePoint = codePointAt(text, i);
+                length += characterReferenceLength(codePoint);
+                i += Character.charCount(codePoint);
+                continue;
+            } else {
+                length += utf8Length(c);
+            }
+            i++;
+        }
+        return length;
+    }
+
+
+    /**
+     * Returns the code point of the character at the given index, combining a surrogate pair.
+     *
+     * @param text  the text
+     * @param index the index of the character
+     * @return the code point
+     * @throws XRechnungWriterException if the character is part of an incomplete surrogate pair
+     */
+    static int codePointAt(String text, int index) {
+        char c = text.charAt(index);
+        if (!Character.isSurrogate(c)) {
+            return c;
+        }
+        if (!Character.isHighSurrogate(c) || index + 1 == text.length()
+                || !Character.isLowSurrogate(text.charAt(index + 1))) {
+            throw new XRechnungWriterException("Invalid surrogate pair in text", null);
+        }
+        return Character.toCodePoint(c, text.charAt(index + 1));
+    }
+
+    private static String[] entityNames() {
+        String[] names = new String[0x80];
+        names['<'] = "lt";
+        names['>'] = "gt";
+        names['&'] = "amp";
+        names['"'] = "quot";
+        return names;
+    }
+
+    private static byte[][] entityReferences() {
+        byte[][] references = new byte[ENTITY_NAMES.length][];
+        for (int c = 0; c < ENTITY_NAMES.length; c++) {
+            if (ENTITY_NAMES[c] != null) {
+                references[c] = ("&" + ENTITY_NAMES[c] + ";").getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+        return references;
+    }
+
+    private static boolean[] plainAscii() {
+        boolean[] plain = new boolean[0x80];
+        for (char c = 0x20; c < 0x7F; c++) {
+            plain[c] = ENTITY_NAMES[c] == null;
+        }
+        return plain;
+    }
+}
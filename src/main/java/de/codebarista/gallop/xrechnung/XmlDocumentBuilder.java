@@ -7,7 +7,7 @@ import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.dom.DOMSource;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -15,7 +15,7 @@ import java.util.Map;
  */
 public class XmlDocumentBuilder {
     private final Document document;
-    private final Map<String, String> namespaces = new HashMap<>();
+    private final Map<String, String> namespaces = new LinkedHashMap<>();
     private Element rootNode;
 
     /**
@@ -33,8 +33,24 @@ public class XmlDocumentBuilder {
         document = docBuilder.newDocument();
     }
 
+    /**
+     * Creates a new instance of {@code XmlDocumentBuilder} that uses an existing {@link DocumentBuilder}.
+     * <p>
+     * Creating a {@link DocumentBuilderFactory} is expensive. This constructor allows to reuse
+     * a namespace aware DocumentBuilder for many documents.
+     * </p>
+     *
+     * @param docBuilder a namespace aware DocumentBuilder that creates the new XML {@link Document}
+     */
+    public XmlDocumentBuilder(DocumentBuilder docBuilder) {
+        document = docBuilder.newDocument();
+    }
+
     /**
      * Adds a namespace to be used in the XML document.
+     * <p>
+     * The namespace declarations are set on the root element in the order in which the namespaces have been added.
+     * </p>
      *
      * @param prefix the namespace prefix
      * @param uri    the namespace URI
@@ -0,0 +1,97 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+
+/**
+ * Receives the XML structure of a XRechnung in document order.
+ * <p>
+ * The {@link XRechnungWriter} walks the invoice model once and reports every element to a sink.
+ * Each implementation represents one {@link XmlBackend} and decides how the XML is produced.
+ * <p>
+ * All sinks must produce the same document: elements without content are written as empty elements,
+ * child elements are indented and {@code null} or empty text does not create any content.
+ */
+interface XmlSink {
+
+    /**
+     * Writes the XML declaration. Must be called once before the root element is started.
+     */
+    void startDocument();
+
+    /**
+     * Starts a new element as child of the current element.
+     *
+     * @param element the element to start
+     */
+    void startElement(CiiElement element);
+
+    /**
+     * Adds an attribute to the element that has just been started.
+     * A {@code null} value is written as empty attribute.
+     *
+     * @param name  the attribute name
+     * @param value the attribute value, may be {@code null}
+     * @throws IllegalStateException if the current element already has content
+     */
+    void attribute(String name, String value);
+
+    /**
+     * Writes the text content of the current element.
+     *
+     * @param text the text, may be {@code null}
+     */
+    void text(String text);
+
+    /**
+     * Writes an integer as text content of the current element, formatted like {@link Long#toString(long)}.
+     *
+     * @param value the number
+     */
+    default void text(long value) {
+        text(Long.toString(value));
+    }
+
+    /**
+     * Writes a decimal number as text content of the current element, formatted like {@link BigDecimal#toString()}.
+     *
+     * @param value the number, may be {@code null}
+     */
+    default void decimal(BigDecimal value) {
+        if (value != null) {
+            text(value.toString());
+        }
+    }
+
+    /**
+     * Writes a decimal number given by its unscaled value and scale as text content of the current element,
+     * formatted like {@link BigDecimal#toString()}.
+     *
+     * @param unscaled the unscaled value
+     * @param scale    the scale
+     */
+    default void decimal(long unscaled, int scale) {
+        text(BigDecimal.valueOf(unscaled, scale).toString());
+    }
+
+    /**
+     * Writes the date of a timestamp as text content of the current element in the format {@link XmlValueFormat#DATE_FORMAT}.
+     *
+     * @param time the timestamp, may be {@code null}
+     */
+    default void date(OffsetDateTime time) {
+        if (time != null) {
+            text(time.format(XmlValueFormat.DATE_FORMAT));
+        }
+    }
+
+    /**
+     * Ends the current element.
+     */
+    void endElement();
+
+    /**
+     * Completes the document after the root element has been ended.
+     */
+    void endDocument();
+}
@@ -0,0 +1,217 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Formats numbers and dates as ASCII digits straight into a byte array, without creating intermediate strings.
+ * <p>
+ * The output is the same as the one of {@link Long#toString(long)}, {@link BigDecimal#toString()} and
+ * {@link #DATE_FORMAT}. Values that these methods would format differently, like decimals in scientific
+ * notation or years with more than four digits, are rejected by the {@code canFormat} checks and must be
+ * formatted with the JDK methods instead.
+ */
+final class XmlValueFormat {
+    /**
+     * The format of the {@code DateTimeString} elements with format {@code 102}.
+     */
+    static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyyMMdd");
+
+    /**
+     * The maximum number of bytes that a formatted long needs.
+     */
+    static final int MAX_LONG_LENGTH = 20;
+
+    /**
+     * The maximum number of bytes that a decimal accepted by {@link #canFormat(BigDecimal)} needs.
+     */
+    static final int MAX_DECIMAL_LENGTH = 27;
+
+    /**
+     * The number of bytes of a formatted date.
+     */
+    static final int DATE_LENGTH = 8;
+
+    private static final int MAX_DECIMAL_PRECISION = 18;
+    private static final int MAX_DOUBLE_PRECISION = 15;
+    private static final double[] DOUBLE_POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+            1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20
+    };
+
+    private XmlValueFormat() {
+    }
+
+    /**
+     * Writes the digits of a long, with a leading minus sign if it is negative.
+     *
+     * @param value  the number
+     * @param buffer the buffer to write to, must have {@link #MAX_LONG_LENGTH} bytes remaining
+     * @param offset the index of the first byte
+     * @return the index after the last byte
+     */
+    static int formatLong(long value, byte[] buffer, int offset) {
+        if (value == Long.MIN_VALUE) {
+            return formatAscii(Long.toString(value), buffer, offset);
+        }
+        if (value < 0) {
+            buffer[offset++] = '-';
+            value = -value;
+        }
+        int end = offset + digitCount(value);
+        formatDigits(value, buffer, offset, end);
+        return end;
+    }
+
+    /**
+     * Checks whether {@link #formatDecimal(BigDecimal, byte[], int)} can format a decimal exactly
+     * like {@link BigDecimal#toString()}. This is the case for decimals with up to 18 digits that
+     * are written without exponent.
+     *
+     * @param value the decimal
+     * @return {@code true} if the decimal can be formatted
+     */
+    static boolean canFormat(BigDecimal value) {
+        int scale = value.scale();
+        int precision = value.precision();
+        return scale >= 0 && precision <= MAX_DECIMAL_PRECISION && precision - 1 - scale >= -6;
+    }
+
+    /**
+     * Writes a decimal like {@link BigDecimal#toString()}, from its unscaled digits and its scale.
+     *
+     * @param value  a decimal accepted by {@link #canFormat(BigDecimal)}
+     * @param buffer the buffer to write to, must have {@link #MAX_DECIMAL_LENGTH} bytes remaining
+     * @param offset the index of the first byte
+     * @return the index after the last byte
+     */
+    static int formatDecimal(BigDecimal value, byte[] buffer, int offset) {
+        int scale = value.scale();
+        if (scale == 0) {
+            return formatLong(value.longValue(), buffer, offset);
+        }
+        return formatDecimal(unscaledValue(value), scale, value.precision(), buffer, offset);
+    }
+
+    /**
+     * Checks whether {@link #formatDecimal(long, int, byte[], int)} can format a decimal exactly
+     * like {@link BigDecimal#toString()}.
+     *
+     * @param unscaled the unscaled value of the decimal
+     * @param scale    the scale of the decimal
+     * @return {@code true} if the decimal can be formatted
+     * @see #canFormat(BigDecimal)
+     */
+    static boolean canFormat(long unscaled, int scale) {
+        return scale >= 0 && unscaled != Long.MIN_VALUE && digitCount(Math.abs(unscaled)) - 1 - scale >= -6;
+    }
+
+    /**
+     * Writes a decimal given by its unscaled value and scale like {@link BigDecimal#toString()}.
+     *
+     * @param unscaled the unscaled value of a decimal accepted by {@link #canFormat(long, int)}
+     * @param scale    the scale of the decimal
+     * @param buffer   the buffer to write to, must have {@link #MAX_LONG_LENGTH} plus {@code scale} bytes remaining
+     * @param offset   the index of the first byte
+     * @return the index after the last byte
+     */
+    static int formatDecimal(long unscaled, int scale, byte[] buffer, int offset) {
+        if (scale == 0) {
+            return formatLong(unscaled, buffer, offset);
+        }
+        return formatDecimal(unscaled, scale, digitCount(Math.abs(unscaled)), buffer, offset);
+    }
+
+    private static int formatDecimal(long unscaled, int scale, int precision, byte[] buffer, int offset) {
+        if (unscaled < 0) {
+            buffer[offset++] = '-';
+            unscaled = -unscaled;
+        }
+        int integerDigits = Math.max(precision - scale, 1);
+        int point = offset + integerDigits;
+        int end = point + 1 + scale;
+        for (int i = end - 1; i > point; i--) {
+            buffer[i] = (byte) ('0' + unscaled % 10);
+            unscaled /= 10;
+        }
+        buffer[point] = '.';
+        formatDigits(unscaled, buffer, offset, point);
+        return end;
+    }
+
+    /**
+     * Returns the unscaled value of a decimal with at most 18 digits, without creating a
+     * {@link java.math.BigInteger} for the usual scales.
+     * <p>
+     * The double value of a decimal is the correctly rounded quotient of its unscaled value and a power of ten.
+     * Multiplying it with the power of ten again is off by less than 0.25 as long as the unscaled value is
+     * below 2<sup>50</sup>, which is guaranteed by a precision of 15 digits. Rounding therefore restores the
+     * exact unscaled value.
+     * </p>
+     */
+    static long unscaledValue(BigDecimal value) {
+        int scale = value.scale();
+        if (scale == 0) {
+            return value.longValue();
+        }
+        if (scale > 0 && scale < DOUBLE_POWERS_OF_TEN.length && value.precision() <= MAX_DOUBLE_PRECISION) {
+            return Math.round(value.doubleValue() * DOUBLE_POWERS_OF_TEN[scale]);
+        }
+        return value.unscaledValue().longValue();
+    }
+
+    /**
+     * Checks whether {@link #formatDate(OffsetDateTime, byte[], int)} can format the date of a timestamp
+     * exactly like {@link #DATE_FORMAT}. This is the case for the years 1 to 9999.
+     *
+     * @param time the timestamp
+     * @return {@code true} if the date can be formatted
+     */
+    static boolean canFormat(OffsetDateTime time) {
+        int year = time.getYear();
+        return year >= 1 && year <= 9999;
+    }
+
+    /**
+     * Writes the date of a timestamp in the format {@code yyyyMMdd}.
+     *
+     * @param time   a timestamp accepted by {@link #canFormat(OffsetDateTime)}
+     * @param buffer the buffer to write to, must have {@link #DATE_LENGTH} bytes remaining
+     * @param offset the index of the first byte
+     * @return the index after the last byte
+     */
+    static int formatDate(OffsetDateTime time, byte[] buffer, int offset) {
+        formatDigits(time.getYear(), buffer, offset, offset + 4);
+        formatDigits(time.getMonthValue(), buffer, offset + 4, offset + 6);
+        formatDigits(time.getDayOfMonth(), buffer, offset + 6, offset + 8);
+        return offset + DATE_LENGTH;
+    }
+
+    /**
+     * Writes the digits of a non-negative number right-aligned into the given range, padded with zeros.
+     */
+    private static void formatDigits(long value, byte[] buffer, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            buffer[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static int digitCount(long value) {
+        int count = 1;
+        long limit = 10;
+        while (count < 19 && value >= limit) {
+            count++;
+            limit *= 10;
+        }
+        return count;
+    }
+
+    private static int formatAscii(String ascii, byte[] buffer, int offset) {
+        for (int i = 0; i < ascii.length(); i++) {
+            buffer[offset++] = (byte) ascii.charAt(i);
+        }
+        return offset;
+    }
+}
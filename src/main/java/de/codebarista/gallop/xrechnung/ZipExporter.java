@@ -0,0 +1,371 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.xrechnung.model.Invoice;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Exports many invoices as one ZIP archive, rendering and compressing them in parallel on a caller-supplied
+ * {@link Executor}.
+ * <p>
+ * Every invoice is rendered with an {@link XRechnungEngine} and deflated on a worker thread, which reuses its
+ * own {@link Deflater} for the duration of an export. The calling thread only writes the compressed entries to the stream, in the order of
+ * the invoices. At most {@code maxInFlight} invoices are rendered or waiting to be written at a time, so the
+ * memory needed does not grow with the size of the batch:
+ * <pre>{@code
+ * ExecutorService executor = Executors.newFixedThreadPool(8);
+ * try (OutputStream output = Files.newOutputStream(path)) {
+ *     BatchResult result = new ZipExporter(executor, 64).export(invoices, output);
+ * }
+ * }</pre>
+ * Each document is stored as {@code <document ID>.xml}, with characters other than letters, digits, {@code .},
+ * {@code _} and {@code -} replaced by {@code _} and a counter appended to duplicate names. The last entry
+ * {@value #MANIFEST_NAME} lists the entry name, document ID, SHA-256 digest and size of every document.
+ * Invoices that fail with an exception are recorded in the {@link BatchResult} and left out of the archive.
+ * An {@link Error} aborts the export like a failure of the stream and is rethrown.
+ * <p>
+ * The exporter does not manage the lifecycle of the executor. It is thread-safe.
+ */
+public class ZipExporter {
+    /**
+     * The name of the manifest entry
+     */
+    public static final String MANIFEST_NAME = "manifest.csv";
+
+    private static final String EXTENSION = ".xml";
+    private static final String MANIFEST_HEADER = "entry,documentId,sha256,size\r\n";
+
+    private final XRechnungEngine engine;
+    private final Executor executor;
+    private final int maxInFlight;
+    private final int level;
+
+    /**
+     * Constructs a new {@code ZipExporter} that uses the {@link XRechnungEngine#getDefault() default engine}
+     * and the {@link Deflater#DEFAULT_COMPRESSION default compression level}.
+     *
+     * @param executor    the executor that renders and compresses the invoices, must not be {@code null}
+     * @param maxInFlight the maximum number of invoices that are submitted but not yet written, at least 1
+     */
+    public ZipExporter(Executor executor, int maxInFlight) {
+        this(XRechnungEngine.getDefault(), executor, maxInFlight, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs a new {@code ZipExporter} with the given engine and compression level.
+     *
+     * @param engine      the engine that renders the invoices, must not be {@code null}
+     * @param executor    the executor that renders and compresses the invoices, must not be {@code null}
+     * @param maxInFlight the maximum number of invoices that are submitted but not yet written, at least 1
+     * @param level       the compression level from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public ZipExporter(XRechnungEngine engine, Executor executor, int maxInFlight, int level) {
+        Objects.requireNonNull(engine, "Engine must not be null");
+        Objects.requireNonNull(executor, "Executor must not be null");
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1, but was " + maxInFlight);
+        }
+        if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level " + level);
+        }
+        this.engine = engine;
+        this.executor = executor;
+        this.maxInFlight = maxInFlight;
+        this.level = level;
+    }
+
+    /**
+     * Writes the ZIP archive of all invoices to the stream.
+     * <p>
+     * The method returns when the archive is complete. If writing to the stream fails or the thread is
+     * interrupted, the submitted invoices that no worker has started yet are cancelled. Invoices that are being
+     * rendered at that time are finished, but not written.
+     * </p>
+     *
+     * @param invoices the invoices to export, must not be {@code null}
+     * @param output   the stream to write to, must not be {@code null}. It is neither flushed nor closed.
+     * @return the number of exported invoices and the failed ones
+     * @throws IOException          if writing to the stream fails
+     * @throws InterruptedException if the current thread is interrupted while waiting for the workers
+     * @throws Error                if rendering or compressing an invoice threw an error
+     */
+    public BatchResult export(Iterable<Invoice> invoices, OutputStream output) throws IOException,
+            InterruptedException {
+        Objects.requireNonNull(invoices, "Invoices must not be null");
+        Objects.requireNonNull(output, "Output must not be null");
+        var export = new Export(new ZipStreamWriter(output, LocalDateTime.now()));
+        var deflaters = new Deflaters();
+        Deque<Pending> pending = new ArrayDeque<>(maxInFlight);
+        try {
+            for (Invoice invoice : invoices) {
+                while (!pending.isEmpty() && (pending.size() >= maxInFlight || pending.peekFirst().entry.isDone())) {
+                    export.write(pending.removeFirst());
+                }
+                try {
+                    pending.addLast(new Pending(invoice,
+                            CompletableFuture.supplyAsync(() -> compress(invoice, deflaters), executor)));
+                } catch (RejectedExecutionException e) {
+                    export.failures.add(new BatchResult.Failure(invoice, e));
+                }
+            }
+            while (!pending.isEmpty()) {
+                export.write(pending.removeFirst());
+            }
+        } finally {
+            // only left if the export is aborted, the workers must not render into it any longer
+            for (Pending aborted : pending) {
+                aborted.entry.cancel(false);
+            }
+            deflaters.end();
+        }
+        return export.finish();
+    }
+
+    /**
+     * Renders and deflates an invoice on a worker thread.
+     */
+    private CompressedEntry compress(Invoice invoice, Deflaters deflaters) {
+        try {
+            DigestedXml document = new XRechnungWriter(invoice, engine).getDigestedXML();
+            byte[] xml = document.xml();
+            Deflater deflater = deflaters.take();
+            try {
+                // the export may end the deflater while it is in use once it has been aborted
+                synchronized (deflater) {
+                    try {
+                        return CompressedEntry.of(invoice.getDocumentId(), document.getDigestHex(), xml, deflater);
+                    } finally {
+                        deflater.reset();
+                    }
+                }
+            } finally {
+                deflaters.release(deflater);
+            }
+        } catch (Exception e) {
+            return new CompressedEntry(e);
+        }
+    }
+
+    /**
+     * The deflaters of the worker threads during one export, which are ended when the export is done
+     */
+    private final class Deflaters {
+        private final ThreadLocalPool<Deflater> pool = new ThreadLocalPool<>();
+        private final List<Deflater> created = new ArrayList<>();
+        private boolean ended;
+
+        /**
+         * Takes the deflater of the current thread or creates a new one.
+         *
+         * @throws IllegalStateException if the export is done
+         */
+        Deflater take() {
+            Deflater deflater = pool.take();
+            synchronized (this) {
+                if (ended) {
+                    throw new IllegalStateException("The export is done");
+                }
+                if (deflater == null) {
+                    deflater = new Deflater(level, true);
+                    created.add(deflater);
+                }
+            }
+            return deflater;
+        }
+
+        /**
+         * Puts a deflater back for the next invoice of the current thread.
+         */
+        void release(Deflater deflater) {
+            pool.release(deflater);
+        }
+
+        /**
+         * Ends all deflaters, waiting for those that are still in use by workers of an aborted export.
+         */
+        synchronized void end() {
+            ended = true;
+            for (Deflater deflater : created) {
+                synchronized (deflater) {
+                    deflater.end();
+                }
+            }
+            created.clear();
+        }
+    }
+
+    /**
+     * The state of one export on the calling thread
+     */
+    private final class Export {
+        private final ZipStreamWriter zip;
+        private final Set<String> names = new HashSet<>();
+        private final StringBuilder manifest = new StringBuilder(MANIFEST_HEADER);
+        private final List<BatchResult.Failure> failures = new ArrayList<>();
+        private int exported;
+
+        Export(ZipStreamWriter zip) {
+            this.zip = zip;
+            names.add(MANIFEST_NAME);
+        }
+
+        /**
+         * Waits until an invoice has been compressed and writes its entry.
+         */
+        void write(Pending pending) throws IOException, InterruptedException {
+            CompressedEntry entry;
+            try {
+                entry = pending.entry.get();
+            } catch (ExecutionException e) {
+                // compress returns its exceptions as failures, so this is an error or a failure of the executor
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                failures.add(new BatchResult.Failure(pending.invoice, (Exception) e.getCause()));
+                return;
+            }
+            if (entry.failure != null) {
+                failures.add(new BatchResult.Failure(pending.invoice, entry.failure));
+                return;
+            }
+            String name = uniqueName(entry.documentId);
+            zip.addEntry(name.getBytes(StandardCharsets.UTF_8), entry.method, entry.crc, entry.size,
+                    entry.data, entry.length);
+            manifest.append(csv(name)).append(',')
+                    .append(csv(entry.documentId)).append(',')
+                    .append(entry.digestHex).append(',')
+                    .append(entry.size).append("\r\n");
+            exported++;
+        }
+
+        BatchResult finish() throws IOException {
+            byte[] bytes = manifest.toString().getBytes(StandardCharsets.UTF_8);
+            Deflater deflater = new Deflater(level, true);
+            try {
+                CompressedEntry entry = CompressedEntry.of(null, null, bytes, deflater);
+                zip.addEntry(MANIFEST_NAME.getBytes(StandardCharsets.UTF_8), entry.method, entry.crc, entry.size,
+                        entry.data, entry.length);
+            } finally {
+                deflater.end();
+            }
+            zip.finish();
+            return new BatchResult(exported, failures);
+        }
+
+        private String uniqueName(String documentId) {
+            String base = documentId == null || documentId.isEmpty()
+                    ? "invoice" : documentId.replaceAll("[^A-Za-z0-9._-]", "_");
+            String name = base + EXTENSION;
+            for (int i = 2; !names.add(name); i++) {
+                name = base + "-" + i + EXTENSION;
+            }
+            return name;
+        }
+    }
+
+    /**
+     * Quotes a field of the manifest if necessary.
+     */
+    private static String csv(String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\r') < 0
+                && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * An invoice that has been submitted, in the order of the batch
+     */
+    private static final class Pending {
+        private final Invoice invoice;
+        private final CompletableFuture<CompressedEntry> entry;
+
+        Pending(Invoice invoice, CompletableFuture<CompressedEntry> entry) {
+            this.invoice = invoice;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * A rendered and compressed document, or the exception that prevented it
+     */
+    private static final class CompressedEntry {
+        private final String documentId;
+        private final String digestHex;
+        private final int method;
+        private final int crc;
+        private final int size;
+        private final byte[] data;
+        private final int length;
+        private final Exception failure;
+
+        private CompressedEntry(String documentId, String digestHex, int method, int crc, int size, byte[] data,
+                                int length) {
+            this.documentId = documentId;
+            this.digestHex = digestHex;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.length = length;
+            this.failure = null;
+        }
+
+        CompressedEntry(Exception failure) {
+            this.documentId = null;
+            this.digestHex = null;
+            this.method = 0;
+            this.crc = 0;
+            this.size = 0;
+            this.data = null;
+            this.length = 0;
+            this.failure = failure;
+        }
+
+        /**
+         * Deflates a document, or stores it if deflating does not make it smaller.
+         */
+        static CompressedEntry of(String documentId, String digestHex, byte[] xml, Deflater deflater) {
+            var crc = new CRC32();
+            crc.update(xml);
+            deflater.setInput(xml);
+            deflater.finish();
+            // the bound of zlib for deflated data, the array grows if the deflater needs more
+            byte[] data = new byte[xml.length + (xml.length >> 12) + (xml.length >> 14) + 13];
+            int length = 0;
+            while (!deflater.finished() && length < xml.length) {
+                if (length == data.length) {
+                    data = Arrays.copyOf(data, data.length + data.length / 2);
+                }
+                length += deflater.deflate(data, length, data.length - length);
+            }
+            if (!deflater.finished() || length >= xml.length) {
+                return new CompressedEntry(documentId, digestHex, ZipStreamWriter.STORED, (int) crc.getValue(),
+                        xml.length, xml, xml.length);
+            }
+            return new CompressedEntry(documentId, digestHex, ZipStreamWriter.DEFLATED, (int) crc.getValue(),
+                    xml.length, data, length);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package de.codebarista.gallop.xrechnung;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a ZIP archive of entries that have been compressed already, e.g. in parallel by several threads.
+ * <p>
+ * {@link java.util.zip.ZipOutputStream} compresses the entries itself on the writing thread. This writer
+ * takes raw deflated or stored entries together with their CRC-32 and sizes, writes every entry with its
+ * local header as soon as it is added and keeps only the data of the central directory in memory.
+ * The ZIP64 extensions are used if the archive has more than 65535 entries or is larger than 4 GiB.
+ */
+class ZipStreamWriter {
+    static final int STORED = 0;
+    static final int DEFLATED = 8;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    /**
+     * The names are encoded in UTF-8
+     */
+    private static final int UTF8_FLAG = 0x0800;
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private final OutputStream output;
+    private final int dosTime;
+    private final ByteBuffer header = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+    private final List<CentralEntry> entries = new ArrayList<>();
+    private long offset;
+
+    /**
+     * Creates a new writer.
+     *
+     * @param output       the stream to write to, it is neither flushed nor closed
+     * @param modification the modification time of all entries
+     */
+    ZipStreamWriter(OutputStream output, LocalDateTime modification) {
+        this.output = output;
+        this.dosTime = dosTime(modification);
+    }
+
+    /**
+     * Writes an entry.
+     *
+     * @param name   the UTF-8 encoded name of the entry
+     * @param method {@link #STORED} or {@link #DEFLATED}
+     * @param crc    the CRC-32 of the uncompressed data
+     * @param size   the size of the uncompressed data
+     * @param data   the stored or raw deflated data
+     * @param length the number of bytes of {@code data} to write
+     * @throws IOException if writing to the stream fails
+     */
+    void addEntry(byte[] name, int method, int crc, int size, byte[] data, int length) throws IOException {
+        if (name.length > MAX_16) {
+            throw new IllegalArgumentException("Entry name is longer than " + MAX_16 + " bytes");
+        }
+        entries.add(new CentralEntry(name, method, crc, size, length, offset));
+        header.clear()
+                .putInt(LOCAL_HEADER_SIGNATURE)
+                .putShort((short) VERSION)
+                .putShort((short) UTF8_FLAG)
+                .putShort((short) method)
+                .putInt(dosTime)
+                .putInt(crc)
+                .putInt(length)
+                .putInt(size)
+                .putShort((short) name.length)
+                .putShort((short) 0);
+        writeHeader();
+        output.write(name);
+        output.write(data, 0, length);
+        offset += name.length + (long) length;
+    }
+
+    /**
+     * Writes the central directory. No entries can be added afterward.
+     *
+     * @throws IOException if writing to the stream fails
+     */
+    void finish() throws IOException {
+        long directoryOffset = offset;
+        for (CentralEntry entry : entries) {
+            boolean zip64 = entry.offset >= MAX_32;
+            header.clear()
+                    .putInt(CENTRAL_HEADER_SIGNATURE)
+                    .putShort((short) (zip64 ? ZIP64_VERSION : VERSION))
+                    .putShort((short) (zip64 ? ZIP64_VERSION : VERSION))
+                    .putShort((short) UTF8_FLAG)
+                    .putShort((short) entry.method)
+                    .putInt(dosTime)
+                    .putInt(entry.crc)
+                    .putInt(entry.compressedSize)
+                    .putInt(entry.size)
+                    .putShort((short) entry.name.length)
+                    .putShort((short) (zip64 ? 12 : 0))
+                    .putShort((short) 0) // comment
+                    .putShort((short) 0) // disk
+                    .putShort((short) 0) // internal attributes
+                    .putInt(0) // external attributes
+                    .putInt((int) Math.min(entry.offset, MAX_32));
+            writeHeader();
+            output.write(entry.name);
+            offset += entry.name.length;
+            if (zip64) {
+                header.clear().putShort((short) 1).putShort((short) 8).putLong(entry.offset);
+                writeHeader();
+            }
+        }
+        long directorySize = offset - directoryOffset;
+        int count = entries.size();
+        if (count >= MAX_16 || directoryOffset >= MAX_32 || directorySize >= MAX_32) {
+            long zip64EndOffset = offset;
+            header.clear()
+                    .putInt(ZIP64_END_SIGNATURE)
+                    .putLong(44) // size of the rest of the record
+                    .putShort((short) ZIP64_VERSION)
+                    .putShort((short) ZIP64_VERSION)
+                    .putInt(0) // disk
+                    .putInt(0) // disk of the central directory
+                    .putLong(count)
+                    .putLong(count)
+                    .putLong(directorySize)
+                    .putLong(directoryOffset);
+            writeHeader();
+            header.clear()
+                    .putInt(ZIP64_LOCATOR_SIGNATURE)
+                    .putInt(0) // disk of the ZIP64 end record
+                    .putLong(zip64EndOffset)
+                    .putInt(1); // number of disks
+            writeHeader();
+        }
+        header.clear()
+                .putInt(END_SIGNATURE)
+                .putShort((short) 0) // disk
+                .putShort((short) 0) // disk of the central directory
+                .putShort((short) Math.min(count, MAX_16))
+                .putShort((short) Math.min(count, MAX_16))
+                .putInt((int) Math.min(directorySize, MAX_32))
+                .putInt((int) Math.min(directoryOffset, MAX_32))
+                .putShort((short) 0); // comment
+        writeHeader();
+    }
+
+    private void writeHeader() throws IOException {
+        output.write(header.array(), 0, header.position());
+        offset += header.position();
+    }
+
+    /**
+     * Returns the time in MS-DOS format, time in the lower and date in the upper 16 bits.
+     */
+    private static int dosTime(LocalDateTime time) {
+        if (time.getYear() < 1980) {
+            time = LocalDateTime.of(1980, 1, 1, 0, 0);
+        }
+        return (time.getYear() - 1980) << 25 | time.getMonthValue() << 21 | time.getDayOfMonth() << 16
+                | time.getHour() << 11 | time.getMinute() << 5 | time.getSecond() >> 1;
+    }
+
+    /**
+     * The data of an entry that is repeated in the central directory
+     */
+    private static final class CentralEntry {
+        private final byte[] name;
+        private final int method;
+        private final int crc;
+        private final int size;
+        private final int compressedSize;
+        private final long offset;
+
+        CentralEntry(byte[] name, int method, int crc, int size, int compressedSize, long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+        }
+    }
+}
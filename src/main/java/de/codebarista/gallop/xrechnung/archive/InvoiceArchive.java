@@ -0,0 +1,695 @@
+package de.codebarista.gallop.xrechnung.archive;
+
+import de.codebarista.gallop.xrechnung.XRechnungWriter;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32C;
+
+/**
+ * An append-only store of rendered XRechnung documents, e.g. for keeping every issued invoice for the legal
+ * retention period.
+ * <p>
+ * Documents are appended to segment files in a directory. A segment is closed and the next one is started when
+ * it reaches its maximum size, so the files stay manageable for backups. Every document is stored together with
+ * its document ID and a CRC-32C checksum. A memory-mapped index file records the segment, offset and length of
+ * every document, and is loaded into a lookup table when the archive is opened.
+ * <pre>{@code
+ * try (InvoiceArchive archive = InvoiceArchive.open(directory)) {
+ *     archive.append(invoice);
+ *     ...
+ *     archive.transferTo(documentId, socketChannel);
+ * }
+ * }</pre>
+ * <p>
+ * Appended documents are written to the operating system right away, but forced to the disk only every
+ * {@code syncEvery} documents, on {@link #sync()} and on {@link #close()}, so that many documents share the
+ * cost of one fsync. Documents appended after the last sync may be lost in a crash. When the archive is opened
+ * again, the index is checked against the segments, documents that are missing in the index are recovered
+ * from the segments, and an incompletely written document at the end of the last segment is removed.
+ * <p>
+ * Reading is thread-safe and does not block appending. {@link #transferTo(String, WritableByteChannel)} sends
+ * a document with {@link FileChannel#transferTo(long, long, WritableByteChannel)}, so the operating system can
+ * copy it from the file cache to a socket without passing it through the Java heap. A directory can be opened
+ * by one archive at a time.
+ */
+public final class InvoiceArchive implements Closeable {
+    /**
+     * The default maximum size of a segment, 1 GiB.
+     */
+    public static final long DEFAULT_MAX_SEGMENT_BYTES = 1L << 30;
+
+    /**
+     * The default number of appended documents after which the archive is forced to the disk.
+     */
+    public static final int DEFAULT_SYNC_EVERY = 64;
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+    private static final String INDEX_FILE = "index";
+    private static final String LOCK_FILE = "lock";
+    private static final int SEGMENT_MAGIC = 0x47534547; // "GSEG"
+    private static final int RECORD_MAGIC = 0x47444F43; // "GDOC"
+    private static final int VERSION = 1;
+    /**
+     * magic and version
+     */
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    /**
+     * magic, length of the document ID, length of the document and checksum
+     */
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    private final Path directory;
+    private final long maxSegmentBytes;
+    private final int syncEvery;
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+    private final List<FileChannel> segments = new CopyOnWriteArrayList<>();
+    private final Map<String, Location> locations = new ConcurrentHashMap<>();
+    private IndexFile index;
+    private long segmentSize;
+    private int unsynced;
+    private volatile boolean closed;
+
+    private InvoiceArchive(Path directory, long maxSegmentBytes, int syncEvery) throws IOException {
+        this.directory = directory;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.syncEvery = syncEvery;
+        Files.createDirectories(directory);
+        lockChannel = FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        FileLock fileLock;
+        try {
+            fileLock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            fileLock = null;
+        }
+        if (fileLock == null) {
+            lockChannel.close();
+            throw new IOException("Archive " + directory + " is opened by another archive");
+        }
+        lock = fileLock;
+    }
+
+    /**
+     * Opens the archive in the given directory with the default segment size and sync batch, and creates
+     * the directory if it does not exist.
+     *
+     * @param directory the directory of the archive, must not be {@code null}
+     * @return the opened archive
+     * @throws IOException if the archive cannot be opened or a segment is corrupt
+     * @see #open(Path, long, int)
+     */
+    public static InvoiceArchive open(Path directory) throws IOException {
+        return open(directory, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_SYNC_EVERY);
+    }
+
+    /**
+     * Opens the archive in the given directory and creates the directory if it does not exist.
+     * An archive that has not been closed properly is recovered.
+     *
+     * @param directory       the directory of the archive, must not be {@code null}
+     * @param maxSegmentBytes the size from which the next document is appended to a new segment. A document
+     *                        larger than this is stored in a segment of its own.
+     * @param syncEvery       the number of appended documents after which the archive is forced to the disk,
+     *                        at least 1. 1 forces every document to the disk before {@code append} returns.
+     * @return the opened archive
+     * @throws IOException if the archive cannot be opened, e.g. because it is opened already, or a segment
+     *                     other than the last one is corrupt
+     */
+    public static InvoiceArchive open(Path directory, long maxSegmentBytes, int syncEvery) throws IOException {
+        Objects.requireNonNull(directory, "Directory must not be null");
+        if (maxSegmentBytes < 1) {
+            throw new IllegalArgumentException("maxSegmentBytes must be at least 1, but was " + maxSegmentBytes);
+        }
+        if (syncEvery < 1) {
+            throw new IllegalArgumentException("syncEvery must be at least 1, but was " + syncEvery);
+        }
+        var archive = new InvoiceArchive(directory, maxSegmentBytes, syncEvery);
+        try {
+            archive.recover();
+        } catch (IOException | RuntimeException e) {
+            archive.closeFiles();
+            throw e;
+        }
+        return archive;
+    }
+
+    /**
+     * Renders an invoice and appends the document under the document ID of the invoice.
+     *
+     * @param invoice the invoice, must not be {@code null} and must have a document ID
+     * @throws IOException              if writing to the archive fails
+     * @throws IllegalArgumentException if a document with the same ID is archived already
+     * @see #append(String, byte[])
+     */
+    public void append(Invoice invoice) throws IOException {
+        Objects.requireNonNull(invoice, "Invoice must not be null");
+        append(invoice.getDocumentId(), XRechnungWriter.generateXRechnungXML(invoice));
+    }
+
+    /**
+     * Appends a document.
+     *
+     * @param documentId the document ID (BT-1), must not be {@code null} or empty
+     * @param document   the XRechnung XML document, must not be {@code null}
+     * @throws IOException              if writing to the archive fails
+     * @throws IllegalArgumentException if a document with the same ID is archived already
+     * @throws IllegalStateException    if the archive is closed
+     */
+    public synchronized void append(String documentId, byte[] document) throws IOException {
+        Objects.requireNonNull(documentId, "Document ID must not be null");
+        Objects.requireNonNull(document, "Document must not be null");
+        checkOpen();
+        byte[] id = documentId.getBytes(StandardCharsets.UTF_8);
+        if (id.length == 0 || id.length > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Document ID must have 1 to " + Short.MAX_VALUE + " bytes, but has "
+                    + id.length);
+        }
+        if (locations.containsKey(documentId)) {
+            throw new IllegalArgumentException("Document " + documentId + " is archived already");
+        }
+        long recordSize = RECORD_HEADER_SIZE + id.length + (long) document.length;
+        if (segmentSize > SEGMENT_HEADER_SIZE && segmentSize + recordSize > maxSegmentBytes) {
+            rollOver();
+        }
+        var checksum = new CRC32C();
+        checksum.update(id);
+        checksum.update(document);
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE + id.length)
+                .putInt(RECORD_MAGIC)
+                .putInt(id.length)
+                .putInt(document.length)
+                .putInt((int) checksum.getValue())
+                .put(id)
+                .flip();
+
+        int segment = segments.size() - 1;
+        FileChannel channel = segments.get(segment);
+        long start = segmentSize;
+        try {
+            writeFully(channel, header, start);
+            writeFully(channel, ByteBuffer.wrap(document), start + header.capacity());
+        } catch (IOException e) {
+            channel.truncate(start);
+            throw e;
+        }
+        segmentSize = start + recordSize;
+        var location = new Location(segment, start + header.capacity(), document.length);
+        index.add(id, location);
+        locations.put(documentId, location);
+        if (++unsynced >= syncEvery) {
+            sync();
+        }
+    }
+
+    /**
+     * Checks whether a document is archived.
+     *
+     * @param documentId the document ID
+     * @return {@code true} if a document with this ID has been appended
+     */
+    public boolean contains(String documentId) {
+        return locations.containsKey(documentId);
+    }
+
+    /**
+     * Gets the number of archived documents.
+     */
+    public int size() {
+        return locations.size();
+    }
+
+    /**
+     * Gets the number of segment files.
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Reads a document.
+     *
+     * @param documentId the document ID
+     * @return the document or {@code null} if there is no document with this ID
+     * @throws IOException if reading the segment fails
+     */
+    public byte[] read(String documentId) throws IOException {
+        checkOpen();
+        Location location = locations.get(documentId);
+        if (location == null) {
+            return null;
+        }
+        ByteBuffer document = ByteBuffer.allocate(location.length);
+        readFully(segments.get(location.segment), document, location.offset);
+        return document.array();
+    }
+
+    /**
+     * Sends a document to the given channel, e.g. a socket. The operating system may copy the document
+     * from the file cache to the channel without passing it through the Java heap.
+     *
+     * @param documentId the document ID
+     * @param target     the channel to write to, must not be {@code null}. It is not closed.
+     * @return the length of the document or -1 if there is no document with this ID
+     * @throws IOException if reading the segment or writing to the channel fails
+     */
+    public long transferTo(String documentId, WritableByteChannel target) throws IOException {
+        Objects.requireNonNull(target, "Target must not be null");
+        checkOpen();
+        Location location = locations.get(documentId);
+        if (location == null) {
+            return -1;
+        }
+        FileChannel segment = segments.get(location.segment);
+        long position = location.offset;
+        long end = location.offset + location.length;
+        while (position < end) {
+            long transferred = segment.transferTo(position, end - position, target);
+            if (transferred <= 0) {
+                throw new IOException("Document " + documentId + " ends after " + (position - location.offset)
+                        + " of " + location.length + " bytes");
+            }
+            position += transferred;
+        }
+        return location.length;
+    }
+
+    /**
+     * Forces all appended documents and the index to the disk.
+     *
+     * @throws IOException if forcing the files fails
+     */
+    public synchronized void sync() throws IOException {
+        checkOpen();
+        if (unsynced == 0) {
+            return;
+        }
+        // the documents first, so that the index on the disk never points behind the end of a segment
+        segments.get(segments.size() - 1).force(false);
+        index.sync();
+        unsynced = 0;
+    }
+
+    /**
+     * Forces all appended documents to the disk and closes the archive.
+     *
+     * @throws IOException if forcing or closing the files fails
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            sync();
+        } finally {
+            closed = true;
+            closeFiles();
+        }
+    }
+
+    /**
+     * Opens the segments and the index, drops index entries that point behind the end of their segment
+     * and indexes the documents that are missing in the index.
+     */
+    private void recover() throws IOException {
+        for (int segment = 0; Files.exists(segmentPath(segment)); segment++) {
+            segments.add(openSegment(segment));
+        }
+        if (segments.isEmpty()) {
+            segments.add(createSegment(0));
+        }
+        index = new IndexFile(directory.resolve(INDEX_FILE));
+
+        int lastSegment = 0;
+        long lastEnd = SEGMENT_HEADER_SIZE;
+        while (true) {
+            IndexEntry entry = index.next();
+            if (entry == null) {
+                break;
+            }
+            Location location = entry.location;
+            if (location.segment >= segments.size()
+                    || location.offset + location.length > segments.get(location.segment).size()
+                    || !index.isSynced() && !isStored(entry)) {
+                // the document has not reached the disk, the rest of the index is invalid as well
+                break;
+            }
+            index.accept();
+            locations.put(entry.documentId, location);
+            lastSegment = location.segment;
+            lastEnd = location.offset + location.length;
+        }
+        index.truncate();
+
+        for (int segment = lastSegment; segment < segments.size(); segment++) {
+            scan(segment, segment == lastSegment ? lastEnd : SEGMENT_HEADER_SIZE);
+        }
+        segmentSize = segments.get(segments.size() - 1).size();
+        segments.get(segments.size() - 1).force(false);
+        index.sync();
+    }
+
+    /**
+     * Checks whether the segment contains the document of an index entry that has been added after the last
+     * sync, which is the case if the document has been written completely.
+     */
+    private boolean isStored(IndexEntry entry) throws IOException {
+        Location location = entry.location;
+        long position = location.offset - RECORD_HEADER_SIZE
+                - entry.documentId.getBytes(StandardCharsets.UTF_8).length;
+        Record record = position >= SEGMENT_HEADER_SIZE ? readRecord(location.segment, position) : null;
+        return record != null && record.documentId.equals(entry.documentId)
+                && record.location.offset == location.offset && record.location.length == location.length;
+    }
+
+    /**
+     * Indexes the documents of a segment from the given position on. An incomplete document at the end of the
+     * last segment is removed.
+     */
+    private void scan(int segment, long position) throws IOException {
+        FileChannel channel = segments.get(segment);
+        while (position < channel.size()) {
+            Record record = readRecord(segment, position);
+            if (record == null) {
+                if (segment < segments.size() - 1) {
+                    throw new IOException("Segment " + segmentPath(segment) + " is corrupt at offset " + position);
+                }
+                channel.truncate(position);
+                channel.force(false);
+                return;
+            }
+            if (!locations.containsKey(record.documentId)) {
+                index.add(record.id, record.location);
+                locations.put(record.documentId, record.location);
+            }
+            position = record.location.offset + record.location.length;
+        }
+    }
+
+    /**
+     * Reads and checks the document at the given position of a segment.
+     *
+     * @return the document ID and location, or {@code null} if there is no complete document with a valid checksum
+     */
+    private Record readRecord(int segment, long position) throws IOException {
+        FileChannel channel = segments.get(segment);
+        long size = channel.size();
+        if (size - position < RECORD_HEADER_SIZE) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(channel, header, position);
+        int idLength = header.getInt(4);
+        int length = header.getInt(8);
+        if (header.getInt(0) != RECORD_MAGIC || idLength <= 0 || idLength > Short.MAX_VALUE || length < 0
+                || position + RECORD_HEADER_SIZE + idLength + (long) length > size) {
+            return null;
+        }
+        ByteBuffer content = ByteBuffer.allocate(idLength + length);
+        readFully(channel, content, position + RECORD_HEADER_SIZE);
+        var checksum = new CRC32C();
+        checksum.update(content.array());
+        if ((int) checksum.getValue() != header.getInt(12)) {
+            return null;
+        }
+        byte[] id = Arrays.copyOf(content.array(), idLength);
+        return new Record(id, new Location(segment, position + RECORD_HEADER_SIZE + idLength, length));
+    }
+
+    private void rollOver() throws IOException {
+        segments.get(segments.size() - 1).force(false);
+        segments.add(createSegment(segments.size()));
+        segmentSize = SEGMENT_HEADER_SIZE;
+    }
+
+    private FileChannel createSegment(int segment) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writeFully(channel, segmentHeader(), 0);
+        channel.force(true);
+        return channel;
+    }
+
+    private FileChannel openSegment(int segment) throws IOException {
+        FileChannel channel = FileChannel.open(segmentPath(segment), StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        if (channel.size() < SEGMENT_HEADER_SIZE) {
+            // the segment has been created right before a crash
+            writeFully(channel, segmentHeader(), 0);
+            return channel;
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        readFully(channel, header, 0);
+        if (header.getInt(0) != SEGMENT_MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(segmentPath(segment) + " is not a segment of version " + VERSION);
+        }
+        return channel;
+    }
+
+    private static ByteBuffer segmentHeader() {
+        return ByteBuffer.allocate(SEGMENT_HEADER_SIZE).putInt(SEGMENT_MAGIC).putInt(VERSION).flip();
+    }
+
+    private Path segmentPath(int segment) {
+        return directory.resolve(String.format("%010d%s", segment, SEGMENT_SUFFIX));
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Archive " + directory + " is closed");
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        try {
+            for (FileChannel segment : segments) {
+                segment.close();
+            }
+            if (index != null) {
+                index.close();
+            }
+        } finally {
+            lock.release();
+            lockChannel.close();
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of segment at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * The place of a document in the segments
+     */
+    private static final class Location {
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        Location(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A document found in a segment
+     */
+    private static final class Record {
+        private final byte[] id;
+        private final String documentId;
+        private final Location location;
+
+        Record(byte[] id, Location location) {
+            this.id = id;
+            this.documentId = new String(id, StandardCharsets.UTF_8);
+            this.location = location;
+        }
+    }
+
+    /**
+     * An entry read from the index file
+     */
+    private static final class IndexEntry {
+        private final String documentId;
+        private final Location location;
+
+        IndexEntry(String documentId, Location location) {
+            this.documentId = documentId;
+            this.location = location;
+        }
+    }
+
+    /**
+     * The memory-mapped index file. After a header of magic number and the end of the entries at the last sync
+     * follows a sequence of entries of the length of the document ID, the document ID, the segment, offset and
+     * length of the document and a CRC-32C checksum of the entry. The file is grown in steps, the unused rest is
+     * filled with zeros.
+     */
+    private static final class IndexFile {
+        private static final int MAGIC = 0x47494458; // "GIDX"
+        private static final int HEADER_SIZE = 8;
+        private static final int INITIAL_SIZE = 1 << 20;
+        /**
+         * length of the document ID, segment, offset, length and checksum
+         */
+        private static final int ENTRY_OVERHEAD = 2 + 4 + 8 + 4 + 4;
+
+        private final Path path;
+        private final FileChannel channel;
+        private MappedByteBuffer map;
+        private int position = HEADER_SIZE;
+        private int nextPosition;
+        private final int syncedPosition;
+
+        IndexFile(Path path) throws IOException {
+            this.path = path;
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            try {
+                long size = channel.size();
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("Index " + path + " is larger than 2 GiB");
+                }
+                map = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_SIZE));
+                if (size < HEADER_SIZE || map.getInt(0) != MAGIC) {
+                    if (size >= HEADER_SIZE && map.getInt(0) != 0) {
+                        throw new IOException(path + " is not an index");
+                    }
+                    map.putInt(0, MAGIC);
+                    map.putInt(4, HEADER_SIZE);
+                }
+                syncedPosition = map.getInt(4);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Reads the entry at the current position.
+         *
+         * @return the entry or {@code null} at the end of the valid entries
+         */
+        IndexEntry next() {
+            if (position + 2 > map.capacity()) {
+                return null;
+            }
+            int idLength = map.getShort(position);
+            int entrySize = ENTRY_OVERHEAD + idLength;
+            if (idLength <= 0 || position + entrySize > map.capacity()) {
+                return null;
+            }
+            var checksum = new CRC32C();
+            checksum.update(map.slice(position, entrySize - 4));
+            int fields = position + 2 + idLength;
+            if ((int) checksum.getValue() != map.getInt(fields + 16)) {
+                return null;
+            }
+            byte[] id = new byte[idLength];
+            map.get(position + 2, id);
+            nextPosition = position + entrySize;
+            var location = new Location(map.getInt(fields), map.getLong(fields + 4), map.getInt(fields + 12));
+            return new IndexEntry(new String(id, StandardCharsets.UTF_8), location);
+        }
+
+        /**
+         * Checks whether the entry returned by {@link #next()} has been synced, so its document is on the disk.
+         */
+        boolean isSynced() {
+            return nextPosition <= syncedPosition;
+        }
+
+        /**
+         * Moves behind the entry that has been returned by {@link #next()}.
+         */
+        void accept() {
+            position = nextPosition;
+        }
+
+        /**
+         * Removes everything behind the current position, so that new entries are not followed by old ones.
+         */
+        void truncate() {
+            for (int i = position; i < map.capacity(); i++) {
+                if (map.get(i) != 0) {
+                    map.put(i, (byte) 0);
+                }
+            }
+        }
+
+        void add(byte[] id, Location location) throws IOException {
+            int entrySize = ENTRY_OVERHEAD + id.length;
+            // keep room for the zero length that marks the end
+            if ((long) position + entrySize + 2 > map.capacity()) {
+                grow((long) position + entrySize + 2);
+            }
+            map.putShort(position, (short) id.length);
+            map.put(position + 2, id);
+            int fields = position + 2 + id.length;
+            map.putInt(fields, location.segment);
+            map.putLong(fields + 4, location.offset);
+            map.putInt(fields + 12, location.length);
+            var checksum = new CRC32C();
+            checksum.update(map.slice(position, entrySize - 4));
+            map.putInt(fields + 16, (int) checksum.getValue());
+            position += entrySize;
+        }
+
+        private void grow(long minSize) throws IOException {
+            long size = Math.min(Math.max(minSize, 2L * map.capacity()), Integer.MAX_VALUE);
+            if (size < minSize) {
+                throw new IOException("Index " + path + " is full");
+            }
+            map.force();
+            map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        /**
+         * Forces the entries to the disk and then marks them as synced. Must only be called after the documents
+         * of the entries have been forced to the disk.
+         */
+        void sync() {
+            map.force();
+            map.putInt(4, position);
+            map.force();
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
 import java.math.BigDecimal;
+import java.util.Objects;
 
 /**
  * Document Level Charges (BG-21)
@@ -27,6 +28,11 @@ public class Charge implements NetAmount<Charge> {
      */
     private String reason;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -47,6 +53,7 @@ public class Charge implements NetAmount<Charge> {
      */
     @Override
     public Charge netAmount(BigDecimal netAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.netAmount = netAmount;
         return this;
     }
@@ -55,6 +62,7 @@ public class Charge implements NetAmount<Charge> {
      * Sets the {@link #vatCategory}.
      */
     public Charge vatCategory(TaxCategory vatCategory) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.vatCategory = vatCategory;
         return this;
     }
@@ -63,6 +71,7 @@ public class Charge implements NetAmount<Charge> {
      * Sets the {@link #vatRate}.
      */
     public Charge vatRate(BigDecimal vatRate) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.vatRate = vatRate;
         return this;
     }
@@ -71,6 +80,7 @@ public class Charge implements NetAmount<Charge> {
      * Sets the {@link #reason}.
      */
     public Charge reason(String reason) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.reason = reason;
         return this;
     }
@@ -92,4 +102,43 @@ public class Charge implements NetAmount<Charge> {
     public String getReason() {
         return reason;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    Charge frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        Charge copy = new Charge();
+        copy.netAmount = netAmount;
+        copy.vatCategory = vatCategory;
+        copy.vatRate = vatRate;
+        copy.reason = reason;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof Charge) || !((Charge) o).frozen) {
+            return false;
+        }
+        Charge other = (Charge) o;
+        return Objects.equals(netAmount, other.netAmount)
+                && Objects.equals(vatCategory, other.vatCategory)
+                && Objects.equals(vatRate, other.vatRate)
+                && Objects.equals(reason, other.reason);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(netAmount, vatCategory, vatRate, reason);
+    }
 }
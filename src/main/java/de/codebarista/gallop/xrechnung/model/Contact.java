@@ -1,5 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
+import java.util.Objects;
+
 /**
  * Seller/Buyer Contact (BG-6/BG-9)
  */
@@ -19,6 +21,11 @@ public class Contact {
      */
     private String email;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -38,6 +45,7 @@ public class Contact {
      * Sets the {@link #name}.
      */
     public Contact name(String name) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.name = name;
         return this;
     }
@@ -46,6 +54,7 @@ public class Contact {
      * Sets the {@link #phone}.
      */
     public Contact phone(String phone) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.phone = phone;
         return this;
     }
@@ -54,6 +63,7 @@ public class Contact {
      * Sets the {@link #email}.
      */
     public Contact email(String email) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.email = email;
         return this;
     }
@@ -78,4 +88,41 @@ public class Contact {
     public String getEmail() {
         return email;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    Contact frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        Contact copy = new Contact();
+        copy.name = name;
+        copy.phone = phone;
+        copy.email = email;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof Contact) || !((Contact) o).frozen) {
+            return false;
+        }
+        Contact other = (Contact) o;
+        return Objects.equals(name, other.name)
+                && Objects.equals(phone, other.phone)
+                && Objects.equals(email, other.email);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(name, phone, email);
+    }
 }
@@ -1,5 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
+import java.util.Objects;
+
 /**
  * Credit Transfer (BG-17)
  */
@@ -19,6 +21,11 @@ public class CreditTransfer {
      */
     private String bic;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -38,6 +45,7 @@ public class CreditTransfer {
      * Sets the {@link #iban}.
      */
     public CreditTransfer iban(String iban) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.iban = iban;
         return this;
     }
@@ -46,6 +54,7 @@ public class CreditTransfer {
      * Sets the {@link #accountName}.
      */
     public CreditTransfer accountName(String accountName) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.accountName = accountName;
         return this;
     }
@@ -54,6 +63,7 @@ public class CreditTransfer {
      * Sets the {@link #bic}.
      */
     public CreditTransfer bic(String bic) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.bic = bic;
         return this;
     }
@@ -78,4 +88,41 @@ public class CreditTransfer {
     public String getBic() {
         return bic;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    CreditTransfer frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        CreditTransfer copy = new CreditTransfer();
+        copy.iban = iban;
+        copy.accountName = accountName;
+        copy.bic = bic;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof CreditTransfer) || !((CreditTransfer) o).frozen) {
+            return false;
+        }
+        CreditTransfer other = (CreditTransfer) o;
+        return Objects.equals(iban, other.iban)
+                && Objects.equals(accountName, other.accountName)
+                && Objects.equals(bic, other.bic);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(iban, accountName, bic);
+    }
 }
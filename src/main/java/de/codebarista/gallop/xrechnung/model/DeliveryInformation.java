@@ -1,6 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
 import java.time.OffsetDateTime;
+import java.util.Objects;
 
 /**
  * Delivery Information (BG-13)
@@ -22,6 +23,11 @@ public class DeliveryInformation {
      */
     private OffsetDateTime actualDeliveryDate;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -41,6 +47,7 @@ public class DeliveryInformation {
      * Sets the {@link #name}.
      */
     public DeliveryInformation name(String name) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.name = name;
         return this;
     }
@@ -49,6 +56,7 @@ public class DeliveryInformation {
      * Sets the {@link #deliveryAddress}.
      */
     public DeliveryInformation deliveryAddress(PostalAddress deliveryAddress) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.deliveryAddress = deliveryAddress;
         return this;
     }
@@ -57,6 +65,7 @@ public class DeliveryInformation {
      * Sets the {@link #actualDeliveryDate}.
      */
     public DeliveryInformation actualDeliveryDate(OffsetDateTime actualDeliveryDate) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.actualDeliveryDate = actualDeliveryDate;
         return this;
     }
@@ -81,4 +90,41 @@ public class DeliveryInformation {
     public OffsetDateTime getActualDeliveryDate() {
         return actualDeliveryDate;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    DeliveryInformation frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        DeliveryInformation copy = new DeliveryInformation();
+        copy.name = name;
+        copy.deliveryAddress = snapshot.copy(deliveryAddress, PostalAddress::frozenCopy);
+        copy.actualDeliveryDate = actualDeliveryDate;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof DeliveryInformation) || !((DeliveryInformation) o).frozen) {
+            return false;
+        }
+        DeliveryInformation other = (DeliveryInformation) o;
+        return Objects.equals(name, other.name)
+                && Objects.equals(deliveryAddress, other.deliveryAddress)
+                && Objects.equals(actualDeliveryDate, other.actualDeliveryDate);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(name, deliveryAddress, actualDeliveryDate);
+    }
 }
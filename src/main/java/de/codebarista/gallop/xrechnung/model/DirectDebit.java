@@ -1,5 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
+import java.util.Objects;
+
 /**
  * Direct Debit (BG-19)
  */
@@ -19,6 +21,11 @@ public class DirectDebit {
      */
     private String debitedAccountIban;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -38,6 +45,7 @@ public class DirectDebit {
      * Sets the {@link #mandateReference}.
      */
     public DirectDebit mandateReference(String mandateReference) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.mandateReference = mandateReference;
         return this;
     }
@@ -46,6 +54,7 @@ public class DirectDebit {
      * Sets the {@link #creditorId}.
      */
     public DirectDebit creditorId(String creditorId) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.creditorId = creditorId;
         return this;
     }
@@ -54,6 +63,7 @@ public class DirectDebit {
      * Sets the {@link #debitedAccountIban}.
      */
     public DirectDebit debitedAccountIban(String debitedAccountIban) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.debitedAccountIban = debitedAccountIban;
         return this;
     }
@@ -78,4 +88,41 @@ public class DirectDebit {
     public String getDebitedAccountIban() {
         return debitedAccountIban;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    DirectDebit frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        DirectDebit copy = new DirectDebit();
+        copy.mandateReference = mandateReference;
+        copy.creditorId = creditorId;
+        copy.debitedAccountIban = debitedAccountIban;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof DirectDebit) || !((DirectDebit) o).frozen) {
+            return false;
+        }
+        DirectDebit other = (DirectDebit) o;
+        return Objects.equals(mandateReference, other.mandateReference)
+                && Objects.equals(creditorId, other.creditorId)
+                && Objects.equals(debitedAccountIban, other.debitedAccountIban);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(mandateReference, creditorId, debitedAccountIban);
+    }
 }
@@ -5,6 +5,8 @@ import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
 
 /**
  * XRechnung root element
@@ -61,18 +63,24 @@ public class Invoice {
      * Invoice Line (BG-25)<br>
      * Information about individual invoice items
      */
-    private List<Item> items = new ArrayList<>();
+    private List<Item> items;
+
+    /**
+     * Invoice Lines (BG-25) stored column by column<br>
+     * Written after the {@link #items}, optional
+     */
+    private ItemTable itemTable;
 
     /**
      * VAT Breakdown (BG-23)<br>
      * VAT breakdown by different categories, tax rates, and exemption reasons
      */
-    private List<Vat> vatTotals = new ArrayList<>();
+    private List<Vat> vatTotals;
 
     /**
      * Information about one or more preceding invoice(s) (BG-3)
      */
-    private List<PrecedingInvoiceReference> precedingInvoiceReferences = new ArrayList<>();
+    private List<PrecedingInvoiceReference> precedingInvoiceReferences;
 
     /**
      * Sum of Invoice line net amount (BT-106)
@@ -117,22 +125,43 @@ public class Invoice {
     /**
      * Invoice notes (BG-1)
      */
-    private List<InvoiceNote> invoiceNotes = new ArrayList<>();
+    private List<InvoiceNote> invoiceNotes;
 
     /**
      * Document level allowances (BG-20)
      */
-    private List<Allowance> allowances = new ArrayList<>();
+    private List<Allowance> allowances;
 
     /**
      * Document level charges (BG-21)
      */
-    private List<Charge> charges = new ArrayList<>();
+    private List<Charge> charges;
+
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
+    /**
+     * Hash code of a frozen invoice, computed once by {@link #freeze()}
+     */
+    private int hash;
+
+    /**
+     * Fingerprint of the document of a frozen invoice, computed on first use by {@link #fingerprint(Function)}
+     */
+    private volatile Object fingerprint;
 
     /**
      * Creates a new, empty instance of this class.
      */
     public Invoice() {
+        items = new ArrayList<>();
+        vatTotals = new ArrayList<>();
+        precedingInvoiceReferences = new ArrayList<>();
+        invoiceNotes = new ArrayList<>();
+        allowances = new ArrayList<>();
+        charges = new ArrayList<>();
     }
 
     /**
@@ -148,6 +177,7 @@ public class Invoice {
      * Sets the {@link #documentId}
      */
     public Invoice documentId(String documentId) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.documentId = documentId;
         return this;
     }
@@ -156,6 +186,7 @@ public class Invoice {
      * Sets the {@link #issueDate}
      */
     public Invoice issueDate(OffsetDateTime issueDate) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.issueDate = issueDate;
         return this;
     }
@@ -164,6 +195,7 @@ public class Invoice {
      * Sets the {@link #documentTypeCode}
      */
     public Invoice documentTypeCode(String documentTypeCode) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.documentTypeCode = documentTypeCode;
         return this;
     }
@@ -172,6 +204,7 @@ public class Invoice {
      * Sets the {@link #currency}
      */
     public Invoice currency(String currency) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.currency = currency;
         return this;
     }
@@ -180,6 +213,7 @@ public class Invoice {
      * Sets the {@link #leitwegId}
      */
     public Invoice leitwegId(String leitwegId) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.leitwegId = leitwegId;
         return this;
     }
@@ -188,6 +222,7 @@ public class Invoice {
      * Sets the {@link #paymentInstructions}
      */
     public Invoice paymentInstructions(PaymentInstructions paymentInstructions) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.paymentInstructions = paymentInstructions;
         return this;
     }
@@ -196,6 +231,7 @@ public class Invoice {
      * Sets the {@link #seller}
      */
     public Invoice seller(SellerOrBuyer seller) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.seller = seller;
         return this;
     }
@@ -204,6 +240,7 @@ public class Invoice {
      * Sets the {@link #buyer}
      */
     public Invoice buyer(SellerOrBuyer buyer) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.buyer = buyer;
         return this;
     }
@@ -212,6 +249,7 @@ public class Invoice {
      * Sets the {@link #deliveryInfo}
      */
     public Invoice deliveryInfo(DeliveryInformation deliveryInfo) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.deliveryInfo = deliveryInfo;
         return this;
     }
@@ -220,6 +258,7 @@ public class Invoice {
      * Adds the given object to the list of {@link #items}
      */
     public Invoice addItem(Item item) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.items.add(item);
         return this;
     }
@@ -228,6 +267,7 @@ public class Invoice {
      * Replaces the current list of {@link #items} by the given one
      */
     public Invoice items(List<Item> items) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.items = new ArrayList<>(items);
         return this;
     }
@@ -236,13 +276,24 @@ public class Invoice {
      * Clears the {@link #items} list
      */
     public void clearItems() {
+        Snapshot.checkNotFrozen(frozen, this);
         items.clear();
     }
 
+    /**
+     * Sets the {@link #itemTable}
+     */
+    public Invoice itemTable(ItemTable itemTable) {
+        Snapshot.checkNotFrozen(frozen, this);
+        this.itemTable = itemTable;
+        return this;
+    }
+
     /**
      * Adds the given object to the list of {@link #vatTotals}
      */
     public Invoice addVatTotal(Vat vatTotal) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.vatTotals.add(vatTotal);
         return this;
     }
@@ -251,6 +302,7 @@ public class Invoice {
      * Replaces the current list of {@link #vatTotals} by the given one
      */
     public Invoice vatTotals(List<Vat> vatTotals) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.vatTotals = new ArrayList<>(vatTotals);
         return this;
     }
@@ -259,6 +311,7 @@ public class Invoice {
      * Clears the {@link #vatTotals} list
      */
     public void clearVatTotals() {
+        Snapshot.checkNotFrozen(frozen, this);
         vatTotals.clear();
     }
 
@@ -266,6 +319,7 @@ public class Invoice {
      * Adds the given object to the list of {@link #precedingInvoiceReferences}
      */
     public Invoice addPrecedingInvoiceReference(PrecedingInvoiceReference precedingInvoiceReference) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.precedingInvoiceReferences.add(precedingInvoiceReference);
         return this;
     }
@@ -274,6 +328,7 @@ public class Invoice {
      * Replaces the current list of {@link #precedingInvoiceReferences} by the given one
      */
     public Invoice precedingInvoiceReferences(List<PrecedingInvoiceReference> precedingInvoiceReferences) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.precedingInvoiceReferences = new ArrayList<>(precedingInvoiceReferences);
         return this;
     }
@@ -282,6 +337,7 @@ public class Invoice {
      * Clears the {@link #precedingInvoiceReferences} list
      */
     public void clearPrecedingInvoiceReferences() {
+        Snapshot.checkNotFrozen(frozen, this);
         precedingInvoiceReferences.clear();
     }
 
@@ -289,6 +345,7 @@ public class Invoice {
      * Sets the {@link #lineTotalAmount}
      */
     public Invoice lineTotalAmount(BigDecimal lineTotalAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.lineTotalAmount = lineTotalAmount;
         return this;
     }
@@ -297,6 +354,7 @@ public class Invoice {
      * Sets the {@link #allowanceTotalAmount}
      */
     public Invoice allowanceTotalAmount(BigDecimal allowanceTotalAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.allowanceTotalAmount = allowanceTotalAmount;
         return this;
     }
@@ -305,6 +363,7 @@ public class Invoice {
      * Sets the {@link #chargeTotalAmount}
      */
     public Invoice chargeTotalAmount(BigDecimal chargeTotalAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.chargeTotalAmount = chargeTotalAmount;
         return this;
     }
@@ -313,6 +372,7 @@ public class Invoice {
      * Sets the {@link #taxBasisTotalAmount}
      */
     public Invoice taxBasisTotalAmount(BigDecimal taxBasisTotalAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.taxBasisTotalAmount = taxBasisTotalAmount;
         return this;
     }
@@ -321,6 +381,7 @@ public class Invoice {
      * Sets the {@link #taxTotalAmount}
      */
     public Invoice taxTotalAmount(BigDecimal taxTotalAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.taxTotalAmount = taxTotalAmount;
         return this;
     }
@@ -329,6 +390,7 @@ public class Invoice {
      * Sets the {@link #grandTotalAmount}
      */
     public Invoice grandTotalAmount(BigDecimal grandTotalAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.grandTotalAmount = grandTotalAmount;
         return this;
     }
@@ -337,6 +399,7 @@ public class Invoice {
      * Sets the {@link #duePayableAmount}
      */
     public Invoice duePayableAmount(BigDecimal duePayableAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.duePayableAmount = duePayableAmount;
         return this;
     }
@@ -345,6 +408,7 @@ public class Invoice {
      * Sets the {@link #salesOrderReference}
      */
     public Invoice salesOrderReference(String salesOrderReference) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.salesOrderReference = salesOrderReference;
         return this;
     }
@@ -353,6 +417,7 @@ public class Invoice {
      * Adds the given object to the list of {@link #invoiceNotes}
      */
     public Invoice addInvoiceNote(InvoiceNote invoiceNote) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.invoiceNotes.add(invoiceNote);
         return this;
     }
@@ -361,6 +426,7 @@ public class Invoice {
      * Replaces the current list of {@link #invoiceNotes} by the given one
      */
     public Invoice invoiceNotes(List<InvoiceNote> invoiceNotes) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.invoiceNotes = new ArrayList<>(invoiceNotes);
         return this;
     }
@@ -369,6 +435,7 @@ public class Invoice {
      * Clears the {@link #invoiceNotes} list
      */
     public void clearInvoiceNotes() {
+        Snapshot.checkNotFrozen(frozen, this);
         invoiceNotes.clear();
     }
 
@@ -376,6 +443,7 @@ public class Invoice {
      * Adds the given object to the list of {@link #allowances}
      */
     public Invoice addAllowance(Allowance allowance) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.allowances.add(allowance);
         return this;
     }
@@ -384,6 +452,7 @@ public class Invoice {
      * Replaces the current list of {@link #allowances} by the given one
      */
     public Invoice allowances(List<Allowance> allowances) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.allowances = new ArrayList<>(allowances);
         return this;
     }
@@ -392,6 +461,7 @@ public class Invoice {
      * Clears the {@link #allowances} list
      */
     public void clearAllowances() {
+        Snapshot.checkNotFrozen(frozen, this);
         allowances.clear();
     }
 
@@ -399,6 +469,7 @@ public class Invoice {
      * Adds the given object to the list of {@link #charges}
      */
     public Invoice addCharge(Charge charge) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.charges.add(charge);
         return this;
     }
@@ -407,6 +478,7 @@ public class Invoice {
      * Replaces the current list of {@link #charges} by the given one
      */
     public Invoice charges(List<Charge> charges) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.charges = new ArrayList<>(charges);
         return this;
     }
@@ -415,6 +487,7 @@ public class Invoice {
      * Clears the {@link #charges} list
      */
     public void clearCharges() {
+        Snapshot.checkNotFrozen(frozen, this);
         charges.clear();
     }
 
@@ -485,21 +558,28 @@ public class Invoice {
      * Gets the {@link #items}.
      */
     public List<Item> getItems() {
-        return Collections.unmodifiableList(items);
+        return frozen ? items : Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Gets the {@link #itemTable}.
+     */
+    public ItemTable getItemTable() {
+        return itemTable;
     }
 
     /**
      * Gets the {@link #vatTotals}.
      */
     public List<Vat> getVatTotals() {
-        return Collections.unmodifiableList(vatTotals);
+        return frozen ? vatTotals : Collections.unmodifiableList(vatTotals);
     }
 
     /**
      * Gets the {@link #precedingInvoiceReferences}.
      */
     public List<PrecedingInvoiceReference> getPrecedingInvoiceReferences() {
-        return Collections.unmodifiableList(precedingInvoiceReferences);
+        return frozen ? precedingInvoiceReferences : Collections.unmodifiableList(precedingInvoiceReferences);
     }
 
     /**
@@ -562,20 +642,159 @@ public class Invoice {
      * Gets the {@link #invoiceNotes}.
      */
     public List<InvoiceNote> getInvoiceNotes() {
-        return Collections.unmodifiableList(invoiceNotes);
+        return frozen ? invoiceNotes : Collections.unmodifiableList(invoiceNotes);
     }
 
     /**
      * Gets the {@link #allowances}.
      */
     public List<Allowance> getAllowances() {
-        return Collections.unmodifiableList(allowances);
+        return frozen ? allowances : Collections.unmodifiableList(allowances);
     }
 
     /**
      * Gets the {@link #charges}.
      */
     public List<Charge> getCharges() {
-        return Collections.unmodifiableList(charges);
+        return frozen ? charges : Collections.unmodifiableList(charges);
+    }
+
+    /**
+     * Creates a deeply immutable snapshot of this invoice.
+     * <p>
+     * The snapshot and all objects it references are frozen copies: their setters throw an
+     * {@link IllegalStateException}, their lists are unmodifiable lists of exactly the needed size, and all empty
+     * lists are the same shared instance. The getters of a frozen object return its lists without wrapping them.
+     * Objects that are shared within this invoice, like a {@link Vat} used by many items, are copied once.
+     * </p>
+     * <p>
+     * Snapshots compare by value: two frozen objects are equal if their data is equal, and the hash code of the
+     * snapshot is computed once, so it can be shared between threads and used as a cache key. Objects that are not
+     * frozen keep identity equality, because their data can change while they are in a set or map. Modifying this
+     * invoice afterwards does not change the snapshot.
+     * </p>
+     *
+     * @return a frozen copy of this invoice, or this invoice if it is frozen already
+     * @throws NullPointerException if one of the lists contains {@code null}
+     */
+    public Invoice freeze() {
+        if (frozen) {
+            return this;
+        }
+        Invoice copy = new Invoice(this, new Snapshot());
+        copy.hash = copy.computeHashCode();
+        return copy;
+    }
+
+    /**
+     * Gets the fingerprint of the document that this frozen invoice renders to, e.g. the key of a
+     * {@link de.codebarista.gallop.xrechnung.RenderedInvoiceCache}. The fingerprint is computed with the given
+     * function on first use and kept with the snapshot, so that looking up the same snapshot again does not walk
+     * the invoice again. Two threads calling this method at the same time may both compute it.
+     *
+     * @param computation computes the fingerprint of this invoice, must not be {@code null}
+     * @return the fingerprint, which was computed by the function given on the first call
+     * @throws IllegalStateException if this invoice is not frozen, because its document may still change
+     */
+    public Object fingerprint(Function<? super Invoice, ?> computation) {
+        if (!frozen) {
+            throw new IllegalStateException("Only a frozen invoice has a fingerprint, see Invoice.freeze()");
+        }
+        Object result = fingerprint;
+        if (result == null) {
+            result = Objects.requireNonNull(computation.apply(this), "Fingerprint must not be null");
+            fingerprint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Checks whether this invoice is a snapshot created by {@link #freeze()}.
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    /**
+     * Creates a frozen copy without allocating the lists of a new, empty instance.
+     */
+    private Invoice(Invoice original, Snapshot snapshot) {
+        this.documentId = original.documentId;
+        this.issueDate = original.issueDate;
+        this.documentTypeCode = original.documentTypeCode;
+        this.currency = original.currency;
+        this.leitwegId = original.leitwegId;
+        this.paymentInstructions = snapshot.copy(original.paymentInstructions, PaymentInstructions::frozenCopy);
+        this.seller = snapshot.copy(original.seller, SellerOrBuyer::frozenCopy);
+        this.buyer = snapshot.copy(original.buyer, SellerOrBuyer::frozenCopy);
+        this.deliveryInfo = snapshot.copy(original.deliveryInfo, DeliveryInformation::frozenCopy);
+        this.items = snapshot.copyAll(original.items, Item::frozenCopy);
+        this.itemTable = snapshot.copy(original.itemTable, ItemTable::frozenCopy);
+        this.vatTotals = snapshot.copyAll(original.vatTotals, Vat::frozenCopy);
+        this.precedingInvoiceReferences = snapshot.copyAll(original.precedingInvoiceReferences,
+                PrecedingInvoiceReference::frozenCopy);
+        this.lineTotalAmount = original.lineTotalAmount;
+        this.allowanceTotalAmount = original.allowanceTotalAmount;
+        this.chargeTotalAmount = original.chargeTotalAmount;
+        this.taxBasisTotalAmount = original.taxBasisTotalAmount;
+        this.taxTotalAmount = original.taxTotalAmount;
+        this.grandTotalAmount = original.grandTotalAmount;
+        this.duePayableAmount = original.duePayableAmount;
+        this.salesOrderReference = original.salesOrderReference;
+        this.invoiceNotes = snapshot.copyAll(original.invoiceNotes, InvoiceNote::frozenCopy);
+        this.allowances = snapshot.copyAll(original.allowances, Allowance::frozenCopy);
+        this.charges = snapshot.copyAll(original.charges, Charge::frozenCopy);
+        this.frozen = true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof Invoice) || !((Invoice) o).frozen) {
+            return false;
+        }
+        Invoice other = (Invoice) o;
+        if (hash != other.hash) {
+            return false;
+        }
+        return Objects.equals(documentId, other.documentId)
+                && Objects.equals(issueDate, other.issueDate)
+                && Objects.equals(documentTypeCode, other.documentTypeCode)
+                && Objects.equals(currency, other.currency)
+                && Objects.equals(leitwegId, other.leitwegId)
+                && Objects.equals(paymentInstructions, other.paymentInstructions)
+                && Objects.equals(seller, other.seller)
+                && Objects.equals(buyer, other.buyer)
+                && Objects.equals(deliveryInfo, other.deliveryInfo)
+                && Objects.equals(items, other.items)
+                && Objects.equals(itemTable, other.itemTable)
+                && Objects.equals(vatTotals, other.vatTotals)
+                && Objects.equals(precedingInvoiceReferences, other.precedingInvoiceReferences)
+                && Objects.equals(lineTotalAmount, other.lineTotalAmount)
+                && Objects.equals(allowanceTotalAmount, other.allowanceTotalAmount)
+                && Objects.equals(chargeTotalAmount, other.chargeTotalAmount)
+                && Objects.equals(taxBasisTotalAmount, other.taxBasisTotalAmount)
+                && Objects.equals(taxTotalAmount, other.taxTotalAmount)
+                && Objects.equals(grandTotalAmount, other.grandTotalAmount)
+                && Objects.equals(duePayableAmount, other.duePayableAmount)
+                && Objects.equals(salesOrderReference, other.salesOrderReference)
+                && Objects.equals(invoiceNotes, other.invoiceNotes)
+                && Objects.equals(allowances, other.allowances)
+                && Objects.equals(charges, other.charges);
+    }
+
+    @Override
+    public int hashCode() {
+        return frozen ? hash : super.hashCode();
+    }
+
+    private int computeHashCode() {
+        return Objects.hash(documentId, issueDate, documentTypeCode, currency, leitwegId,
+                paymentInstructions, seller, buyer, deliveryInfo, items,
+                itemTable, vatTotals, precedingInvoiceReferences, lineTotalAmount, allowanceTotalAmount,
+                chargeTotalAmount, taxBasisTotalAmount, taxTotalAmount, grandTotalAmount, duePayableAmount,
+                salesOrderReference, invoiceNotes, allowances, charges);
     }
 }
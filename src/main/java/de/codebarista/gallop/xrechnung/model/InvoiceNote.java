@@ -1,5 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
+import java.util.Objects;
+
 /**
  * Invoice Note (BG-1)
  */
@@ -15,6 +17,11 @@ public class InvoiceNote {
      */
     private String note;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -34,6 +41,7 @@ public class InvoiceNote {
      * Sets the {@link #note}.
      */
     public InvoiceNote note(String note) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.note = note;
         return this;
     }
@@ -44,4 +52,37 @@ public class InvoiceNote {
     public String getNote() {
         return note;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    InvoiceNote frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        InvoiceNote copy = new InvoiceNote();
+        copy.note = note;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof InvoiceNote) || !((InvoiceNote) o).frozen) {
+            return false;
+        }
+        InvoiceNote other = (InvoiceNote) o;
+        return Objects.equals(note, other.note);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(note);
+    }
 }
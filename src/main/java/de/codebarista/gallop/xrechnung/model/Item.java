@@ -5,6 +5,7 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Invoice Line (BG-25)
@@ -61,12 +62,18 @@ public class Item implements NetAmount<Item> {
     /**
      * Item attributes (BG-32)
      */
-    private List<ItemAttribute> itemAttributes = new ArrayList<>();
+    private List<ItemAttribute> itemAttributes;
+
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
 
     /**
      * Creates a new, empty instance of this class.
      */
     public Item() {
+        itemAttributes = new ArrayList<>();
     }
 
     /**
@@ -82,6 +89,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #id}
      */
     public Item id(Long id) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.id = id;
         return this;
     }
@@ -90,6 +98,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #quantity}
      */
     public Item quantity(Long quantity) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.quantity = quantity;
         return this;
     }
@@ -98,6 +107,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #unitCode}
      */
     public Item unitCode(String unitCode) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.unitCode = unitCode;
         return this;
     }
@@ -106,6 +116,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #itemTotalNetAmount}
      */
     public Item itemTotalNetAmount(BigDecimal itemTotalNetAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.itemTotalNetAmount = itemTotalNetAmount;
         return this;
     }
@@ -115,6 +126,7 @@ public class Item implements NetAmount<Item> {
      */
     @Override
     public Item netAmount(BigDecimal amount) {
+        Snapshot.checkNotFrozen(frozen, this);
         itemTotalNetAmount = amount;
         return this;
     }
@@ -123,6 +135,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #name}
      */
     public Item name(String name) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.name = name;
         return this;
     }
@@ -131,6 +144,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #description}
      */
     public Item description(String description) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.description = description;
         return this;
     }
@@ -139,6 +153,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #unitPrice}
      */
     public Item unitPrice(BigDecimal unitPrice) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.unitPrice = unitPrice;
         return this;
     }
@@ -147,6 +162,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #vat}
      */
     public Item vat(Vat vat) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.vat = vat;
         return this;
     }
@@ -155,6 +171,7 @@ public class Item implements NetAmount<Item> {
      * Sets the {@link #sellerAssignedId}
      */
     public Item sellerAssignedId(String sellerAssignedId) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.sellerAssignedId = sellerAssignedId;
         return this;
     }
@@ -163,6 +180,7 @@ public class Item implements NetAmount<Item> {
      * Adds the given object to the list of {@link #itemAttributes}
      */
     public Item addItemAttribute(ItemAttribute itemAttribute) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.itemAttributes.add(itemAttribute);
         return this;
     }
@@ -171,6 +189,7 @@ public class Item implements NetAmount<Item> {
      * Replaces the current list of {@link #itemAttributes} by the given one
      */
     public Item itemAttributes(List<ItemAttribute> itemAttributes) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.itemAttributes = new ArrayList<>(itemAttributes);
         return this;
     }
@@ -179,6 +198,7 @@ public class Item implements NetAmount<Item> {
      * Clears the list of Item Attributes (BG-32). See {@link #itemAttributes}
      */
     public void clearItemAttributes() {
+        Snapshot.checkNotFrozen(frozen, this);
         itemAttributes.clear();
     }
 
@@ -267,6 +287,63 @@ public class Item implements NetAmount<Item> {
      * Gets the {@link #itemAttributes}.
      */
     public List<ItemAttribute> getItemAttributes() {
-        return Collections.unmodifiableList(itemAttributes);
+        return frozen ? itemAttributes : Collections.unmodifiableList(itemAttributes);
+    }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    Item frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        return new Item(this, snapshot);
+    }
+
+    /**
+     * Creates a frozen copy without allocating the lists of a new, empty instance.
+     */
+    private Item(Item original, Snapshot snapshot) {
+        this.id = original.id;
+        this.quantity = original.quantity;
+        this.unitCode = original.unitCode;
+        this.itemTotalNetAmount = original.itemTotalNetAmount;
+        this.name = original.name;
+        this.description = original.description;
+        this.unitPrice = original.unitPrice;
+        this.vat = snapshot.copy(original.vat, Vat::frozenCopy);
+        this.sellerAssignedId = original.sellerAssignedId;
+        this.itemAttributes = snapshot.copyAll(original.itemAttributes, ItemAttribute::frozenCopy);
+        this.frozen = true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof Item) || !((Item) o).frozen) {
+            return false;
+        }
+        Item other = (Item) o;
+        return Objects.equals(id, other.id)
+                && Objects.equals(quantity, other.quantity)
+                && Objects.equals(unitCode, other.unitCode)
+                && Objects.equals(itemTotalNetAmount, other.itemTotalNetAmount)
+                && Objects.equals(name, other.name)
+                && Objects.equals(description, other.description)
+                && Objects.equals(unitPrice, other.unitPrice)
+                && Objects.equals(vat, other.vat)
+                && Objects.equals(sellerAssignedId, other.sellerAssignedId)
+                && Objects.equals(itemAttributes, other.itemAttributes);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(id, quantity, unitCode, itemTotalNetAmount, name,
+                description, unitPrice, vat, sellerAssignedId, itemAttributes);
     }
 }
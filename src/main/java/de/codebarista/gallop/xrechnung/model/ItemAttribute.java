@@ -1,5 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
+import java.util.Objects;
+
 /**
  * Item Attributes (BG-32)
  */
@@ -18,6 +20,11 @@ public class ItemAttribute {
      */
     private String value;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -37,6 +44,7 @@ public class ItemAttribute {
      * Sets the {@link #name}.
      */
     public ItemAttribute name(String name) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.name = name;
         return this;
     }
@@ -45,6 +53,7 @@ public class ItemAttribute {
      * Sets the {@link #value}.
      */
     public ItemAttribute value(String value) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.value = value;
         return this;
     }
@@ -62,4 +71,39 @@ public class ItemAttribute {
     public String getValue() {
         return value;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    ItemAttribute frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        ItemAttribute copy = new ItemAttribute();
+        copy.name = name;
+        copy.value = value;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof ItemAttribute) || !((ItemAttribute) o).frozen) {
+            return false;
+        }
+        ItemAttribute other = (ItemAttribute) o;
+        return Objects.equals(name, other.name)
+                && Objects.equals(value, other.value);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(name, value);
+    }
 }
@@ -0,0 +1,439 @@
+package de.codebarista.gallop.xrechnung.model;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Invoice Lines (BG-25) stored column by column
+ * <p>
+ * An alternative to a list of {@link Item}s for invoices with hundreds of thousands of lines. Ids and quantities
+ * are stored as {@code long}s, amounts as unscaled {@code long}s with a scale shared by all amounts of the table,
+ * and names, descriptions, unit codes and VAT category and rate in dictionaries, so a line costs a few dozen bytes
+ * instead of a graph of objects.
+ * <p>
+ * The lines of a table have no item attributes (BG-32) and their VAT (BG-30) consists of the category and
+ * the rate only. The lines of a table are written after the {@link Invoice#getItems() items} of the invoice.
+ */
+public class ItemTable {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The scale of all amounts
+     */
+    private final int amountScale;
+
+    private int size;
+    private long[] ids;
+    private long[] quantities;
+    private long[] unitPrices;
+    private long[] lineTotalAmounts;
+    private String[] sellerAssignedIds;
+    private int[] names;
+    private int[] descriptions;
+    private int[] unitCodes;
+    private int[] vats;
+    private Dictionary<String> nameDictionary;
+    private Dictionary<String> descriptionDictionary;
+    private Dictionary<String> unitCodeDictionary;
+    private Dictionary<LineVat> vatDictionary;
+
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
+    /**
+     * Creates a new, empty table.
+     *
+     * @param amountScale the number of decimal places of all amounts, must not be negative
+     */
+    public ItemTable(int amountScale) {
+        if (amountScale < 0) {
+            throw new IllegalArgumentException("Amount scale must not be negative, but was " + amountScale);
+        }
+        this.amountScale = amountScale;
+        ids = new long[INITIAL_CAPACITY];
+        quantities = new long[INITIAL_CAPACITY];
+        unitPrices = new long[INITIAL_CAPACITY];
+        lineTotalAmounts = new long[INITIAL_CAPACITY];
+        sellerAssignedIds = new String[INITIAL_CAPACITY];
+        names = new int[INITIAL_CAPACITY];
+        descriptions = new int[INITIAL_CAPACITY];
+        unitCodes = new int[INITIAL_CAPACITY];
+        vats = new int[INITIAL_CAPACITY];
+        nameDictionary = new Dictionary<>();
+        descriptionDictionary = new Dictionary<>();
+        unitCodeDictionary = new Dictionary<>();
+        vatDictionary = new Dictionary<>();
+    }
+
+    /**
+     * Creates a new, empty table.
+     *
+     * @param amountScale the number of decimal places of all amounts, must not be negative
+     * @return a new, empty table
+     */
+    public static ItemTable create(int amountScale) {
+        return new ItemTable(amountScale);
+    }
+
+    /**
+     * Adds a line.
+     *
+     * @param id               Invoice line identifier (BT-126)
+     * @param sellerAssignedId Item Sellers identifier (BT-155), may be {@code null}
+     * @param name             Item name (BT-153), may be {@code null}
+     * @param description      Item description (BT-154), may be {@code null}
+     * @param quantity         Invoiced quantity (BT-129)
+     * @param unitCode         Invoiced quantity unit of measure code (BT-130), may be {@code null}
+     * @param unitPrice        Item net price (BT-146), unscaled by the {@link #getAmountScale() amount scale}
+     * @param lineTotalAmount  Invoice line net amount (BT-131), unscaled by the {@link #getAmountScale() amount scale}
+     * @param vatCategory      Invoiced item VAT category code (BT-151), may be {@code null}
+     * @param vatRate          Invoiced item VAT rate (BT-152), may be {@code null}
+     * @return this table
+     */
+    public ItemTable addLine(long id, String sellerAssignedId, String name, String description, long quantity,
+                             String unitCode, long unitPrice, long lineTotalAmount,
+                             TaxCategory vatCategory, BigDecimal vatRate) {
+        LineVat vat = vatCategory == null && vatRate == null ? null : new LineVat(vatCategory, vatRate);
+        return addLine(id, sellerAssignedId, name, description, quantity, unitCode, unitPrice, lineTotalAmount, vat);
+    }
+
+    private ItemTable addLine(long id, String sellerAssignedId, String name, String description, long quantity,
+                              String unitCode, long unitPrice, long lineTotalAmount, LineVat vat) {
+        Snapshot.checkNotFrozen(frozen, this);
+        if (size == ids.length) {
+            grow();
+        }
+        ids[size] = id;
+        sellerAssignedIds[size] = sellerAssignedId;
+        names[size] = nameDictionary.encode(name);
+        descriptions[size] = descriptionDictionary.encode(description);
+        quantities[size] = quantity;
+        unitCodes[size] = unitCodeDictionary.encode(unitCode);
+        unitPrices[size] = unitPrice;
+        lineTotalAmounts[size] = lineTotalAmount;
+        vats[size] = vatDictionary.encode(vat);
+        size++;
+        return this;
+    }
+
+    /**
+     * Adds a line with the data of an item.
+     * <p>
+     * Id, quantity and both amounts must be set and the amounts must have the {@link #getAmountScale() amount scale}
+     * of this table. Item attributes and all VAT data except category and rate are not stored.
+     * </p>
+     *
+     * @param item the item to add, must not be {@code null}
+     * @return this table
+     * @throws IllegalArgumentException if the item cannot be stored in this table
+     */
+    public ItemTable addLine(Item item) {
+        Objects.requireNonNull(item, "Item must not be null");
+        if (item.getId() == null || item.getQuantity() == null) {
+            throw new IllegalArgumentException("Id and quantity of the item must be set");
+        }
+        Vat vat = item.getVat();
+        LineVat lineVat = vat != null ? new LineVat(vat.getCategory(), vat.getRate()) : null;
+        return addLine(item.getId(), item.getSellerAssignedId(), item.getName(), item.getDescription(),
+                item.getQuantity(), item.getUnitCode(), unscaled(item.getUnitPrice()),
+                unscaled(item.getItemTotalNetAmount()), lineVat);
+    }
+
+    private long unscaled(BigDecimal amount) {
+        if (amount == null || amount.scale() != amountScale) {
+            throw new IllegalArgumentException("Amount " + amount + " does not have the scale " + amountScale);
+        }
+        return amount.unscaledValue().longValueExact();
+    }
+
+    private void grow() {
+        int capacity = ids.length * 2;
+        ids = Arrays.copyOf(ids, capacity);
+        sellerAssignedIds = Arrays.copyOf(sellerAssignedIds, capacity);
+        names = Arrays.copyOf(names, capacity);
+        descriptions = Arrays.copyOf(descriptions, capacity);
+        quantities = Arrays.copyOf(quantities, capacity);
+        unitCodes = Arrays.copyOf(unitCodes, capacity);
+        unitPrices = Arrays.copyOf(unitPrices, capacity);
+        lineTotalAmounts = Arrays.copyOf(lineTotalAmounts, capacity);
+        vats = Arrays.copyOf(vats, capacity);
+    }
+
+    /**
+     * Gets the number of lines.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the number of decimal places of all amounts.
+     */
+    public int getAmountScale() {
+        return amountScale;
+    }
+
+    /**
+     * Gets the invoice line identifier (BT-126) of a line.
+     */
+    public long getId(int line) {
+        return ids[checkLine(line)];
+    }
+
+    /**
+     * Gets the item sellers identifier (BT-155) of a line.
+     */
+    public String getSellerAssignedId(int line) {
+        return sellerAssignedIds[checkLine(line)];
+    }
+
+    /**
+     * Gets the item name (BT-153) of a line.
+     */
+    public String getName(int line) {
+        return nameDictionary.decode(names[checkLine(line)]);
+    }
+
+    /**
+     * Gets the item description (BT-154) of a line.
+     */
+    public String getDescription(int line) {
+        return descriptionDictionary.decode(descriptions[checkLine(line)]);
+    }
+
+    /**
+     * Gets the invoiced quantity (BT-129) of a line.
+     */
+    public long getQuantity(int line) {
+        return quantities[checkLine(line)];
+    }
+
+    /**
+     * Gets the invoiced quantity unit of measure code (BT-130) of a line.
+     */
+    public String getUnitCode(int line) {
+        return unitCodeDictionary.decode(unitCodes[checkLine(line)]);
+    }
+
+    /**
+     * Gets the item net price (BT-146) of a line, unscaled by the {@link #getAmountScale() amount scale}.
+     */
+    public long getUnscaledUnitPrice(int line) {
+        return unitPrices[checkLine(line)];
+    }
+
+    /**
+     * Gets the item net price (BT-146) of a line.
+     */
+    public BigDecimal getUnitPrice(int line) {
+        return BigDecimal.valueOf(getUnscaledUnitPrice(line), amountScale);
+    }
+
+    /**
+     * Gets the invoice line net amount (BT-131) of a line, unscaled by the {@link #getAmountScale() amount scale}.
+     */
+    public long getUnscaledLineTotalAmount(int line) {
+        return lineTotalAmounts[checkLine(line)];
+    }
+
+    /**
+     * Gets the invoice line net amount (BT-131) of a line.
+     */
+    public BigDecimal getLineTotalAmount(int line) {
+        return BigDecimal.valueOf(getUnscaledLineTotalAmount(line), amountScale);
+    }
+
+    /**
+     * Checks whether a line has VAT information (BG-30). Lines added without category and rate have none.
+     */
+    public boolean hasVat(int line) {
+        return vats[checkLine(line)] != Dictionary.NULL;
+    }
+
+    /**
+     * Gets the invoiced item VAT category code (BT-151) of a line.
+     */
+    public TaxCategory getVatCategory(int line) {
+        LineVat vat = getLineVat(line);
+        return vat != null ? vat.category : null;
+    }
+
+    /**
+     * Gets the invoiced item VAT rate (BT-152) of a line.
+     */
+    public BigDecimal getVatRate(int line) {
+        LineVat vat = getLineVat(line);
+        return vat != null ? vat.rate : null;
+    }
+
+    private LineVat getLineVat(int line) {
+        return vatDictionary.decode(vats[checkLine(line)]);
+    }
+
+    private int checkLine(int line) {
+        return Objects.checkIndex(line, size);
+    }
+
+    /**
+     * Creates a frozen copy of this table with arrays of exactly the needed size, see {@link Invoice#freeze()}.
+     */
+    ItemTable frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        return new ItemTable(this);
+    }
+
+    /**
+     * Creates a frozen copy without allocating the arrays and dictionaries of a new, empty table.
+     */
+    private ItemTable(ItemTable original) {
+        this.amountScale = original.amountScale;
+        this.size = original.size;
+        this.ids = Arrays.copyOf(original.ids, original.size);
+        this.quantities = Arrays.copyOf(original.quantities, original.size);
+        this.unitPrices = Arrays.copyOf(original.unitPrices, original.size);
+        this.lineTotalAmounts = Arrays.copyOf(original.lineTotalAmounts, original.size);
+        this.sellerAssignedIds = Arrays.copyOf(original.sellerAssignedIds, original.size);
+        this.names = Arrays.copyOf(original.names, original.size);
+        this.descriptions = Arrays.copyOf(original.descriptions, original.size);
+        this.unitCodes = Arrays.copyOf(original.unitCodes, original.size);
+        this.vats = Arrays.copyOf(original.vats, original.size);
+        this.nameDictionary = original.nameDictionary.frozenCopy();
+        this.descriptionDictionary = original.descriptionDictionary.frozenCopy();
+        this.unitCodeDictionary = original.unitCodeDictionary.frozenCopy();
+        this.vatDictionary = original.vatDictionary.frozenCopy();
+        this.frozen = true;
+    }
+
+    /**
+     * Compares the lines of two frozen tables. Frozen tables are equal if they have the same amount scale and equal
+     * lines, regardless of the order in which the dictionary values were added. A table that is not frozen is only
+     * equal to itself.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof ItemTable) || !((ItemTable) o).frozen) {
+            return false;
+        }
+        ItemTable other = (ItemTable) o;
+        if (amountScale != other.amountScale || size != other.size) {
+            return false;
+        }
+        for (int line = 0; line < size; line++) {
+            if (ids[line] != other.ids[line]
+                    || quantities[line] != other.quantities[line]
+                    || unitPrices[line] != other.unitPrices[line]
+                    || lineTotalAmounts[line] != other.lineTotalAmounts[line]
+                    || !Objects.equals(sellerAssignedIds[line], other.sellerAssignedIds[line])
+                    || !Objects.equals(getName(line), other.getName(line))
+                    || !Objects.equals(getDescription(line), other.getDescription(line))
+                    || !Objects.equals(getUnitCode(line), other.getUnitCode(line))
+                    || !Objects.equals(getLineVat(line), other.getLineVat(line))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        int hash = amountScale;
+        for (int line = 0; line < size; line++) {
+            hash = 31 * hash + Long.hashCode(ids[line]);
+            hash = 31 * hash + Long.hashCode(quantities[line]);
+            hash = 31 * hash + Long.hashCode(unitPrices[line]);
+            hash = 31 * hash + Long.hashCode(lineTotalAmounts[line]);
+            hash = 31 * hash + Objects.hash(sellerAssignedIds[line], getName(line), getDescription(line),
+                    getUnitCode(line), getLineVat(line));
+        }
+        return hash;
+    }
+
+    /**
+     * Category and rate of a line VAT, the key of the VAT dictionary
+     */
+    private static final class LineVat {
+        private final TaxCategory category;
+        private final BigDecimal rate;
+
+        LineVat(TaxCategory category, BigDecimal rate) {
+            this.category = category;
+            this.rate = rate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof LineVat)) {
+                return false;
+            }
+            LineVat other = (LineVat) o;
+            // BigDecimal.equals takes the scale into account, so "19" and "19.00" are different entries
+            return category == other.category && Objects.equals(rate, other.rate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(category, rate);
+        }
+    }
+
+    /**
+     * Maps every distinct value to an index, {@code null} to {@link #NULL}
+     */
+    private static final class Dictionary<T> {
+        static final int NULL = -1;
+
+        private final Map<T, Integer> indexes;
+        private final List<T> values;
+
+        Dictionary() {
+            this(new HashMap<>(), new ArrayList<>());
+        }
+
+        private Dictionary(Map<T, Integer> indexes, List<T> values) {
+            this.indexes = indexes;
+            this.values = values;
+        }
+
+        int encode(T value) {
+            if (value == null) {
+                return NULL;
+            }
+            Integer index = indexes.get(value);
+            if (index == null) {
+                index = values.size();
+                indexes.put(value, index);
+                values.add(value);
+            }
+            return index;
+        }
+
+        T decode(int index) {
+            return index == NULL ? null : values.get(index);
+        }
+
+        /**
+         * Creates a copy that can only decode, so that it is safe to share with other threads.
+         */
+        Dictionary<T> frozenCopy() {
+            return new Dictionary<>(Map.of(), List.copyOf(values));
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
+import java.util.Objects;
+
 /**
  * Payment Card Information (BG-18)
  */
@@ -14,6 +16,11 @@ public class PaymentCardInformation {
      */
     private String cardHolderName;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -33,6 +40,7 @@ public class PaymentCardInformation {
      * Sets the {@link #accountNumber}.
      */
     public PaymentCardInformation accountNumber(String accountNumber) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.accountNumber = accountNumber;
         return this;
     }
@@ -41,6 +49,7 @@ public class PaymentCardInformation {
      * Sets the {@link #cardHolderName}.
      */
     public PaymentCardInformation cardHolderName(String cardHolderName) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.cardHolderName = cardHolderName;
         return this;
     }
@@ -58,4 +67,39 @@ public class PaymentCardInformation {
     public String getCardHolderName() {
         return cardHolderName;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    PaymentCardInformation frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        PaymentCardInformation copy = new PaymentCardInformation();
+        copy.accountNumber = accountNumber;
+        copy.cardHolderName = cardHolderName;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof PaymentCardInformation) || !((PaymentCardInformation) o).frozen) {
+            return false;
+        }
+        PaymentCardInformation other = (PaymentCardInformation) o;
+        return Objects.equals(accountNumber, other.accountNumber)
+                && Objects.equals(cardHolderName, other.cardHolderName);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(accountNumber, cardHolderName);
+    }
 }
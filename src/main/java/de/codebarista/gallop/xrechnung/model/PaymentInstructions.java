@@ -3,6 +3,7 @@ package de.codebarista.gallop.xrechnung.model;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Payment Instructions (BG-16)
@@ -35,7 +36,7 @@ public class PaymentInstructions {
     /**
      * Credit Transfer (BG-17)
      */
-    private List<CreditTransfer> creditTransfers = new ArrayList<>();
+    private List<CreditTransfer> creditTransfers;
 
     /**
      * Payment Card Information (BG-18)
@@ -47,10 +48,16 @@ public class PaymentInstructions {
      */
     private DirectDebit directDebit;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
     public PaymentInstructions() {
+        creditTransfers = new ArrayList<>();
     }
 
     /**
@@ -66,6 +73,7 @@ public class PaymentInstructions {
      * Sets the {@link #meansType}.
      */
     public PaymentInstructions meansType(String meansType) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.meansType = meansType;
         return this;
     }
@@ -74,6 +82,7 @@ public class PaymentInstructions {
      * Sets the {@link #meansText}.
      */
     public PaymentInstructions meansText(String meansText) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.meansText = meansText;
         return this;
     }
@@ -82,6 +91,7 @@ public class PaymentInstructions {
      * Sets the {@link #remittanceInfo}.
      */
     public PaymentInstructions remittanceInfo(String remittanceInfo) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.remittanceInfo = remittanceInfo;
         return this;
     }
@@ -90,6 +100,7 @@ public class PaymentInstructions {
      * Sets the {@link #paymentTerms}.
      */
     public PaymentInstructions paymentTerms(String paymentTerms) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.paymentTerms = paymentTerms;
         return this;
     }
@@ -98,6 +109,7 @@ public class PaymentInstructions {
      * Adds the given object to the list of {@link #creditTransfers}
      */
     public PaymentInstructions addCreditTransfer(CreditTransfer creditTransfer) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.creditTransfers.add(creditTransfer);
         return this;
     }
@@ -106,6 +118,7 @@ public class PaymentInstructions {
      * Replaces the current list of {@link #creditTransfers} by the given one
      */
     public PaymentInstructions creditTransfers(List<CreditTransfer> creditTransfers) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.creditTransfers = new ArrayList<>(creditTransfers);
         return this;
     }
@@ -114,6 +127,7 @@ public class PaymentInstructions {
      * Clears the {@link #creditTransfers} list
      */
     public void clearCreditTransfer() {
+        Snapshot.checkNotFrozen(frozen, this);
         creditTransfers.clear();
     }
 
@@ -121,6 +135,7 @@ public class PaymentInstructions {
      * Sets the {@link #paymentCardInformation}.
      */
     public PaymentInstructions paymentCardInformation(PaymentCardInformation paymentCardInformation) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.paymentCardInformation = paymentCardInformation;
         return this;
     }
@@ -129,6 +144,7 @@ public class PaymentInstructions {
      * Sets the {@link #directDebit}.
      */
     public PaymentInstructions directDebit(DirectDebit directDebit) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.directDebit = directDebit;
         return this;
     }
@@ -165,7 +181,7 @@ public class PaymentInstructions {
      * Gets the {@link #creditTransfers}.
      */
     public List<CreditTransfer> getCreditTransfers() {
-        return Collections.unmodifiableList(creditTransfers);
+        return frozen ? creditTransfers : Collections.unmodifiableList(creditTransfers);
     }
 
     /**
@@ -181,4 +197,55 @@ public class PaymentInstructions {
     public DirectDebit getDirectDebit() {
         return directDebit;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    PaymentInstructions frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        return new PaymentInstructions(this, snapshot);
+    }
+
+    /**
+     * Creates a frozen copy without allocating the lists of a new, empty instance.
+     */
+    private PaymentInstructions(PaymentInstructions original, Snapshot snapshot) {
+        this.meansType = original.meansType;
+        this.meansText = original.meansText;
+        this.remittanceInfo = original.remittanceInfo;
+        this.paymentTerms = original.paymentTerms;
+        this.creditTransfers = snapshot.copyAll(original.creditTransfers, CreditTransfer::frozenCopy);
+        this.paymentCardInformation = snapshot.copy(original.paymentCardInformation, PaymentCardInformation::frozenCopy);
+        this.directDebit = snapshot.copy(original.directDebit, DirectDebit::frozenCopy);
+        this.frozen = true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof PaymentInstructions) || !((PaymentInstructions) o).frozen) {
+            return false;
+        }
+        PaymentInstructions other = (PaymentInstructions) o;
+        return Objects.equals(meansType, other.meansType)
+                && Objects.equals(meansText, other.meansText)
+                && Objects.equals(remittanceInfo, other.remittanceInfo)
+                && Objects.equals(paymentTerms, other.paymentTerms)
+                && Objects.equals(creditTransfers, other.creditTransfers)
+                && Objects.equals(paymentCardInformation, other.paymentCardInformation)
+                && Objects.equals(directDebit, other.directDebit);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(meansType, meansText, remittanceInfo, paymentTerms, creditTransfers,
+                paymentCardInformation, directDebit);
+    }
 }
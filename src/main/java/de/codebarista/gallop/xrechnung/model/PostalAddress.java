@@ -1,5 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
+import java.util.Objects;
+
 /**
  * Seller/Buyer Postal Address (BG-5/BG-8) and Deliver to Address (BG-15)
  */
@@ -36,6 +38,11 @@ public class PostalAddress {
      */
     private String countryIsoCode;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -55,6 +62,7 @@ public class PostalAddress {
      * Sets the {@link #addressLineOne}.
      */
     public PostalAddress addressLineOne(String addressLineOne) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.addressLineOne = addressLineOne;
         return this;
     }
@@ -63,6 +71,7 @@ public class PostalAddress {
      * Sets the {@link #addressLineTwo}.
      */
     public PostalAddress addressLineTwo(String addressLineTwo) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.addressLineTwo = addressLineTwo;
         return this;
     }
@@ -71,6 +80,7 @@ public class PostalAddress {
      * Sets the {@link #addressLineThree}.
      */
     public PostalAddress addressLineThree(String addressLineThree) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.addressLineThree = addressLineThree;
         return this;
     }
@@ -79,6 +89,7 @@ public class PostalAddress {
      * Sets the {@link #city}.
      */
     public PostalAddress city(String city) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.city = city;
         return this;
     }
@@ -87,6 +98,7 @@ public class PostalAddress {
      * Sets the {@link #zipCode}.
      */
     public PostalAddress zipCode(String zipCode) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.zipCode = zipCode;
         return this;
     }
@@ -95,6 +107,7 @@ public class PostalAddress {
      * Sets the {@link #countryIsoCode}.
      */
     public PostalAddress countryIsoCode(String countryIsoCode) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.countryIsoCode = countryIsoCode;
         return this;
     }
@@ -140,4 +153,47 @@ public class PostalAddress {
     public String getCountryIsoCode() {
         return countryIsoCode;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    PostalAddress frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        PostalAddress copy = new PostalAddress();
+        copy.addressLineOne = addressLineOne;
+        copy.addressLineTwo = addressLineTwo;
+        copy.addressLineThree = addressLineThree;
+        copy.city = city;
+        copy.zipCode = zipCode;
+        copy.countryIsoCode = countryIsoCode;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof PostalAddress) || !((PostalAddress) o).frozen) {
+            return false;
+        }
+        PostalAddress other = (PostalAddress) o;
+        return Objects.equals(addressLineOne, other.addressLineOne)
+                && Objects.equals(addressLineTwo, other.addressLineTwo)
+                && Objects.equals(addressLineThree, other.addressLineThree)
+                && Objects.equals(city, other.city)
+                && Objects.equals(zipCode, other.zipCode)
+                && Objects.equals(countryIsoCode, other.countryIsoCode);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(addressLineOne, addressLineTwo, addressLineThree, city, zipCode, countryIsoCode);
+    }
 }
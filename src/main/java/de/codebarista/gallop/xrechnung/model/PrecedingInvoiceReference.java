@@ -1,6 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
 import java.time.OffsetDateTime;
+import java.util.Objects;
 
 /**
  * A group of information elements providing details about one or more preceding invoices (BG-3).<br>
@@ -20,6 +21,11 @@ public class PrecedingInvoiceReference {
      */
     private OffsetDateTime precedingInvoiceIssueDate;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -39,6 +45,7 @@ public class PrecedingInvoiceReference {
      * Sets the {@link #precedingInvoiceReference}.
      */
     public PrecedingInvoiceReference precedingInvoiceReference(String precedingInvoiceReference) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.precedingInvoiceReference = precedingInvoiceReference;
         return this;
     }
@@ -47,6 +54,7 @@ public class PrecedingInvoiceReference {
      * Sets the {@link #precedingInvoiceIssueDate}.
      */
     public PrecedingInvoiceReference precedingInvoiceIssueDate(OffsetDateTime precedingInvoiceIssueDate) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.precedingInvoiceIssueDate = precedingInvoiceIssueDate;
         return this;
     }
@@ -64,4 +72,39 @@ public class PrecedingInvoiceReference {
     public OffsetDateTime getPrecedingInvoiceIssueDate() {
         return precedingInvoiceIssueDate;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    PrecedingInvoiceReference frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        PrecedingInvoiceReference copy = new PrecedingInvoiceReference();
+        copy.precedingInvoiceReference = precedingInvoiceReference;
+        copy.precedingInvoiceIssueDate = precedingInvoiceIssueDate;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof PrecedingInvoiceReference) || !((PrecedingInvoiceReference) o).frozen) {
+            return false;
+        }
+        PrecedingInvoiceReference other = (PrecedingInvoiceReference) o;
+        return Objects.equals(precedingInvoiceReference, other.precedingInvoiceReference)
+                && Objects.equals(precedingInvoiceIssueDate, other.precedingInvoiceIssueDate);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(precedingInvoiceReference, precedingInvoiceIssueDate);
+    }
 }
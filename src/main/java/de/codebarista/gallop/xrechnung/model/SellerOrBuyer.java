@@ -1,5 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
+import java.util.Objects;
+
 /**
  * Seller/Buyer (BG-4/BG-7)
  */
@@ -50,6 +52,11 @@ public class SellerOrBuyer {
      */
     private Contact contact;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -69,6 +76,7 @@ public class SellerOrBuyer {
      * Sets the {@link #name}.
      */
     public SellerOrBuyer name(String name) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.name = name;
         return this;
     }
@@ -77,6 +85,7 @@ public class SellerOrBuyer {
      * Sets the {@link #tradingName}.
      */
     public SellerOrBuyer tradingName(String tradingName) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.tradingName = tradingName;
         return this;
     }
@@ -85,6 +94,7 @@ public class SellerOrBuyer {
      * Sets the {@link #vatId}.
      */
     public SellerOrBuyer vatId(String vatId) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.vatId = vatId;
         return this;
     }
@@ -93,6 +103,7 @@ public class SellerOrBuyer {
      * Sets the {@link #electronicAddress}.
      */
     public SellerOrBuyer electronicAddress(String electronicAddress) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.electronicAddress = electronicAddress;
         return this;
     }
@@ -101,6 +112,7 @@ public class SellerOrBuyer {
      * Sets the {@link #electronicAddressScheme}.
      */
     public SellerOrBuyer electronicAddressScheme(String electronicAddressScheme) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.electronicAddressScheme = electronicAddressScheme;
         return this;
     }
@@ -109,6 +121,7 @@ public class SellerOrBuyer {
      * Sets the {@link #address}.
      */
     public SellerOrBuyer address(PostalAddress address) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.address = address;
         return this;
     }
@@ -117,6 +130,7 @@ public class SellerOrBuyer {
      * Sets the {@link #contact}.
      */
     public SellerOrBuyer contact(Contact contact) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.contact = contact;
         return this;
     }
@@ -169,4 +183,49 @@ public class SellerOrBuyer {
     public Contact getContact() {
         return contact;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    SellerOrBuyer frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        SellerOrBuyer copy = new SellerOrBuyer();
+        copy.name = name;
+        copy.tradingName = tradingName;
+        copy.vatId = vatId;
+        copy.electronicAddress = electronicAddress;
+        copy.electronicAddressScheme = electronicAddressScheme;
+        copy.address = snapshot.copy(address, PostalAddress::frozenCopy);
+        copy.contact = snapshot.copy(contact, Contact::frozenCopy);
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof SellerOrBuyer) || !((SellerOrBuyer) o).frozen) {
+            return false;
+        }
+        SellerOrBuyer other = (SellerOrBuyer) o;
+        return Objects.equals(name, other.name)
+                && Objects.equals(tradingName, other.tradingName)
+                && Objects.equals(vatId, other.vatId)
+                && Objects.equals(electronicAddress, other.electronicAddress)
+                && Objects.equals(electronicAddressScheme, other.electronicAddressScheme)
+                && Objects.equals(address, other.address)
+                && Objects.equals(contact, other.contact);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(name, tradingName, vatId, electronicAddress, electronicAddressScheme, address, contact);
+    }
 }
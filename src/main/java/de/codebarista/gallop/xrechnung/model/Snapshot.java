@@ -0,0 +1,74 @@
+package de.codebarista.gallop.xrechnung.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BiFunction;
+
+/**
+ * Creates the frozen copies of the model objects for one {@link Invoice#freeze()} call.
+ * <p>
+ * An object that is referenced more than once, like a {@link Vat} shared by many items, is copied only once,
+ * so the snapshot shares it just like the original does.
+ */
+final class Snapshot {
+    private final Map<Object, Object> copies = new IdentityHashMap<>();
+
+    /**
+     * Throws an exception if a model object is frozen.
+     *
+     * @param frozen whether the object is frozen
+     * @param model  the object that is about to be modified
+     * @throws IllegalStateException if the object is frozen
+     */
+    static void checkNotFrozen(boolean frozen, Object model) {
+        if (frozen) {
+            throw new IllegalStateException(model.getClass().getSimpleName() + " is frozen and cannot be modified");
+        }
+    }
+
+    /**
+     * Returns the frozen copy of an object, creating it on first use.
+     *
+     * @param value  the object to copy, may be {@code null}
+     * @param copier the {@code frozenCopy} method of the object
+     * @return the frozen copy, or {@code null} if the object is {@code null}
+     */
+    <T> T copy(T value, BiFunction<T, Snapshot, T> copier) {
+        if (value == null) {
+            return null;
+        }
+        @SuppressWarnings("unchecked")
+        T copy = (T) copies.get(value);
+        if (copy == null) {
+            copy = copier.apply(value, this);
+            copies.put(value, copy);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns an unmodifiable list, backed by an array of exactly the needed size, of the frozen copies of the
+     * given objects. The list wraps the array without copying it again. Empty lists are replaced by the shared
+     * empty list.
+     *
+     * @param values the objects to copy, must not contain {@code null}
+     * @param copier the {@code frozenCopy} method of the objects
+     * @return the list of frozen copies
+     */
+    <T> List<T> copyAll(List<T> values, BiFunction<T, Snapshot, T> copier) {
+        if (values.isEmpty()) {
+            return List.of();
+        }
+        Object[] array = new Object[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = copy(Objects.requireNonNull(values.get(i), "List elements must not be null"), copier);
+        }
+        @SuppressWarnings("unchecked")
+        List<T> list = (List<T>) Collections.unmodifiableList(Arrays.asList(array));
+        return list;
+    }
+}
@@ -1,6 +1,7 @@
 package de.codebarista.gallop.xrechnung.model;
 
 import java.math.BigDecimal;
+import java.util.Objects;
 
 /**
  * Line Vat Information (BG-30) and Vat Breakdown (BG-23)
@@ -40,6 +41,11 @@ public class Vat {
      */
     private String vatExemptionReasonCode;
 
+    /**
+     * Whether this is a frozen copy that cannot be modified, see {@link Invoice#freeze()}
+     */
+    private boolean frozen;
+
     /**
      * Creates a new, empty instance of this class.
      */
@@ -59,6 +65,7 @@ public class Vat {
      * Sets the {@link #rate}.
      */
     public Vat rate(BigDecimal rate) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.rate = rate;
         return this;
     }
@@ -67,6 +74,7 @@ public class Vat {
      * Sets the {@link #category}.
      */
     public Vat category(TaxCategory category) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.category = category;
         return this;
     }
@@ -75,6 +83,7 @@ public class Vat {
      * Sets the {@link #taxableAmount}.
      */
     public Vat taxableAmount(BigDecimal taxableAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.taxableAmount = taxableAmount;
         return this;
     }
@@ -83,6 +92,7 @@ public class Vat {
      * Sets the {@link #taxAmount}.
      */
     public Vat taxAmount(BigDecimal taxAmount) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.taxAmount = taxAmount;
         return this;
     }
@@ -91,6 +101,7 @@ public class Vat {
      * Sets the {@link #vatExemptionReasonText}.
      */
     public Vat vatExemptionReasonText(String vatExemptionReasonText) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.vatExemptionReasonText = vatExemptionReasonText;
         return this;
     }
@@ -99,6 +110,7 @@ public class Vat {
      * Sets the {@link #vatExemptionReasonCode}.
      */
     public Vat vatExemptionReasonCode(String vatExemptionReasonCode) {
+        Snapshot.checkNotFrozen(frozen, this);
         this.vatExemptionReasonCode = vatExemptionReasonCode;
         return this;
     }
@@ -144,4 +156,47 @@ public class Vat {
     public String getVatExemptionReasonCode() {
         return vatExemptionReasonCode;
     }
+
+    /**
+     * Creates a frozen copy of this object, see {@link Invoice#freeze()}.
+     */
+    Vat frozenCopy(Snapshot snapshot) {
+        if (frozen) {
+            return this;
+        }
+        Vat copy = new Vat();
+        copy.rate = rate;
+        copy.category = category;
+        copy.taxableAmount = taxableAmount;
+        copy.taxAmount = taxAmount;
+        copy.vatExemptionReasonText = vatExemptionReasonText;
+        copy.vatExemptionReasonCode = vatExemptionReasonCode;
+        copy.frozen = true;
+        return copy;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!frozen || !(o instanceof Vat) || !((Vat) o).frozen) {
+            return false;
+        }
+        Vat other = (Vat) o;
+        return Objects.equals(rate, other.rate)
+                && Objects.equals(category, other.category)
+                && Objects.equals(taxableAmount, other.taxableAmount)
+                && Objects.equals(taxAmount, other.taxAmount)
+                && Objects.equals(vatExemptionReasonText, other.vatExemptionReasonText)
+                && Objects.equals(vatExemptionReasonCode, other.vatExemptionReasonCode);
+    }
+
+    @Override
+    public int hashCode() {
+        if (!frozen) {
+            return super.hashCode();
+        }
+        return Objects.hash(rate, category, taxableAmount, taxAmount, vatExemptionReasonText, vatExemptionReasonCode);
+    }
 }
@@ -0,0 +1,158 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that the {@link BatchRenderer} renders every invoice once, bounds the work in flight, collects
+ * exceptions without aborting the batch and stops on errors.
+ */
+public class BatchRendererTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @Test
+    public void rendersAllInvoices() throws InterruptedException {
+        List<Invoice> invoices = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            invoices.add(testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class)
+                    .documentId("INV-" + i));
+        }
+        Map<Invoice, byte[]> documents = new ConcurrentHashMap<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        BatchResult result;
+        try {
+            result = new BatchRenderer(executor, 8).renderAll(invoices, documents::put);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getRendered()).isEqualTo(100);
+        assertThat(documents).hasSize(100);
+        for (Invoice invoice : invoices) {
+            assertThat(documents.get(invoice)).isEqualTo(XRechnungWriter.generateXRechnungXML(invoice));
+        }
+    }
+
+    @Test
+    public void boundsInvoicesInFlight() throws InterruptedException {
+        List<Invoice> invoices = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            invoices.add(Invoice.create().documentId("INV-" + i));
+        }
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            new BatchRenderer(executor, 3).renderAll(invoices, (invoice, xml) -> {
+                maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                try {
+                    Thread.sleep(2);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                running.decrementAndGet();
+            });
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(maxRunning.get()).isBetween(1, 3);
+    }
+
+    @Test
+    public void collectsFailuresWithoutAbortingTheBatch() throws InterruptedException {
+        Invoice failing = Invoice.create().documentId("FAIL");
+        List<Invoice> invoices = List.of(Invoice.create().documentId("A"), failing, Invoice.create().documentId("B"));
+
+        BatchResult result = new BatchRenderer(Runnable::run, 1).renderAll(invoices, (invoice, xml) -> {
+            if (invoice == failing) {
+                throw new IllegalStateException("sink failed");
+            }
+        });
+
+        assertThat(result.isSuccessful()).isFalse();
+        assertThat(result.getRendered()).isEqualTo(2);
+        assertThat(result.getFailures()).hasSize(1);
+        BatchResult.Failure failure = result.getFailures().get(0);
+        assertThat(failure.getInvoice()).isSameAs(failing);
+        assertThat(failure.getException()).hasMessage("sink failed");
+    }
+
+    @Test
+    public void propagatesErrors() {
+        Invoice failing = Invoice.create().documentId("FAIL");
+        List<Invoice> invoices = List.of(Invoice.create().documentId("A"), failing, Invoice.create().documentId("B"));
+        List<Invoice> accepted = new ArrayList<>();
+
+        assertThatThrownBy(() -> new BatchRenderer(Runnable::run, 1).renderAll(invoices, (invoice, xml) -> {
+            if (invoice == failing) {
+                throw new StackOverflowError("sink overflowed");
+            }
+            accepted.add(invoice);
+        })).isInstanceOf(StackOverflowError.class).hasMessage("sink overflowed");
+        assertThat(accepted).containsExactly(invoices.get(0));
+    }
+
+    @Test
+    public void skipsSubmittedInvoicesWhenIterationFails() throws InterruptedException {
+        List<Invoice> invoices = List.of(Invoice.create().documentId("A"), Invoice.create().documentId("B"));
+        Iterable<Invoice> failingInvoices = () -> new Iterator<>() {
+            private int index;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public Invoice next() {
+                if (index == invoices.size()) {
+                    throw new IllegalStateException("source failed");
+                }
+                return invoices.get(index++);
+            }
+        };
+        Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        List<Invoice> accepted = new ArrayList<>();
+        AtomicReference<Throwable> thrown = new AtomicReference<>();
+
+        Thread caller = new Thread(() -> {
+            try {
+                new BatchRenderer(tasks::add, 4).renderAll(failingInvoices, (invoice, xml) -> accepted.add(invoice));
+            } catch (Throwable e) {
+                thrown.set(e);
+            }
+        });
+        caller.start();
+        // the caller waits for the submitted invoices once the iteration has failed
+        while (caller.getState() != Thread.State.WAITING) {
+            Thread.sleep(1);
+        }
+        assertThat(thrown.get()).isNull();
+        tasks.forEach(Runnable::run);
+        caller.join();
+
+        assertThat(tasks).hasSize(2);
+        assertThat(accepted).isEmpty();
+        assertThat(thrown.get()).isInstanceOf(IllegalStateException.class).hasMessage("source failed");
+    }
+}
@@ -0,0 +1,98 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that {@link XRechnungWriter#canonical(boolean) canonical} documents depend on nothing but the invoice.
+ */
+public class CanonicalOutputTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void writesSameBytesWithAllBackends(XmlBackend backend)
+            throws ParserConfigurationException, TransformerException, IOException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal_direct_debit/invoice.json", Invoice.class);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+        String platform = new String(expected, StandardCharsets.UTF_8);
+        byte[] canonical = new XRechnungWriter(invoice, backend).canonical(true).getXML();
+
+        assertThat(new String(canonical, StandardCharsets.UTF_8))
+                .isEqualTo(platform.replace(System.lineSeparator(), "\n"))
+                .doesNotContain("\r")
+                .contains("<rsm:CrossIndustryInvoice xmlns:rsm=\"urn:un:unece:uncefact:data:standard:"
+                        + "CrossIndustryInvoice:100\" xmlns:qdt=");
+        assertThat(new XRechnungWriter(invoice, backend).canonical(true).computeSize()).isEqualTo(canonical.length);
+        assertThat(new XRechnungEngine(backend, null, null, true).render(invoice)).isEqualTo(canonical);
+
+        var output = new ByteArrayOutputStream();
+        new XRechnungWriter(invoice, backend).canonical(true).writeTo(output);
+        assertThat(output.toByteArray()).isEqualTo(canonical);
+    }
+
+    @Test
+    public void writesSameBytesWithTemplateCacheAndParallelLineItems()
+            throws ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_allowance/invoice.json", Invoice.class);
+        byte[] expected = new XRechnungWriter(invoice).canonical(true).getXML();
+        InvoiceTemplate template = InvoiceTemplate.compile(invoice.getSeller(), invoice.getPaymentInstructions());
+
+        byte[] actual = new XRechnungWriter(invoice)
+                .template(template)
+                .productCache(new ProductFragmentCache(10))
+                .parallelLineItems(new ForkJoinPool(2), 1)
+                .canonical(true)
+                .getXML();
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    public void writerOverridesEngine() throws ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        var engine = new XRechnungEngine(XmlBackend.DOM, null, null, true);
+
+        assertThat(engine.isCanonical()).isTrue();
+        assertThat(new XRechnungEngine().isCanonical()).isFalse();
+        assertThat(new XRechnungWriter(invoice, engine).canonical(false).getXML())
+                .isEqualTo(new XRechnungWriter(invoice, XmlBackend.DOM).getXML());
+    }
+
+    @Test
+    public void directSinkWritesOtherLineSeparators() {
+        var sink = new DirectXmlSink();
+        sink.lineSeparator("\r\n".getBytes(StandardCharsets.US_ASCII));
+        var size = new SizeXmlSink("\r\n");
+        for (XmlSink out : new XmlSink[]{sink, size}) {
+            out.startDocument();
+            out.startElement(CiiElement.CROSS_INDUSTRY_INVOICE);
+            out.startElement(CiiElement.EXCHANGED_DOCUMENT);
+            out.text("first\nsecond");
+            out.endElement();
+            out.endElement();
+            out.endDocument();
+        }
+
+        String xml = new String(sink.toByteArray(), StandardCharsets.UTF_8);
+        assertThat(xml).contains("?>\r\n<rsm:CrossIndustryInvoice")
+                .contains(">\r\n    <rsm:ExchangedDocument>first\nsecond</rsm:ExchangedDocument>\r\n</rsm:")
+                .endsWith(">\r\n");
+        assertThat(sink.hasPlatformLineSeparator()).isEqualTo(System.lineSeparator().equals("\r\n"));
+        assertThat(size.size()).isEqualTo(sink.size());
+
+        sink.reset();
+        assertThat(sink.hasPlatformLineSeparator()).isTrue();
+    }
+}
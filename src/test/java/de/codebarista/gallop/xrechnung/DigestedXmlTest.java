@@ -0,0 +1,117 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that the digest computed while writing is the digest of the written document.
+ */
+public class DigestedXmlTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void computesDigestOfDocument(XmlBackend backend) throws ParserConfigurationException,
+            TransformerException, IOException, NoSuchAlgorithmException {
+        Invoice invoice = invoiceWithItems(300);
+        byte[] expected = new XRechnungWriter(invoice, backend).getXML();
+
+        DigestedXml digested = new XRechnungWriter(invoice, backend).getDigestedXML();
+        assertThat(digested.getXml()).isEqualTo(expected);
+        assertThat(digested.getAlgorithm()).isEqualTo("SHA-256");
+        assertThat(digested.getDigest()).isEqualTo(sha256(expected));
+        assertThat(digested.getDigestHex()).isEqualTo(HexFormat.of().formatHex(sha256(expected)));
+
+        var output = new ByteArrayOutputStream();
+        byte[] digest = new XRechnungWriter(invoice, backend).writeTo(output, MessageDigest.getInstance("SHA-256"));
+        assertThat(output.toByteArray()).isEqualTo(expected);
+        assertThat(digest).isEqualTo(sha256(expected));
+    }
+
+    @Test
+    public void protectsDocumentBehindDigest() throws IOException, NoSuchAlgorithmException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        byte[] expected = XRechnungWriter.generateXRechnungXML(invoice);
+        DigestedXml digested = XRechnungWriter.generateDigestedXRechnungXML(invoice);
+
+        digested.getXml()[0] = 'X';
+        digested.getDigest()[0]++;
+
+        assertThat(digested.getXml()).isEqualTo(expected);
+        assertThat(digested.getDigest()).isEqualTo(sha256(expected));
+        assertThat(digested.getSize()).isEqualTo(expected.length);
+        var output = new ByteArrayOutputStream();
+        digested.writeTo(output);
+        assertThat(output.toByteArray()).isEqualTo(expected);
+    }
+
+    @Test
+    public void computesDigestOfLargeAndParallelDocuments() throws ParserConfigurationException,
+            TransformerException, IOException, NoSuchAlgorithmException {
+        Invoice invoice = invoiceWithItems(2000);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        assertThat(new XRechnungWriter(invoice).getDigestedXML().getDigest()).isEqualTo(sha256(expected));
+        assertThat(new XRechnungWriter(invoice).parallelLineItems(new ForkJoinPool(2), 500)
+                .getDigestedXML().getDigest()).isEqualTo(sha256(expected));
+
+        var output = new ByteArrayOutputStream();
+        byte[] digest = new XRechnungWriter(invoice).parallelLineItems(new ForkJoinPool(2), 500)
+                .writeTo(output, MessageDigest.getInstance("SHA-256"));
+        assertThat(output.toByteArray()).isEqualTo(expected);
+        assertThat(digest).isEqualTo(sha256(expected));
+    }
+
+    @Test
+    public void usesGivenAlgorithmAndResetsDigest() throws ParserConfigurationException, TransformerException,
+            NoSuchAlgorithmException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        byte[] expected = XRechnungWriter.generateXRechnungXML(invoice);
+        MessageDigest digest = MessageDigest.getInstance("SHA-512");
+        digest.update(new byte[]{1, 2, 3});
+
+        DigestedXml digested = new XRechnungWriter(invoice).getDigestedXML(digest);
+        assertThat(digested.getAlgorithm()).isEqualTo("SHA-512");
+        assertThat(digested.getDigest()).isEqualTo(MessageDigest.getInstance("SHA-512").digest(expected));
+        assertThat(XRechnungWriter.generateDigestedXRechnungXML(invoice).getDigest()).isEqualTo(sha256(expected));
+    }
+
+    private Invoice invoiceWithItems(int count) {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item template = invoice.getItems().get(0);
+        List<Item> items = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            items.add(Item.create()
+                    .id(id)
+                    .name(template.getName() + " für Größe " + id + " & <mehr>")
+                    .quantity(id)
+                    .unitCode(template.getUnitCode())
+                    .unitPrice(BigDecimal.valueOf(id, 2))
+                    .itemTotalNetAmount(BigDecimal.valueOf(id * id, 2))
+                    .vat(template.getVat()));
+        }
+        return invoice.items(items);
+    }
+
+    private static byte[] sha256(byte[] bytes) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(bytes);
+    }
+}
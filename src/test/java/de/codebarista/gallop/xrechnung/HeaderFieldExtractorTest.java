@@ -0,0 +1,140 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
+
+/**
+ * Verifies that the {@link HeaderFieldExtractor} finds the same values as the {@link XRechnungReader}.
+ */
+public class HeaderFieldExtractorTest {
+    private static final HeaderFieldExtractor ALL_FIELDS = new HeaderFieldExtractor(EnumSet.allOf(HeaderField.class));
+
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_cash_payment",
+            "order_with_credit_and_surcharge",
+            "order_with_custom_line_item_type",
+            "order_with_customer_vatid",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_discount_code_and_shipping_costs_with_multiple_taxes",
+            "order_with_payment_in_advance",
+            "order_with_paypal",
+            "order_with_paypal_credit_card",
+            "order_with_paypal_direct_debit",
+            "order_with_paypal_invoice",
+            "order_with_shipping_costs_with_multiple_taxes",
+            "order_with_tax_free_product"
+    })
+    public void extractsSameValuesAsReader(String testFile) throws IOException {
+        byte[] xml;
+        try (InputStream input = testHelper.loadResource(testFile + "/xrechnung.xml")) {
+            xml = input.readAllBytes();
+        }
+        Invoice invoice = XRechnungReader.getDefault().read(xml);
+
+        Map<HeaderField, String> fields = ALL_FIELDS.extract(xml);
+
+        assertThat(fields.get(HeaderField.DOCUMENT_ID)).isEqualTo(invoice.getDocumentId());
+        assertThat(fields.get(HeaderField.DOCUMENT_TYPE_CODE)).isEqualTo(invoice.getDocumentTypeCode());
+        assertThat(fields.get(HeaderField.LEITWEG_ID)).isEqualTo(invoice.getLeitwegId());
+        assertThat(fields.get(HeaderField.SELLER_VAT_ID)).isEqualTo(invoice.getSeller().getVatId());
+        assertThat(fields.get(HeaderField.CURRENCY)).isEqualTo(invoice.getCurrency());
+        assertThat(new BigDecimal(fields.get(HeaderField.GRAND_TOTAL_AMOUNT)))
+                .isEqualByComparingTo(invoice.getGrandTotalAmount());
+    }
+
+    @Test
+    public void extractsHeaderOfLargeInvoice() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item template = invoice.getItems().get(0);
+        List<Item> items = new ArrayList<>();
+        for (long id = 1; id <= 5000; id++) {
+            items.add(Item.create()
+                    .id(id)
+                    .name("<ram:ApplicableHeaderTradeAgreement> " + id)
+                    .quantity(1L)
+                    .unitCode(template.getUnitCode())
+                    .unitPrice(BigDecimal.ONE)
+                    .itemTotalNetAmount(BigDecimal.ONE)
+                    .vat(template.getVat()));
+        }
+        byte[] xml = XRechnungWriter.generateXRechnungXML(invoice.items(items));
+        ByteBuffer buffer = ByteBuffer.allocateDirect(xml.length + 10);
+        buffer.put(new byte[10]).put(xml).position(10);
+
+        Map<HeaderField, String> fields = new HeaderFieldExtractor(EnumSet.of(HeaderField.GRAND_TOTAL_AMOUNT,
+                HeaderField.DOCUMENT_ID)).extract(buffer);
+
+        assertThat(fields).containsOnly(
+                entry(HeaderField.DOCUMENT_ID, invoice.getDocumentId()),
+                entry(HeaderField.GRAND_TOTAL_AMOUNT, invoice.getGrandTotalAmount().toPlainString()));
+        assertThat(buffer.position()).isEqualTo(10);
+    }
+
+    @Test
+    public void readsForeignNotation() {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!-- <rsm:ExchangedDocument><ram:ID>comment</ram:ID></rsm:ExchangedDocument> -->"
+                + "<CrossIndustryInvoice xmlns=\"urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100\">"
+                + "<ExchangedDocument><IncludedNote><ID>note</ID></IncludedNote>"
+                + "<ID> R&amp;D-&#x31;<![CDATA[<2>]]> </ID><TypeCode/></ExchangedDocument>"
+                + "<SupplyChainTradeTransaction>"
+                + "<IncludedSupplyChainTradeLineItem><BuyerReference>item</BuyerReference>"
+                + "</IncludedSupplyChainTradeLineItem>"
+                + "<ApplicableHeaderTradeAgreement \n>"
+                + "<SellerTradeParty><SpecifiedTaxRegistration><ID schemeID='FC'>201/113/40209</ID>"
+                + "</SpecifiedTaxRegistration><SpecifiedTaxRegistration>"
+                + "<ID note=\"schemeID='FC'\" schemeID=\"VA\">DE123456789</ID></SpecifiedTaxRegistration>"
+                + "</SellerTradeParty></ApplicableHeaderTradeAgreement>"
+                + "</SupplyChainTradeTransaction></CrossIndustryInvoice>";
+
+        Map<HeaderField, String> fields = ALL_FIELDS.extract(xml.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(fields).containsOnly(
+                entry(HeaderField.DOCUMENT_ID, "R&D-1<2>"),
+                entry(HeaderField.SELLER_VAT_ID, "DE123456789"));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"&#xZZ;", "&#x;", "&#;", "&#-65;", "&#+65;", "&#1114112;", "&#x110000;",
+            "&#99999999999;", "&#xD800;", "&#0;", "&unknown;"})
+    public void keepsMalformedReferencesAsText(String reference) {
+        String xml = "<rsm:CrossIndustryInvoice><rsm:ExchangedDocument><ram:ID>A" + reference + "&#x42;&#67;"
+                + "</ram:ID></rsm:ExchangedDocument></rsm:CrossIndustryInvoice>";
+
+        Map<HeaderField, String> fields = ALL_FIELDS.extract(xml.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(fields).containsOnly(entry(HeaderField.DOCUMENT_ID, "A" + reference + "BC"));
+    }
+
+    @Test
+    public void returnsNothingForOtherDocuments() {
+        assertThat(ALL_FIELDS.extract("<Invoice><ID>1</ID></Invoice>".getBytes(StandardCharsets.UTF_8))).isEmpty();
+        assertThat(ALL_FIELDS.extract("<rsm:CrossIndustryInvoice".getBytes(StandardCharsets.UTF_8))).isEmpty();
+        assertThat(ALL_FIELDS.extract(new byte[0])).isEmpty();
+        assertThatThrownBy(() -> new HeaderFieldExtractor(EnumSet.noneOf(HeaderField.class)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
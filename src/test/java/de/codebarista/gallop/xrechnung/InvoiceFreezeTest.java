@@ -0,0 +1,123 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemTable;
+import de.codebarista.gallop.xrechnung.model.TaxCategory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that {@link Invoice#freeze()} creates an equal, immutable snapshot.
+ */
+public class InvoiceFreezeTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_credit_and_surcharge",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_paypal_direct_debit",
+            "order_with_tax_free_product"
+    })
+    public void snapshotIsEqualAndWritesSameXml(String testFile) throws ParserConfigurationException,
+            TransformerException {
+        Invoice invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+        Invoice snapshot = invoice.freeze();
+        Invoice other = testHelper.deserialize(testFile + "/invoice.json", Invoice.class).freeze();
+
+        assertThat(snapshot).isNotSameAs(other).isEqualTo(other);
+        assertThat(snapshot.hashCode()).isEqualTo(other.hashCode());
+        assertThat(snapshot).isNotEqualTo(invoice);
+        assertThat(invoice).isNotEqualTo(snapshot);
+        assertThat(snapshot.isFrozen()).isTrue();
+        assertThat(invoice.isFrozen()).isFalse();
+        assertThat(new XRechnungWriter(snapshot).getXML()).isEqualTo(new XRechnungWriter(invoice).getXML());
+    }
+
+    @Test
+    public void mutableModelsUseIdentity() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Invoice equal = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item item = Item.create().id(1L).name("Pen");
+        Item equalItem = Item.create().id(1L).name("Pen");
+
+        assertThat(invoice).isNotEqualTo(equal);
+        assertThat(item).isNotEqualTo(equalItem);
+        assertThat(new HashSet<>(List.of(item, equalItem))).hasSize(2);
+        assertThat(List.of(item, equalItem).indexOf(equalItem)).isEqualTo(1);
+        int hash = item.hashCode();
+        item.name("Pencil");
+        assertThat(item.hashCode()).isEqualTo(hash);
+    }
+
+    @Test
+    public void snapshotCannotBeModified() {
+        Invoice snapshot = testHelper.deserialize("order_with_allowance/invoice.json", Invoice.class).freeze();
+
+        assertThatThrownBy(() -> snapshot.documentId("1")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(snapshot::clearItems).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> snapshot.getItems().get(0).name("x")).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> snapshot.getSeller().getAddress().city("x"))
+                .isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> snapshot.getItems().add(Item.create()))
+                .isInstanceOf(UnsupportedOperationException.class);
+        assertThat(snapshot.freeze()).isSameAs(snapshot);
+    }
+
+    @Test
+    public void snapshotIsIndependentOfOriginal() {
+        Invoice invoice = testHelper.deserialize("order_with_allowance/invoice.json", Invoice.class);
+        Invoice snapshot = invoice.freeze();
+        int hash = snapshot.hashCode();
+
+        invoice.getItems().get(0).name("Changed");
+        invoice.addItem(Item.create().id(99L));
+
+        assertThat(snapshot).isNotEqualTo(invoice);
+        assertThat(snapshot.hashCode()).isEqualTo(hash);
+        assertThat(snapshot.getItems()).hasSize(invoice.getItems().size() - 1);
+        assertThat(snapshot.getItems().get(0).getName()).isNotEqualTo("Changed");
+    }
+
+    @Test
+    public void snapshotSharesListsAndObjects() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item first = invoice.getItems().get(0);
+        invoice.addItem(Item.create().id(2L).vat(first.getVat()));
+        Invoice snapshot = invoice.freeze();
+
+        assertThat(snapshot.getItems()).isSameAs(snapshot.getItems());
+        assertThat(snapshot.getAllowances()).isEmpty();
+        assertThat(snapshot.getAllowances()).isSameAs(snapshot.getPrecedingInvoiceReferences()).isSameAs(List.of());
+        assertThat(snapshot.getItems().get(1).getVat()).isSameAs(snapshot.getItems().get(0).getVat());
+    }
+
+    @Test
+    public void freezesItemTable() {
+        ItemTable table = ItemTable.create(2)
+                .addLine(1, null, "Call", null, 10, "MIN", 120, 1200, TaxCategory.STANDARD_RATE, BigDecimal.TEN);
+        Invoice snapshot = Invoice.create().itemTable(table).freeze();
+        table.addLine(2, null, "SMS", null, 1, "H87", 9, 9, null, null);
+
+        ItemTable frozenTable = snapshot.getItemTable();
+        assertThat(frozenTable.size()).isEqualTo(1);
+        assertThat(frozenTable.getName(0)).isEqualTo("Call");
+        assertThat(frozenTable).isNotEqualTo(table);
+        assertThatThrownBy(() -> frozenTable.addLine(2, null, "SMS", null, 1, "H87", 9, 9, null, null))
+                .isInstanceOf(IllegalStateException.class);
+    }
+}
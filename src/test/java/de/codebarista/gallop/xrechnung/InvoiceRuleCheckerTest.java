@@ -0,0 +1,127 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemTable;
+import de.codebarista.gallop.xrechnung.model.TaxCategory;
+import de.codebarista.gallop.xrechnung.model.Vat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigDecimal;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that the {@link InvoiceRuleChecker} accepts the valid test invoices and reports broken rules.
+ */
+public class InvoiceRuleCheckerTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_cash_payment",
+            "order_with_credit_and_surcharge",
+            "order_with_custom_line_item_type",
+            "order_with_customer_vatid",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_discount_code_and_shipping_costs_with_multiple_taxes",
+            "order_with_payment_in_advance",
+            "order_with_paypal",
+            "order_with_paypal_credit_card",
+            "order_with_paypal_direct_debit",
+            "order_with_paypal_invoice",
+            "order_with_shipping_costs_with_multiple_taxes",
+            "order_with_tax_free_product"
+    })
+    public void acceptsValidInvoice(String testFile) {
+        Invoice invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+
+        assertThat(InvoiceRuleChecker.getDefault().check(invoice)).isEmpty();
+    }
+
+    @Test
+    public void reportsMissingFields() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class)
+                .documentId(" ");
+        invoice.getSeller().getAddress().countryIsoCode(null);
+        invoice.getItems().get(0).name(null).unitCode("");
+
+        assertThat(rules(invoice)).containsExactly("BR-02", "BR-09", "BR-23", "BR-25");
+    }
+
+    @Test
+    public void reportsInconsistentTotals() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item item = invoice.getItems().get(0);
+        item.itemTotalNetAmount(item.getItemTotalNetAmount().add(BigDecimal.ONE));
+        invoice.taxTotalAmount(invoice.getTaxTotalAmount().add(new BigDecimal("0.02")));
+
+        List<InvoiceRuleChecker.Violation> violations = InvoiceRuleChecker.getDefault().check(invoice);
+
+        assertThat(violations).extracting(InvoiceRuleChecker.Violation::getRule)
+                .containsExactly("BR-CO-10", "BR-CO-14", "BR-CO-15", "BR-S-8");
+        assertThat(violations.get(0).getMessage())
+                .contains("(BT-106) " + invoice.getLineTotalAmount().toPlainString())
+                .contains(invoice.getLineTotalAmount().add(BigDecimal.ONE).toPlainString());
+    }
+
+    @Test
+    public void comparesVatBreakdownPerCategoryAndRate() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Vat vat = invoice.getVatTotals().get(0);
+        Vat reduced = Vat.create().category(TaxCategory.STANDARD_RATE).rate(new BigDecimal("7.00"));
+        ItemTable table = ItemTable.create(2)
+                .addLine(100, null, "Buch", null, 1, "H87", 1000, 1000, TaxCategory.STANDARD_RATE, new BigDecimal("7"))
+                .addLine(101, null, "Buch", null, 1, "H87", 1000, 1000, TaxCategory.STANDARD_RATE, new BigDecimal("7"));
+        invoice.itemTable(table)
+                .lineTotalAmount(invoice.getLineTotalAmount().add(new BigDecimal("20.00")))
+                .taxBasisTotalAmount(invoice.getTaxBasisTotalAmount().add(new BigDecimal("20.00")))
+                .grandTotalAmount(invoice.getGrandTotalAmount().add(new BigDecimal("20.00")));
+
+        assertThat(rules(invoice)).containsExactly("BR-S-8");
+
+        reduced.taxableAmount(new BigDecimal("20.00")).taxAmount(new BigDecimal("2.40"));
+        invoice.vatTotals(List.of(vat, reduced));
+        invoice.taxTotalAmount(invoice.getTaxTotalAmount().add(new BigDecimal("2.40")))
+                .grandTotalAmount(invoice.getGrandTotalAmount().add(new BigDecimal("2.40")));
+
+        assertThat(rules(invoice)).containsExactly("BR-CO-17");
+
+        reduced.taxAmount(new BigDecimal("1.41"));
+        invoice.taxTotalAmount(invoice.getTaxTotalAmount().subtract(new BigDecimal("0.99")))
+                .grandTotalAmount(invoice.getGrandTotalAmount().subtract(new BigDecimal("0.99")));
+        assertThat(rules(invoice)).isEmpty();
+    }
+
+    @Test
+    public void requiresVatIdentifiersForReverseCharge() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Vat reverseCharge = Vat.create().category(TaxCategory.REVERSE_CHARGE).rate(BigDecimal.ZERO)
+                .taxableAmount(invoice.getTaxBasisTotalAmount()).taxAmount(BigDecimal.ZERO);
+        invoice.getItems().forEach(item -> item.vat(reverseCharge));
+        invoice.getCharges().forEach(charge -> charge.vatCategory(TaxCategory.REVERSE_CHARGE).vatRate(BigDecimal.ZERO));
+        invoice.vatTotals(List.of(reverseCharge))
+                .taxTotalAmount(BigDecimal.ZERO)
+                .grandTotalAmount(invoice.getTaxBasisTotalAmount());
+        invoice.getBuyer().vatId(null);
+
+        assertThat(rules(invoice)).containsExactly("BR-AE-2", "BR-AE-4");
+
+        invoice.getBuyer().vatId("ATU12345678");
+        invoice.getSeller().vatId("DE123456789");
+        assertThat(rules(invoice)).isEmpty();
+    }
+
+    private static List<String> rules(Invoice invoice) {
+        return InvoiceRuleChecker.getDefault().check(invoice).stream()
+                .map(InvoiceRuleChecker.Violation::getRule)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,146 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.xml.sax.SAXParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that the {@link InvoiceSchemaValidator} validates invoices from the writer and serialized documents.
+ * <p>
+ * The CII D16B schema is not part of Gallop, so the tests use two stand-in schemas. One checks the structure of the
+ * document down to the ExchangedDocument. The other checks the order and the data types of all elements that the
+ * writer produces, so every scenario is validated through it; it was written from the writer's output and catches
+ * changes of the structure, not deviations from D16B.
+ */
+public class InvoiceSchemaValidatorTest {
+    private static final InvoiceSchemaValidator VALIDATOR = new InvoiceSchemaValidator(
+            InvoiceSchemaValidatorTest.class.getResource("/schema/CrossIndustryInvoice_Structure.xsd"));
+    private static final InvoiceSchemaValidator PROFILE_VALIDATOR = new InvoiceSchemaValidator(
+            InvoiceSchemaValidatorTest.class.getResource("/schema/CrossIndustryInvoice_Profile.xsd"));
+
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_cash_payment",
+            "order_with_credit_and_surcharge",
+            "order_with_custom_line_item_type",
+            "order_with_customer_vatid",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_discount_code_and_shipping_costs_with_multiple_taxes",
+            "order_with_payment_in_advance",
+            "order_with_paypal",
+            "order_with_paypal_credit_card",
+            "order_with_paypal_direct_debit",
+            "order_with_paypal_invoice",
+            "order_with_shipping_costs_with_multiple_taxes",
+            "order_with_tax_free_product"
+    })
+    public void acceptsScenario(String testFile) {
+        Invoice invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+
+        assertThat(PROFILE_VALIDATOR.validate(invoice)).isEmpty();
+        assertThat(PROFILE_VALIDATOR.validate(XRechnungWriter.generateXRechnungXML(invoice))).isEmpty();
+    }
+
+    @Test
+    public void reportsInvalidCode() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class)
+                .currency("Euro");
+
+        assertThat(PROFILE_VALIDATOR.validate(invoice)).isNotEmpty();
+        assertThat(PROFILE_VALIDATOR.validate(XRechnungWriter.generateXRechnungXML(invoice))).isNotEmpty();
+    }
+
+    @Test
+    public void requiresSchemaOnClassPathForDefault() {
+        assertThatThrownBy(InvoiceSchemaValidator::getDefault)
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining(InvoiceSchemaValidator.DEFAULT_SCHEMA_RESOURCE);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_cash_payment",
+            "order_with_paypal",
+            "order_with_tax_free_product"
+    })
+    public void acceptsValidInvoice(String testFile) throws IOException {
+        Invoice invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+        byte[] xml;
+        try (InputStream input = testHelper.loadResource(testFile + "/xrechnung.xml")) {
+            xml = input.readAllBytes();
+        }
+
+        assertThat(VALIDATOR.validate(invoice)).isEmpty();
+        assertThat(VALIDATOR.validate(xml)).isEmpty();
+    }
+
+    @Test
+    public void reportsErrors() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class)
+                .documentTypeCode("INVOICE");
+
+        List<SAXParseException> errors = VALIDATOR.validate(invoice);
+        assertThat(errors).isNotEmpty();
+        assertThat(errors.get(0).getMessage()).contains("INVOICE");
+
+        List<SAXParseException> serializedErrors = VALIDATOR.validate(XRechnungWriter.generateXRechnungXML(invoice));
+        assertThat(serializedErrors).hasSameSizeAs(errors);
+        assertThat(serializedErrors.get(0).getLineNumber()).isGreaterThan(1);
+
+        Invoice valid = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        assertThat(VALIDATOR.validate(valid)).isEmpty();
+    }
+
+    @Test
+    public void reportsMalformedDocument() {
+        String xml = "<rsm:CrossIndustryInvoice"
+                + " xmlns:rsm=\"urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100\">"
+                + "<rsm:ExchangedDocumentContext>";
+
+        assertThat(VALIDATOR.validate(xml.getBytes(StandardCharsets.UTF_8))).hasSize(1);
+        String doctype = "<!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><x>&e;</x>";
+        assertThat(VALIDATOR.validate(doctype.getBytes(StandardCharsets.UTF_8)).stream()
+                .map(SAXParseException::getMessage)
+                .filter(message -> message.contains("accessExternalDTD"))
+                .count()).isEqualTo(1);
+    }
+
+    @Test
+    public void validatesOnManyThreads() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Invoice invalid = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class)
+                .documentTypeCode("INVOICE");
+
+        List<Integer> errorCounts = IntStream.range(0, 200).parallel()
+                .mapToObj(i -> VALIDATOR.validate(i % 2 == 0 ? invoice : invalid).size())
+                .collect(Collectors.toList());
+
+        assertThat(errorCounts.stream().filter(count -> count == 0).count()).isEqualTo(100);
+    }
+
+    @Test
+    public void rejectsInvalidSchema() {
+        assertThatThrownBy(() -> new InvoiceSchemaValidator(
+                InvoiceSchemaValidatorTest.class.getResource("/invoice/order_with_paypal/xrechnung.xml")))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,106 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that pushing the line items one by one produces the same document as {@link XRechnungWriter}.
+ */
+public class InvoiceStreamWriterTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_credit_and_surcharge",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_paypal",
+            "order_with_tax_free_product"
+    })
+    public void writesSameDocumentAsXRechnungWriter(String testFile) throws IOException {
+        Invoice invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+        byte[] expected = XRechnungWriter.generateXRechnungXML(invoice);
+
+        var output = new ByteArrayOutputStream();
+        var writer = new InvoiceStreamWriter(output);
+        writer.begin(invoice);
+        for (Item item : invoice.getItems()) {
+            writer.writeItem(item);
+        }
+        writer.finish(invoice);
+
+        assertThat(output.toByteArray()).isEqualTo(expected);
+    }
+
+    @Test
+    public void streamsItemsWithoutKeepingThem() throws IOException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item template = invoice.getItems().get(0);
+        invoice.clearItems();
+
+        var output = new ByteArrayOutputStream();
+        var writer = new InvoiceStreamWriter(output);
+        writer.begin(invoice);
+        for (long id = 1; id <= 1000; id++) {
+            writer.writeItem(item(template, id));
+        }
+        int streamed = output.size();
+        writer.finish(invoice);
+
+        for (long id = 1; id <= 1000; id++) {
+            invoice.addItem(item(template, id));
+        }
+        assertThat(streamed).isGreaterThan(100_000);
+        assertThat(output.toByteArray()).isEqualTo(XRechnungWriter.generateXRechnungXML(invoice));
+    }
+
+    @Test
+    public void flushWritesBufferedBytes() throws IOException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        var output = new ByteArrayOutputStream();
+        var writer = new InvoiceStreamWriter(output);
+        writer.begin(invoice);
+        assertThat(output.size()).isZero();
+
+        writer.flush();
+
+        assertThat(output.toString()).contains("</rsm:ExchangedDocument>");
+    }
+
+    @Test
+    public void rejectsCallsInWrongOrder() throws IOException {
+        Invoice invoice = Invoice.create();
+        var writer = new InvoiceStreamWriter(new ByteArrayOutputStream());
+        assertThatThrownBy(() -> writer.writeItem(Item.create())).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> writer.finish(invoice)).isInstanceOf(IllegalStateException.class);
+
+        writer.begin(invoice);
+        assertThatThrownBy(() -> writer.begin(invoice)).isInstanceOf(IllegalStateException.class);
+
+        writer.finish(invoice);
+        assertThatThrownBy(() -> writer.writeItem(Item.create())).isInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> writer.finish(invoice)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static Item item(Item template, long id) {
+        return Item.create()
+                .id(id)
+                .name(template.getName() + " " + id)
+                .quantity(id)
+                .unitCode(template.getUnitCode())
+                .unitPrice(BigDecimal.valueOf(id, 2))
+                .itemTotalNetAmount(BigDecimal.valueOf(id * id, 2))
+                .vat(template.getVat());
+    }
+}
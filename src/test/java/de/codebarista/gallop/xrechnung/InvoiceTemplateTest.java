@@ -0,0 +1,97 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.PaymentInstructions;
+import de.codebarista.gallop.xrechnung.model.SellerOrBuyer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that an {@link InvoiceTemplate} does not change the rendered document.
+ */
+public class InvoiceTemplateTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_cash_payment",
+            "order_with_credit_and_surcharge",
+            "order_with_custom_line_item_type",
+            "order_with_customer_vatid",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_discount_code_and_shipping_costs_with_multiple_taxes",
+            "order_with_payment_in_advance",
+            "order_with_paypal",
+            "order_with_paypal_credit_card",
+            "order_with_paypal_direct_debit",
+            "order_with_paypal_invoice",
+            "order_with_shipping_costs_with_multiple_taxes",
+            "order_with_tax_free_product"
+    })
+    public void templateWritesSameXml(String testFile) throws ParserConfigurationException, TransformerException,
+            IOException {
+        Invoice invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+        InvoiceTemplate template = InvoiceTemplate.compile(invoice.getSeller(), invoice.getPaymentInstructions());
+
+        assertThat(new String(new XRechnungWriter(invoice).template(template).getXML()))
+                .isEqualTo(new String(expected));
+        assertThat(new XRechnungEngine(XmlBackend.DIRECT, template).render(invoice)).isEqualTo(expected);
+        var output = new ByteArrayOutputStream();
+        new XRechnungWriter(invoice).template(template).writeTo(output);
+        assertThat(output.toByteArray()).isEqualTo(expected);
+    }
+
+    @Test
+    public void usesSegmentsOnlyForMatchingData() throws ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal_direct_debit/invoice.json", Invoice.class);
+        InvoiceTemplate template = InvoiceTemplate.compile(invoice.getSeller(), invoice.getPaymentInstructions());
+        PaymentInstructions payment = invoice.getPaymentInstructions();
+
+        assertThat(template.getSellerSegment(template.getSeller())).isNotNull();
+        assertThat(template.getSellerSegment(invoice.getSeller())).isNotNull();
+        assertThat(template.getPaymentMeansSegment(payment.remittanceInfo("Other reference"))).isNotNull();
+        assertThat(template.getPaymentMeansSegment(PaymentInstructions.create())).isNull();
+
+        invoice.seller(SellerOrBuyer.create().name("Another seller"));
+        payment.paymentTerms("Other terms");
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        assertThat(template.getSellerSegment(invoice.getSeller())).isNull();
+        assertThat(template.getPaymentTermsSegment(payment)).isNull();
+        assertThat(new XRechnungWriter(invoice).template(template).getXML()).isEqualTo(expected);
+    }
+
+    @Test
+    public void keepsFrozenCopies() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        InvoiceTemplate template = InvoiceTemplate.compile(invoice.getSeller(), invoice.getPaymentInstructions());
+
+        invoice.getSeller().name("Renamed");
+
+        assertThat(template.getSeller().getName()).isNotEqualTo("Renamed");
+        assertThat(template.getSellerSegment(invoice.getSeller())).isNull();
+    }
+
+    @Test
+    public void otherBackendsIgnoreTemplate() throws ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        InvoiceTemplate template = InvoiceTemplate.compile(invoice.getSeller(), invoice.getPaymentInstructions());
+
+        for (XmlBackend backend : XmlBackend.values()) {
+            assertThat(new XRechnungWriter(invoice, backend).template(template).getXML())
+                    .isEqualTo(new XRechnungWriter(invoice).getXML());
+        }
+    }
+}
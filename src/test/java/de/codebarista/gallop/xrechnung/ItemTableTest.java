@@ -0,0 +1,95 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemTable;
+import de.codebarista.gallop.xrechnung.model.TaxCategory;
+import de.codebarista.gallop.xrechnung.model.Vat;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that the lines of an {@link ItemTable} are written exactly like the equivalent {@link Item}s.
+ */
+public class ItemTableTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void writesLinesLikeItems(XmlBackend backend) throws ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        List<Item> items = new ArrayList<>();
+        Vat reduced = Vat.create().category(TaxCategory.STANDARD_RATE).rate(new BigDecimal("7.00"));
+        for (long id = 10; id < 200; id++) {
+            items.add(Item.create()
+                    .id(id)
+                    .sellerAssignedId(id % 3 == 0 ? "SKU-" + id : null)
+                    .name(id % 2 == 0 ? "Minutes <national>" : "Data & roaming")
+                    .description(id % 5 == 0 ? "Tarif für März" : null)
+                    .quantity(id - 100)
+                    .unitCode(id % 2 == 0 ? "MIN" : "E34")
+                    .unitPrice(BigDecimal.valueOf(id % 7 - 3, 2))
+                    .itemTotalNetAmount(BigDecimal.valueOf(id * (id - 100), 2))
+                    .vat(id % 4 == 0 ? reduced : id % 11 == 0 ? null : invoice.getItems().get(0).getVat()));
+        }
+        invoice.items(items);
+        byte[] expected = new XRechnungWriter(invoice, XmlBackend.DOM).getXML();
+
+        ItemTable table = ItemTable.create(2);
+        items.forEach(table::addLine);
+        invoice.clearItems();
+        invoice.itemTable(table);
+
+        assertThat(new String(new XRechnungWriter(invoice, backend).getXML())).isEqualTo(new String(expected));
+        assertThat(new XRechnungWriter(invoice, backend).computeSize()).isEqualTo(expected.length);
+    }
+
+    @Test
+    public void writesTableAfterItems() throws ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item first = invoice.getItems().get(0);
+        Item second = Item.create().id(2L).name("Second").quantity(3L).unitCode("H87")
+                .unitPrice(new BigDecimal("1.50")).itemTotalNetAmount(new BigDecimal("4.50")).vat(first.getVat());
+        invoice.addItem(second);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        invoice.items(List.of(first));
+        invoice.itemTable(ItemTable.create(2).addLine(second));
+
+        assertThat(new XRechnungWriter(invoice).getXML()).isEqualTo(expected);
+    }
+
+    @Test
+    public void encodesValuesInDictionaries() {
+        ItemTable table = ItemTable.create(3)
+                .addLine(1, null, "Call", null, 10, "MIN", 120, 1200, TaxCategory.STANDARD_RATE, BigDecimal.TEN)
+                .addLine(2, "X", "Call", "Desc", 20, "MIN", -5, -100, null, null);
+
+        assertThat(table.size()).isEqualTo(2);
+        assertThat(table.getName(1)).isSameAs(table.getName(0));
+        assertThat(table.getUnitPrice(0)).isEqualTo(new BigDecimal("0.120"));
+        assertThat(table.getLineTotalAmount(1)).isEqualTo(new BigDecimal("-0.100"));
+        assertThat(table.hasVat(0)).isTrue();
+        assertThat(table.hasVat(1)).isFalse();
+        assertThat(table.getVatCategory(1)).isNull();
+        assertThatThrownBy(() -> table.getId(2)).isInstanceOf(IndexOutOfBoundsException.class);
+    }
+
+    @Test
+    public void rejectsAmountsWithOtherScale() {
+        Item item = Item.create().id(1L).quantity(1L)
+                .unitPrice(new BigDecimal("1.5")).itemTotalNetAmount(new BigDecimal("1.50"));
+        assertThatThrownBy(() -> ItemTable.create(2).addLine(item)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
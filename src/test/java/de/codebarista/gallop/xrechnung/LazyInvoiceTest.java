@@ -0,0 +1,126 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that a {@link LazyInvoice} reads the header eagerly and the line items on demand.
+ */
+public class LazyInvoiceTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void readsHeaderEagerlyAndLineItemsOnDemand() throws IOException {
+        Invoice original = invoiceWithItems(2000);
+        byte[] xml = XRechnungWriter.generateXRechnungXML(original);
+        Path file = Files.write(directory.resolve("invoice.xml"), xml);
+        Invoice expected = XRechnungReader.getDefault().read(xml);
+
+        LazyInvoice lazy = XRechnungReader.getDefault().readLazily(file);
+
+        Invoice header = lazy.getInvoice();
+        assertThat(header.getItems()).isEmpty();
+        assertThat(XRechnungWriter.generateXRechnungXML(header.items(expected.getItems()))).isEqualTo(xml);
+
+        List<Item> items = new ArrayList<>();
+        lazy.lineItems().forEachRemaining(items::add);
+        assertThat(frozen(items)).isEqualTo(frozen(expected.getItems()));
+        try (Stream<Item> stream = lazy.streamLineItems()) {
+            assertThat(frozen(stream.collect(Collectors.toList()))).isEqualTo(frozen(expected.getItems()));
+        }
+    }
+
+    @Test
+    public void runsIndependentPasses() throws IOException {
+        Invoice original = invoiceWithItems(10);
+        Path file = Files.write(directory.resolve("invoice.xml"), XRechnungWriter.generateXRechnungXML(original));
+        LazyInvoice lazy = XRechnungReader.getDefault().readLazily(file);
+
+        Iterator<Item> first = lazy.lineItems();
+        Iterator<Item> second = lazy.lineItems();
+        assertThat(first.next().getId()).isEqualTo(1L);
+        assertThat(first.next().getId()).isEqualTo(2L);
+        assertThat(second.next().getId()).isEqualTo(1L);
+        try (Stream<Item> stream = lazy.streamLineItems()) {
+            assertThat(stream.skip(8).map(Item::getId).collect(Collectors.toList())).containsExactly(9L, 10L);
+        }
+
+        Iterator<Item> exhausted = lazy.lineItems();
+        for (int i = 0; i < 10; i++) {
+            exhausted.next();
+        }
+        assertThat(exhausted.hasNext()).isFalse();
+        assertThatThrownBy(exhausted::next).isInstanceOf(NoSuchElementException.class);
+    }
+
+    @Test
+    public void closesAbandonedPass() throws IOException {
+        Invoice original = invoiceWithItems(10);
+        Path file = Files.write(directory.resolve("invoice.xml"), XRechnungWriter.generateXRechnungXML(original));
+        LazyInvoice lazy = XRechnungReader.getDefault().readLazily(file);
+
+        XRechnungReader.LineItemIterator items = lazy.lineItems();
+        assertThat(items.next().getId()).isEqualTo(1L);
+        assertThat(items.hasNext()).isTrue();
+        items.close();
+
+        assertThat(items.hasNext()).isFalse();
+        assertThatThrownBy(items::next).isInstanceOf(NoSuchElementException.class);
+        items.close();
+    }
+
+    @Test
+    public void readsInvoiceWithoutLineItems() throws IOException {
+        Invoice original = invoiceWithItems(0);
+        Path file = Files.write(directory.resolve("invoice.xml"), XRechnungWriter.generateXRechnungXML(original));
+
+        LazyInvoice lazy = XRechnungReader.getDefault().readLazily(file);
+
+        assertThat(lazy.getInvoice().getDocumentId()).isEqualTo(original.getDocumentId());
+        assertThat(lazy.lineItems().hasNext()).isFalse();
+    }
+
+    private Invoice invoiceWithItems(int count) {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item template = invoice.getItems().get(0);
+        List<Item> items = new ArrayList<>();
+        for (long id = 1; id <= count; id++) {
+            items.add(Item.create()
+                    .id(id)
+                    .name(template.getName() + " für Größe " + id + " & <mehr>")
+                    .quantity(id)
+                    .unitCode(template.getUnitCode())
+                    .unitPrice(BigDecimal.valueOf(id, 2))
+                    .itemTotalNetAmount(BigDecimal.valueOf(id * id, 2))
+                    .vat(template.getVat()));
+        }
+        return invoice.items(items);
+    }
+
+    /**
+     * Returns frozen copies of the items, which compare by value.
+     */
+    private static List<Item> frozen(List<Item> items) {
+        return Invoice.create().items(items).freeze().getItems();
+    }
+}
@@ -0,0 +1,120 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemAttribute;
+import org.junit.jupiter.api.Test;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that a {@link ProductFragmentCache} does not change the rendered document.
+ */
+public class ProductFragmentCacheTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @Test
+    public void writesSameXmlWithCache() throws ParserConfigurationException, TransformerException {
+        ProductFragmentCache cache = new ProductFragmentCache(100);
+        Invoice invoice = invoiceWithProducts(40, 10);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        assertThat(new String(new XRechnungWriter(invoice).productCache(cache).getXML()))
+                .isEqualTo(new String(expected));
+        assertThat(cache.getMisses()).isEqualTo(10);
+        assertThat(cache.getHits()).isEqualTo(30);
+
+        assertThat(new XRechnungWriter(invoice).productCache(cache).getXML()).isEqualTo(expected);
+        assertThat(cache.getMisses()).isEqualTo(10);
+        assertThat(cache.getHits()).isEqualTo(70);
+        assertThat(cache.size()).isEqualTo(10);
+    }
+
+    @Test
+    public void rendersChangedProductsAgain() throws ParserConfigurationException, TransformerException {
+        ProductFragmentCache cache = new ProductFragmentCache(100);
+        Invoice invoice = invoiceWithProducts(4, 2);
+        new XRechnungWriter(invoice).productCache(cache).getXML();
+
+        invoice.getItems().get(0).name("Renamed <product>");
+        invoice.getItems().get(1).addItemAttribute(ItemAttribute.create().name("Size").value("XL"));
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        assertThat(new XRechnungWriter(invoice).productCache(cache).getXML()).isEqualTo(expected);
+        assertThat(cache.getMisses()).isEqualTo(4);
+        assertThat(cache.getHits()).isEqualTo(4);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedProducts() throws ParserConfigurationException, TransformerException {
+        ProductFragmentCache cache = new ProductFragmentCache(3);
+        Invoice invoice = invoiceWithProducts(5, 5);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        assertThat(new XRechnungWriter(invoice).productCache(cache).getXML()).isEqualTo(expected);
+        assertThat(cache.size()).isEqualTo(3);
+
+        cache.clear();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getMisses()).isZero();
+    }
+
+    @Test
+    public void skipsItemsWithoutSellerAssignedId() throws ParserConfigurationException, TransformerException {
+        ProductFragmentCache cache = new ProductFragmentCache(10);
+        Invoice invoice = testHelper.deserialize("order_with_allowance/invoice.json", Invoice.class);
+        invoice.getItems().forEach(item -> item.sellerAssignedId(null));
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        assertThat(new XRechnungWriter(invoice).productCache(cache).getXML()).isEqualTo(expected);
+        assertThat(cache.getHits() + cache.getMisses()).isZero();
+    }
+
+    @Test
+    public void worksWithParallelLineItemsAndEngine() throws ParserConfigurationException, TransformerException {
+        ProductFragmentCache cache = new ProductFragmentCache(100);
+        Invoice invoice = invoiceWithProducts(500, 20);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        byte[] parallel = new XRechnungWriter(invoice).productCache(cache)
+                .parallelLineItems(new ForkJoinPool(4), 16).getXML();
+        assertThat(parallel).isEqualTo(expected);
+        assertThat(new XRechnungEngine(XmlBackend.DIRECT, null, cache).render(invoice)).isEqualTo(expected);
+        assertThat(cache.getHits() + cache.getMisses()).isEqualTo(1000);
+    }
+
+    @Test
+    public void rejectsEmptyCache() {
+        assertThatThrownBy(() -> new ProductFragmentCache(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private Invoice invoiceWithProducts(int lines, int products) {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item template = invoice.getItems().get(0);
+        List<Item> items = new ArrayList<>();
+        for (long id = 1; id <= lines; id++) {
+            long product = id % products;
+            items.add(Item.create()
+                    .id(id)
+                    .sellerAssignedId("SKU-" + product)
+                    .name("Produkt Nr. " + product + " für Größe <M> & <L>")
+                    .description(product % 2 == 0 ? "Beschreibung " + product : null)
+                    .quantity(id)
+                    .unitCode(template.getUnitCode())
+                    .unitPrice(BigDecimal.valueOf(product * 100 + 99, 2))
+                    .itemTotalNetAmount(BigDecimal.valueOf((product * 100 + 99) * id, 2))
+                    .vat(template.getVat())
+                    .addItemAttribute(ItemAttribute.create().name("Farbe").value(product % 3 == 0 ? "Blau" : "Grün")));
+        }
+        return invoice.items(items);
+    }
+}
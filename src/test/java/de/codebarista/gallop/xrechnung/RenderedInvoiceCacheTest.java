@@ -0,0 +1,179 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that a {@link RenderedInvoiceCache} returns the rendered documents and stays within its size.
+ */
+public class RenderedInvoiceCacheTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @Test
+    public void returnsCachedDocumentForEqualInvoices() throws IOException {
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(1 << 20);
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        byte[] expected = XRechnungWriter.generateXRechnungXML(invoice);
+
+        assertThat(cache.render(invoice)).isEqualTo(expected);
+        assertThat(cache.render(testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class)))
+                .isEqualTo(expected);
+        var output = new ByteArrayOutputStream();
+        cache.writeTo(invoice.freeze(), output);
+        assertThat(output.toByteArray()).isEqualTo(expected);
+
+        assertThat(cache.getMisses()).isEqualTo(1);
+        assertThat(cache.getHits()).isEqualTo(2);
+        assertThat(cache.getHitRate()).isEqualTo(2 / 3.0);
+        assertThat(cache.size()).isEqualTo(1);
+        assertThat(cache.getBytes()).isEqualTo(expected.length + RenderedInvoiceCache.ENTRY_OVERHEAD);
+    }
+
+    @Test
+    public void rendersChangedInvoiceAgain() {
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(1 << 20);
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        byte[] original = cache.render(invoice);
+
+        invoice.documentId("Changed");
+        assertThat(cache.render(invoice)).isEqualTo(XRechnungWriter.generateXRechnungXML(invoice));
+
+        invoice.documentId(testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class).getDocumentId());
+        assertThat(cache.render(invoice)).isEqualTo(original);
+        assertThat(cache.getMisses()).isEqualTo(2);
+        assertThat(cache.getHits()).isEqualTo(1);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedDocumentsBeyondMaxBytes() {
+        Invoice first = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Invoice second = testHelper.deserialize("order_with_allowance/invoice.json", Invoice.class);
+        Invoice third = testHelper.deserialize("order_with_cash_payment/invoice.json", Invoice.class);
+        long size = entrySize(first) + entrySize(second) + entrySize(third);
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(XRechnungEngine.getDefault(), size - 1, false);
+
+        cache.render(first);
+        cache.render(second);
+        cache.render(first);
+        cache.render(third);
+
+        assertThat(cache.getEvictions()).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.getBytes()).isLessThanOrEqualTo(size - 1);
+        cache.render(first);
+        assertThat(cache.getHits()).isEqualTo(2);
+        cache.render(second);
+        assertThat(cache.getMisses()).isEqualTo(4);
+    }
+
+    @Test
+    public void movesEvictedDocumentsBackFromSoftTier() {
+        Invoice first = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Invoice second = testHelper.deserialize("order_with_allowance/invoice.json", Invoice.class);
+        long size = Math.max(entrySize(first), entrySize(second));
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(XRechnungEngine.getDefault(), size, true);
+
+        byte[] expected = cache.render(first);
+        cache.render(second);
+        assertThat(cache.getEvictions()).isEqualTo(1);
+
+        assertThat(cache.render(first)).isEqualTo(expected);
+        assertThat(cache.getSoftHits()).isEqualTo(1);
+        assertThat(cache.getMisses()).isEqualTo(2);
+        assertThat(cache.getEvictions()).isEqualTo(2);
+
+        cache.clear();
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getBytes()).isZero();
+        assertThat(cache.getSoftHits()).isZero();
+        cache.render(second);
+        assertThat(cache.getMisses()).isEqualTo(1);
+    }
+
+    @Test
+    public void boundsSoftTierByMaxBytes() {
+        Invoice first = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Invoice second = testHelper.deserialize("order_with_allowance/invoice.json", Invoice.class);
+        Invoice third = testHelper.deserialize("order_with_cash_payment/invoice.json", Invoice.class);
+        long size = Math.max(entrySize(first), Math.max(entrySize(second), entrySize(third)));
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(XRechnungEngine.getDefault(), size, true);
+
+        cache.render(first);
+        cache.render(second);
+        cache.render(third);
+        assertThat(cache.getEvictions()).isEqualTo(2);
+
+        cache.render(first);
+        assertThat(cache.getSoftHits()).isZero();
+        assertThat(cache.getMisses()).isEqualTo(4);
+    }
+
+    @Test
+    public void doesNotCacheDocumentsLargerThanMaxBytes() {
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(100);
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+
+        assertThat(cache.render(invoice)).isEqualTo(XRechnungWriter.generateXRechnungXML(invoice));
+        assertThat(cache.size()).isZero();
+        assertThat(cache.getBytes()).isZero();
+    }
+
+    @Test
+    public void returnsCopies() {
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(1 << 20);
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+
+        cache.render(invoice)[0] = 0;
+        assertThat(cache.render(invoice)[0]).isEqualTo((byte) '<');
+    }
+
+    @Test
+    public void returnsReadOnlyViews() {
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(1 << 20);
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        byte[] expected = XRechnungWriter.generateXRechnungXML(invoice);
+
+        ByteBuffer view = cache.view(invoice);
+        byte[] document = new byte[view.remaining()];
+        view.get(document);
+
+        assertThat(document).isEqualTo(expected);
+        assertThat(cache.view(invoice).isReadOnly()).isTrue();
+        assertThatThrownBy(() -> cache.view(invoice).put(0, (byte) 0)).isInstanceOf(ReadOnlyBufferException.class);
+    }
+
+    @Test
+    public void keepsFingerprintWithSnapshot() {
+        RenderedInvoiceCache cache = new RenderedInvoiceCache(1 << 20);
+        Invoice snapshot = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class).freeze();
+
+        byte[] document = cache.render(snapshot);
+        Object fingerprint = snapshot.fingerprint(invoice -> {
+            throw new AssertionError("The fingerprint has been computed already");
+        });
+
+        assertThat(cache.render(snapshot)).isEqualTo(document);
+        assertThat(snapshot.fingerprint(invoice -> null)).isSameAs(fingerprint);
+        assertThat(cache.getHits()).isEqualTo(1);
+        assertThatThrownBy(() -> Invoice.create().fingerprint(invoice -> "key"))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    public void rejectsEmptyCache() {
+        assertThatThrownBy(() -> new RenderedInvoiceCache(0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static long entrySize(Invoice invoice) {
+        return XRechnungWriter.computeSize(invoice) + RenderedInvoiceCache.ENTRY_OVERHEAD;
+    }
+}
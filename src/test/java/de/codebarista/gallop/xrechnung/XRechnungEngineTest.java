@@ -0,0 +1,83 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that an {@link XRechnungEngine} reuses its resources without changing the documents it renders.
+ */
+public class XRechnungEngineTest {
+    private static final String[] TEST_FILES = {
+            "order_with_allowance",
+            "order_with_cash_payment",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_paypal",
+            "order_with_tax_free_product"
+    };
+
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void repeatedRenderingWritesSameDocument(XmlBackend backend)
+            throws ParserConfigurationException, TransformerException {
+        var engine = new XRechnungEngine(backend);
+        for (String testFile : TEST_FILES) {
+            Invoice invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+            byte[] expected = new XRechnungWriter(invoice, XmlBackend.DOM).getXML();
+
+            assertThat(engine.render(invoice)).as(testFile).isEqualTo(expected);
+            var output = new ByteArrayOutputStream();
+            engine.render(invoice, output);
+            assertThat(output.toByteArray()).as(testFile).isEqualTo(expected);
+            assertThat(engine.render(invoice)).as(testFile).isEqualTo(expected);
+        }
+    }
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void concurrentRenderingWritesSameDocuments(XmlBackend backend) throws Exception {
+        List<Invoice> invoices = new ArrayList<>();
+        List<byte[]> expected = new ArrayList<>();
+        for (String testFile : TEST_FILES) {
+            Invoice invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+            invoices.add(invoice);
+            expected.add(new XRechnungWriter(invoice, XmlBackend.DOM).getXML());
+        }
+
+        var engine = new XRechnungEngine(backend);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<byte[]>> results = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                Invoice invoice = invoices.get(i % invoices.size());
+                results.add(executor.submit(() -> engine.render(invoice)));
+            }
+            for (int i = 0; i < results.size(); i++) {
+                assertThat(results.get(i).get()).isEqualTo(expected.get(i % expected.size()));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void defaultEngineUsesDirectBackend() {
+        assertThat(XRechnungEngine.getDefault().getBackend()).isEqualTo(XmlBackend.DIRECT);
+        assertThat(XRechnungEngine.getDefault()).isSameAs(XRechnungEngine.getDefault());
+    }
+}
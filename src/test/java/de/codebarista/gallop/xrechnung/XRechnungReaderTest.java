@@ -0,0 +1,133 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.TaxCategory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.xmlunit.assertj.XmlAssert;
+import org.xmlunit.builder.Input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that the {@link XRechnungReader} reads every element that the {@link XRechnungWriter} writes,
+ * so that reading and writing an XRechnung again yields the same document.
+ */
+public class XRechnungReaderTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_cash_payment",
+            "order_with_credit_and_surcharge",
+            "order_with_custom_line_item_type",
+            "order_with_customer_vatid",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_discount_code_and_shipping_costs_with_multiple_taxes",
+            "order_with_payment_in_advance",
+            "order_with_paypal",
+            "order_with_paypal_credit_card",
+            "order_with_paypal_direct_debit",
+            "order_with_paypal_invoice",
+            "order_with_shipping_costs_with_multiple_taxes",
+            "order_with_tax_free_product"
+    })
+    public void roundTripsScenario(String testFile) throws IOException {
+        byte[] expected;
+        try (InputStream input = testHelper.loadResource(testFile + "/xrechnung.xml")) {
+            expected = input.readAllBytes();
+        }
+
+        Invoice invoice = XRechnungReader.getDefault().read(expected);
+        byte[] written = XRechnungWriter.generateXRechnungXML(invoice);
+        XmlAssert.assertThat(Input.fromByteArray(written))
+                .and(Input.fromByteArray(expected))
+                .ignoreWhitespace()
+                .ignoreComments()
+                .areIdentical();
+
+        Invoice original = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+        byte[] generated = XRechnungWriter.generateXRechnungXML(original);
+        assertThat(XRechnungWriter.generateXRechnungXML(new XRechnungReader().read(generated))).isEqualTo(generated);
+    }
+
+    @Test
+    public void readsValuesIntoModel() {
+        Invoice original = testHelper.deserialize("order_with_paypal_direct_debit/invoice.json", Invoice.class);
+        Invoice invoice = XRechnungReader.getDefault().read(XRechnungWriter.generateXRechnungXML(original));
+
+        assertThat(invoice.getDocumentId()).isEqualTo(original.getDocumentId());
+        assertThat(invoice.getIssueDate().toLocalDate()).isEqualTo(original.getIssueDate().toLocalDate());
+        assertThat(invoice.getCurrency()).isEqualTo("EUR");
+        assertThat(invoice.getSeller().getVatId()).isEqualTo(original.getSeller().getVatId());
+        assertThat(invoice.getSeller().getContact().getName()).isEqualTo(original.getSeller().getContact().getName());
+        assertThat(invoice.getBuyer().getAddress().getCity()).isEqualTo(original.getBuyer().getAddress().getCity());
+        assertThat(invoice.getGrandTotalAmount()).isEqualTo(original.getGrandTotalAmount());
+        assertThat(invoice.getItems()).hasSameSizeAs(original.getItems());
+        Item item = invoice.getItems().get(0);
+        assertThat(item.getName()).isEqualTo(original.getItems().get(0).getName());
+        assertThat(item.getUnitPrice()).isEqualTo(original.getItems().get(0).getUnitPrice());
+        assertThat(item.getVat().getCategory()).isEqualTo(TaxCategory.STANDARD_RATE);
+        assertThat(invoice.getPaymentInstructions().getMeansType())
+                .isEqualTo(original.getPaymentInstructions().getMeansType());
+    }
+
+    @Test
+    public void skipsUnknownElementsAndReadsForeignNotation() {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<rsm:CrossIndustryInvoice"
+                + " xmlns:rsm=\"urn:un:unece:uncefact:data:standard:CrossIndustryInvoice:100\""
+                + " xmlns:ram=\"urn:un:unece:uncefact:data:standard:ReusableAggregateBusinessInformationEntity:100\""
+                + " xmlns:udt=\"urn:un:unece:uncefact:data:standard:UnqualifiedDataType:100\">"
+                + "<rsm:ExchangedDocument><ram:ID>R-1</ram:ID><ram:Unknown><ram:ID>X</ram:ID></ram:Unknown>"
+                + "<ram:IssueDateTime><udt:DateTimeString format=\"102\">20250131</udt:DateTimeString>"
+                + "</ram:IssueDateTime></rsm:ExchangedDocument>"
+                + "<rsm:SupplyChainTradeTransaction><ram:IncludedSupplyChainTradeLineItem>"
+                + "<ram:AssociatedDocumentLineDocument><ram:LineID> 7 </ram:LineID>"
+                + "</ram:AssociatedDocumentLineDocument>"
+                + "<ram:SpecifiedLineTradeDelivery><ram:BilledQuantity unitCode=\"H87\">2.000</ram:BilledQuantity>"
+                + "</ram:SpecifiedLineTradeDelivery></ram:IncludedSupplyChainTradeLineItem>"
+                + "<ram:ApplicableHeaderTradeSettlement><ram:InvoiceCurrencyCode>EUR</ram:InvoiceCurrencyCode>"
+                + "<ram:SpecifiedTradeSettlementHeaderMonetarySummation>"
+                + "<ram:TaxTotalAmount currencyID=\"EUR\">19.00</ram:TaxTotalAmount>"
+                + "<ram:TaxTotalAmount currencyID=\"USD\">20.50</ram:TaxTotalAmount>"
+                + "</ram:SpecifiedTradeSettlementHeaderMonetarySummation></ram:ApplicableHeaderTradeSettlement>"
+                + "</rsm:SupplyChainTradeTransaction></rsm:CrossIndustryInvoice>";
+
+        Invoice invoice = XRechnungReader.getDefault().read(xml.getBytes(StandardCharsets.UTF_8));
+
+        assertThat(invoice.getDocumentId()).isEqualTo("R-1");
+        assertThat(invoice.getIssueDate().toLocalDate()).isEqualTo(LocalDate.of(2025, 1, 31));
+        assertThat(invoice.getItems()).hasSize(1);
+        assertThat(invoice.getItems().get(0).getId()).isEqualTo(7L);
+        assertThat(invoice.getItems().get(0).getQuantity()).isEqualTo(2L);
+        assertThat(invoice.getItems().get(0).getUnitCode()).isEqualTo("H87");
+        assertThat(invoice.getTaxTotalAmount()).isEqualTo(new BigDecimal("19.00"));
+        assertThat(invoice.getDeliveryInfo()).isNull();
+        assertThat(invoice.getPaymentInstructions()).isNull();
+    }
+
+    @Test
+    public void rejectsOtherDocuments() {
+        XRechnungReader reader = XRechnungReader.getDefault();
+        assertThatThrownBy(() -> reader.read("<Invoice/>".getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(XRechnungReaderException.class);
+        assertThatThrownBy(() -> reader.read("<rsm:CrossIndustryInvoice".getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(XRechnungReaderException.class);
+        String doctype = "<!DOCTYPE x [<!ENTITY e SYSTEM \"file:///etc/passwd\">]><x>&e;</x>";
+        assertThatThrownBy(() -> reader.read(doctype.getBytes(StandardCharsets.UTF_8)))
+                .isInstanceOf(XRechnungReaderException.class);
+    }
+}
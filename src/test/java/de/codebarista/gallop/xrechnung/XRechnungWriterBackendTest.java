@@ -0,0 +1,138 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.InvoiceNote;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemAttribute;
+import de.codebarista.gallop.xrechnung.model.SellerOrBuyer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that all {@link XmlBackend}s produce byte-identical XRechnung documents of the computed size.
+ */
+public class XRechnungWriterBackendTest {
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {
+            "order_with_allowance",
+            "order_with_belgian_tax_rates_and_document_comment",
+            "order_with_cash_payment",
+            "order_with_credit_and_surcharge",
+            "order_with_custom_line_item_type",
+            "order_with_customer_vatid",
+            "order_with_different_billing_and_shipping_address",
+            "order_with_discount_code_and_shipping_costs_with_multiple_taxes",
+            "order_with_payment_in_advance",
+            "order_with_paypal",
+            "order_with_paypal_credit_card",
+            "order_with_paypal_direct_debit",
+            "order_with_paypal_invoice",
+            "order_with_shipping_costs_with_multiple_taxes",
+            "order_with_tax_free_product"
+    })
+    public void backendsWriteIdenticalXml(String testFile) throws ParserConfigurationException, TransformerException {
+        TestHelper testHelper = new TestHelper("invoice");
+        var invoice = testHelper.deserialize(testFile + "/invoice.json", Invoice.class);
+        assertIdenticalForAllBackends(invoice);
+    }
+
+    @Test
+    public void backendsWriteIdenticalXmlForEmptyInvoice() throws ParserConfigurationException, TransformerException {
+        assertIdenticalForAllBackends(Invoice.create());
+    }
+
+    @Test
+    public void backendsEscapeTextIdentically() throws ParserConfigurationException, TransformerException {
+        assertIdenticalForAllBackends(Invoice.create()
+                .documentId("<&> \"quoted\" 'single' ]]>")
+                .seller(SellerOrBuyer.create().name("Line\r\nbreak\tand\u0001control\u0085"))
+                .invoiceNotes(List.of(InvoiceNote.create().note("Umlaute äöü, Euro € and emoji 😀")))
+                .items(List.of(Item.create()
+                        .name("  surrounding whitespace  ")
+                        .unitCode("XPP")
+                        .itemAttributes(List.of(ItemAttribute.create().name("").value(" "))))));
+    }
+
+    @Test
+    public void directBackendEscapesAttributesLikeDom() throws ParserConfigurationException, TransformerException {
+        Invoice invoice = Invoice.create()
+                .currency("<&> \"EUR\" 'x' \r\n\t\u0001 € 😀")
+                .taxTotalAmount(BigDecimal.ONE);
+        byte[] expected = new XRechnungWriter(invoice, XmlBackend.DOM).getXML();
+        byte[] actual = new XRechnungWriter(invoice, XmlBackend.DIRECT).getXML();
+        assertThat(new String(actual)).isEqualTo(new String(expected));
+        assertThat(XRechnungWriter.computeSize(invoice)).isEqualTo(expected.length);
+    }
+
+    @Test
+    public void computesSizeOfEscapedCharacters() throws ParserConfigurationException, TransformerException {
+        StringBuilder characters = new StringBuilder("<>&\"' ]]>");
+        for (char c = 0; c <= 0xA0; c++) {
+            characters.append(c);
+        }
+        characters.append("\u07FF\u0800\uFFFD\uFFFF").appendCodePoint(0x1F600).appendCodePoint(Character.MAX_CODE_POINT);
+        String text = characters.toString();
+
+        assertIdenticalForAllBackends(Invoice.create()
+                .documentId(text)
+                .invoiceNotes(List.of(InvoiceNote.create().note(text))));
+
+        Invoice withAttribute = Invoice.create().currency(text).taxTotalAmount(BigDecimal.ONE);
+        byte[] expected = new XRechnungWriter(withAttribute, XmlBackend.DOM).getXML();
+        assertThat(new String(new XRechnungWriter(withAttribute, XmlBackend.DIRECT).getXML())).isEqualTo(new String(expected));
+        assertThat(XRechnungWriter.computeSize(withAttribute)).isEqualTo(expected.length);
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @ValueSource(strings = {"\uD83D", "\uDE00", "a\uDE00\uD83D"})
+    public void rejectsIncompleteSurrogatePairs(String text) {
+        Invoice invoice = Invoice.create().documentId(text);
+        for (XmlBackend backend : List.of(XmlBackend.DIRECT, XmlBackend.STAX)) {
+            assertThatThrownBy(() -> new XRechnungWriter(invoice, backend).getXML()).as(backend.name())
+                    .isInstanceOf(XRechnungWriterException.class);
+        }
+        assertThatThrownBy(() -> XRechnungWriter.computeSize(invoice)).isInstanceOf(XRechnungWriterException.class);
+    }
+
+    @Test
+    public void computesSizeOfLargeInvoices() throws ParserConfigurationException, TransformerException {
+        TestHelper testHelper = new TestHelper("invoice");
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item template = invoice.getItems().get(0);
+        List<Item> items = new ArrayList<>();
+        for (long id = 1; id <= 2500; id++) {
+            items.add(Item.create()
+                    .id(id)
+                    .name("Größe " + id + " <XL> & \"mehr\" 😀")
+                    .quantity(id)
+                    .unitCode(template.getUnitCode())
+                    .unitPrice(BigDecimal.valueOf(id, 2))
+                    .itemTotalNetAmount(BigDecimal.valueOf(id * id, 2))
+                    .vat(template.getVat()));
+        }
+        assertIdenticalForAllBackends(invoice.items(items));
+    }
+
+    private static void assertIdenticalForAllBackends(Invoice invoice)
+            throws ParserConfigurationException, TransformerException {
+        byte[] expected = new XRechnungWriter(invoice, XmlBackend.DOM).getXML();
+        for (XmlBackend backend : XmlBackend.values()) {
+            byte[] actual = new XRechnungWriter(invoice, backend).getXML();
+            assertThat(new String(actual)).as(backend.name()).isEqualTo(new String(expected));
+            assertThat(actual).as(backend.name()).isEqualTo(expected);
+            assertThat(new XRechnungWriter(invoice, backend).computeSize()).as(backend.name())
+                    .isEqualTo(expected.length);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.InvoiceNote;
+import de.codebarista.gallop.xrechnung.model.Item;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import org.xmlunit.assertj.XmlAssert;
+import org.xmlunit.builder.Input;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
+import javax.xml.transform.stream.StreamResult;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that writing to a caller-supplied stream, channel, buffer or SAX handler produces the same document as
+ * {@link XRechnungWriter#getXML()}.
+ */
+public class XRechnungWriterOutputTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void writesToOutputStream(XmlBackend backend)
+            throws IOException, ParserConfigurationException, TransformerException {
+        Invoice invoice = largeInvoice();
+        var writer = new XRechnungWriter(invoice, backend);
+        var output = new ByteArrayOutputStream();
+        writer.writeTo(output);
+        assertThat(output.toByteArray()).isEqualTo(writer.getXML());
+    }
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void writesToChannel(XmlBackend backend)
+            throws IOException, ParserConfigurationException, TransformerException {
+        Invoice invoice = largeInvoice();
+        var writer = new XRechnungWriter(invoice, backend);
+        var output = new ByteArrayOutputStream();
+        writer.writeTo(Channels.newChannel(output));
+        assertThat(output.toByteArray()).isEqualTo(writer.getXML());
+    }
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void writesToByteBuffer(XmlBackend backend) throws ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        var writer = new XRechnungWriter(invoice, backend);
+        byte[] expected = writer.getXML();
+        ByteBuffer buffer = ByteBuffer.allocate(expected.length + 10);
+        buffer.position(10);
+
+        int written = writer.writeTo(buffer);
+
+        assertThat(written).isEqualTo(expected.length);
+        assertThat(buffer.position()).isEqualTo(expected.length + 10);
+        assertThat(buffer.array()).endsWith(expected);
+    }
+
+    @ParameterizedTest
+    @EnumSource(XmlBackend.class)
+    public void streamsTextLongerThanBuffer(XmlBackend backend)
+            throws IOException, ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        invoice.addInvoiceNote(InvoiceNote.create().note("Plain ASCII text, ".repeat(2000) + "<&> äöü"));
+        var writer = new XRechnungWriter(invoice, backend);
+        var output = new ByteArrayOutputStream();
+        writer.writeTo(output);
+        assertThat(output.toByteArray()).isEqualTo(new XRechnungWriter(invoice, XmlBackend.DOM).getXML());
+    }
+
+    @Test
+    public void writesToContentHandler() throws ParserConfigurationException, TransformerException {
+        var writer = new XRechnungWriter(largeInvoice());
+        var output = new ByteArrayOutputStream();
+        TransformerHandler handler = ((SAXTransformerFactory) TransformerFactory.newInstance()).newTransformerHandler();
+        handler.setResult(new StreamResult(output));
+
+        writer.writeTo(handler);
+
+        XmlAssert.assertThat(Input.fromByteArray(output.toByteArray()))
+                .and(Input.fromByteArray(writer.getXML()))
+                .ignoreWhitespace()
+                .areIdentical();
+    }
+
+    @Test
+    public void failsIfByteBufferIsTooSmall() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        assertThatThrownBy(() -> XRechnungWriter.generateXRechnungXML(invoice, ByteBuffer.allocate(100)))
+                .isInstanceOf(XRechnungWriterException.class);
+    }
+
+    @Test
+    public void passesIOExceptionOfStream() {
+        OutputStream failing = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        assertThatThrownBy(() -> new XRechnungWriter(largeInvoice(), XmlBackend.DIRECT).writeTo(failing))
+                .isInstanceOf(IOException.class)
+                .hasMessage("disk full");
+    }
+
+    @Test
+    public void staticOverloadsWriteSameDocument() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        byte[] expected = XRechnungWriter.generateXRechnungXML(invoice);
+
+        var output = new ByteArrayOutputStream();
+        XRechnungWriter.generateXRechnungXML(invoice, output);
+        assertThat(output.toByteArray()).isEqualTo(expected);
+
+        var channelOutput = new ByteArrayOutputStream();
+        XRechnungWriter.generateXRechnungXML(invoice, Channels.newChannel(channelOutput));
+        assertThat(channelOutput.toByteArray()).isEqualTo(expected);
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(expected.length);
+        assertThat(XRechnungWriter.generateXRechnungXML(invoice, buffer)).isEqualTo(expected.length);
+        byte[] actual = new byte[expected.length];
+        buffer.flip().get(actual);
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    /**
+     * An invoice that is large enough to flush the buffer of the direct backend several times.
+     */
+    private Invoice largeInvoice() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item template = invoice.getItems().get(0);
+        for (long id = 100; id < 400; id++) {
+            invoice.addItem(Item.create()
+                    .id(id)
+                    .name(template.getName() + " " + id)
+                    .quantity(id)
+                    .unitCode(template.getUnitCode())
+                    .unitPrice(BigDecimal.valueOf(id, 2))
+                    .itemTotalNetAmount(BigDecimal.valueOf(id * id, 2))
+                    .vat(template.getVat()));
+        }
+        return invoice;
+    }
+}
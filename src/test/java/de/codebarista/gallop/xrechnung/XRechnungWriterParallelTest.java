@@ -0,0 +1,102 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import de.codebarista.gallop.xrechnung.model.Item;
+import de.codebarista.gallop.xrechnung.model.ItemAttribute;
+import de.codebarista.gallop.xrechnung.model.ItemTable;
+import de.codebarista.gallop.xrechnung.model.TaxCategory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that rendering the line items in parallel produces the same document as the sequential path.
+ */
+public class XRechnungWriterParallelTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 7, 64, 999, 1000})
+    public void writesSameDocumentAsSequentialPath(int chunkSize)
+            throws ParserConfigurationException, TransformerException {
+        Invoice invoice = largeInvoice();
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        byte[] actual = new XRechnungWriter(invoice).parallelLineItems(chunkSize).getXML();
+
+        assertThat(actual).isEqualTo(expected);
+    }
+
+    @Test
+    public void streamsSameDocumentAsSequentialPath()
+            throws IOException, ParserConfigurationException, TransformerException {
+        Invoice invoice = largeInvoice();
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            var output = new ByteArrayOutputStream();
+            new XRechnungWriter(invoice).parallelLineItems(pool, 50).writeTo(output);
+            assertThat(output.toByteArray()).isEqualTo(expected);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 30, 999, 1100})
+    public void writesItemTableInParallel(int chunkSize) throws ParserConfigurationException, TransformerException {
+        Invoice invoice = largeInvoice();
+        ItemTable table = ItemTable.create(2);
+        for (int line = 0; line < 100; line++) {
+            table.addLine(2000 + line, null, "Call " + line, null, line, "MIN", 120, 120L * line,
+                    TaxCategory.STANDARD_RATE, BigDecimal.TEN);
+        }
+        invoice.itemTable(table);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            assertThat(new XRechnungWriter(invoice).parallelLineItems(pool, chunkSize).getXML()).isEqualTo(expected);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void otherBackendsIgnoreParallelLineItems() throws ParserConfigurationException, TransformerException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        byte[] expected = new XRechnungWriter(invoice).getXML();
+
+        for (XmlBackend backend : XmlBackend.values()) {
+            assertThat(new XRechnungWriter(invoice, backend).parallelLineItems(1).getXML())
+                    .as(backend.name())
+                    .isEqualTo(expected);
+        }
+    }
+
+    private Invoice largeInvoice() {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Item template = invoice.getItems().get(0);
+        for (long id = 100; id < 1099; id++) {
+            invoice.addItem(Item.create()
+                    .id(id)
+                    .name(template.getName() + " <" + id + "> äöü €")
+                    .quantity(id)
+                    .unitCode(template.getUnitCode())
+                    .unitPrice(BigDecimal.valueOf(id, 2))
+                    .itemTotalNetAmount(BigDecimal.valueOf(id * id, 2))
+                    .vat(template.getVat())
+                    .addItemAttribute(ItemAttribute.create().name("Size").value(id % 2 == 0 ? "" : "XL")));
+        }
+        return invoice;
+    }
+}
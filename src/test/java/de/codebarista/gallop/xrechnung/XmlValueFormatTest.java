@@ -0,0 +1,96 @@
+package de.codebarista.gallop.xrechnung;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifies that {@link XmlValueFormat} formats exactly like the JDK.
+ */
+public class XmlValueFormatTest {
+    @ParameterizedTest
+    @ValueSource(longs = {0, 1, -1, 9, 10, 99, 100, 123456789, -987654321, 999_999_999_999_999_999L,
+            1_000_000_000_000_000_000L, Long.MAX_VALUE, Long.MIN_VALUE, Long.MIN_VALUE + 1})
+    public void formatsLongs(long value) {
+        byte[] buffer = new byte[XmlValueFormat.MAX_LONG_LENGTH + 3];
+        int end = XmlValueFormat.formatLong(value, buffer, 3);
+        assertThat(new String(buffer, 3, end - 3, StandardCharsets.US_ASCII)).isEqualTo(Long.toString(value));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"0", "0.00", "-0.00", "1", "-1", "19", "7.0", "0.5", "-0.05", "129.50", "100.60",
+            "0.000001", "0.0000010", "0.00000012345678901234567", "123456789012345678", "12345678901234567.8",
+            "-99999999999999999.9", "1E+3", "0E-7", "0.0000001", "1234567890123456789", "1.234567890123456789",
+            "1E-10"})
+    public void formatsDecimals(String text) {
+        BigDecimal value = new BigDecimal(text);
+        if (XmlValueFormat.canFormat(value)) {
+            byte[] buffer = new byte[XmlValueFormat.MAX_DECIMAL_LENGTH + 3];
+            int end = XmlValueFormat.formatDecimal(value, buffer, 3);
+            assertThat(new String(buffer, 3, end - 3, StandardCharsets.US_ASCII)).isEqualTo(value.toString());
+        } else {
+            assertThat(value.scale() < 0 || value.precision() > 18 || value.toString().contains("E")).isTrue();
+        }
+    }
+
+    @Test
+    public void formatsRandomDecimals() {
+        Random random = new Random(42);
+        byte[] buffer = new byte[XmlValueFormat.MAX_DECIMAL_LENGTH];
+        for (int i = 0; i < 100_000; i++) {
+            int digits = 1 + random.nextInt(18);
+            long unscaled = random.nextLong() % (long) Math.pow(10, digits);
+            BigDecimal value = BigDecimal.valueOf(unscaled, random.nextInt(digits + 6));
+            if (XmlValueFormat.canFormat(value)) {
+                int end = XmlValueFormat.formatDecimal(value, buffer, 0);
+                assertThat(new String(buffer, 0, end, StandardCharsets.US_ASCII)).isEqualTo(value.toString());
+            }
+        }
+    }
+
+    @Test
+    public void formatsRandomUnscaledDecimals() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long unscaled = random.nextLong() >> random.nextInt(64);
+            int scale = random.nextInt(12);
+            BigDecimal value = BigDecimal.valueOf(unscaled, scale);
+            assertThat(XmlValueFormat.canFormat(unscaled, scale)).isEqualTo(!value.toString().contains("E"));
+            if (XmlValueFormat.canFormat(unscaled, scale)) {
+                byte[] buffer = new byte[XmlValueFormat.MAX_LONG_LENGTH + scale];
+                int end = XmlValueFormat.formatDecimal(unscaled, scale, buffer, 0);
+                assertThat(new String(buffer, 0, end, StandardCharsets.US_ASCII)).isEqualTo(value.toString());
+            }
+        }
+    }
+
+    @Test
+    public void formatsRepresentableDecimalsWithoutExponent() {
+        assertThat(XmlValueFormat.canFormat(new BigDecimal("0.000001"))).isTrue();
+        assertThat(XmlValueFormat.canFormat(new BigDecimal("0.0000001"))).isFalse();
+        assertThat(XmlValueFormat.canFormat(new BigDecimal("1E+3"))).isFalse();
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 9, 999, 1970, 2024, 9999})
+    public void formatsDates(int year) {
+        OffsetDateTime time = OffsetDateTime.of(year, 2, 3, 23, 59, 0, 0, ZoneOffset.ofHours(-5));
+        byte[] buffer = new byte[XmlValueFormat.DATE_LENGTH];
+        XmlValueFormat.formatDate(time, buffer, 0);
+        assertThat(new String(buffer, StandardCharsets.US_ASCII)).isEqualTo(time.format(XmlValueFormat.DATE_FORMAT));
+    }
+
+    @Test
+    public void rejectsYearsOutsideOfFourDigits() {
+        assertThat(XmlValueFormat.canFormat(OffsetDateTime.of(10000, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC))).isFalse();
+        assertThat(XmlValueFormat.canFormat(OffsetDateTime.of(0, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC))).isFalse();
+    }
+}
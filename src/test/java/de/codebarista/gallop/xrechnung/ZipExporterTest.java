@@ -0,0 +1,244 @@
+package de.codebarista.gallop.xrechnung;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that the {@link ZipExporter} writes a valid ZIP archive with the documents in the order of the batch
+ * and a manifest of their digests.
+ */
+public class ZipExporterTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void exportsInvoicesInOrder() throws IOException, InterruptedException {
+        List<Invoice> invoices = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            invoices.add(testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class)
+                    .documentId("INV-" + i));
+        }
+
+        Path file = directory.resolve("export.zip");
+        BatchResult result;
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try (OutputStream output = Files.newOutputStream(file)) {
+            result = new ZipExporter(executor, 6).export(invoices, output);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(result.isSuccessful()).isTrue();
+        assertThat(result.getRendered()).isEqualTo(40);
+        try (var zip = new ZipFile(file.toFile())) {
+            List<? extends ZipEntry> entries = Collections.list(zip.entries());
+            assertThat(entries).hasSize(41);
+            List<String> manifest = new String(zip.getInputStream(zip.getEntry(ZipExporter.MANIFEST_NAME))
+                    .readAllBytes(), StandardCharsets.UTF_8).lines().toList();
+            assertThat(manifest).hasSize(41);
+            for (int i = 0; i < 40; i++) {
+                byte[] expected = XRechnungWriter.generateXRechnungXML(invoices.get(i));
+                ZipEntry entry = entries.get(i);
+                assertThat(entry.getName()).isEqualTo("INV-" + i + ".xml");
+                assertThat(entry.getMethod()).isEqualTo(ZipEntry.DEFLATED);
+                assertThat(zip.getInputStream(entry).readAllBytes()).isEqualTo(expected);
+                String digest = XRechnungWriter.generateDigestedXRechnungXML(invoices.get(i)).getDigestHex();
+                assertThat(manifest.get(i + 1))
+                        .isEqualTo("INV-" + i + ".xml,INV-" + i + "," + digest + "," + expected.length);
+            }
+            assertThat(entries.get(40).getName()).isEqualTo(ZipExporter.MANIFEST_NAME);
+        }
+    }
+
+    @Test
+    public void recordsFailuresAndNamesEntriesUniquely() throws IOException, InterruptedException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        Invoice rejected = Invoice.create().documentId("REJECTED");
+        List<Invoice> invoices = List.of(invoice.documentId("A/1"), rejected,
+                testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class).documentId("A/1"),
+                testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class).documentId("a,\"b\""));
+
+        var output = new ByteArrayOutputStream();
+        AtomicInteger submitted = new AtomicInteger();
+        Executor executor = task -> {
+            if (submitted.incrementAndGet() == 2) {
+                throw new RejectedExecutionException("queue full");
+            }
+            task.run();
+        };
+        BatchResult result = new ZipExporter(XRechnungEngine.getDefault(), executor, 1, Deflater.NO_COMPRESSION)
+                .export(invoices, output);
+
+        assertThat(result.getRendered()).isEqualTo(3);
+        assertThat(result.getFailures()).hasSize(1);
+        assertThat(result.getFailures().get(0).getInvoice()).isSameAs(rejected);
+
+        List<String> names = new ArrayList<>();
+        String manifest = null;
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                byte[] content = zip.readAllBytes();
+                if (entry.getName().equals(ZipExporter.MANIFEST_NAME)) {
+                    manifest = new String(content, StandardCharsets.UTF_8);
+                } else {
+                    assertThat(entry.getMethod()).isEqualTo(ZipEntry.STORED);
+                }
+            }
+        }
+        assertThat(names).containsExactly("A_1.xml", "A_1-2.xml", "a__b_.xml", ZipExporter.MANIFEST_NAME);
+        assertThat(manifest).contains("\r\na__b_.xml,\"a,\"\"b\"\"\",");
+    }
+
+    @Test
+    public void writesEmptyArchive() throws IOException, InterruptedException {
+        var output = new ByteArrayOutputStream();
+        BatchResult result = new ZipExporter(Runnable::run, 1).export(List.of(), output);
+
+        assertThat(result.getRendered()).isZero();
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            assertThat(zip.getNextEntry().getName()).isEqualTo(ZipExporter.MANIFEST_NAME);
+            assertThat(zip.getNextEntry()).isNull();
+        }
+    }
+
+    @Test
+    public void recordsExceptionsAsFailures() throws IOException, InterruptedException {
+        Invoice failing = new Invoice() {
+            @Override
+            public String getDocumentId() {
+                throw new IllegalStateException("no document ID");
+            }
+        };
+        List<Invoice> invoices = List.of(
+                testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class).documentId("A"),
+                failing,
+                testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class).documentId("B"));
+
+        var output = new ByteArrayOutputStream();
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        BatchResult result;
+        try {
+            result = new ZipExporter(executor, 2).export(invoices, output);
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(result.getRendered()).isEqualTo(2);
+        assertThat(result.getFailures()).hasSize(1);
+        assertThat(result.getFailures().get(0).getInvoice()).isSameAs(failing);
+        assertThat(result.getFailures().get(0).getException()).hasMessageContaining("no document ID");
+        List<String> names = new ArrayList<>();
+        try (var zip = new ZipInputStream(new ByteArrayInputStream(output.toByteArray()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        assertThat(names).containsExactly("A.xml", "B.xml", ZipExporter.MANIFEST_NAME);
+    }
+
+    @Test
+    public void propagatesErrors() {
+        Invoice failing = new Invoice() {
+            @Override
+            public String getDocumentId() {
+                throw new StackOverflowError("too deep");
+            }
+        };
+        List<Invoice> invoices = List.of(
+                testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class).documentId("A"),
+                failing,
+                testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class).documentId("B"));
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            assertThatThrownBy(() -> new ZipExporter(executor, 2).export(invoices, new ByteArrayOutputStream()))
+                    .isInstanceOf(StackOverflowError.class).hasMessage("too deep");
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelsPendingInvoicesWhenWritingFails() throws InterruptedException {
+        AtomicInteger rendered = new AtomicInteger();
+        List<Invoice> invoices = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            invoices.add(new Invoice() {
+                @Override
+                public String getDocumentId() {
+                    rendered.incrementAndGet();
+                    return super.getDocumentId();
+                }
+            }.documentId("INV-" + i));
+        }
+        OutputStream failingOutput = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("disk full");
+            }
+        };
+        // the first invoice is rendered once the third has been submitted, the others never start
+        List<Runnable> deferred = new ArrayList<>();
+        CountDownLatch thirdSubmitted = new CountDownLatch(1);
+        AtomicInteger submitted = new AtomicInteger();
+        Executor executor = task -> {
+            int number = submitted.incrementAndGet();
+            if (number == 1) {
+                new Thread(() -> {
+                    try {
+                        thirdSubmitted.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    task.run();
+                }).start();
+            } else {
+                deferred.add(task);
+                if (number == 3) {
+                    thirdSubmitted.countDown();
+                }
+            }
+        };
+
+        assertThatThrownBy(() -> new ZipExporter(executor, 3).export(invoices, failingOutput))
+                .isInstanceOf(IOException.class)
+                .hasMessage("disk full");
+
+        int renderedBefore = rendered.get();
+        assertThat(renderedBefore).isPositive();
+        assertThat(deferred).hasSize(2);
+        deferred.forEach(Runnable::run);
+        assertThat(rendered.get()).isEqualTo(renderedBefore);
+    }
+}
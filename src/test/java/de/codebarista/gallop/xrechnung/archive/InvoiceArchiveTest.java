@@ -0,0 +1,163 @@
+package de.codebarista.gallop.xrechnung.archive;
+
+import de.codebarista.gallop.TestHelper;
+import de.codebarista.gallop.xrechnung.XRechnungWriter;
+import de.codebarista.gallop.xrechnung.model.Invoice;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * Verifies that an {@link InvoiceArchive} returns the appended documents, also after reopening and after a crash.
+ */
+public class InvoiceArchiveTest {
+    private final TestHelper testHelper = new TestHelper("invoice");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void readsAppendedDocuments() throws IOException {
+        Invoice invoice = testHelper.deserialize("order_with_paypal/invoice.json", Invoice.class);
+        byte[] expected = XRechnungWriter.generateXRechnungXML(invoice);
+
+        try (InvoiceArchive archive = InvoiceArchive.open(directory)) {
+            archive.append(invoice);
+            archive.append("Ä-2", document(2));
+
+            assertThat(archive.size()).isEqualTo(2);
+            assertThat(archive.contains(invoice.getDocumentId())).isTrue();
+            assertThat(archive.read(invoice.getDocumentId())).isEqualTo(expected);
+            assertThat(archive.read("Ä-2")).isEqualTo(document(2));
+            assertThat(archive.read("missing")).isNull();
+
+            var output = new ByteArrayOutputStream();
+            assertThat(archive.transferTo(invoice.getDocumentId(), Channels.newChannel(output)))
+                    .isEqualTo(expected.length);
+            assertThat(output.toByteArray()).isEqualTo(expected);
+            assertThat(archive.transferTo("missing", Channels.newChannel(output))).isEqualTo(-1);
+        }
+    }
+
+    @Test
+    public void keepsDocumentsAfterReopeningAndRollsOverSegments() throws IOException {
+        try (InvoiceArchive archive = InvoiceArchive.open(directory, 1000, 3)) {
+            for (int i = 0; i < 20; i++) {
+                archive.append("RE-" + i, document(i));
+            }
+            assertThat(archive.getSegmentCount()).isGreaterThan(1);
+        }
+
+        try (InvoiceArchive archive = InvoiceArchive.open(directory, 1000, 3)) {
+            assertThat(archive.size()).isEqualTo(20);
+            for (int i = 0; i < 20; i++) {
+                assertThat(archive.read("RE-" + i)).isEqualTo(document(i));
+            }
+            archive.append("RE-20", document(20));
+            assertThat(archive.read("RE-20")).isEqualTo(document(20));
+        }
+    }
+
+    @Test
+    public void recoversDocumentsMissingInIndex() throws IOException {
+        try (InvoiceArchive archive = InvoiceArchive.open(directory, 1000, 1)) {
+            for (int i = 0; i < 10; i++) {
+                archive.append("RE-" + i, document(i));
+            }
+        }
+        Files.delete(directory.resolve("index"));
+
+        try (InvoiceArchive archive = InvoiceArchive.open(directory, 1000, 1)) {
+            assertThat(archive.size()).isEqualTo(10);
+            for (int i = 0; i < 10; i++) {
+                assertThat(archive.read("RE-" + i)).isEqualTo(document(i));
+            }
+        }
+    }
+
+    @Test
+    public void removesIncompleteDocumentAtEndOfLastSegment() throws IOException {
+        try (InvoiceArchive archive = InvoiceArchive.open(directory)) {
+            archive.append("RE-1", document(1));
+            archive.append("RE-2", document(2));
+        }
+        Path segment = directory.resolve("0000000000.segment");
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            // a crash in the middle of the second document
+            channel.truncate(size - 10);
+        }
+
+        try (InvoiceArchive archive = InvoiceArchive.open(directory)) {
+            assertThat(archive.size()).isEqualTo(1);
+            assertThat(archive.read("RE-1")).isEqualTo(document(1));
+            assertThat(archive.contains("RE-2")).isFalse();
+
+            archive.append("RE-2", document(3));
+            assertThat(archive.read("RE-2")).isEqualTo(document(3));
+        }
+        try (InvoiceArchive archive = InvoiceArchive.open(directory)) {
+            assertThat(archive.size()).isEqualTo(2);
+            assertThat(archive.read("RE-2")).isEqualTo(document(3));
+        }
+    }
+
+    @Test
+    public void ignoresUnsyncedIndexEntryWithoutDocument(@TempDir Path crashed) throws IOException {
+        try (InvoiceArchive archive = InvoiceArchive.open(directory, 1 << 20, 1)) {
+            archive.append("RE-1", document(1));
+        }
+        try (InvoiceArchive archive = InvoiceArchive.open(directory, 1 << 20, 100)) {
+            archive.append("RE-2", document(2));
+            archive.append("RE-3", document(3));
+            // the state on the disk after a crash, before the archive has been synced
+            for (String file : new String[]{"index", "0000000000.segment"}) {
+                Files.copy(directory.resolve(file), crashed.resolve(file));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(crashed.resolve("0000000000.segment"),
+                StandardOpenOption.WRITE)) {
+            // the operating system wrote the index, but only zeros of the last document
+            long size = channel.size();
+            channel.write(ByteBuffer.allocate(document(3).length), size - document(3).length);
+        }
+
+        try (InvoiceArchive archive = InvoiceArchive.open(crashed)) {
+            assertThat(archive.size()).isEqualTo(2);
+            assertThat(archive.read("RE-2")).isEqualTo(document(2));
+            assertThat(archive.contains("RE-3")).isFalse();
+        }
+    }
+
+    @Test
+    public void rejectsDuplicatesSecondArchiveAndClosedArchive() throws IOException {
+        InvoiceArchive archive = InvoiceArchive.open(directory);
+        archive.append("RE-1", document(1));
+
+        assertThatThrownBy(() -> archive.append("RE-1", document(2))).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> InvoiceArchive.open(directory)).isInstanceOf(IOException.class);
+
+        archive.close();
+        assertThatThrownBy(() -> archive.read("RE-1")).isInstanceOf(IllegalStateException.class);
+        try (InvoiceArchive reopened = InvoiceArchive.open(directory)) {
+            assertThat(reopened.read("RE-1")).isEqualTo(document(1));
+        }
+    }
+
+    private static byte[] document(int number) {
+        return ("<?xml version=\"1.0\"?><rsm:CrossIndustryInvoice>" + "Rechnung Nr. " + number + " für Größe M. "
+                .repeat(number + 1) + "</rsm:CrossIndustryInvoice>").getBytes(StandardCharsets.UTF_8);
+    }
+}